@@ -0,0 +1,49 @@
+package org.solrmarc.bench;
+
+/**
+ * Something whose throughput is measured by BenchmarkRunner:  setUp() is
+ *  called once, before any measurement, and run() is then called over and
+ *  over.  Each call of run() does getOpsPerInvocation() operations (e.g. maps
+ *  each of the test records once), so that cheap operations are not swamped
+ *  by the cost of reading the clock;  results are in operations per second.
+ *
+ * run() returns something computed from the work done, which the runner
+ *  keeps, so the JIT can't drop the work as dead code.
+ */
+public abstract class Benchmark
+{
+    private final String name;
+
+    /**
+     * @param name - the name in the results, e.g. CallNumUtils.getLCShelfkey
+     */
+    protected Benchmark(String name)
+    {
+        this.name = name;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * prepare the data used by run(), outside of the measurements
+     */
+    public void setUp()
+        throws Exception
+    {
+    }
+
+    /**
+     * @return the number of operations done by each call of run()
+     */
+    public abstract int getOpsPerInvocation();
+
+    /**
+     * do getOpsPerInvocation() operations
+     * @return something computed from the results of the operations
+     */
+    public abstract Object run()
+        throws Exception;
+}
@@ -0,0 +1,199 @@
+package org.solrmarc.bench;
+
+import java.io.*;
+import java.util.*;
+
+import org.marc4j.*;
+import org.marc4j.marc.*;
+
+/**
+ * The data the benchmarks run over:  the MARC records of the site test
+ *  fixtures (the .mrc files in bench.data.path), and values taken from them.
+ *  The files are read once and shared by the benchmarks.
+ */
+public class BenchmarkData
+{
+    /** encoding of the fixtures that don't say they are UTF-8 */
+    static final String DEFAULT_ENCODING = "MARC8";
+
+    private static List<File> marcFiles = null;
+    private static List<byte[]> fileBytes = null;
+    private static List<Record> records = null;
+
+    private BenchmarkData()
+    {
+    }
+
+    /**
+     * @return the directory of SolrMarc core, with its translation maps
+     */
+    public static String getCorePath()
+    {
+        return System.getProperty("solrmarc.path", "core");
+    }
+
+    /**
+     * @return the directory of the site, with its index properties and
+     *  translation maps
+     */
+    public static String getSitePath()
+    {
+        return System.getProperty("solrmarc.site.path", "stanford-sw");
+    }
+
+    /**
+     * @return the directory of the .mrc files the benchmarks run over
+     */
+    public static String getDataPath()
+    {
+        String result = System.getProperty("bench.data.path");
+        if (result == null)
+            result = getSitePath() + File.separator + "test" + File.separator + "data";
+        return result;
+    }
+
+    /**
+     * @return the .mrc files that can be read without errors, in name order
+     */
+    public static synchronized List<File> getMarcFiles()
+        throws IOException
+    {
+        if (marcFiles == null)
+            readFiles();
+        return marcFiles;
+    }
+
+    /**
+     * @return the contents of the files of getMarcFiles()
+     */
+    public static synchronized List<byte[]> getFileBytes()
+        throws IOException
+    {
+        if (fileBytes == null)
+            readFiles();
+        return fileBytes;
+    }
+
+    /**
+     * @return the records of all the files of getMarcFiles()
+     */
+    public static synchronized List<Record> getRecords()
+        throws IOException
+    {
+        if (records == null)
+            readFiles();
+        return records;
+    }
+
+    /**
+     * @return a reader of the records in the bytes, as MarcHandler reads
+     *  binary files by default
+     */
+    public static MarcReader getReader(byte bytes[])
+    {
+        return new MarcPermissiveStreamReader(new ByteArrayInputStream(bytes), new ErrorHandler(), true, DEFAULT_ENCODING);
+    }
+
+    /**
+     * @return the values of the subfield of the fields with the tag in the
+     *  records, e.g. the call numbers (999a) of the items
+     */
+    public static List<String> getSubfieldValues(String tag, char code)
+        throws IOException
+    {
+        List<String> result = new ArrayList<String>();
+        for (Record record : getRecords())
+        {
+            for (Object field : record.getVariableFields(tag))
+            {
+                if (!(field instanceof DataField))
+                    continue;
+                for (Object subfield : ((DataField) field).getSubfields(code))
+                    result.add(((Subfield) subfield).getData());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the call numbers of the items (999a) whose scheme (999w) is the
+     *  one given, e.g. LC
+     */
+    public static List<String> getItemCallnums(String scheme)
+        throws IOException
+    {
+        List<String> result = new ArrayList<String>();
+        for (Record record : getRecords())
+        {
+            for (Object field : record.getVariableFields("999"))
+            {
+                if (!(field instanceof DataField))
+                    continue;
+                DataField item = (DataField) field;
+                Subfield callnum = item.getSubfield('a');
+                Subfield callnumScheme = item.getSubfield('w');
+                if (callnum != null && callnumScheme != null && callnumScheme.getData().trim().equals(scheme))
+                    result.add(callnum.getData().trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * read the records of the .mrc files, leaving out the files that can't be
+     *  read without errors (some fixtures are broken on purpose)
+     */
+    private static void readFiles()
+        throws IOException
+    {
+        File dataDir = new File(getDataPath());
+        File files[] = dataDir.listFiles(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(".mrc");
+            }
+        });
+        if (files == null)
+            throw new FileNotFoundException("no directory of benchmark data: " + dataDir.getPath());
+        Arrays.sort(files);
+
+        marcFiles = new ArrayList<File>();
+        fileBytes = new ArrayList<byte[]>();
+        records = new ArrayList<Record>();
+        for (File file : files)
+        {
+            byte bytes[] = readBytes(file);
+            List<Record> fileRecords = new ArrayList<Record>();
+            try
+            {
+                MarcReader reader = getReader(bytes);
+                while (reader.hasNext())
+                    fileRecords.add(reader.next());
+            }
+            catch (MarcException e)
+            {
+                continue;
+            }
+            marcFiles.add(file);
+            fileBytes.add(bytes);
+            records.addAll(fileRecords);
+        }
+    }
+
+    private static byte[] readBytes(File file)
+        throws IOException
+    {
+        byte result[] = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            in.readFully(result);
+        }
+        finally
+        {
+            in.close();
+        }
+        return result;
+    }
+}
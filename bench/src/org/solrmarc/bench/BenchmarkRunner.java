@@ -0,0 +1,273 @@
+package org.solrmarc.bench;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks and writes their throughput (operations per second) as
+ *  JSON, in the layout JMH uses for its results, so runs for different
+ *  releases can be compared with the tools that read JMH results.
+ *
+ * Like JMH, each benchmark is run for a number of warmup iterations, so the
+ *  code is compiled before it is measured, and then for a number of measured
+ *  iterations of a fixed time each;  the score is the mean of the measured
+ *  iterations, and the error is the half width of its 99.9% confidence
+ *  interval.  The benchmarks are all run in the JVM of the runner, one after
+ *  the other.
+ *
+ * Usage:  BenchmarkRunner resultsFile [benchmarkNamePattern]
+ *   resultsFile - the JSON file written
+ *   benchmarkNamePattern - regular expression found in the names of the
+ *     benchmarks to be run;  all are run if absent
+ * System properties (defaults in parentheses):
+ *   bench.warmup.iterations (5), bench.iterations (5),
+ *   bench.iteration.millis (1000), and those of BenchmarkData
+ */
+public class BenchmarkRunner
+{
+    /** 99.95% quantiles of the t distribution by degrees of freedom, for a two-sided 99.9% interval */
+    private static final double T_QUANTILES[] = {Double.NaN, 636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+                                                 4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+                                                 3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646};
+    /** the quantile for more degrees of freedom than are in the table */
+    private static final double NORMAL_QUANTILE = 3.291;
+
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationMillis;
+
+    /** the results of run(), kept so the work isn't optimized away */
+    private volatile Object sink;
+
+    public BenchmarkRunner(int warmupIterations, int iterations, long iterationMillis)
+    {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * @return all the benchmarks, in the order they are run
+     */
+    public static List<Benchmark> getBenchmarks()
+    {
+        List<Benchmark> result = new ArrayList<Benchmark>();
+        result.add(new ReaderBenchmark(false));
+        result.add(new ReaderBenchmark(true));
+        result.add(new FieldListBenchmark());
+        result.add(new RemapBenchmark());
+        result.add(new ShelfkeyBenchmark(false, true));
+        result.add(new ShelfkeyBenchmark(false, false));
+        result.add(new ShelfkeyBenchmark(true, true));
+        result.add(new ShelfkeyBenchmark(true, false));
+        result.add(new NaturalCompareBenchmark());
+        result.add(new MappingBenchmark());
+        return result;
+    }
+
+    /**
+     * set up the benchmark, run its warmup iterations, then measure it
+     * @return the scores of the measured iterations, in operations per second
+     */
+    public double[] measure(Benchmark benchmark)
+        throws Exception
+    {
+        benchmark.setUp();
+        System.gc();
+        for (int i = 1; i <= warmupIterations; i++)
+            System.out.println(String.format("# Warmup Iteration %3d: %.3f ops/s", i, runIteration(benchmark)));
+        double result[] = new double[iterations];
+        for (int i = 0; i < iterations; i++)
+        {
+            result[i] = runIteration(benchmark);
+            System.out.println(String.format("Iteration %3d: %.3f ops/s", i + 1, result[i]));
+        }
+        return result;
+    }
+
+    /**
+     * run the benchmark over and over for the iteration time
+     * @return operations per second
+     */
+    private double runIteration(Benchmark benchmark)
+        throws Exception
+    {
+        long opsPerInvocation = benchmark.getOpsPerInvocation();
+        long numOps = 0;
+        long start = System.nanoTime();
+        long end = start + iterationMillis * 1000000L;
+        long now;
+        do
+        {
+            sink = benchmark.run();
+            numOps += opsPerInvocation;
+            now = System.nanoTime();
+        }
+        while (now < end);
+        return numOps * 1e9 / (now - start);
+    }
+
+    public static double mean(double values[])
+    {
+        double sum = 0;
+        for (double value : values)
+            sum += value;
+        return sum / values.length;
+    }
+
+    /**
+     * @return the half width of the 99.9% confidence interval of the mean of
+     *  the values, or NaN if there is only one value
+     */
+    public static double error(double values[])
+    {
+        int num = values.length;
+        if (num < 2)
+            return Double.NaN;
+        double mean = mean(values);
+        double sumSquares = 0;
+        for (double value : values)
+            sumSquares += (value - mean) * (value - mean);
+        double stdDev = Math.sqrt(sumSquares / (num - 1));
+        int degreesOfFreedom = num - 1;
+        double quantile = degreesOfFreedom < T_QUANTILES.length ? T_QUANTILES[degreesOfFreedom] : NORMAL_QUANTILE;
+        return quantile * stdDev / Math.sqrt(num);
+    }
+
+    /**
+     * @return the results as JSON, in the layout of JMH results
+     * @param results - benchmark name -> scores of the measured iterations
+     */
+    public String toJson(Map<String, double[]> results)
+    {
+        StringBuilder json = new StringBuilder("[\n");
+        int i = 0;
+        for (Map.Entry<String, double[]> entry : results.entrySet())
+        {
+            double scores[] = entry.getValue();
+            double score = mean(scores);
+            double error = error(scores);
+            json.append("    {\n");
+            json.append("        \"benchmark\" : ").append(quote(entry.getKey())).append(",\n");
+            json.append("        \"mode\" : \"thrpt\",\n");
+            json.append("        \"threads\" : 1,\n");
+            json.append("        \"forks\" : 0,\n");
+            json.append("        \"jvm\" : ").append(quote(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java")).append(",\n");
+            json.append("        \"jdkVersion\" : ").append(quote(System.getProperty("java.version"))).append(",\n");
+            json.append("        \"vmName\" : ").append(quote(System.getProperty("java.vm.name"))).append(",\n");
+            json.append("        \"warmupIterations\" : ").append(warmupIterations).append(",\n");
+            json.append("        \"warmupTime\" : \"").append(iterationMillis).append(" ms\",\n");
+            json.append("        \"measurementIterations\" : ").append(iterations).append(",\n");
+            json.append("        \"measurementTime\" : \"").append(iterationMillis).append(" ms\",\n");
+            json.append("        \"primaryMetric\" : {\n");
+            json.append("            \"score\" : ").append(number(score)).append(",\n");
+            json.append("            \"scoreError\" : ").append(number(error)).append(",\n");
+            json.append("            \"scoreConfidence\" : [\n");
+            json.append("                ").append(number(score - error)).append(",\n");
+            json.append("                ").append(number(score + error)).append("\n");
+            json.append("            ],\n");
+            json.append("            \"scoreUnit\" : \"ops/s\",\n");
+            json.append("            \"rawData\" : [\n");
+            json.append("                [\n");
+            for (int j = 0; j < scores.length; j++)
+                json.append("                    ").append(number(scores[j])).append(j < scores.length - 1 ? ",\n" : "\n");
+            json.append("                ]\n");
+            json.append("            ]\n");
+            json.append("        },\n");
+            json.append("        \"secondaryMetrics\" : {\n");
+            json.append("        }\n");
+            json.append(++i < results.size() ? "    },\n" : "    }\n");
+        }
+        json.append("]\n");
+        return json.toString();
+    }
+
+    private static String number(double value)
+    {
+        // JSON has no NaN
+        return Double.isNaN(value) ? "\"NaN\"" : String.valueOf(value);
+    }
+
+    private static String quote(String value)
+    {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                result.append('\\').append(c);
+            else if (c < 0x20)
+                result.append(String.format("\\u%04x", (int) c));
+            else
+                result.append(c);
+        }
+        return result.append('"').toString();
+    }
+
+    public static void main(String args[])
+        throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: BenchmarkRunner resultsFile [benchmarkNamePattern]");
+            System.exit(1);
+        }
+        String resultsFilename = args[0];
+        Pattern include = args.length > 1 && args[1].length() > 0 ? Pattern.compile(args[1]) : null;
+        BenchmarkRunner runner = new BenchmarkRunner(Integer.parseInt(System.getProperty("bench.warmup.iterations", "5")),
+                                                     Integer.parseInt(System.getProperty("bench.iterations", "5")),
+                                                     Long.parseLong(System.getProperty("bench.iteration.millis", "1000")));
+
+        // the indexing code reports problems with the test records on stderr
+        PrintStream stderr = System.err;
+        System.setErr(new PrintStream(new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+            }
+
+            @Override
+            public void write(byte b[], int off, int len)
+            {
+            }
+        }));
+
+        Map<String, double[]> results = new LinkedHashMap<String, double[]>();
+        try
+        {
+            for (Benchmark benchmark : getBenchmarks())
+            {
+                if (include != null && !include.matcher(benchmark.getName()).find())
+                    continue;
+                System.out.println("# Benchmark: " + benchmark.getName());
+                results.put(benchmark.getName(), runner.measure(benchmark));
+                System.out.println();
+            }
+        }
+        finally
+        {
+            System.setErr(stderr);
+        }
+
+        System.out.println(String.format("%-45s %5s %3s %15s %12s %6s", "Benchmark", "Mode", "Cnt", "Score", "Error", "Units"));
+        for (Map.Entry<String, double[]> entry : results.entrySet())
+            System.out.println(String.format("%-45s %5s %3d %15.3f +- %10.3f %6s", entry.getKey(), "thrpt", entry.getValue().length,
+                                             mean(entry.getValue()), error(entry.getValue()), "ops/s"));
+
+        File resultsFile = new File(resultsFilename);
+        if (resultsFile.getParentFile() != null)
+            resultsFile.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(resultsFile), "UTF-8");
+        try
+        {
+            out.write(runner.toJson(results));
+        }
+        finally
+        {
+            out.close();
+        }
+        System.out.println("Results written to " + resultsFilename);
+    }
+}
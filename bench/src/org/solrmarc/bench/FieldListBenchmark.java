@@ -0,0 +1,55 @@
+package org.solrmarc.bench;
+
+import java.util.List;
+
+import org.marc4j.marc.Record;
+import org.solrmarc.tools.MarcUtils;
+
+/**
+ * Getting field values from records by tag and subfield specification:
+ *  MarcUtils.getFieldList() with a few specifications like those of the
+ *  Stanford index properties, on each of the test records.
+ */
+public class FieldListBenchmark extends Benchmark
+{
+    private static final String TAG_STRS[] = {
+        "100abcdq:110abcdgnu:111acdegjnqu",
+        "245abfgknps",
+        "600abcdq:610ab:611ab:630a:650a:651a",
+        "008[7-10]:008[11-14]",
+        "020a:020z",
+        "999a",
+    };
+
+    private List<Record> records;
+
+    public FieldListBenchmark()
+    {
+        super("MarcUtils.getFieldList");
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        records = BenchmarkData.getRecords();
+    }
+
+    @Override
+    public int getOpsPerInvocation()
+    {
+        return records.size() * TAG_STRS.length;
+    }
+
+    @Override
+    public Object run()
+    {
+        int numValues = 0;
+        for (Record record : records)
+        {
+            for (String tagStr : TAG_STRS)
+                numValues += MarcUtils.getFieldList(record, tagStr).size();
+        }
+        return numValues;
+    }
+}
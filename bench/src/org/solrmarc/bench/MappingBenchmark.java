@@ -0,0 +1,70 @@
+package org.solrmarc.bench;
+
+import java.io.File;
+import java.util.*;
+
+import org.marc4j.marc.Record;
+import org.solrmarc.tools.SolrMarcIndexerException;
+
+import edu.stanford.StanfordIndexer;
+
+/**
+ * Mapping whole records to Solr field names and values with the Stanford
+ *  index specifications:  StanfordIndexer.createFldNames2ValsMap() on each of
+ *  the test records.
+ */
+public class MappingBenchmark extends Benchmark
+{
+    private StanfordIndexer indexer;
+    private List<Record> records;
+
+    public MappingBenchmark()
+    {
+        super("StanfordIndexer.createFldNames2ValsMap");
+    }
+
+    /**
+     * @return a StanfordIndexer using the site index properties and
+     *  translation maps, as MarcImporter loads it
+     */
+    static StanfordIndexer newStanfordIndexer()
+        throws Exception
+    {
+        String site = BenchmarkData.getSitePath();
+        String core = BenchmarkData.getCorePath();
+        String searchPath[] = {site, site + File.separator + "translation_maps", core, core + File.separator + "translation_maps"};
+        return new StanfordIndexer("sw_index.properties", searchPath);
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        indexer = newStanfordIndexer();
+        records = BenchmarkData.getRecords();
+    }
+
+    @Override
+    public int getOpsPerInvocation()
+    {
+        return records.size();
+    }
+
+    @Override
+    public Object run()
+    {
+        int numValues = 0;
+        for (Record record : records)
+        {
+            try
+            {
+                numValues += indexer.createFldNames2ValsMap(record).size();
+            }
+            catch (SolrMarcIndexerException e)
+            {
+                // records purposely not indexed, e.g. with skipped locations
+            }
+        }
+        return numValues;
+    }
+}
@@ -0,0 +1,48 @@
+package org.solrmarc.bench;
+
+import java.util.List;
+
+import org.solrmarc.tools.StringNaturalCompare;
+
+/**
+ * Comparing call numbers in natural order:  StringNaturalCompare.compare()
+ *  of each call number (999a) of the test records with another one.
+ */
+public class NaturalCompareBenchmark extends Benchmark
+{
+    private final StringNaturalCompare comparator = new StringNaturalCompare();
+    private String values[];
+
+    public NaturalCompareBenchmark()
+    {
+        super("StringNaturalCompare.compare");
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        List<String> callnums = BenchmarkData.getSubfieldValues("999", 'a');
+        values = callnums.toArray(new String[callnums.size()]);
+    }
+
+    @Override
+    public int getOpsPerInvocation()
+    {
+        return values.length;
+    }
+
+    @Override
+    public Object run()
+    {
+        int numLess = 0;
+        int num = values.length;
+        for (int i = 0; i < num; i++)
+        {
+            // compare with call numbers from elsewhere in the list, not just the next one
+            if (comparator.compare(values[i], values[(i * 7 + 1) % num]) < 0)
+                numLess++;
+        }
+        return numLess;
+    }
+}
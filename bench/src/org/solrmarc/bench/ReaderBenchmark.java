@@ -0,0 +1,65 @@
+package org.solrmarc.bench;
+
+import java.io.File;
+import java.util.List;
+
+import org.marc4j.ErrorHandler;
+import org.marc4j.MarcReader;
+import org.solrmarc.marc.MarcMappedFileReader;
+
+/**
+ * Reading and decoding binary MARC records:  all the records of the test
+ *  files, either with MarcPermissiveStreamReader from the bytes of the files
+ *  (so the disk isn't measured), or with MarcMappedFileReader from the files.
+ */
+public class ReaderBenchmark extends Benchmark
+{
+    private final boolean mapped;
+    private List<File> files;
+    private List<byte[]> fileBytes;
+    private int numRecords;
+
+    /**
+     * @param mapped - true to read with MarcMappedFileReader
+     */
+    public ReaderBenchmark(boolean mapped)
+    {
+        super(mapped ? "MarcMappedFileReader.next" : "MarcPermissiveStreamReader.next");
+        this.mapped = mapped;
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        files = BenchmarkData.getMarcFiles();
+        fileBytes = BenchmarkData.getFileBytes();
+        numRecords = BenchmarkData.getRecords().size();
+    }
+
+    @Override
+    public int getOpsPerInvocation()
+    {
+        return numRecords;
+    }
+
+    @Override
+    public Object run()
+        throws Exception
+    {
+        int numFields = 0;
+        for (int i = 0; i < files.size(); i++)
+        {
+            MarcReader reader;
+            if (mapped)
+                reader = new MarcMappedFileReader(files.get(i).getPath(), new ErrorHandler(), true, true, BenchmarkData.DEFAULT_ENCODING);
+            else
+                reader = BenchmarkData.getReader(fileBytes.get(i));
+            while (reader.hasNext())
+                numFields += reader.next().getVariableFields().size();
+            if (mapped)
+                ((MarcMappedFileReader) reader).close();
+        }
+        return numFields;
+    }
+}
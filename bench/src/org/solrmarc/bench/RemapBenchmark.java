@@ -0,0 +1,66 @@
+package org.solrmarc.bench;
+
+import java.util.*;
+
+import org.solrmarc.index.SolrIndexer;
+import org.solrmarc.tools.Utils;
+
+/**
+ * Translating field values with translation maps as loaded by the indexer:
+ *  Utils.remap() of the language codes (041a) with language_map and of the
+ *  LCCNs (010a) with the lccn pattern map, from the test records.
+ */
+public class RemapBenchmark extends Benchmark
+{
+    private Map<String, String> languageMap;
+    private Map<String, String> lccnMap;
+    private List<String> languages;
+    private List<String> lccns;
+
+    public RemapBenchmark()
+    {
+        super("Utils.remap");
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        SolrIndexer indexer = MappingBenchmark.newStanfordIndexer();
+        languageMap = getMap(indexer, "language_map");
+        lccnMap = getMap(indexer, "pattern_map.lccn");
+        languages = BenchmarkData.getSubfieldValues("041", 'a');
+        lccns = BenchmarkData.getSubfieldValues("010", 'a');
+    }
+
+    private static Map<String, String> getMap(SolrIndexer indexer, String mapName)
+    {
+        Map<String, String> result = indexer.findTranslationMap(mapName);
+        if (result == null)
+            throw new IllegalStateException("no translation map " + mapName + " in the index properties");
+        return result;
+    }
+
+    @Override
+    public int getOpsPerInvocation()
+    {
+        return languages.size() + lccns.size();
+    }
+
+    @Override
+    public Object run()
+    {
+        int numMapped = 0;
+        for (String language : languages)
+        {
+            if (Utils.remap(language, languageMap, true) != null)
+                numMapped++;
+        }
+        for (String lccn : lccns)
+        {
+            if (Utils.remap(lccn, lccnMap, true) != null)
+                numMapped++;
+        }
+        return numMapped;
+    }
+}
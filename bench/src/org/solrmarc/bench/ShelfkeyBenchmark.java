@@ -0,0 +1,66 @@
+package org.solrmarc.bench;
+
+import java.util.*;
+
+import org.solrmarc.tools.BoundedCache;
+import org.solrmarc.tools.CallNumUtils;
+
+/**
+ * Computing shelfkeys of the valid LC call numbers of the items of the test
+ *  records:  CallNumUtils.getLCShelfkey(), or getReverseShelfKey() of their
+ *  shelfkeys.  These are cached;  the uncached variants clear the caches
+ *  before each pass over the call numbers, so they measure the computation.
+ */
+public class ShelfkeyBenchmark extends Benchmark
+{
+    private final boolean reverse;
+    private final boolean cached;
+    private List<String> values;
+
+    /**
+     * @param reverse - true for getReverseShelfKey(), false for getLCShelfkey()
+     * @param cached - false to clear the caches before each pass
+     */
+    public ShelfkeyBenchmark(boolean reverse, boolean cached)
+    {
+        super("CallNumUtils." + (reverse ? "getReverseShelfKey" : "getLCShelfkey") + (cached ? "" : ".uncached"));
+        this.reverse = reverse;
+        this.cached = cached;
+    }
+
+    @Override
+    public void setUp()
+        throws Exception
+    {
+        values = new ArrayList<String>();
+        for (String callnum : BenchmarkData.getItemCallnums("LC"))
+        {
+            // as the indexer does, only valid LC call numbers get LC shelfkeys
+            if (CallNumUtils.isValidLC(callnum))
+                values.add(reverse ? CallNumUtils.getLCShelfkey(callnum, null) : callnum);
+        }
+    }
+
+    @Override
+    public int getOpsPerInvocation()
+    {
+        return values.size();
+    }
+
+    @Override
+    public Object run()
+    {
+        if (!cached)
+        {
+            for (BoundedCache<?, ?> cache : BoundedCache.getCaches())
+                cache.clear();
+        }
+        int totalLength = 0;
+        for (String value : values)
+        {
+            String key = reverse ? CallNumUtils.getReverseShelfKey(value) : CallNumUtils.getLCShelfkey(value, null);
+            totalLength += key.length();
+        }
+        return totalLength;
+    }
+}
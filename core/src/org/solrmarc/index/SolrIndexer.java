@@ -21,6 +21,7 @@ import java.io.*;
 import java.lang.reflect.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.*;
 
 import org.apache.log4j.Logger;
@@ -43,6 +44,9 @@ public class SolrIndexer
     /** map: keys are solr field names, values inform how to get solr field values */
     private Map<String, String[]> fieldMap = null;
 
+    /** the index specifications in fieldMap, compiled into the steps run for each record */
+    private List<IndexStep> indexPlan = Collections.emptyList();
+
     /** map of translation maps.  keys are names of translation maps;
      *  values are the translation maps (hence, it's a map of maps) */
     private Map<String, Map<String, String>> transMapMap = null;
@@ -64,6 +68,12 @@ public class SolrIndexer
     /** Error Handler used for reporting errors */
     protected ErrorHandler errors;
 
+    /** timers for mapping records and indexing their fields (see IndexTimings) */
+    private static final IndexTimings.Timer mapTimer = IndexTimings.getTimer(IndexTimings.STAGE, IndexTimings.MAP);
+    private static final IndexTimings.Timer indexRecordTimer = IndexTimings.getTimer(IndexTimings.RECORD_INIT, "IndexedRecord.index");
+    /** timer for perRecordInit of this indexer's class;  made when first used */
+    private IndexTimings.Timer perRecordInitTimer = null;
+
     // Initialize logging category
     protected static Logger logger = Logger.getLogger(MarcImporter.class.getName());
 
@@ -74,7 +84,8 @@ public class SolrIndexer
     private SolrIndexer()
     {
         fieldMap = new HashMap<String, String[]>();
-        transMapMap = new HashMap<String, Map<String, String>>();
+        // shared with indexers for other threads, which may load maps from custom methods
+        transMapMap = new ConcurrentHashMap<String, Map<String, String>>();
         customMethodMap = new HashMap<String, Method>();
         customMixinMap = new HashMap<String, SolrIndexerMixin>();
         indexDate = new Date();
@@ -102,6 +113,77 @@ public class SolrIndexer
         }
     }
 
+    /**
+     * Constructor for an indexer sharing the configuration of an existing
+     *  indexer:  the index specifications and custom methods are shared, read
+     *  only, rather than loaded again.  Translation maps are shared too;  maps
+     *  loaded later (e.g. by custom methods) become visible to both indexers.
+     *  Mixins are created anew, as they may keep per-record state.
+     * Subclasses keeping per-record state in instance variables should
+     *  provide a public constructor taking an instance of the subclass that
+     *  calls this one, so newThreadIndexer() can make copies for other threads.
+     * @param indexerToShare - the indexer whose configuration is shared
+     */
+    protected SolrIndexer(SolrIndexer indexerToShare)
+    {
+        fieldMap = Collections.unmodifiableMap(indexerToShare.fieldMap);
+        indexPlan = indexerToShare.indexPlan;
+        transMapMap = indexerToShare.transMapMap;
+        customMethodMap = Collections.unmodifiableMap(indexerToShare.customMethodMap);
+        indexDate = indexerToShare.indexDate;
+        propertyFilePaths = indexerToShare.propertyFilePaths;
+
+        customMixinMap = new HashMap<String, SolrIndexerMixin>();
+        for (String className : indexerToShare.customMixinMap.keySet())
+        {
+            SolrIndexerMixin mixinToShare = indexerToShare.customMixinMap.get(className);
+            try
+            {
+                SolrIndexerMixin instance = mixinToShare.getClass().getConstructor().newInstance((Object[])null);
+                instance.setMainIndexer(this);
+                customMixinMap.put(className, instance);
+            }
+            catch (Exception e)
+            {
+                logger.error("Unable to create another instance of indexer mixin class " + className);
+                throw new IllegalArgumentException("Unable to create another instance of indexer mixin class " + className, e);
+            }
+        }
+    }
+
+    /**
+     * Create an indexer for use by another thread:  it shares this indexer's
+     *  configuration (see SolrIndexer(SolrIndexer)) but has its own
+     *  per-record state, so the two can map records at the same time.
+     * @return the new indexer, or null if this indexer's class has no public
+     *  constructor taking an instance of the class
+     */
+    public SolrIndexer newThreadIndexer()
+    {
+        if (getClass().equals(SolrIndexer.class))
+            return new SolrIndexer(this);
+        try
+        {
+            Constructor<? extends SolrIndexer> constructor = getClass().getConstructor(getClass());
+            return constructor.newInstance(this);
+        }
+        catch (NoSuchMethodException e)
+        {
+            logger.warn("Indexer class " + getClass().getName() + " has no constructor taking an instance of the class; unable to share its configuration");
+            return null;
+        }
+        catch (InvocationTargetException e)
+        {
+            logger.error("Unable to create indexer for thread: " + e.getTargetException().getMessage(), e.getTargetException());
+            return null;
+        }
+        catch (Exception e)
+        {
+            logger.error("Unable to create indexer for thread: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
     /* A constructor that takes an INDEXER Properties object, and a search
      * path (possibly empty). This is used by SolrMarc tests, may not
      * work as you might expect right in actual program use, not sure.
@@ -321,6 +403,7 @@ public class SolrIndexer
 
         // verify that fieldMap is valid
         verifyCustomMethodsAndTransMaps();
+        compileIndexPlan();
     }
 
     /**
@@ -573,6 +656,12 @@ public class SolrIndexer
      */
     private void loadTranslationMapValues(Properties transProps, String mapName, String mapKeyPrefix)
     {
+        // fill a new map before adding it, as other threads may be looking for it
+        Map<String, String> valueMap = new LinkedHashMap<String, String>();
+        Map<String, String> existingMap = transMapMap.get(mapName);
+        if (existingMap != null)
+            valueMap.putAll(existingMap);
+
         Enumeration<?> en = transProps.propertyNames();
         while (en.hasMoreElements())
         {
@@ -587,18 +676,13 @@ public class SolrIndexer
                 if (value.equals("null"))
                     value = null;
 
-                Map<String, String> valueMap;
-                if (transMapMap.containsKey(mapName))
-                    valueMap = transMapMap.get(mapName);
-                else
-                {
-                    valueMap = new LinkedHashMap<String, String>();
-                    transMapMap.put(mapName, valueMap);
-                }
-
                 valueMap.put(mapKey, value);
             }
         }
+
+        // patterns are compiled, and defaults looked up, once here rather than for each value mapped
+        if (!valueMap.isEmpty() && !valueMap.equals(existingMap))
+            transMapMap.put(mapName, new TranslationMap(valueMap));
     }
 
     /**
@@ -616,90 +700,47 @@ public class SolrIndexer
      */
     public Map<String, Object> createFldNames2ValsMap(Record record, ErrorHandler errors)
     {
+        return createFldNames2ValsMap(record, errors, null);
+    }
+
+    /**
+     * Given a record, return a Map of the passed solr fields (keys are field
+     * names, values are an Object containing the values (a Set or a String)).
+     * Only the index specifications for those fields are run, and those of
+     * custom methods returning a Map (whose keys are the fields they add, not
+     * the field of the specification), keeping only the wanted fields.
+     * @param fieldNames - the solr fields wanted;  all fields if null
+     */
+    public Map<String, Object> createFldNames2ValsMap(Record record, ErrorHandler errors, Set<String> fieldNames)
+    {
+        long mapStart = IndexTimings.start();
         this.errors = errors;
-        perRecordInitMaster(record);
+        record = perRecordInitMaster(record);
         Map<String, Object> fldNames2ValsMap = new HashMap<String, Object>();
 
-        for (String key : fieldMap.keySet())
+        for (IndexStep step : indexPlan)
         {
-            String fieldVal[] = fieldMap.get(key);
-            String indexField = fieldVal[0];
-            String indexType = fieldVal[1];
-            String indexParm = fieldVal[2];
-            String mapName = fieldVal[3];
-
-            if (indexType.equals("constant"))
-            {
-                if (indexParm.contains("|"))
-                {
-                    String parts[] = indexParm.split("[|]");
-                    Set<String> result = new LinkedHashSet<String>();
-                    result.addAll(Arrays.asList(parts));
-                    // if a zero length string appears, remove it
-                    result.remove("");
-                    addFieldsToMap(fldNames2ValsMap, indexField, null, result);
-                }
-                else
-                    addFieldToMap(fldNames2ValsMap, indexField, indexParm);
-            }
-            else if (indexType.equals("first"))
-                addFieldToMap(fldNames2ValsMap, indexField, getFirstFieldVal(record, mapName, indexParm));
-            else if (indexType.equals("all"))
-                addFieldsToMap(fldNames2ValsMap, indexField, mapName, MarcUtils.getFieldList(record, indexParm));
-            else if (indexType.equals("DeleteRecordIfFieldEmpty"))
+            if (fieldNames == null || fieldNames.contains(step.indexField))
             {
-                Set<String> fields = MarcUtils.getFieldList(record, indexParm);
-                if (mapName != null && findTranslationMap(mapName) != null)
-                    fields = Utils.remap(fields, findTranslationMap(mapName), true);
-
-                if (fields.size() != 0)
-                    addFieldsToMap(fldNames2ValsMap, indexField, null, fields);
-                else  // no entries produced for field => generate no record in Solr
-                    throw new SolrMarcIndexerException(SolrMarcIndexerException.DELETE,
-                                                    "Index specification: "+ indexField +" says this record should be deleted.");
-            }
-            else if (indexType.startsWith("join"))
-            {
-                String joinChar = " ";
-                if (indexType.contains("(") && indexType.endsWith(")"))
-                    joinChar = indexType.replace("join(", "").replace(")", "");
-                addFieldToMap(fldNames2ValsMap, indexField, MarcUtils.getFieldVals(record, indexParm, joinChar));
-            }
-            else if (indexType.equals("std"))
-            {
-                if (indexParm.equals("era"))
-                    addFieldsToMap(fldNames2ValsMap, indexField, mapName, MarcUtils.getEra(record));
-                else
-                    addFieldToMap(fldNames2ValsMap, indexField, getStd(record, indexParm));
+                long start = IndexTimings.start();
+                long lazyInitStart = IndexTimings.lazyInitNanos();
+                step.addValues(this, record, fldNames2ValsMap);
+                step.timer.stopWithoutLazyInit(start, lazyInitStart);
             }
-            else if (indexType.startsWith("custom"))
+            else if (step.addsMapFields())
             {
-                try {
-                    handleCustom(fldNames2ValsMap, indexType, indexField, mapName, record, indexParm);
-                }
-                catch(SolrMarcIndexerException e)
-                {
-                    String recCntlNum = null;
-                    try {
-                        recCntlNum = record.getControlNumber();
-                    }
-                    catch (NullPointerException npe) { /* ignore */ }
-
-                    if (e.getLevel() == SolrMarcIndexerException.DELETE)
-                    {
-                        throw new SolrMarcIndexerException(SolrMarcIndexerException.DELETE,
-                                "Record " + (recCntlNum != null ? recCntlNum : "") + " purposely not indexed because " + key + " field is empty");
-//                      logger.error("Record " + (recCntlNum != null ? recCntlNum : "") + " not indexed because " + key + " field is empty -- " + e.getMessage(), e);
-                    }
-                    else
-                    {
-                        logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + " due to field " + key + " -- " + e.getMessage(), e);
-                        throw(e);
-                    }
-                }
+                Map<String, Object> stepMap = new HashMap<String, Object>();
+                long start = IndexTimings.start();
+                long lazyInitStart = IndexTimings.lazyInitNanos();
+                step.addValues(this, record, stepMap);
+                step.timer.stopWithoutLazyInit(start, lazyInitStart);
+                stepMap.keySet().retainAll(fieldNames);
+                fldNames2ValsMap.putAll(stepMap);
             }
         }
+
         this.errors = null;
+        mapTimer.stop(mapStart);
         return fldNames2ValsMap;
     }
 
@@ -708,17 +749,33 @@ public class SolrIndexer
      * to be done once for each record, and which may be needed by several indexing specifications.  Basically all
      * this method does is call the override-able method perRecordInit for the SolrIndexer class, and the perRecordInit
      * methods of any SolrIndexerMixin that are in use.
+     * It also indexes the fields of the record by tag (see IndexedRecord), so
+     * the indexing specifications and custom methods don't each scan all the
+     * fields of the record.
      *
      * @param record -  The MARC record that is being indexed.
+     * @return the record with its fields indexed, to be passed to the indexing specifications
      */
-    private final void perRecordInitMaster(Record record)
+    private final Record perRecordInitMaster(Record record)
     {
+        long start = IndexTimings.start();
+        record = IndexedRecord.index(record);
+        indexRecordTimer.stop(start);
+
+        if (perRecordInitTimer == null)
+            perRecordInitTimer = IndexTimings.getTimer(IndexTimings.RECORD_INIT, getClass().getSimpleName() + ".perRecordInit");
+        start = IndexTimings.start();
         perRecordInit(record);
+        perRecordInitTimer.stop(start);
+
         for (String key : customMixinMap.keySet())
         {
             SolrIndexerMixin mixin = customMixinMap.get(key);
+            start = IndexTimings.start();
             mixin.perRecordInit(record);
+            IndexTimings.stop(IndexTimings.RECORD_INIT, key, start);
         }
+        return record;
     }
 
     /**
@@ -733,107 +790,167 @@ public class SolrIndexer
     }
 
     /**
-     * Calling a custom method defined in a user-supplied custom subclass of SolrIndexer,
-     * do the processing indicated by a custom function, putting the solr field
-     * name and value into the indexMap parameter
-     *
-     * @param indexMap - The map contain the solr index record that is being constructed for this MARC record.
-     * @param indexType - if set to "customDeleteRecordIfFieldEmpty", then the
-     *                    solr record should be deleted if no value
-     *                    is generated by this custom indexing method.
-     * @param indexField - The name of the field to be added to the solr index record.  Note that
-     *                     in that case of a custom index method that returns a Map, the keys of the map
-     *                     define the names of the fields to be added, and this value is then simply a dummy.
-     * @param mapName - The name (or file and name) of a translation map to use to convert
-     *                  the data in the specified fields of the MARC record to the desired values
-     *                  to be included in the Solr index record.  (If mapName is null, the values
-     *                  in the record will be returned as-is.)
-     * @param record -  The MARC record that is being indexed.
-     * @param indexParm - contains the name of the custom method to invoke, as well as the
-     *                    additional parameters to pass to that method.
+     * Compile the index specifications in fieldMap into the steps run for
+     *  each record, so the specifications are parsed, and custom methods and
+     *  translation maps looked up, once rather than for every record.
+     *  The steps run in the order fieldMap iterates its keys.
      */
-    private void handleCustom(Map<String, Object> indexMap, String indexType, String indexField,
-    							String mapName, Record record, String indexParm)
-    		throws SolrMarcIndexerException
+    private void compileIndexPlan()
     {
-        Object retval = null;
-        Class<?> returnType = null;
+        List<IndexStep> steps = new ArrayList<IndexStep>();
+        for (String key : fieldMap.keySet())
+        {
+            String fieldVal[] = fieldMap.get(key);
+            String indexField = fieldVal[0];
+            String indexType = fieldVal[1];
+            String indexParm = fieldVal[2];
+            String mapName = fieldVal[3];
+            Map<String, String> transMap = mapName != null ? findTranslationMap(mapName) : null;
 
-        // grab the record id in case we want to use it in an exception message
-        String recCntlNum = null;
-        try {
-        	recCntlNum = record.getControlNumber();
+            if (indexType.equals("constant"))
+                steps.add(new ConstantStep(indexField, indexParm));
+            else if (indexType.equals("first"))
+                steps.add(new FirstStep(indexField, indexParm, transMap));
+            else if (indexType.equals("all"))
+                steps.add(new AllStep(indexField, indexParm, transMap));
+            else if (indexType.equals("DeleteRecordIfFieldEmpty"))
+                steps.add(new DeleteIfEmptyStep(indexField, indexParm, transMap));
+            else if (indexType.startsWith("join"))
+            {
+                String joinChar = " ";
+                if (indexType.contains("(") && indexType.endsWith(")"))
+                    joinChar = indexType.replace("join(", "").replace(")", "");
+                steps.add(new JoinStep(indexField, indexParm, joinChar));
+            }
+            else if (indexType.equals("std"))
+            {
+                if (indexParm.equals("era"))
+                    steps.add(new EraStep(indexField, transMap));
+                else
+                    steps.add(new StdStep(indexField, indexParm));
+            }
+            else if (indexType.startsWith("custom"))
+                steps.add(compileCustomStep(indexType, indexField, indexParm, transMap));
         }
-        catch (NullPointerException npe) { /* ignore as this is for error msgs only*/ }
+        indexPlan = Collections.unmodifiableList(steps);
+    }
 
-        String className = null;
+    /**
+     * Find the custom method to invoke for an index specification, and
+     *  the parameters to pass it after the record.
+     * @param indexType - custom, custom(mixinClassName) or customDeleteRecordIfFieldEmpty
+     * @param indexField - The name of the field to be added to the solr index record.
+     * @param indexParm - contains the name of the custom method to invoke, as well as the
+     *                    additional parameters to pass to that method.
+     * @param transMap - translation map for the values returned by the method, or null
+     */
+    private IndexStep compileCustomStep(String indexType, String indexField, String indexParm, Map<String, String> transMap)
+    {
+        String mixinClassName = null;
         Class<?> classThatContainsMethod = this.getClass();
-        Object objectThatContainsMethod = this;
-        try
+        if (indexType.matches("custom[(][a-zA-Z0-9.]+[)]"))
         {
-            if (indexType.matches("custom[(][a-zA-Z0-9.]+[)]"))
+            String className = indexType.substring(7, indexType.length()-1).trim();
+            if (customMixinMap.containsKey(className))
             {
-                className = indexType.substring(7, indexType.length()-1).trim();
-                if (customMixinMap.containsKey(className))
-                {
-                    objectThatContainsMethod = customMixinMap.get(className);
-                    classThatContainsMethod = objectThatContainsMethod.getClass();
-                }
+                mixinClassName = className;
+                classThatContainsMethod = customMixinMap.get(className).getClass();
             }
+        }
 
-            Method method;
+        Method method;
+        String parms[];
+        try
+        {
             if (indexParm.indexOf("(") != -1)
             {
                 String functionName = indexParm.substring(0, indexParm.indexOf('('));
                 String parmStr = indexParm.substring(indexParm.indexOf('(')+1, indexParm.lastIndexOf(')'));
                 // parameters are separated by unescaped commas
-                String parms[] = parmStr.trim().split("(?<=[^\\\\]),");
-                int numparms = parms.length;
-                Class parmClasses[] = new Class[numparms + 1];
+                parms = parmStr.trim().split("(?<=[^\\\\]),");
+                Class<?> parmClasses[] = new Class<?>[parms.length + 1];
                 parmClasses[0] = Record.class;
-                Object objParms[] = new Object[numparms + 1];
-                objParms[0] = record;
-                for (int i = 0; i < numparms; i++)
+                for (int i = 0; i < parms.length; i++)
                 {
                     parmClasses[i + 1] = String.class;
-                    objParms[i + 1] = dequote(parms[i].trim());
+                    parms[i] = dequote(parms[i].trim());
                 }
-             // NRD 2010-06-03  can't do this because have functionName with two signatures!  (getAllAlphaSubfields)
-//              method = customMethodMap.get(functionName);
-                method = getClass().getMethod(functionName, parmClasses);
-                if (method == null)
+                // can't use customMethodMap:  functionName may have two signatures (getAllAlphaSubfields)
+                try
+                {
+                    method = getClass().getMethod(functionName, parmClasses);
+                    mixinClassName = null;
+                }
+                catch (NoSuchMethodException e)
+                {
                     method = classThatContainsMethod.getMethod(functionName, parmClasses);
-                returnType = method.getReturnType();
-                retval = method.invoke(objectThatContainsMethod, objParms);
+                }
             }
             else
             {
+                parms = new String[0];
                 method = customMethodMap.get(indexParm);
                 if (method == null)
                     method = classThatContainsMethod.getMethod(indexParm, new Class[]{Record.class});
-                returnType = method.getReturnType();
-                retval = method.invoke(objectThatContainsMethod, new Object[] { record });
             }
         }
+        catch (NoSuchMethodException e)
+        {
+            logger.error("Unable to find custom indexing function " + indexParm);
+            throw new IllegalArgumentException("Unable to find custom indexing function " + indexParm);
+        }
+
+        try
+        {
+            // skip access checks on each call
+            method.setAccessible(true);
+        }
         catch (SecurityException e)
         {
-            // e.printStackTrace();
-            logger.error("Error while indexing " + indexField + " for record " + (recCntlNum != null ? recCntlNum : "") + " -- " + e.getCause());
+            logger.debug("Unable to suppress access checks for custom indexing function " + indexParm);
         }
-        catch (NoSuchMethodException e)
+
+        boolean deleteIfEmpty = indexType.equals("customDeleteRecordIfFieldEmpty");
+        return new CustomStep(indexField, mixinClassName, method, parms, transMap, deleteIfEmpty);
+    }
+
+    /**
+     * Calling a custom method defined in a user-supplied custom subclass of SolrIndexer,
+     * do the processing indicated by a custom function, putting the solr field
+     * name and value into the indexMap parameter
+     *
+     * @param indexMap - The map contain the solr index record that is being constructed for this MARC record.
+     * @param step - the compiled custom index specification
+     * @param record -  The MARC record that is being indexed.
+     */
+    private void handleCustom(Map<String, Object> indexMap, CustomStep step, Record record)
+            throws SolrMarcIndexerException
+    {
+        Object retval = null;
+        Class<?> returnType = null;
+
+        Object objectThatContainsMethod = this;
+        if (step.mixinClassName != null)
+            objectThatContainsMethod = customMixinMap.get(step.mixinClassName);
+
+        Object objParms[] = new Object[step.parms.length + 1];
+        objParms[0] = record;
+        System.arraycopy(step.parms, 0, objParms, 1, step.parms.length);
+        try
         {
-            // e.printStackTrace();
-            logger.error("Error while indexing " + indexField + " for record " + (recCntlNum != null ? recCntlNum : "") + " -- " + e.getCause());
+            returnType = step.method.getReturnType();
+            long start = IndexTimings.start();
+            long lazyInitStart = IndexTimings.lazyInitNanos();
+            retval = step.method.invoke(objectThatContainsMethod, objParms);
+            step.methodTimer.stopWithoutLazyInit(start, lazyInitStart);
         }
         catch (IllegalArgumentException e)
         {
-            // e.printStackTrace();
-            logger.error("Error while indexing " + indexField + " for record " + (recCntlNum != null ? recCntlNum : "") + " -- " + e.getCause());
+            logger.error("Error while indexing " + step.indexField + " for record " + getControlNumber(record) + " -- " + e.getCause());
         }
         catch (IllegalAccessException e)
         {
-            // e.printStackTrace();
-            logger.error("Error while indexing " + indexField + " for record " + (recCntlNum != null ? recCntlNum : "") + " -- " + e.getCause());
+            logger.error("Error while indexing " + step.indexField + " for record " + getControlNumber(record) + " -- " + e.getCause());
         }
         catch (InvocationTargetException e)
         {
@@ -841,14 +958,10 @@ public class SolrIndexer
                 throw((SolrMarcIndexerException)e.getTargetException());
 
             e.printStackTrace();   // DEBUG
-            logger.error("Error while indexing " + indexField + " for record " + (recCntlNum != null ? recCntlNum : "") + " -- " + e.getCause());
+            logger.error("Error while indexing " + step.indexField + " for record " + getControlNumber(record) + " -- " + e.getCause());
         }
 
-        boolean deleteIfEmpty = false;
-        if (indexType.equals("customDeleteRecordIfFieldEmpty"))
-            deleteIfEmpty = true;
-
-        boolean stopOrDelete = finishCustomMethod(indexMap, indexField, mapName, returnType, retval, deleteIfEmpty);
+        boolean stopOrDelete = finishCustomMethod(indexMap, step.indexField, step.transMap, returnType, retval, step.deleteIfEmpty);
 
         if (stopOrDelete == true)
         	throw new SolrMarcIndexerException(SolrMarcIndexerException.DELETE);
@@ -860,10 +973,9 @@ public class SolrIndexer
      * @param indexField - The name of the field to be added to the solr index record.  Note that
      *                     in that case of a custom index method that returns a Map, the keys of the map
      *                     define the names of the fields to be added, and this value is then simply a dummy.
-     * @param mapName - The name (or file and name) of a translation map to use to convert
-     *                  the data in the specified fields of the MARC record to the desired values
-     *                  to be included in the Solr index record.  (If mapName is null, the values
-     *                  in the record will be returned as-is.)
+     * @param transMap - The translation map to use to convert the values returned to the
+     *                   desired values to be included in the Solr index record.  (If transMap is null,
+     *                   the values will be used as-is.)
      * @param returnType - The Class of the return type of the custom indexing function or the
      *                     custom BeanShell script method, the valid expected types are String, Set<String>, or Map<String, Object>
      * @param retval - The value that was returned from the custom indexing function or the
@@ -872,7 +984,7 @@ public class SolrIndexer
      *                        was generated.
      * @return returns true if the indexing process should stop and the solr record should be deleted.
      */
-    private boolean finishCustomMethod(Map<String, Object> indexMap, String indexField, String mapName,
+    private boolean finishCustomMethod(Map<String, Object> indexMap, String indexField, Map<String, String> transMap,
                                          Class<?> returnType, Object retval, boolean deleteIfEmpty)
     {
         if (returnType == null || retval == null)
@@ -886,22 +998,273 @@ public class SolrIndexer
         else if (returnType.isAssignableFrom(Set.class))
         {
             Set<String> fields = (Set<String>) retval;
-            if (mapName != null && findTranslationMap(mapName) != null)
-                fields = Utils.remap(fields, findTranslationMap(mapName), true);
+            if (transMap != null)
+                fields = Utils.remap(fields, transMap, true);
             if (deleteIfEmpty && fields.size()== 0)
             	return (true);
-            addFieldsToMap(indexMap, indexField, null, fields);
+            addMappedFieldsToMap(indexMap, indexField, null, fields);
         }
         else if (returnType.isAssignableFrom(String.class))
         {
             String field = (String) retval;
-            if (mapName != null && findTranslationMap(mapName) != null)
-                field = Utils.remap(field, findTranslationMap(mapName), true);
-            addFieldToMap(indexMap, indexField, null, field);
+            if (transMap != null)
+                field = Utils.remap(field, transMap, true);
+            addMappedFieldToMap(indexMap, indexField, null, field);
         }
         return false;
     }
 
+    /**
+     * @return the record's control number, or an empty String if there isn't one (for error messages)
+     */
+    private static String getControlNumber(Record record)
+    {
+        String recCntlNum = null;
+        try {
+            recCntlNum = record.getControlNumber();
+        }
+        catch (NullPointerException npe) { /* ignore as this is for error msgs only*/ }
+        return recCntlNum != null ? recCntlNum : "";
+    }
+
+    /**
+     * a compiled index specification:  adds the values for one solr field
+     *  (or, for custom methods returning a Map, several) to the solr document
+     *  for a record.  Steps are immutable, and shared by the indexers for
+     *  other threads, so the indexer running them is passed in.
+     */
+    private static abstract class IndexStep
+    {
+        /** name of the solr field */
+        final String indexField;
+        /** times the step (see IndexTimings) */
+        final IndexTimings.Timer timer;
+
+        IndexStep(String indexField)
+        {
+            this.indexField = indexField;
+            timer = IndexTimings.getTimer(IndexTimings.FIELD, indexField);
+        }
+
+        abstract void addValues(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap);
+
+        /**
+         * @return true if the fields added are the keys of a Map from a custom
+         *  method, rather than indexField
+         */
+        boolean addsMapFields()
+        {
+            return false;
+        }
+    }
+
+    /** constant value(s):  field = "value"  or  field = "value1|value2" */
+    private static class ConstantStep extends IndexStep
+    {
+        /** the value, when there is only one */
+        private final String value;
+        /** the values, when separated by | */
+        private final Set<String> values;
+
+        ConstantStep(String indexField, String indexParm)
+        {
+            super(indexField);
+            if (indexParm.contains("|"))
+            {
+                Set<String> parts = new LinkedHashSet<String>(Arrays.asList(indexParm.split("[|]")));
+                // if a zero length string appears, remove it
+                parts.remove("");
+                values = Collections.unmodifiableSet(parts);
+                value = null;
+            }
+            else
+            {
+                values = null;
+                value = indexParm;
+            }
+        }
+
+        void addValues(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            if (values != null)
+                // a set per document, as documents may be changed after mapping
+                indexer.addMappedFieldsToMap(fldNames2ValsMap, indexField, null, new LinkedHashSet<String>(values));
+            else
+                indexer.addMappedFieldToMap(fldNames2ValsMap, indexField, null, value);
+        }
+    }
+
+    /** first value of the field spec:  field = 245a, first */
+    private static class FirstStep extends IndexStep
+    {
+        private final FieldSpec fieldSpec;
+        private final Map<String, String> transMap;
+
+        FirstStep(String indexField, String fieldSpec, Map<String, String> transMap)
+        {
+            super(indexField);
+            this.fieldSpec = FieldSpec.getFieldSpec(fieldSpec);
+            this.transMap = transMap;
+        }
+
+        void addValues(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            indexer.addMappedFieldToMap(fldNames2ValsMap, indexField, null, getFirstMappedFieldVal(fieldSpec.getFieldList(record), transMap));
+        }
+    }
+
+    /** all values of the field spec:  field = 245a  or  field = 245a, map.properties */
+    private static class AllStep extends IndexStep
+    {
+        private final FieldSpec fieldSpec;
+        private final Map<String, String> transMap;
+
+        AllStep(String indexField, String fieldSpec, Map<String, String> transMap)
+        {
+            super(indexField);
+            this.fieldSpec = FieldSpec.getFieldSpec(fieldSpec);
+            this.transMap = transMap;
+        }
+
+        void addValues(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            indexer.addMappedFieldsToMap(fldNames2ValsMap, indexField, transMap, fieldSpec.getFieldList(record));
+        }
+    }
+
+    /** all values of the field spec, deleting the record if there are none:  field = 245a, DeleteRecordIfFieldEmpty */
+    private static class DeleteIfEmptyStep extends IndexStep
+    {
+        private final FieldSpec fieldSpec;
+        private final Map<String, String> transMap;
+
+        DeleteIfEmptyStep(String indexField, String fieldSpec, Map<String, String> transMap)
+        {
+            super(indexField);
+            this.fieldSpec = FieldSpec.getFieldSpec(fieldSpec);
+            this.transMap = transMap;
+        }
+
+        void addValues(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            Set<String> fields = fieldSpec.getFieldList(record);
+            if (transMap != null)
+                fields = Utils.remap(fields, transMap, true);
+
+            if (fields.size() != 0)
+                indexer.addMappedFieldsToMap(fldNames2ValsMap, indexField, null, fields);
+            else  // no entries produced for field => generate no record in Solr
+                throw new SolrMarcIndexerException(SolrMarcIndexerException.DELETE,
+                                                "Index specification: "+ indexField +" says this record should be deleted.");
+        }
+    }
+
+    /** values of the field spec joined in a single value:  field = 600a, join(", ") */
+    private static class JoinStep extends IndexStep
+    {
+        private final FieldSpec fieldSpec;
+        private final String joinChar;
+
+        JoinStep(String indexField, String fieldSpec, String joinChar)
+        {
+            super(indexField);
+            this.fieldSpec = FieldSpec.getFieldSpec(fieldSpec);
+            this.joinChar = joinChar;
+        }
+
+        void addValues(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            indexer.addMappedFieldToMap(fldNames2ValsMap, indexField, null, Utils.join(fieldSpec.getFieldList(record), joinChar));
+        }
+    }
+
+    /** era values:  field = era  or  field = era, map.properties */
+    private static class EraStep extends IndexStep
+    {
+        private final Map<String, String> transMap;
+
+        EraStep(String indexField, Map<String, String> transMap)
+        {
+            super(indexField);
+            this.transMap = transMap;
+        }
+
+        void addValues(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            indexer.addMappedFieldsToMap(fldNames2ValsMap, indexField, transMap, MarcUtils.getEra(record));
+        }
+    }
+
+    /** values that don't require parsing specified record fields:  raw, xml, date, index_date ... */
+    private static class StdStep extends IndexStep
+    {
+        private final int stdType;
+
+        StdStep(String indexField, String indexParm)
+        {
+            super(indexField);
+            this.stdType = getStdType(indexParm);
+        }
+
+        void addValues(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            indexer.addMappedFieldToMap(fldNames2ValsMap, indexField, null, indexer.getStd(record, stdType));
+        }
+    }
+
+    /** value(s) from a custom method:  field = custom, getFoo(parm1, parm2) */
+    private static class CustomStep extends IndexStep
+    {
+        /** class name of the mixin containing the method, or null if the method is in the indexer */
+        final String mixinClassName;
+        final Method method;
+        /** parameters passed after the record, already dequoted */
+        final String parms[];
+        final Map<String, String> transMap;
+        final boolean deleteIfEmpty;
+        /** times the calls of the method, shared by the steps calling it */
+        final IndexTimings.Timer methodTimer;
+
+        CustomStep(String indexField, String mixinClassName, Method method, String parms[], Map<String, String> transMap, boolean deleteIfEmpty)
+        {
+            super(indexField);
+            this.mixinClassName = mixinClassName;
+            this.method = method;
+            methodTimer = IndexTimings.getTimer(IndexTimings.CUSTOM_METHOD, method.getDeclaringClass().getSimpleName() + "." + method.getName());
+            this.parms = parms;
+            this.transMap = transMap;
+            this.deleteIfEmpty = deleteIfEmpty;
+        }
+
+        @Override
+        boolean addsMapFields()
+        {
+            // as in finishCustomMethod
+            return method.getReturnType().isAssignableFrom(Map.class);
+        }
+
+        void addValues(SolrIndexer indexer, Record record, Map<String, Object> fldNames2ValsMap)
+        {
+            try {
+                indexer.handleCustom(fldNames2ValsMap, this, record);
+            }
+            catch(SolrMarcIndexerException e)
+            {
+                String recCntlNum = getControlNumber(record);
+                if (e.getLevel() == SolrMarcIndexerException.DELETE)
+                {
+                    throw new SolrMarcIndexerException(SolrMarcIndexerException.DELETE,
+                            "Record " + recCntlNum + " purposely not indexed because " + indexField + " field is empty");
+                }
+                else
+                {
+                    logger.error("Unable to index record " + recCntlNum + " due to field " + indexField + " -- " + e.getMessage(), e);
+                    throw(e);
+                }
+            }
+        }
+    }
+
     /**
      * if the first and last characters of the string are quote marks ("), then
      * delete them.
@@ -914,34 +1277,69 @@ public class SolrIndexer
         return str;
     }
 
+    /** types of values that don't require parsing specified record fields */
+    private static final int STD_NONE = 0;
+    private static final int STD_RAW = 1;
+    private static final int STD_XML = 2;
+    private static final int STD_JSON = 3;
+    private static final int STD_JSON2 = 4;
+    private static final int STD_TEXT = 5;
+    private static final int STD_DATE = 6;
+    private static final int STD_INDEX_DATE = 7;
+
     /**
-     * get values that don't require parsing specified record fields:
-     *   raw, xml, date, index_date ...
-     * @param indexParm - what type of value to return
+     * @param indexParm - raw, xml, date, index_date ...
+     * @return the STD_ type for indexParm
      */
-    private String getStd(Record record, String indexParm)
+    private static int getStdType(String indexParm)
     {
         if (indexParm.equals("raw")
                 || indexParm.equalsIgnoreCase("FullRecordAsMARC"))
-            return MarcUtils.getRecordAsBinaryStr(record);
+            return STD_RAW;
         else if (indexParm.equals("xml")
                 || indexParm.equalsIgnoreCase("FullRecordAsXML"))
-            return MarcUtils.getRecordAsMarcXmlStr(record);
+            return STD_XML;
         else if (indexParm.equals("json")
                 || indexParm.equalsIgnoreCase("FullRecordAsJSON"))
-            return MarcUtils.getRecordAsJsonStr(record, true);
+            return STD_JSON;
         else if (indexParm.equals("json2")
                 || indexParm.equalsIgnoreCase("FullRecordAsJSON2"))
-            return MarcUtils.getRecordAsJsonStr(record, false);
-        else if (indexParm.equals("xml")
-                || indexParm.equalsIgnoreCase("FullRecordAsText"))
-            return (record.toString().replaceAll("\n", "<br/>"));
+            return STD_JSON2;
+        else if (indexParm.equalsIgnoreCase("FullRecordAsText"))
+            return STD_TEXT;
         else if (indexParm.equals("date")
                 || indexParm.equalsIgnoreCase("DateOfPublication"))
-            return MarcUtils.getDate(record);
+            return STD_DATE;
         else if (indexParm.equals("index_date")
                 || indexParm.equalsIgnoreCase("DateRecordIndexed"))
-            return getCurrentDate();
+            return STD_INDEX_DATE;
+        return STD_NONE;
+    }
+
+    /**
+     * get values that don't require parsing specified record fields:
+     *   raw, xml, date, index_date ...
+     * @param stdType - what type of value to return (see getStdType)
+     */
+    private String getStd(Record record, int stdType)
+    {
+        switch (stdType)
+        {
+            case STD_RAW:
+                return MarcUtils.getRecordAsBinaryStr(record);
+            case STD_XML:
+                return MarcUtils.getRecordAsMarcXmlStr(record);
+            case STD_JSON:
+                return MarcUtils.getRecordAsJsonStr(record, true);
+            case STD_JSON2:
+                return MarcUtils.getRecordAsJsonStr(record, false);
+            case STD_TEXT:
+                return (record.toString().replaceAll("\n", "<br/>"));
+            case STD_DATE:
+                return MarcUtils.getDate(record);
+            case STD_INDEX_DATE:
+                return getCurrentDate();
+        }
         return null;
     }
 
@@ -955,8 +1353,17 @@ public class SolrIndexer
      */
     protected void addFieldToMap(Map<String, Object> fldNames2ValsMap, String ixFldName, String transMapName, String fieldVal)
     {
-        if (transMapName != null && findTranslationMap(transMapName) != null)
-            fieldVal = Utils.remap(fieldVal, findTranslationMap(transMapName), true);
+        addMappedFieldToMap(fldNames2ValsMap, ixFldName, transMapName != null ? findTranslationMap(transMapName) : null, fieldVal);
+    }
+
+    /**
+     * Add a field-value pair to the fldNames2ValsMap representation of a solr doc.
+     *  The value will be "translated" per the translation map, if not null.
+     */
+    private void addMappedFieldToMap(Map<String, Object> fldNames2ValsMap, String ixFldName, Map<String, String> transMap, String fieldVal)
+    {
+        if (transMap != null)
+            fieldVal = Utils.remap(fieldVal, transMap, true);
 
         if (fieldVal != null && fieldVal.length() > 0)
             fldNames2ValsMap.put(ixFldName, fieldVal);
@@ -984,8 +1391,18 @@ public class SolrIndexer
      */
     protected void addFieldsToMap(Map<String, Object> fldNames2ValsMap, String ixFldName, String transMapName, Set<String> fieldVals)
     {
-        if (transMapName != null && findTranslationMap(transMapName) != null)
-            fieldVals = Utils.remap(fieldVals, findTranslationMap(transMapName), true);
+        addMappedFieldsToMap(fldNames2ValsMap, ixFldName, transMapName != null ? findTranslationMap(transMapName) : null, fieldVals);
+    }
+
+    /**
+     * Add a field-value pair to the fldNames2ValsMap representation of a solr doc for
+     *  each value present in the "fieldVals" parameter.
+     *  The values will be "translated" per the translation map, if not null.
+     */
+    private void addMappedFieldsToMap(Map<String, Object> fldNames2ValsMap, String ixFldName, Map<String, String> transMap, Set<String> fieldVals)
+    {
+        if (transMap != null)
+            fieldVals = Utils.remap(fieldVals, transMap, true);
 
         if (!fieldVals.isEmpty())
         {
@@ -1121,17 +1538,25 @@ public class SolrIndexer
      */
     public String getFirstFieldVal(Record record, String mapName, String tagStr)
     {
-        Set<String> result = MarcUtils.getFieldList(record, tagStr);
-        if (mapName != null && findTranslationMap(mapName) != null)
+        return getFirstMappedFieldVal(MarcUtils.getFieldList(record, tagStr), mapName != null ? findTranslationMap(mapName) : null);
+    }
+
+    /**
+     * Get the first of the field values, mapped per the translation map if
+     *  not null (see getFirstFieldVal)
+     */
+    private static String getFirstMappedFieldVal(Set<String> result, Map<String, String> transMap)
+    {
+        if (transMap != null)
         {
-            result = Utils.remap(result, findTranslationMap(mapName), false);
-            if (findTranslationMap(mapName).containsKey(""))
+            result = Utils.remap(result, transMap, false);
+            if (transMap.containsKey(""))
             {
-                result.add(findTranslationMap(mapName).get(""));
+                result.add(transMap.get(""));
             }
-            if (findTranslationMap(mapName).containsKey("__DEFAULT"))
+            if (transMap.containsKey("__DEFAULT"))
             {
-                result.add(findTranslationMap(mapName).get("__DEFAULT"));
+                result.add(transMap.get("__DEFAULT"));
             }
         }
         Iterator<String> iter = result.iterator();
@@ -1161,10 +1586,7 @@ public class SolrIndexer
         if (mapName.startsWith("pattern_map:"))
             mapName = mapName.substring("pattern_map:".length());
 
-        if (transMapMap.containsKey(mapName))
-            return (transMapMap.get(mapName));
-
-        return null;
+        return transMapMap.get(mapName);
     }
 
 
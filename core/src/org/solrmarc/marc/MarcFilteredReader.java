@@ -25,6 +25,7 @@ import org.marc4j.marc.VariableField;
 import org.solrmarc.index.SolrIndexer;
 import org.solrmarc.tools.*;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -43,6 +44,10 @@ public class MarcFilteredReader implements MarcReader
     String includeRecordIfFieldMissing = null;
     String includeRecordIfFieldDoesntContain = null;
     String deleteSubfieldsSpec = null;
+    /** the tags of the fields in deleteSubfieldsSpec */
+    String deleteTags[] = new String[0];
+    /** the subfield codes to delete from each field, or 0 to delete the whole field */
+    char deleteCodes[] = new char[0];
     Record currentRecord = null;
     MarcReader reader;
     SolrMarcException exception;
@@ -59,6 +64,25 @@ public class MarcFilteredReader implements MarcReader
     public MarcFilteredReader(MarcReader r, String ifFieldPresent, String ifFieldMissing, String deleteSubfields)
     {
         deleteSubfieldsSpec = deleteSubfields;
+        if (deleteSubfieldsSpec != null)
+        {
+            // parse the spec once, rather than for every record
+            String fieldSpecs[] = deleteSubfieldsSpec.split(":");
+            List<String> tags = new ArrayList<String>();
+            StringBuilder codes = new StringBuilder();
+            for (String fieldSpec : fieldSpecs)
+            {
+                if (fieldSpec.length() < 3)
+                {
+                    logger.error("Invalid field in marc.delete_subfields: " + fieldSpec);
+                    continue;
+                }
+                tags.add(fieldSpec.substring(0,3));
+                codes.append(fieldSpec.length() > 3 ? fieldSpec.charAt(3) : (char) 0);
+            }
+            deleteTags = tags.toArray(new String[tags.size()]);
+            deleteCodes = codes.toString().toCharArray();
+        }
         if (ifFieldPresent != null)
         {
             String present[] = ifFieldPresent.split("/", 2);
@@ -123,23 +147,21 @@ public class MarcFilteredReader implements MarcReader
             	logger.error("Error reading Marc Record.");
             	logger.error(me.getMessage());
             }
-            if (deleteSubfieldsSpec != null)
+            if (rec != null && deleteSubfieldsSpec != null)
             {
-                String fieldSpecs[] = deleteSubfieldsSpec.split(":");
-                for (String fieldSpec : fieldSpecs)
+                for (int i = 0; i < deleteTags.length; i++)
                 {
-                    String tag = fieldSpec.substring(0,3);
-                    String subfield = null;
-                    if (fieldSpec.length() > 3)  subfield = fieldSpec.substring(3);
+                    String tag = deleteTags[i];
+                    char subfield = deleteCodes[i];
                     List<VariableField> list = (List<VariableField>)rec.getVariableFields(tag);
                     for (VariableField field : list)
                     {
                         if (field instanceof DataField)
                         {
                             DataField df = ((DataField)field);
-                            if (subfield != null)
+                            if (subfield != 0)
                             {
-                                List<Subfield> sfs = (List<Subfield>)df.getSubfields(subfield.charAt(0));
+                                List<Subfield> sfs = (List<Subfield>)df.getSubfields(subfield);
                                 if (sfs != null && sfs.size() != 0)
                                 {
                                     rec.removeVariableField(df);
@@ -36,6 +36,9 @@ public abstract class MarcHandler {
 	protected boolean showConfig = false;
 	protected boolean showInputFile = false;
 	protected String unicodeNormalize = null;
+    /** rejects records MarcFilteredReader would filter out before they are
+     *  decoded;  null if not used */
+    protected RawRecordFilter rawRecordFilter = null;
 
 	private String solrmarcPath;
 	private String siteSpecificPath;
@@ -43,6 +46,9 @@ public abstract class MarcHandler {
 
     /** The name of the _index.properties file */
 	private String indexPropsFname;
+	/** constructor and arguments used by loadIndexer, kept so more indexer instances can be made */
+	private Constructor<?> indexerConstructor = null;
+	private Object[] indexerConstructorArgs = null;
     private final static String TRANS_MAP_DIR = "translation_maps";
 
     // Initialize logging category
@@ -103,7 +109,9 @@ public abstract class MarcHandler {
                 else if (lc_arg.endsWith(".mrc") || lc_arg.endsWith(".marc"))
                 {
                     System.setProperty("marc.path", arg);
-                    System.setProperty("marc.source", "FILE");
+                    // -Dmarc.source=MMAP memory-maps the file instead
+                    if (!"MMAP".equals(System.getProperty("marc.source")))
+                        System.setProperty("marc.source", "FILE");
                 }
                 else if (lc_arg.endsWith(".json") )
                 {
@@ -233,7 +241,7 @@ public abstract class MarcHandler {
 
         String marcRecsFname = PropertiesUtils.getProperty(configProps, "marc.path");
         String source = PropertiesUtils.getProperty(configProps, "marc.source", "STDIN").trim();
-        if (source.equals("FILE") && marcRecsFname == null)
+        if ((source.equals("FILE") || source.equals("MMAP")) && marcRecsFname == null)
         	return;
         if (marcRecsFname != null)
         	marcRecsFname = marcRecsFname.trim();
@@ -349,13 +357,18 @@ public abstract class MarcHandler {
 
 	/**
 	 * instantiates reader (MarcReader), if it's null; otherwise does nothing
-	 * @param source  "FILE" or "STDIN" or null (same as FILE)
+	 * @param source  "FILE" or "STDIN" or "MMAP" (memory-mapped FILE) or null (same as FILE)
 	 * @param marcRecsFilename - name of file containing marc records
 	 */
     public void loadReader(String source, String marcRecsFilename)
     		throws FileNotFoundException
 	{
 
+        // only MARC21 binary files are memory-mapped
+        if (source.equals("MMAP") && marcRecsFilename != null
+                && (marcRecsFilename.toLowerCase().endsWith(".xml") || marcRecsFilename.toLowerCase().endsWith(".json")))
+            source = "FILE";
+
         if (source.equals("FILE") || source.equals("STDIN"))
         {
         	RecordFormat recFormat = RecordFormat.MARC21;
@@ -425,18 +438,85 @@ public abstract class MarcHandler {
             else if (permissiveReader)
             {
                 errors = new ErrorHandler();
+                if (marcRecsInputStream != null && getRawRecordFilter() != null)
+                    marcRecsInputStream = rawRecordFilter.filter(marcRecsInputStream);
                 reader = new MarcPermissiveStreamReader(marcRecsInputStream, errors, to_utf_8, defaultEncoding);
             }
             else
+            {
+                if (marcRecsInputStream != null && getRawRecordFilter() != null)
+                    marcRecsInputStream = rawRecordFilter.filter(marcRecsInputStream);
                 reader = new MarcPermissiveStreamReader(marcRecsInputStream, false, to_utf_8, defaultEncoding);
+            }
+        }
+        else if (source.equals("MMAP"))
+        {
+            // memory-mapped MARC21 binary file
+            if (marcRecsFilename == null)
+                logger.warn("no specified MARC data file");
+            else
+            {
+                if (showInputFile)
+                    logger.info("Attempting to map data file: "+ new File(marcRecsFilename).getAbsolutePath());
+                else
+                    logger.debug("Attempting to map data file: "+ new File(marcRecsFilename).getAbsolutePath());
+                if (permissiveReader)
+                    errors = new ErrorHandler();
+                try
+                {
+                    MarcMappedFileReader mappedReader = new MarcMappedFileReader(marcRecsFilename, errors, permissiveReader, to_utf_8, defaultEncoding);
+                    mappedReader.setRawRecordFilter(getRawRecordFilter());
+                    reader = mappedReader;
+                }
+                catch (IOException e)
+                {
+                    logger.fatal("Fatal error: Unable to open specified MARC data file: " + marcRecsFilename);
+                    throw new IllegalArgumentException("Fatal error: Unable to open specified MARC data file: " + marcRecsFilename);
+                }
+            }
         }
         else if (source.equals("DIR"))
             reader = new MarcDirStreamReader(PropertiesUtils.getProperty(configProps, "marc.path").trim(), permissiveReader, to_utf_8);
 
         // reader is now set up for particular input source
 
+        if (reader != null)
+            reader = addReaderWrappers(reader);
+        return;
+	}
+
+    /**
+     * @return the filter for the bytes of MARC21 binary records, made from
+     *  the marc.include_if_present and marc.include_if_missing properties, or
+     *  null if it wouldn't reject any records.  Records are combined before
+     *  they are filtered, so it isn't used when records are combined.
+     */
+    private RawRecordFilter getRawRecordFilter()
+    {
+        if (rawRecordFilter == null && combineConsecutiveRecordsFields == null)
+        {
+            RawRecordFilter filter = new RawRecordFilter(PropertiesUtils.getProperty(configProps, "marc.include_if_present"),
+                                                         PropertiesUtils.getProperty(configProps, "marc.include_if_missing"),
+                                                         PropertiesUtils.getProperty(configProps, "marc.delete_subfields"));
+            if (filter.canReject())
+                rawRecordFilter = filter;
+        }
+        return rawRecordFilter;
+    }
+
+    /**
+     * wrap the reader for the input source in the readers that combine,
+     *  filter and translate records, as requested in the config properties.
+     *  The errors instance variable should be set to the reader's ErrorHandler
+     *  (or null);  it is changed if a combining reader reports errors itself.
+     * @param reader - the reader for the input source
+     * @return the wrapped reader
+     */
+    private MarcReader addReaderWrappers(MarcReader reader)
+        throws FileNotFoundException
+    {
         // do we need to wrap in a CombiningReader?
-        if (reader != null && combineConsecutiveRecordsFields != null)
+        if (combineConsecutiveRecordsFields != null)
         {
         	if (useStanfordCombiningReader)
         		reader = new CombineMultBibsMhldsReader(reader, combineConsecutiveRecordsFields);
@@ -461,16 +541,98 @@ public abstract class MarcHandler {
         String marcDeleteSubfields = PropertiesUtils.getProperty(configProps, "marc.delete_subfields");
         if (marcDeleteSubfields != null)
         	marcDeleteSubfields = marcDeleteSubfields.trim();
-        if (reader != null && (marcIncludeIfPresent != null || marcIncludeIfMissing != null || marcDeleteSubfields != null))
+        if (marcIncludeIfPresent != null || marcIncludeIfMissing != null || marcDeleteSubfields != null)
             reader = new MarcFilteredReader(reader, marcIncludeIfPresent, marcIncludeIfMissing, marcDeleteSubfields);
 
         // Do translating last so that if we are Filtering as well as translating, we don't expend the
         // effort to translate records, which may then be filtered out and discarded.
-        if (reader != null && to_utf_8 && unicodeNormalize != null)
+        if (to_utf_8 && unicodeNormalize != null)
             reader = new MarcTranslatedReader(reader, unicodeNormalize);
 
-        return;
-	}
+        return reader;
+    }
+
+    /**
+     * Split the MARC21 binary input -- the marc.path file for marc.source FILE
+     *  or MMAP, or the .mrc files in the marc.path directory for DIR -- into
+     *  shards of about the same size that can be read at the same time.  Each
+     *  shard has its own reader, wrapped as for loadReader, and ErrorHandler.
+     * @param numShards - the number of shards wanted
+     * @return the shards, or null if the input can't be split
+     */
+    protected List<InputShard> loadInputShards(int numShards)
+    {
+        String source = PropertiesUtils.getProperty(configProps, "marc.source", "STDIN").trim();
+        String marcPath = PropertiesUtils.getProperty(configProps, "marc.path");
+        if (marcPath == null)
+            return null;
+        marcPath = marcPath.trim();
+
+        List<String> fileNames = new ArrayList<String>();
+        if (source.equals("DIR"))
+        {
+            // the files MarcDirStreamReader would read
+            File files[] = new File(marcPath).listFiles(new FilenameFilter()
+            {
+                public boolean accept(File dir, String name)
+                {
+                    return name.endsWith("mrc");
+                }
+            });
+            if (files == null)
+                return null;
+            Arrays.sort(files);
+            for (File file : files)
+                fileNames.add(file.getPath());
+        }
+        else if ((source.equals("FILE") || source.equals("MMAP"))
+                && !marcPath.toLowerCase().endsWith(".xml") && !marcPath.toLowerCase().endsWith(".json"))
+            fileNames.add(marcPath);
+        else
+            return null;
+
+        ErrorHandler readerErrors = errors;
+        List<InputShard> result = new ArrayList<InputShard>(numShards);
+        try
+        {
+            for (List<MarcShardReader.Segment> segments : MarcShardReader.getShardSegments(fileNames, numShards))
+            {
+                logger.debug("Shard " + (result.size() + 1) + ": " + segments);
+                errors = permissiveReader ? new ErrorHandler() : null;
+                MarcShardReader segmentsReader = new MarcShardReader(segments, errors, permissiveReader, to_utf_8, defaultEncoding);
+                segmentsReader.setRawRecordFilter(getRawRecordFilter());
+                MarcReader shardReader = addReaderWrappers(segmentsReader);
+                result.add(new InputShard(shardReader, errors));
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Unable to split MARC data into shards: " + marcPath, e);
+            return null;
+        }
+        finally
+        {
+            errors = readerErrors;
+        }
+        return result;
+    }
+
+    /**
+     * a part of the input, for indexing with several shards
+     */
+    protected static class InputShard
+    {
+        /** reads the records in the shard */
+        final MarcReader reader;
+        /** errors found reading the records (null if not tracking errors) */
+        final ErrorHandler errors;
+
+        InputShard(MarcReader reader, ErrorHandler errors)
+        {
+            this.reader = reader;
+            this.errors = errors;
+        }
+    }
 
     /**
      * add path and path/TRANS_MAP_DIR to propertySearchPath; add path to propertySearchSet
@@ -562,7 +724,11 @@ public abstract class MarcHandler {
 	        Object instance = constructor.newInstance(indexPropsFname, propertySearchPath);
 
 	        if (instance instanceof SolrIndexer)
+	        {
 	            indexer = (SolrIndexer)instance;
+	            indexerConstructor = constructor;
+	            indexerConstructorArgs = new Object[]{indexPropsFname, propertySearchPath};
+	        }
 	        else
 	        {
 	            logger.fatal("Error: Custom Indexer " + indexerName + " must be subclass of SolrIndexer. ");
@@ -584,6 +750,35 @@ public abstract class MarcHandler {
 	    }
 	}
 
+	/**
+	 * Create another instance of the indexer, for use by a worker thread.
+	 *  A SolrIndexer keeps per-record state in instance variables, so each
+	 *  thread mapping records needs its own instance.  The new instance shares
+	 *  the configuration of the loaded indexer if its class allows it (see
+	 *  SolrIndexer.newThreadIndexer), otherwise the configuration is loaded again.
+	 * @return a new indexer instance, or null if one can't be created
+	 */
+	protected SolrIndexer newWorkerIndexer()
+	{
+	    if (indexer != null)
+	    {
+	        SolrIndexer threadIndexer = indexer.newThreadIndexer();
+	        if (threadIndexer != null)
+	            return threadIndexer;
+	    }
+	    if (indexerConstructor == null)
+	        return null;
+	    try
+	    {
+	        return (SolrIndexer) indexerConstructor.newInstance(indexerConstructorArgs);
+	    }
+	    catch (Exception e)
+	    {
+	        logger.error("Unable to create additional instance of indexer " + indexerClassName, e);
+	        return null;
+	    }
+	}
+
 
 	private enum RecordFormat
 	{
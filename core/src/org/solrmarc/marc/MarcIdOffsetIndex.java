@@ -0,0 +1,120 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+import java.util.*;
+
+import org.marc4j.marc.Record;
+import org.solrmarc.marc.MarcMappedFileReader.RecordRange;
+
+/**
+ * An index of the records in a MARC21 binary file by control number (001):
+ *  the offsets of all the records with each id, found in one pass through
+ *  the file without decoding the records.  The records for an id are then
+ *  read directly from the memory-mapped file (see MarcMappedFileReader), so
+ *  records can be looked up in any order, without reading the file again
+ *  from the beginning.
+ * Used to find the MHLD records matching bib records that may not be in the
+ *  same order as the MHLD file.  Not thread safe.
+ */
+public class MarcIdOffsetIndex
+{
+    private final MarcMappedFileReader reader;
+    /** the ranges of the records with each id, in file order */
+    private final Map<String, List<RecordRange>> rangesById = new HashMap<String, List<RecordRange>>();
+    /** decodes the records returned by getRecords() */
+    private MarcMappedFileReader.RecordDecoder decoder = null;
+    private int numRecords = 0;
+
+    /**
+     * read through the file to find the offset and id of each record
+     * @param fileName - the name of the MARC21 binary file
+     * @param permissive - true if records with errors should be read permissively
+     * @param toUtf8 - true if MARC8 records should be translated to UTF-8
+     * @param defaultEncoding - the encoding to assume if the leader doesn't give it
+     */
+    public MarcIdOffsetIndex(String fileName, boolean permissive, boolean toUtf8, String defaultEncoding)
+        throws IOException
+    {
+        reader = new MarcMappedFileReader(fileName, null, permissive, toUtf8, defaultEncoding);
+        RecordRange range;
+        while ((range = reader.nextRange()) != null)
+        {
+            String id = reader.getControlNumber(range);
+            if (id == null)
+                continue;
+            List<RecordRange> ranges = rangesById.get(id);
+            if (ranges == null)
+            {
+                ranges = new ArrayList<RecordRange>(1);
+                rangesById.put(id, ranges);
+            }
+            ranges.add(range);
+            numRecords++;
+        }
+    }
+
+    /**
+     * @return the ranges of the records with the id, in file order;  empty
+     *  if there are none
+     */
+    public List<RecordRange> getRanges(String id)
+    {
+        List<RecordRange> result = (id == null) ? null : rangesById.get(id.trim());
+        if (result == null)
+            return Collections.emptyList();
+        return result;
+    }
+
+    /**
+     * @return the bytes of each record with the id, in file order
+     */
+    public List<byte[]> getRecordBytes(String id)
+    {
+        List<RecordRange> ranges = getRanges(id);
+        List<byte[]> result = new ArrayList<byte[]>(ranges.size());
+        for (RecordRange range : ranges)
+            result.add(reader.getRecordBytes(range));
+        return result;
+    }
+
+    /**
+     * @return the records with the id, decoded, in file order
+     */
+    public List<Record> getRecords(String id)
+    {
+        List<RecordRange> ranges = getRanges(id);
+        List<Record> result = new ArrayList<Record>(ranges.size());
+        if (ranges.isEmpty())
+            return result;
+        if (decoder == null)
+            decoder = reader.newDecoder();
+        for (RecordRange range : ranges)
+            result.add(decoder.decode(reader.getRecordBytes(range)));
+        return result;
+    }
+
+    /**
+     * @return the number of records with an id in the file
+     */
+    public int getNumRecords()
+    {
+        return numRecords;
+    }
+
+    /**
+     * @return the number of different ids in the file
+     */
+    public int getNumIds()
+    {
+        return rangesById.size();
+    }
+
+    /**
+     * close the file
+     */
+    public void close()
+        throws IOException
+    {
+        reader.close();
+    }
+}
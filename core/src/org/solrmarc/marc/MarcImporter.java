@@ -20,11 +20,16 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import org.apache.log4j.*;
 import org.marc4j.ErrorHandler;
+import org.marc4j.MarcReader;
 import org.marc4j.marc.Record;
+import org.solrmarc.index.SolrIndexer;
 import org.solrmarc.solr.*;
 import org.solrmarc.tools.*;
 
@@ -44,21 +49,61 @@ public class MarcImporter extends MarcHandler
     protected String solrCoreName;
     private String deleteRecordListFilename;
     /** Specification of how to modify the entries in the delete record file before passing the id onto Solr.
-     * Based on syntax of String.replaceAll().  So to prepend a 'u' specify the following:  "(.*)->u$1" */
-    private String deleteRecordIDMapper = null;
+     * Based on syntax of String.replaceFirst().  So to prepend a 'u' specify the following:  "(.*)->u$1"
+     * The pattern is compiled once, from the marc.delete_record_id_mapper property */
+    private Pattern deleteRecordIDPattern = null;
+    private String deleteRecordIDReplace = null;
+    /** maximum number of ids deleted from the index in one request */
+    private int deleteBatchSize = 1000;
+    /** true if the ids to delete are deleted while the records are indexed, rather than after */
+    private boolean deleteWhileIndexing = false;
+    /** ids of the records indexed while deleting, which aren't deleted;  null unless
+     *  deleting while indexing.  Held while deleting a batch, so no record is added
+     *  between checking its id and deleting it */
+    private Set<String> idsIndexedWhileDeleting = null;
+    /** set to stop deleting while indexing, when indexing fails */
+    private volatile boolean deletesHalted = false;
     private String solrHostURL;
     private String solrHostUpdateURL;
     protected boolean commitAtEnd = true;
     protected boolean optimizeAtEnd = false;
-    protected boolean shuttingDown = false;
+    protected volatile boolean shuttingDown = false;
     protected boolean isShutDown = false;
     protected boolean justIndexDontAdd = false;
-    private int recsReadCounter = 0;
-    private int recsIndexedCounter = 0;
-    private int idsToDeleteCounter = 0;
-    private int recsDeletedCounter = 0;
+    /** where documents are written:  to Solr (SolrCoreLoader.SOLR_SINK), or to a sink instead of Solr */
+    private String documentSink = SolrCoreLoader.SOLR_SINK;
+    /** counts for the whole input;  shared by the threads of sharded indexing */
+    private final AtomicInteger recsReadCounter = new AtomicInteger();
+    private final AtomicInteger recsIndexedCounter = new AtomicInteger();
+    private final AtomicInteger recsUnchangedCounter = new AtomicInteger();
+    private volatile int idsToDeleteCounter = 0;
+    private volatile int recsDeletedCounter = 0;
     private boolean useBinaryRequestHandler = false;
     private boolean useStreamingServer = false;
+    /** number of threads mapping marc records to Solr documents;  1 means read, map and write on the calling thread */
+    protected int numMappingThreads = 1;
+    /** number of shards the input is split into, each read, mapped and written by its own thread;  1 means no sharding */
+    private int numShards = 1;
+    /** maximum number of records read but not yet mapped when indexing with multiple threads */
+    private int pipelineQueueSize = 100;
+    /** maximum number of documents sent to a remote Solr in one request;  1 means send each document as it is added */
+    private int solrBatchSize = 1;
+    /** maximum estimated size, in bytes, of the documents sent to a remote Solr in one request */
+    private int solrBatchMaxBytes = 5 * 1024 * 1024;
+    /** maximum number of requests adding documents to a remote Solr at once */
+    private int solrBatchRequestsInFlight = 2;
+    /** caps the fields of mapped records, and counts their sizes;  null if no caps or size stats are wanted */
+    private DocSizeGuard docSizeGuard = null;
+    /** hashes of the documents last sent for each id, to skip unchanged records;  null if not used */
+    private DocHashStore docHashStore = null;
+    /** false if documents added couldn't all be sent, so the document hashes aren't saved */
+    private boolean allDocsSent = true;
+    /** file for the report of the timings of indexing (see IndexTimings);  null if not wanted */
+    private String timingReportFilename = null;
+    /** times adding documents to the index */
+    private static final IndexTimings.Timer writeTimer = IndexTimings.getTimer(IndexTimings.STAGE, IndexTimings.WRITE);
+    /** set when multi-threaded indexing stops, so the reader, mapping and shard threads stop too */
+    private volatile boolean pipelineHalted = false;
     // Initialize logging category
     protected static Logger logger = Logger.getLogger(MarcImporter.class.getName());
 
@@ -95,23 +140,53 @@ public class MarcImporter extends MarcHandler
 
         int numImported = 0;
         int numDeleted = 0;
+        DeleteThread deleteThread = null;
         try
         {
+            if (deleteWhileIndexing)
+            {
+                idsIndexedWhileDeleting = new HashSet<String>();
+                deleteThread = new DeleteThread();
+                deleteThread.start();
+            }
             numImported = importRecords();
-            numDeleted = deleteRecords();
+            if (deleteThread == null)
+                numDeleted = deleteRecords();
         }
         catch (Exception e)
         {
             logger.info("Exception occurred while Indexing: "+ e.getMessage());
             logger.info("Setting Solr closed flag");
             isShutDown = true;
+            deletesHalted = true;
+        }
+        finally
+        {
+            if (deleteThread != null)
+            {
+                try
+                {
+                    numDeleted = deleteThread.waitForDeletes();
+                }
+                catch (RuntimeException e)
+                {
+                    logger.info("Exception occurred while Deleting: "+ e.getMessage());
+                    logger.info("Setting Solr closed flag");
+                    isShutDown = true;
+                }
+            }
         }
 
-        logger.info(" Adding " + recsIndexedCounter + " of " + recsReadCounter + " documents to index");
+        logger.info(" Adding " + recsIndexedCounter.get() + " of " + recsReadCounter.get() + " documents to index");
+        if (docHashStore != null)
+            logger.info(" Skipping " + recsUnchangedCounter.get() + " unchanged documents");
         logger.info(" Deleting " + recsDeletedCounter + " documents from index");
 
         if (!isShutDown)
+        {
         	finish();
+        	saveDocHashStore();
+        }
 
         if (!justIndexDontAdd)
         	sendCommitToSolrUrl();
@@ -127,11 +202,92 @@ public class MarcImporter extends MarcHandler
 
         logger.info("Indexed " + numImported + " at a rate of about " + indexingRate + " per sec");
         logger.info("Deleted " + numDeleted + " records");
+        if (rawRecordFilter != null)
+            logger.info(" Filtered out " + rawRecordFilter.getNumRejected() + " records before decoding them");
+        logCacheStats();
+        logDocSizeStats();
+        if (docHashStore != null)
+            logger.info(" " + docHashStore.getStats());
+        logTimings();
 
         return(shuttingDown ? 1 : 0);
     }
 
 
+    /**
+     * log the hits and misses of the caches used while mapping records, such
+     *  as the call number shelfkey caches
+     */
+    protected void logCacheStats()
+    {
+        for (BoundedCache<?, ?> cache : BoundedCache.getCaches())
+        {
+            if (cache.getHits() + cache.getMisses() > 0)
+                logger.info(" " + cache.getStats());
+        }
+    }
+
+    /**
+     * log the timings of indexing, if timing is enabled, and write them to the
+     *  report file, if there is one
+     */
+    protected void logTimings()
+    {
+        if (!IndexTimings.isEnabled())
+            return;
+        for (String timing : IndexTimings.getReport())
+            logger.info(" " + timing);
+        if (timingReportFilename != null)
+        {
+            try
+            {
+                IndexTimings.writeReport(timingReportFilename);
+            }
+            catch (IOException e)
+            {
+                logger.error("Unable to write timing report " + timingReportFilename + " -- " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * write the hashes of the documents sent to the document hash file, once
+     *  the documents have all been sent
+     */
+    private void saveDocHashStore()
+    {
+        if (docHashStore == null)
+            return;
+        if (!allDocsSent)
+        {
+            logger.error("Not saving document hashes, as the documents couldn't all be sent to Solr");
+            return;
+        }
+        try
+        {
+            docHashStore.save();
+        }
+        catch (IOException e)
+        {
+            logger.error("Unable to save document hashes -- " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * log the histogram of the sizes of the documents and their fields, and
+     *  the numbers of records capped or skipped for being too big
+     */
+    protected void logDocSizeStats()
+    {
+        if (docSizeGuard == null)
+            return;
+        docSizeGuard.close();
+        for (String stats : docSizeGuard.getStats())
+            logger.info(" " + stats);
+        if (docSizeGuard.getNumCapped() + docSizeGuard.getNumRejected() > 0)
+            logger.info(" Capped fields of " + docSizeGuard.getNumCapped() + " records, skipped " + docSizeGuard.getNumRejected() + " records too big to index");
+    }
+
 	/**
      * Iterate over the marc records in the file and add them to the index
      * @return Number of records indexed
@@ -139,8 +295,28 @@ public class MarcImporter extends MarcHandler
     public int importRecords()
     {
         // keep track of record counts
-        recsReadCounter = 0;
-        recsIndexedCounter = 0;
+        recsReadCounter.set(0);
+        recsIndexedCounter.set(0);
+        recsUnchangedCounter.set(0);
+        if (IndexTimings.isEnabled() && reader != null && !(reader instanceof TimedReader))
+            reader = new TimedReader(reader);
+
+        if (numShards > 1)
+        {
+            List<InputShard> shards = loadInputShards(numShards);
+            List<SolrIndexer> shardIndexers = (shards != null) ? getWorkerIndexers(numShards) : null;
+            if (shardIndexers != null)
+                return importRecordsSharded(shards, shardIndexers);
+            logger.warn("Unable to split the input into " + numShards + " shards; indexing without shards");
+        }
+
+        if (numMappingThreads > 1)
+        {
+            List<SolrIndexer> workerIndexers = getWorkerIndexers(numMappingThreads);
+            if (workerIndexers != null)
+                return importRecordsPipelined(workerIndexers);
+            logger.warn("Unable to create " + numMappingThreads + " indexer instances; indexing with a single thread");
+        }
 
         while (reader != null && reader.hasNext())
         {
@@ -152,32 +328,14 @@ public class MarcImporter extends MarcHandler
             try
             {
                 record = reader.next();
-                recsReadCounter++;
+                recsReadCounter.incrementAndGet();
             }
             catch (Exception e)
             {
-				String recCntlNum = null;
-				try
-				{
-					recCntlNum = record.getControlNumber();
-				}
-				catch (NullPointerException npe) { /* ignore */	}
-
-				if (e instanceof SolrMarcRuntimeException)
-				{
-					// stop reading
-					String errmsg = "Unable to read record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ") -- " + e.getMessage();
-					logger.fatal(errmsg);
-					logger.fatal("******** Halting indexing! ********");
-					break;
-//					throw (SolrMarcRuntimeException) e;
-				}
-				else
-				{
-					// keep reading
-					logger.error("Error reading record: " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ") -- " + e.getMessage(), e);
+				if (handleReadException(e, record, recsReadCounter.get()))
 					continue;
-				}
+				else
+					break;
 			}
 
             String recCntlNum = null;
@@ -191,73 +349,316 @@ public class MarcImporter extends MarcHandler
             try
             {
                 boolean added = addToIndex(record);
-                if (added)
-                {
-                    recsIndexedCounter++;
-                    logger.info("Added record " + recsReadCounter + " read from file: " + recCntlNum);
-                }
-                else
-                    logger.info("Deleted record " + recsReadCounter + " read from file: " + recCntlNum);
+                logIndexResult(added, recCntlNum, recsReadCounter.get());
             }
             catch (Exception e)
             {
-                Throwable cause = null;
-                if (e instanceof SolrRuntimeException)
-                    cause = e.getCause();
-                if (cause != null && cause instanceof InvocationTargetException)
-                    cause = ((InvocationTargetException)cause).getTargetException();
+                handleIndexingException(e, recCntlNum, recsReadCounter.get());
+			} // catch basic reader exception
+		} // while reader
 
-                if (cause instanceof Exception && solrProxy.isSolrException((Exception)cause))
-                {
-                    logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + " (record count "+ recsReadCounter +  ") -- " + cause.getMessage());
+        return recsIndexedCounter.get();
+    }
 
-                    if (cause.getMessage().contains("missing required fields") ||
-                        cause.getMessage().contains("multiple values encountered for non multiValued field")  ||
-                        cause.getMessage().contains("unknown field"))
-                    {
-                        // skip record, but keep indexing
-                    }
-                    else if (e instanceof SolrRuntimeException)
-                    {
-                        // stop indexing
-	                    logger.fatal("******** Halting indexing! ********");
-                        throw (new SolrRuntimeException(cause.getMessage(), (Exception)cause));
-                    }
-                }
-                else if (e instanceof SolrMarcIndexerException)
+    /**
+     * Index the shards of the input at the same time, each with its own thread
+     *  and indexer, all adding to the same index (solrProxy).  Within a shard,
+     *  records are read, mapped and written in order, and errors are handled
+     *  the same way as for single threaded indexing;  an error that halts
+     *  indexing stops all the shards.  The shards are written in no particular
+     *  order relative to each other, so when an id appears in more than one
+     *  shard (an input not sorted by id), the document left in the index for
+     *  it isn't necessarily that of its last record.
+     * @param shards the parts of the input
+     * @param shardIndexers one indexer for each shard
+     * @return Number of records indexed
+     */
+    private int importRecordsSharded(List<InputShard> shards, List<SolrIndexer> shardIndexers)
+    {
+        logger.info("Indexing with " + shards.size() + " shards");
+
+        pipelineHalted = false;
+        List<ShardThread> shardThreads = new ArrayList<ShardThread>(shards.size());
+        for (int i = 0; i < shards.size(); i++)
+            shardThreads.add(new ShardThread(i + 1, shards.get(i), shardIndexers.get(i)));
+        for (ShardThread shardThread : shardThreads)
+            shardThread.start();
+
+        RuntimeException failure = null;
+        try
+        {
+            for (ShardThread shardThread : shardThreads)
+            {
+                shardThread.join();
+                if (failure == null)
+                    failure = shardThread.failure;
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            logger.error("Interrupted while waiting for shards; stopping indexing");
+            pipelineHalted = true;
+        }
+
+        for (ShardThread shardThread : shardThreads)
+            logger.info(" Shard " + shardThread.shardNum + ": added " + shardThread.numIndexed + " of " + shardThread.numRead + " documents to index");
+
+        if (failure != null)
+            throw failure;
+
+        return recsIndexedCounter.get();
+    }
+
+    /**
+     * Iterate over the marc records in the file and add them to the index,
+     *  using a reader thread, a mapping thread for each of the passed indexers
+     *  and the calling thread as the writer.  Documents are written to the
+     *  index in the order the records were read, and errors are handled the
+     *  same way as for single threaded indexing.
+     * @param workerIndexers one indexer for each mapping thread
+     * @return Number of records indexed
+     */
+    private int importRecordsPipelined(List<SolrIndexer> workerIndexers)
+    {
+        int numWorkers = workerIndexers.size();
+        logger.info("Indexing with " + numWorkers + " mapping threads");
+
+        pipelineHalted = false;
+        BlockingQueue<PipelineRecord> readQueue = new ArrayBlockingQueue<PipelineRecord>(pipelineQueueSize);
+        BlockingQueue<PipelineRecord> mappedQueue = new LinkedBlockingQueue<PipelineRecord>();
+
+        RecordReaderThread readerThread = new RecordReaderThread(readQueue, numWorkers);
+        List<MappingWorkerThread> workers = new ArrayList<MappingWorkerThread>(numWorkers);
+        for (int i = 0; i < numWorkers; i++)
+            workers.add(new MappingWorkerThread(i + 1, workerIndexers.get(i), readQueue, mappedQueue));
+
+        readerThread.start();
+        for (MappingWorkerThread worker : workers)
+            worker.start();
+
+        // write mapped records in the order they were read
+        Map<Integer, PipelineRecord> outOfOrder = new HashMap<Integer, PipelineRecord>();
+        int nextSeqNum = 1;
+        int workersDone = 0;
+        try
+        {
+            while (workersDone < numWorkers)
+            {
+                if (shuttingDown)
+                    break;
+
+                PipelineRecord pr = mappedQueue.take();
+                if (pr == PipelineRecord.END_OF_WORK)
                 {
-                    SolrMarcIndexerException smie = (SolrMarcIndexerException)e;
-                    if (smie.getLevel() == SolrMarcIndexerException.IGNORE)
-						// skip record, but keep indexing
-           	            logger.info("Ignored record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ")");
-                    else if (smie.getLevel() == SolrMarcIndexerException.DELETE)
-						// skip record, but keep indexing
-           	            logger.info("Deleted record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ")");
-                    else if (smie.getLevel() == SolrMarcIndexerException.EXIT)
-                    {
-						// stop indexing
-						logger.fatal("Serious Error flagged in record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ")");
-						logger.fatal("******** Halting indexing! ********");
-                        throw(smie);
-                    }
+                    workersDone++;
+                    continue;
                 }
-                else
+                outOfOrder.put(pr.seqNum, pr);
+                while ((pr = outOfOrder.remove(nextSeqNum)) != null)
                 {
-					// stop indexing
-					logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recsReadCounter + ") -- " + e.getMessage(), e);
-					// this error should (might?) only be thrown if we can't
-					// write to the index
-					// therefore, continuing to index would be pointless.
-					if (e instanceof SolrRuntimeException)
-					{
-						logger.fatal("******** Halting indexing! ********");
-						throw (SolrRuntimeException) e;
-					}
-				}
-			} // catch basic reader exception
-		} // while reader
+                    nextSeqNum++;
+                    writeMappedRecord(pr);
+                }
+            }
+            if (!shuttingDown && outOfOrder.size() > 0)
+                logger.error("Unable to index " + outOfOrder.size() + " records because a mapping thread stopped unexpectedly");
+        }
+        catch (InterruptedException ie)
+        {
+            logger.error("Interrupted while waiting for mapped records; stopping indexing");
+        }
+        finally
+        {
+            pipelineHalted = true;
+            readerThread.interrupt();
+            for (MappingWorkerThread worker : workers)
+                worker.interrupt();
+            try
+            {
+                readerThread.join();
+                for (MappingWorkerThread worker : workers)
+                    worker.join();
+            }
+            catch (InterruptedException ie)
+            {
+                logger.error("Interrupted while waiting for indexing threads to stop");
+            }
+        }
+
+        if (readerThread.failure != null)
+            throw readerThread.failure;
+
+        return recsIndexedCounter.get();
+    }
+
+    /**
+     * Get an indexer for each mapping thread; the first is the indexer
+     *  already loaded.
+     * @return list of indexers, or null if they can't all be created
+     */
+    protected List<SolrIndexer> getWorkerIndexers(int numWorkers)
+    {
+        if (indexer == null)
+            return null;
+        List<SolrIndexer> result = new ArrayList<SolrIndexer>(numWorkers);
+        result.add(indexer);
+        for (int i = 1; i < numWorkers; i++)
+        {
+            SolrIndexer workerIndexer = newWorkerIndexer();
+            if (workerIndexer == null)
+                return null;
+            result.add(workerIndexer);
+        }
+        return result;
+    }
+
+    /**
+     * Add the mapped record to the index, or deal with the exception thrown
+     *  while mapping it.  Called by the writer stage of pipelined indexing.
+     */
+    private void writeMappedRecord(PipelineRecord pr)
+    {
+        try
+        {
+            if (pr.exception != null)
+            {
+                if (pr.exception instanceof SolrMarcIndexerException)
+                    deleteIfFlagged(pr.record, (SolrMarcIndexerException) pr.exception);
+                throw pr.exception;
+            }
+            boolean added = addToIndex(pr.record, pr.fields2ValuesMap, pr.recErrors);
+            logIndexResult(added, pr.recCntlNum, pr.recNum);
+        }
+        catch (Exception e)
+        {
+            handleIndexingException(e, pr.recCntlNum, pr.recNum);
+        }
+    }
+
+    /**
+     * Indexers may put collections they reuse for the next record into the
+     *  fields map (e.g. StanfordIndexer's getAccessMethods), which is fine when
+     *  the document is written right away.  Copy those collections so the map
+     *  can wait in the writer's queue while the indexer maps more records.
+     * @return the passed map, with collection values replaced by copies
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> detachValues(Map<String, Object> fields2ValuesMap)
+    {
+        for (Map.Entry<String, Object> entry : fields2ValuesMap.entrySet())
+        {
+            Object value = entry.getValue();
+            if (value instanceof Set)
+                entry.setValue(new LinkedHashSet<Object>((Set<Object>) value));
+            else if (value instanceof Collection)
+                entry.setValue(new ArrayList<Object>((Collection<Object>) value));
+        }
+        return fields2ValuesMap;
+    }
 
-        return recsIndexedCounter;
+    /**
+     * Deal with an exception thrown while reading a record.
+     * @return true if reading should continue, false if it should stop
+     */
+    private boolean handleReadException(Exception e, Record record, int recNum)
+    {
+		String recCntlNum = null;
+		try
+		{
+			recCntlNum = record.getControlNumber();
+		}
+		catch (NullPointerException npe) { /* ignore */	}
+
+		if (e instanceof SolrMarcRuntimeException)
+		{
+			// stop reading
+			String errmsg = "Unable to read record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recNum + ") -- " + e.getMessage();
+			logger.fatal(errmsg);
+			logger.fatal("******** Halting indexing! ********");
+			return false;
+//			throw (SolrMarcRuntimeException) e;
+		}
+		else
+		{
+			// keep reading
+			logger.error("Error reading record: " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recNum + ") -- " + e.getMessage(), e);
+			return true;
+		}
+    }
+
+    private void logIndexResult(boolean added, String recCntlNum, int recNum)
+    {
+        if (added)
+        {
+            recsIndexedCounter.incrementAndGet();
+            logger.info("Added record " + recNum + " read from file: " + recCntlNum);
+        }
+        else
+        {
+            recsUnchangedCounter.incrementAndGet();
+            logger.info("Unchanged record " + recNum + " read from file: " + recCntlNum);
+        }
+    }
+
+    /**
+     * Deal with an exception thrown while mapping or adding a record:  either
+     *  log it and return so indexing continues, or rethrow it to halt indexing.
+     * @param recCntlNum - id of the record, for logging
+     * @param recNum - number of the record in the input, for logging
+     */
+    protected void handleIndexingException(Exception e, String recCntlNum, int recNum)
+    {
+        Throwable cause = null;
+        if (e instanceof SolrRuntimeException)
+            cause = e.getCause();
+        if (cause != null && cause instanceof InvocationTargetException)
+            cause = ((InvocationTargetException)cause).getTargetException();
+
+        if (cause instanceof Exception && solrProxy.isSolrException((Exception)cause))
+        {
+            logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + " (record count "+ recNum +  ") -- " + cause.getMessage());
+
+            if (SolrUtils.isDocumentError(cause.getMessage()))
+            {
+                // skip record, but keep indexing
+            }
+            else if (e instanceof SolrRuntimeException)
+            {
+                // stop indexing
+                logger.fatal("******** Halting indexing! ********");
+                throw (new SolrRuntimeException(cause.getMessage(), (Exception)cause));
+            }
+        }
+        else if (e instanceof SolrMarcIndexerException)
+        {
+            SolrMarcIndexerException smie = (SolrMarcIndexerException)e;
+            if (smie.getLevel() == SolrMarcIndexerException.IGNORE)
+				// skip record, but keep indexing
+   	            logger.info("Ignored record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recNum + ")");
+            else if (smie.getLevel() == SolrMarcIndexerException.DELETE)
+				// skip record, but keep indexing
+   	            logger.info("Deleted record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recNum + ")");
+            else if (smie.getLevel() == SolrMarcIndexerException.EXIT)
+            {
+				// stop indexing
+				logger.fatal("Serious Error flagged in record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recNum + ")");
+				logger.fatal("******** Halting indexing! ********");
+                throw(smie);
+            }
+        }
+        else
+        {
+			// stop indexing
+			logger.error("Unable to index record " + (recCntlNum != null ? recCntlNum : "") + " (record count " + recNum + ") -- " + e.getMessage(), e);
+			// this error should (might?) only be thrown if we can't
+			// write to the index
+			// therefore, continuing to index would be pointless.
+			if (e instanceof SolrRuntimeException)
+			{
+				logger.fatal("******** Halting indexing! ********");
+				throw (SolrRuntimeException) e;
+			}
+		}
     }
 
     /**
@@ -268,38 +669,120 @@ public class MarcImporter extends MarcHandler
     {
         try
         {
-            Map<String, Object> fields2ValuesMap = getFldNames2ValsMap(record);
-            String docStr = addToIndex(fields2ValuesMap);
+            Map<String, Object> fields2ValuesMap = limitDocSize(record, getFldNames2ValsMap(record));
+            return addToIndex(record, fields2ValuesMap, errors);
+        }
+        catch (SolrMarcIndexerException e)
+        {
+            deleteIfFlagged(record, e);
+            throw(e);
+        }
+    }
+
+    /**
+     * Cap the fields of a mapped record that have too many values or bytes,
+     *  and skip the record if its document is still too big (see DocSizeGuard)
+     * @return the passed map, with capped values
+     * @throws SolrMarcIndexerException to ignore the record if it is too big
+     */
+    private Map<String, Object> limitDocSize(Record record, Map<String, Object> fields2ValuesMap)
+    {
+        if (docSizeGuard == null || fields2ValuesMap == null || fields2ValuesMap.isEmpty())
+            return fields2ValuesMap;
+        String recCntlNum = record.getControlNumber();
+        String rejection = docSizeGuard.limit(recCntlNum, fields2ValuesMap);
+        if (rejection != null)
+        {
+            logger.warn("Skipping record " + (recCntlNum != null ? recCntlNum : "") + " -- " + rejection);
+            throw new SolrMarcIndexerException(SolrMarcIndexerException.IGNORE, rejection);
+        }
+        return fields2ValuesMap;
+    }
+
+    /**
+     * Add a record, already mapped to Solr fields, to the index, unless its
+     *  document is the same as the one last sent (solrmarc.doc_hash_file)
+     * @param record marc record to add
+     * @param fields2ValuesMap the record mapped to Solr field names -> values
+     * @param recErrors errors found reading or mapping the record (may be null)
+     * @return true if the record was added, false if it is unchanged
+     */
+    private boolean addToIndex(Record record, Map<String, Object> fields2ValuesMap, ErrorHandler recErrors)
+        throws IOException
+    {
+        if (idsIndexedWhileDeleting != null && fields2ValuesMap.size() > 0)
+            markIndexedWhileDeleting(record, fields2ValuesMap);
 
-            if (verbose || justIndexDontAdd)
+        String docId = null;
+        long docHash = 0;
+        if (docHashStore != null && fields2ValuesMap.size() > 0)
+        {
+            Object idObj = fields2ValuesMap.get("id");
+            docId = (idObj instanceof String) ? (String) idObj : record.getControlNumber();
+            if (docId != null)
             {
-                if (verbose)
-                {
-                    System.out.println(record.toString());
-                    logger.info(record.toString());
-                }
-                System.out.println(docStr);
-                logger.info(docStr);
+                // the errors are part of the document
+                addErrorsToMap(fields2ValuesMap, recErrors);
+                docHash = DocHashStore.hashDoc(fields2ValuesMap);
+                if (docHashStore.isUnchanged(docId, docHash))
+                    return false;
             }
-            return(true);
         }
-        catch (SolrMarcIndexerException e)
+
+        String docStr = addToIndex(fields2ValuesMap, recErrors);
+        // a batching proxy may only have queued the document;  the hashes of
+        //  documents it has Solr reject are removed again in flushBatches
+        if (docId != null)
+            docHashStore.put(docId, docHash);
+
+        if (verbose || justIndexDontAdd)
         {
-            if (e.getLevel() == SolrMarcIndexerException.IGNORE)
-                throw(e);
-            else if (e.getLevel() == SolrMarcIndexerException.DELETE)
+            if (verbose)
             {
-                String id = record.getControlNumber();
-                if (id != null)
-                    solrProxy.delete(id, true, true);
-                throw(e);
+                System.out.println(record.toString());
+                logger.info(record.toString());
             }
-            else if (e.getLevel() == SolrMarcIndexerException.EXIT)
-                throw(e);
+            System.out.println(docStr);
+            logger.info(docStr);
         }
         return(true);
     }
 
+    /**
+     * note the id of a record being indexed while deleting, so it isn't deleted
+     *  if it is also in the delete-record-id-list;  waits while a batch of ids
+     *  is being deleted
+     */
+    private void markIndexedWhileDeleting(Record record, Map<String, Object> fields2ValuesMap)
+    {
+        Object idObj = fields2ValuesMap.get("id");
+        String id = (idObj instanceof String) ? (String) idObj : record.getControlNumber();
+        if (id == null)
+            return;
+        synchronized (idsIndexedWhileDeleting)
+        {
+            idsIndexedWhileDeleting.add(id);
+        }
+    }
+
+    /**
+     * if the indexer flagged the record for deletion, delete it from the index
+     */
+    protected void deleteIfFlagged(Record record, SolrMarcIndexerException e)
+        throws IOException
+    {
+        if (e.getLevel() == SolrMarcIndexerException.DELETE)
+        {
+            String id = record.getControlNumber();
+            if (id != null)
+            {
+                solrProxy.delete(id, true, true);
+                if (docHashStore != null)
+                    docHashStore.remove(id);
+            }
+        }
+    }
+
     /**
      * Calls the org.solrmarc.index.SolrIndexer (in indexer instance var) to
      *  convert the Marc record into a map of Solr field names -> values
@@ -321,23 +804,36 @@ public class MarcImporter extends MarcHandler
      */
     protected String addToIndex(Map<String, Object> fields2ValuesMap)
         throws IOException
+    {
+        return addToIndex(fields2ValuesMap, errors);
+    }
+
+    /**
+     * Add a document to the index according to the fields map;
+     *   uses justIndexDontAdd  to determine if actual index write takes place
+     * @param fields2ValuesMap marc record to add as a fields map
+     * @param recErrors errors found reading or mapping the record (may be null)
+     * @return the document added, as a String
+     */
+    private String addToIndex(Map<String, Object> fields2ValuesMap, ErrorHandler recErrors)
+        throws IOException
     {
         if (fields2ValuesMap.size() == 0)
             return null;
-        if (errors != null && includeErrors)
-        {
-            if (errors.hasErrors())
-                addErrorsToMap(fields2ValuesMap, errors);
-        }
+        addErrorsToMap(fields2ValuesMap, recErrors);
 
         // NOTE: exceptions are dealt with by calling class
-        return solrProxy.addDoc(fields2ValuesMap, verbose, !justIndexDontAdd);
+        long start = IndexTimings.start();
+        String result = solrProxy.addDoc(fields2ValuesMap, verbose, !justIndexDontAdd);
+        writeTimer.stop(start);
+        return result;
     }
 
 
     private void addErrorsToMap(Map<String, Object> map, ErrorHandler errors2)
     {
-        map.put("marc_error", errors.getErrors());
+        if (errors2 != null && includeErrors && errors2.hasErrors())
+            map.put("marc_error", errors2.getErrors());
     }
 
 
@@ -353,18 +849,6 @@ public class MarcImporter extends MarcHandler
         if (deleteRecordListFilename == null || deleteRecordListFilename.length() == 0)
             return recsDeletedCounter;
 
-        String mapPattern = null;
-        String mapReplace = null;
-        if (deleteRecordIDMapper != null)
-        {
-            String parts[] = deleteRecordIDMapper.split("->");
-            if (parts.length == 2)
-            {
-                mapPattern = parts[0];
-                mapReplace = parts[1];
-            }
-        }
-
         BufferedReader is = null;
         File delFile = null;
         try
@@ -377,20 +861,19 @@ public class MarcImporter extends MarcHandler
                 is = new BufferedReader(new FileReader(delFile));
             }
 
+            List<String> idBatch = new ArrayList<String>(deleteBatchSize);
             String line;
-            boolean fromCommitted = true;
-            boolean fromPending = true;
             while ((line = is.readLine()) != null)
             {
-                if (shuttingDown)
+                if (shuttingDown || deletesHalted)
                 	break;
                 line = line.trim();
 
                 if (line.startsWith("#"))
                 	continue;
 
-                if (deleteRecordIDMapper != null)
-                    line = line.replaceFirst(mapPattern, mapReplace);
+                if (deleteRecordIDPattern != null)
+                    line = deleteRecordIDPattern.matcher(line).replaceFirst(deleteRecordIDReplace);
 
                 String id = line;
                 idsToDeleteCounter++;
@@ -399,10 +882,12 @@ public class MarcImporter extends MarcHandler
                     System.out.println("Deleting record with id :"+ id);
                     logger.info("Deleting record with id :"+ id);
                 }
-// FIXME:  do this with SolrJ call to delete list of ids
-                solrProxy.delete(id, fromCommitted, fromPending);
-                recsDeletedCounter++;
+                idBatch.add(id);
+                if (idBatch.size() >= deleteBatchSize)
+                    deleteBatch(idBatch);
             }
+            if (!shuttingDown && !deletesHalted)
+                deleteBatch(idBatch);
         }
         catch (FileNotFoundException fnfe)
         {
@@ -412,14 +897,123 @@ public class MarcImporter extends MarcHandler
         {
             logger.error("Error: reading from delete-record-id-list: " + deleteRecordListFilename, ioe);
         }
+        finally
+        {
+            if (delFile != null && is != null)
+            {
+                try
+                {
+                    is.close();
+                }
+                catch (IOException e) { /* ignore */ }
+            }
+        }
         return recsDeletedCounter;
     }
 
+    /**
+     * delete the ids from the index in one request, count them and empty the
+     *  list.  When deleting while indexing, ids of records already indexed in
+     *  this run are not deleted, and no record is indexed until the request is
+     *  done, so a record in both the input and the delete-record-id-list stays
+     *  indexed however the two threads are timed.
+     */
+    private void deleteBatch(List<String> idBatch)
+        throws IOException
+    {
+        if (idBatch.isEmpty())
+            return;
+        if (idsIndexedWhileDeleting == null)
+            deleteIds(idBatch);
+        else
+        {
+            synchronized (idsIndexedWhileDeleting)
+            {
+                for (Iterator<String> iter = idBatch.iterator(); iter.hasNext(); )
+                {
+                    String id = iter.next();
+                    if (idsIndexedWhileDeleting.contains(id))
+                    {
+                        iter.remove();
+                        logger.info("Not deleting record " + id + " -- it is in the records being indexed");
+                    }
+                }
+                deleteIds(idBatch);
+            }
+        }
+    }
+
+    private void deleteIds(List<String> idBatch)
+        throws IOException
+    {
+        if (!idBatch.isEmpty())
+            solrProxy.delete(idBatch);
+        if (docHashStore != null)
+        {
+            for (String id : idBatch)
+                docHashStore.remove(id);
+        }
+        recsDeletedCounter += idBatch.size();
+        idBatch.clear();
+        logger.info("Deleted " + recsDeletedCounter + " of " + idsToDeleteCounter + " ids read from delete-record-id-list");
+    }
+
+    /**
+     * Deletes the records in the delete-record-id-list while the records are
+     *  indexed (marc.delete_while_indexing).  Ids of records indexed in the
+     *  same run are not deleted (see deleteBatch).
+     */
+    class DeleteThread extends Thread
+    {
+        private int numDeleted = 0;
+        /** exception that stopped the deletions, to be rethrown by waitForDeletes */
+        private RuntimeException failure = null;
+
+        DeleteThread()
+        {
+            super("MarcImporter-delete");
+        }
+
+        public void run()
+        {
+            try
+            {
+                numDeleted = deleteRecords();
+            }
+            catch (RuntimeException e)
+            {
+                failure = e;
+            }
+        }
+
+        /**
+         * wait for the deletions to finish
+         * @return Number of records deleted
+         */
+        int waitForDeletes()
+        {
+            try
+            {
+                join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                shuttingDown = true;
+            }
+            if (failure != null)
+                throw failure;
+            return numDeleted;
+        }
+    }
+
 	public void finish()
 	{
 		if (solrProxy != null)
 		{
-			if (commitAtEnd)
+			long start = IndexTimings.start();
+			allDocsSent = flushBatches();
+			if (commitAtEnd && allDocsSent)
 			{
 				try
 				{
@@ -436,12 +1030,45 @@ public class MarcImporter extends MarcHandler
 
 			solrProxy.close();
 			solrProxy = null;
+			IndexTimings.stop(IndexTimings.STAGE, "commit", start);
 		}
 		logger.info("Setting Solr closed flag");
 		isShutDown = true;
 	}
 
 
+    /**
+     * send the documents still waiting in batches (see BatchingSolrServerProxy),
+     *  and forget the hashes of the documents Solr rejected, so they are sent
+     *  again on the next run
+     * @return false if the documents couldn't all be sent
+     */
+    private boolean flushBatches()
+    {
+        if (!(solrProxy instanceof BatchingSolrServerProxy))
+            return true;
+        BatchingSolrServerProxy batchingProxy = (BatchingSolrServerProxy) solrProxy;
+        boolean result = true;
+        try
+        {
+            batchingProxy.flush();
+        }
+        catch (SolrRuntimeException e)
+        {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            logger.fatal("Unable to send the last documents to Solr -- " + cause.getMessage());
+            result = false;
+        }
+        Set<String> rejectedIds = batchingProxy.takeRejectedIds();
+        if (docHashStore != null)
+        {
+            for (String id : rejectedIds)
+                docHashStore.remove(id);
+        }
+        return result;
+    }
+
+
 // FIXME:  couldn't this method be replaced by solrProxy.commit()  ?????
    /**
      * If there is a running Solr server instance looking at the same index
@@ -463,7 +1090,7 @@ public class MarcImporter extends MarcHandler
 //    		return;
 //    	}
 
-        if (shuttingDown || !commitAtEnd)
+        if (shuttingDown || !commitAtEnd || !documentSink.equals(SolrCoreLoader.SOLR_SINK))
         	return;
         // if solrCoreDir == null  and  solrHostUpdateURL != null  then we are talking to a remote
         // solr server during the main program, so there is no need to separately contact
@@ -536,6 +1163,302 @@ public class MarcImporter extends MarcHandler
     }
 
 
+    /**
+     * A record passing through the stages of multi-threaded indexing
+     */
+    private static class PipelineRecord
+    {
+        /** marker put on a queue when a stage has no more records */
+        static final PipelineRecord END_OF_WORK = new PipelineRecord(0, 0, null, null, null);
+
+        /** position of the record among those successfully read, starting at 1 */
+        final int seqNum;
+        /** record count at the time the record was read, for logging */
+        final int recNum;
+        final Record record;
+        final String recCntlNum;
+        /** errors found reading the record (null if not tracking errors) */
+        final ErrorHandler recErrors;
+        Map<String, Object> fields2ValuesMap = null;
+        Exception exception = null;
+
+        PipelineRecord(int seqNum, int recNum, Record record, String recCntlNum, ErrorHandler recErrors)
+        {
+            this.seqNum = seqNum;
+            this.recNum = recNum;
+            this.record = record;
+            this.recCntlNum = recCntlNum;
+            this.recErrors = recErrors;
+        }
+    }
+
+    /**
+     * Reads records and queues them for the mapping threads.
+     */
+    class RecordReaderThread extends Thread
+    {
+        private final BlockingQueue<PipelineRecord> readQueue;
+        private final int numWorkers;
+        /** unexpected exception that stopped reading, to be rethrown by the writer */
+        RuntimeException failure = null;
+
+        RecordReaderThread(BlockingQueue<PipelineRecord> readQueue, int numWorkers)
+        {
+            super("MarcImporter-reader");
+            this.readQueue = readQueue;
+            this.numWorkers = numWorkers;
+        }
+
+        public void run()
+        {
+            int seqNum = 0;
+            try
+            {
+                while (reader != null && reader.hasNext())
+                {
+                    if (shuttingDown || pipelineHalted)
+                        return;
+
+                    Record record = null;
+                    try
+                    {
+                        record = reader.next();
+                        recsReadCounter.incrementAndGet();
+                    }
+                    catch (Exception e)
+                    {
+                        if (handleReadException(e, record, recsReadCounter.get()))
+                            continue;
+                        else
+                            break;
+                    }
+
+                    String recCntlNum = null;
+                    try
+                    {
+                        recCntlNum = record.getControlNumber();
+                    }
+                    catch (NullPointerException npe) { /* ignore */ }
+
+                    // the reader reuses its ErrorHandler, so copy this record's errors
+                    ErrorHandler recErrors = null;
+                    if (errors != null)
+                    {
+                        recErrors = new ErrorHandler();
+                        if (errors.hasErrors())
+                        {
+                            // marc4j's ErrorHandler only has a raw List of errors
+                            @SuppressWarnings("unchecked")
+                            List<Object> errorsCopy = new ArrayList<Object>(errors.getErrors());
+                            recErrors.addErrors(errorsCopy);
+                        }
+                    }
+
+                    readQueue.put(new PipelineRecord(++seqNum, recsReadCounter.get(), record, recCntlNum, recErrors));
+                }
+                for (int i = 0; i < numWorkers; i++)
+                    readQueue.put(PipelineRecord.END_OF_WORK);
+            }
+            catch (InterruptedException ie)
+            {
+                // indexing halted;  stop reading
+            }
+            catch (RuntimeException e)
+            {
+                logger.fatal("Unable to read records (record count " + recsReadCounter.get() + ") -- " + e.getMessage(), e);
+                failure = e;
+                pipelineHalted = true;
+            }
+            finally
+            {
+                // make sure the mapping threads stop
+                if (pipelineHalted || shuttingDown)
+                    for (int i = 0; i < numWorkers; i++)
+                        readQueue.offer(PipelineRecord.END_OF_WORK);
+            }
+        }
+    }
+
+    /**
+     * Maps queued records to Solr field name -> value maps with its own indexer,
+     *  and passes them on to the writer.
+     */
+    class MappingWorkerThread extends Thread
+    {
+        private final SolrIndexer workerIndexer;
+        private final BlockingQueue<PipelineRecord> readQueue;
+        private final BlockingQueue<PipelineRecord> mappedQueue;
+
+        MappingWorkerThread(int workerNum, SolrIndexer workerIndexer, BlockingQueue<PipelineRecord> readQueue, BlockingQueue<PipelineRecord> mappedQueue)
+        {
+            super("MarcImporter-mapper-" + workerNum);
+            this.workerIndexer = workerIndexer;
+            this.readQueue = readQueue;
+            this.mappedQueue = mappedQueue;
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (!pipelineHalted)
+                {
+                    PipelineRecord pr = readQueue.take();
+                    if (pr == PipelineRecord.END_OF_WORK)
+                        break;
+                    try
+                    {
+                        pr.fields2ValuesMap = limitDocSize(pr.record, detachValues(workerIndexer.createFldNames2ValsMap(pr.record, pr.recErrors)));
+                    }
+                    catch (Exception e)
+                    {
+                        pr.exception = e;
+                    }
+                    mappedQueue.offer(pr);
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                // indexing halted;  stop mapping
+            }
+            finally
+            {
+                mappedQueue.offer(PipelineRecord.END_OF_WORK);
+            }
+        }
+    }
+
+    /**
+     * Counts the time spent reading records (see IndexTimings):  the time
+     *  spent in hasNext() and next() counts as reading the record returned
+     *  by next().
+     */
+    private static class TimedReader implements MarcReader
+    {
+        private static final IndexTimings.Timer readTimer = IndexTimings.getTimer(IndexTimings.STAGE, IndexTimings.READ);
+        private final MarcReader reader;
+        /** time spent in hasNext() since the last record was read */
+        private long hasNextNanos = 0;
+
+        TimedReader(MarcReader reader)
+        {
+            this.reader = reader;
+        }
+
+        public boolean hasNext()
+        {
+            long start = System.nanoTime();
+            boolean result = reader.hasNext();
+            hasNextNanos += System.nanoTime() - start;
+            return result;
+        }
+
+        public Record next()
+        {
+            long start = System.nanoTime();
+            try
+            {
+                return reader.next();
+            }
+            finally
+            {
+                readTimer.add(hasNextNanos + System.nanoTime() - start);
+                hasNextNanos = 0;
+            }
+        }
+    }
+
+    /**
+     * Reads, maps and writes the records of one shard of the input, with its
+     *  own indexer.
+     */
+    class ShardThread extends Thread
+    {
+        private final int shardNum;
+        private final InputShard shard;
+        private final SolrIndexer shardIndexer;
+        /** the shard's reader, timed if timing is enabled */
+        private final MarcReader shardReader;
+        /** counts for this shard */
+        int numRead = 0;
+        int numIndexed = 0;
+        /** exception that halted indexing, to be rethrown when all shards stop */
+        RuntimeException failure = null;
+
+        ShardThread(int shardNum, InputShard shard, SolrIndexer shardIndexer)
+        {
+            super("MarcImporter-shard-" + shardNum);
+            this.shardNum = shardNum;
+            this.shard = shard;
+            this.shardIndexer = shardIndexer;
+            this.shardReader = IndexTimings.isEnabled() ? new TimedReader(shard.reader) : shard.reader;
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (shardReader.hasNext())
+                {
+                    if (shuttingDown || pipelineHalted)
+                        break;
+
+                    Record record = null;
+                    try
+                    {
+                        record = shardReader.next();
+                        numRead++;
+                        recsReadCounter.incrementAndGet();
+                    }
+                    catch (Exception e)
+                    {
+                        if (handleReadException(e, record, numRead))
+                            continue;
+                        else
+                            break;
+                    }
+
+                    String recCntlNum = null;
+                    try
+                    {
+                        recCntlNum = record.getControlNumber();
+                    }
+                    catch (NullPointerException npe) { /* ignore */ }
+
+                    try
+                    {
+                        Map<String, Object> fields2ValuesMap = null;
+                        try
+                        {
+                            fields2ValuesMap = limitDocSize(record, shardIndexer.createFldNames2ValsMap(record, shard.errors));
+                        }
+                        catch (SolrMarcIndexerException e)
+                        {
+                            deleteIfFlagged(record, e);
+                            throw e;
+                        }
+                        boolean added = addToIndex(record, fields2ValuesMap, shard.errors);
+                        if (added)
+                            numIndexed++;
+                        logIndexResult(added, recCntlNum, numRead);
+                    }
+                    catch (Exception e)
+                    {
+                        handleIndexingException(e, recCntlNum, numRead);
+                    }
+                }
+            }
+            catch (RuntimeException e)
+            {
+                if (!(e instanceof SolrRuntimeException || e instanceof SolrMarcIndexerException))
+                    logger.fatal("Unable to index shard " + shardNum + " (shard record count " + numRead + ") -- " + e.getMessage(), e);
+                failure = e;
+                pipelineHalted = true;
+            }
+        }
+    }
+
+
     /**
      * you may want to set this for testing purposes
 	 * @param deleteRecordListFilename the deleteRecordListFilename to set
@@ -587,7 +1510,7 @@ public class MarcImporter extends MarcHandler
             if (solrProxyIsRemote)
             {
                 logger.info(" Connecting to remote Solr server at URL " + solrHostUpdateURL);
-                solrProxy = SolrCoreLoader.loadRemoteSolrServer(solrHostUpdateURL, useBinaryRequestHandler, false);
+                solrProxy = SolrCoreLoader.loadRemoteSolrServer(solrHostUpdateURL, useBinaryRequestHandler, false, solrBatchSize, solrBatchMaxBytes, solrBatchRequestsInFlight);
             }
             else
             {
@@ -638,7 +1561,7 @@ public class MarcImporter extends MarcHandler
             if (solrProxyIsRemote)
             {
                 logger.info(" Connecting to remote Solr server at URL " + solrHostUpdateURL);
-                solrProxy = SolrCoreLoader.loadRemoteSolrServer(solrHostUpdateURL, useBinaryRequestHandler, useStreamingServer );
+                solrProxy = SolrCoreLoader.loadRemoteSolrServer(solrHostUpdateURL, useBinaryRequestHandler, useStreamingServer, solrBatchSize, solrBatchMaxBytes, solrBatchRequestsInFlight);
             }
             else
             {
@@ -745,6 +1668,14 @@ public class MarcImporter extends MarcHandler
 
         setIndexWritingOptions();
 
+        setIndexingThreadOptions();
+
+        setDocSizeOptions();
+
+        setDocHashStore();
+
+        setTimingOptions();
+
         setSolrProxy();
 
         return;
@@ -756,13 +1687,16 @@ public class MarcImporter extends MarcHandler
      *   marc.just_index_dont_add
      *   solr.optimize_at_end
      *   solr.commit_at_end
+     *   solrmarc.document_sink
      * to set instance variables
      *   justIndexDontAdd  (if true, sets others to false and log level to WARN
      *   optimizeAtEnd  (if true, sets commitAtEnd to true)
      *   commitAtEnd
+     *   documentSink
      */
     private void setIndexWritingOptions()
     {
+        documentSink = PropertiesUtils.getProperty(configProps, "solrmarc.document_sink", SolrCoreLoader.SOLR_SINK).trim();
         justIndexDontAdd = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "marc.just_index_dont_add"));
         if (justIndexDontAdd)
         {
@@ -781,44 +1715,185 @@ public class MarcImporter extends MarcHandler
     }
 
 
-    /** read and validate setting for deleteRecordIDMapper instance variable
-     *   from  marc.delete_record_id_mapper property */
+    /**
+     * look at properties
+     *   solrmarc.mapping_threads
+     *   solrmarc.shards
+     *   solrmarc.pipeline_queue_size
+     *   solrmarc.batch_size
+     *   solrmarc.batch_max_bytes
+     *   solrmarc.batch_requests_in_flight
+     *   solrmarc.cache_size
+     * to set instance variables
+     *   numMappingThreads (if greater than 1, records are read, mapped and written in separate threads)
+     *   numShards (if greater than 1, the input is split into shards indexed at the same time)
+     *   pipelineQueueSize
+     *   solrBatchSize (if greater than 1, documents are sent to a remote Solr in batches)
+     *   solrBatchMaxBytes
+     *   solrBatchRequestsInFlight
+     * and the maximum number of entries of the caches used while mapping records
+     */
+    private void setIndexingThreadOptions()
+    {
+        numMappingThreads = parsePositiveInt("solrmarc.mapping_threads", 1);
+        numShards = parsePositiveInt("solrmarc.shards", 1);
+        pipelineQueueSize = parsePositiveInt("solrmarc.pipeline_queue_size", 100);
+        solrBatchSize = parsePositiveInt("solrmarc.batch_size", 1);
+        solrBatchMaxBytes = parsePositiveInt("solrmarc.batch_max_bytes", 5 * 1024 * 1024);
+        solrBatchRequestsInFlight = parsePositiveInt("solrmarc.batch_requests_in_flight", 2);
+        BoundedCache.setMaxSizeOfAll(parsePositiveInt("solrmarc.cache_size", BoundedCache.DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * look at properties
+     *   solrmarc.max_field_values
+     *   solrmarc.max_field_bytes
+     *   solrmarc.max_doc_bytes
+     *   solrmarc.uncapped_fields
+     *   solrmarc.quarantine_file
+     *   solrmarc.doc_size_stats
+     * to set up the DocSizeGuard that caps the fields of mapped records.
+     *  No guard is used, and the sizes aren't counted, unless a cap is set
+     *  or solrmarc.doc_size_stats is true.
+     */
+    private void setDocSizeOptions()
+    {
+        docSizeGuard = null;
+        int maxFieldValues = parsePositiveInt("solrmarc.max_field_values", Integer.MAX_VALUE);
+        int maxFieldBytes = parsePositiveInt("solrmarc.max_field_bytes", Integer.MAX_VALUE);
+        int maxDocBytes = parsePositiveInt("solrmarc.max_doc_bytes", Integer.MAX_VALUE);
+        List<String> uncappedFields = null;
+        String fields = PropertiesUtils.getProperty(configProps, "solrmarc.uncapped_fields");
+        if (fields != null && fields.trim().length() > 0)
+            uncappedFields = Arrays.asList(fields.trim().split("[ ,;]+"));
+        String quarantineFilename = PropertiesUtils.getProperty(configProps, "solrmarc.quarantine_file");
+        boolean sizeStats = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.doc_size_stats"));
+        if (maxFieldValues == Integer.MAX_VALUE && maxFieldBytes == Integer.MAX_VALUE && maxDocBytes == Integer.MAX_VALUE && !sizeStats)
+            return;
+        docSizeGuard = new DocSizeGuard(maxFieldValues, maxFieldBytes, maxDocBytes, uncappedFields, quarantineFilename);
+    }
+
+    /**
+     * look at property solrmarc.doc_hash_file to set up the store of the
+     *  hashes of the documents sent, so records whose documents haven't
+     *  changed since the last run aren't sent again.  Only used when the
+     *  documents are added to Solr:  not with marc.just_index_dont_add, nor
+     *  when solrmarc.document_sink discards the documents or writes them to
+     *  update files, which may never be posted to Solr.
+     */
+    private void setDocHashStore()
+    {
+        docHashStore = null;
+        String docHashFilename = PropertiesUtils.getProperty(configProps, "solrmarc.doc_hash_file");
+        if (docHashFilename == null || docHashFilename.trim().length() == 0 || justIndexDontAdd || !documentSink.equals(SolrCoreLoader.SOLR_SINK))
+            return;
+        try
+        {
+            docHashStore = new DocHashStore(docHashFilename.trim());
+            logger.info("Read " + docHashStore.size() + " document hashes from " + docHashFilename.trim());
+        }
+        catch (IOException e)
+        {
+            logger.error("Unable to read document hashes from " + docHashFilename.trim() + " -- all records will be sent: " + e.getMessage());
+        }
+    }
+
+    /**
+     * look at properties solrmarc.timings and solrmarc.timing_report_file to
+     *  turn on the timings of indexing (see IndexTimings), which are logged
+     *  at the end of the run, written to the report file, if any, and
+     *  available through JMX while indexing
+     */
+    private void setTimingOptions()
+    {
+        timingReportFilename = PropertiesUtils.getProperty(configProps, "solrmarc.timing_report_file");
+        if (timingReportFilename != null && timingReportFilename.trim().length() == 0)
+            timingReportFilename = null;
+        if (timingReportFilename != null)
+            timingReportFilename = timingReportFilename.trim();
+        boolean timings = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.timings"));
+        if (timings || timingReportFilename != null)
+        {
+            IndexTimings.setEnabled(true);
+            IndexTimings.registerMBeans();
+        }
+    }
+
+    private int parsePositiveInt(String propertyName, int defaultValue)
+    {
+        String value = PropertiesUtils.getProperty(configProps, propertyName);
+        if (value == null || value.trim().length() == 0)
+            return defaultValue;
+        try
+        {
+            int result = Integer.parseInt(value.trim());
+            if (result > 0)
+                return result;
+        }
+        catch (NumberFormatException nfe)
+        {
+            // fall through to warning
+        }
+        logger.warn("Invalid value specified in property: " + propertyName + " - using " + defaultValue);
+        return defaultValue;
+    }
+
+
+    /** read and validate setting for deleteRecordIDPattern and deleteRecordIDReplace
+     *   instance variables from  marc.delete_record_id_mapper property, and set
+     *   deleteBatchSize and deleteWhileIndexing from  marc.delete_batch_size
+     *   and  marc.delete_while_indexing properties */
     private void setDeleteRecordIDMapper()
     {
-        deleteRecordIDMapper = PropertiesUtils.getProperty(configProps, "marc.delete_record_id_mapper");
+        deleteRecordIDPattern = null;
+        deleteRecordIDReplace = null;
+        String deleteRecordIDMapper = PropertiesUtils.getProperty(configProps, "marc.delete_record_id_mapper");
         if (deleteRecordIDMapper != null)
         {
             String parts[] = deleteRecordIDMapper.split("->");
             if (parts.length == 2)
             {
-                String mapPattern = parts[0];
-                String mapReplace = parts[1];
                 try
                 {
+                    Pattern mapPattern = Pattern.compile(parts[0]);
                     String testID = "12345";
-                    String tested = testID.replaceFirst(mapPattern, mapReplace);
+                    mapPattern.matcher(testID).replaceFirst(parts[1]);
+                    deleteRecordIDPattern = mapPattern;
+                    deleteRecordIDReplace = parts[1];
                     logger.info("Valid Regex pattern specified in property: marc.delete_record_id_mapper");
                 }
                 catch (PatternSyntaxException pse)
                 {
-                    deleteRecordIDMapper = null;
                     logger.warn("Invalid Regex pattern specified in property: marc.delete_record_id_mapper");
                 }
             }
             else
-            {
-                deleteRecordIDMapper = null;
                 logger.warn("Invalid Regex pattern specified in property: marc.delete_record_id_mapper");
-            }
         }
+
+        deleteBatchSize = parsePositiveInt("marc.delete_batch_size", 1000);
+        deleteWhileIndexing = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "marc.delete_while_indexing"));
     }
 
     /**
      * initialize the solrProxy instance variable based on values in
-     *  the configProps file.
+     *  the configProps file:  a Solr client, or, if solrmarc.document_sink
+     *  isn't solr, a proxy writing the documents somewhere else (see
+     *  SolrCoreLoader.loadDocumentSink)
      */
     private void setSolrProxy()
     {
+        if (!documentSink.equals(SolrCoreLoader.SOLR_SINK))
+        {
+            if (solrProxy == null)
+            {
+                String documentSinkFilename = PropertiesUtils.getProperty(configProps, "solrmarc.document_sink_file");
+                int docsPerFile = parsePositiveInt("solrmarc.document_sink_docs_per_file", 0);
+                solrProxy = SolrCoreLoader.loadDocumentSink(documentSink, documentSinkFilename, docsPerFile);
+                logger.info(" Writing documents to the " + documentSink + " document sink instead of Solr");
+            }
+            return;
+        }
         boolean useSolrServerProxy = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.use_solr_server_proxy", "true"));
         useBinaryRequestHandler = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.use_binary_request_handler", "true"));
         useStreamingServer = Boolean.parseBoolean(PropertiesUtils.getProperty(configProps, "solrmarc.use_streaming_proxy", "false"));
@@ -0,0 +1,476 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+import org.marc4j.ErrorHandler;
+import org.marc4j.MarcException;
+import org.marc4j.MarcPermissiveStreamReader;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.Record;
+
+/**
+ * Reads MARC21 binary records from a file that is memory-mapped, rather than
+ *  copied through FileInputStream and BufferedInputStream buffers.  Record
+ *  boundaries are found from the record length in the first 5 bytes of the
+ *  leader, checked against the record terminator (0x1D);  if the length is
+ *  wrong, the record ends at the next terminator.  A record is only decoded
+ *  (by marc4j's MarcPermissiveStreamReader) when next() is called.
+ * For parallel decoding, nextRange() gives the location of each record in the
+ *  file without decoding it;  getRecordBytes() and newDecoder() may then be
+ *  used by other threads.  A MarcMappedFileReader should be read either with
+ *  hasNext()/next() or with nextRange(), not both.
+ * A reader may be limited to part of the file, starting and ending on record
+ *  boundaries (see nextShardBoundary()), so parts of the file can be read by
+ *  different threads.
+ * If given a RawRecordFilter, hasNext()/next() skip the records it rejects
+ *  without decoding them.
+ *
+ * Used when marc.source = MMAP.
+ */
+public class MarcMappedFileReader implements MarcReader
+{
+    /** the file is mapped in pieces of this size, as it may be bigger than a MappedByteBuffer can be */
+    private static final long WINDOW_SIZE = 1L << 28;
+
+    /** the record terminator */
+    private static final byte RECORD_TERMINATOR = 0x1D;
+
+    /** the field terminator, which ends the directory */
+    private static final byte FIELD_TERMINATOR = 0x1E;
+
+    /** the length of a MARC leader */
+    private static final int LEADER_LENGTH = 24;
+
+    private static Logger logger = Logger.getLogger(MarcMappedFileReader.class.getName());
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final long fileSize;
+    /** the part of the file read:  from startOffset up to endOffset */
+    private final long startOffset;
+    private final long endOffset;
+    /** the mapped pieces of the file, mapped when first needed */
+    private final MappedByteBuffer windows[];
+
+    private final ErrorHandler errors;
+    private final boolean permissive;
+    private final boolean toUtf8;
+    private final String defaultEncoding;
+
+    /** offset in the file of the next record not yet returned by nextRange() */
+    private long position;
+    /** the range of the record to be returned by next(), if hasNext() found one */
+    private RecordRange nextRange = null;
+    /** the bytes of nextRange, if hasNext() found it */
+    private byte nextBytes[] = null;
+    /** decodes the records returned by next() */
+    private RecordDecoder decoder = null;
+    /** records it rejects are skipped by hasNext(), or null */
+    private RawRecordFilter rawRecordFilter = null;
+
+    /**
+     * @param fileName - the name of the MARC21 binary file
+     * @param errors - the ErrorHandler for the records' errors, or null
+     * @param permissive - true if records with errors should be read permissively
+     * @param toUtf8 - true if MARC8 records should be translated to UTF-8
+     * @param defaultEncoding - the encoding to assume if the leader doesn't give it
+     */
+    public MarcMappedFileReader(String fileName, ErrorHandler errors, boolean permissive, boolean toUtf8, String defaultEncoding)
+        throws IOException
+    {
+        this(fileName, 0, -1, errors, permissive, toUtf8, defaultEncoding);
+    }
+
+    /**
+     * @param fileName - the name of the MARC21 binary file
+     * @param startOffset - the offset in the file of the first record to read
+     * @param endOffset - the offset in the file after the last record to read,
+     *  or -1 to read to the end of the file
+     * @param errors - the ErrorHandler for the records' errors, or null
+     * @param permissive - true if records with errors should be read permissively
+     * @param toUtf8 - true if MARC8 records should be translated to UTF-8
+     * @param defaultEncoding - the encoding to assume if the leader doesn't give it
+     */
+    public MarcMappedFileReader(String fileName, long startOffset, long endOffset, ErrorHandler errors, boolean permissive, boolean toUtf8, String defaultEncoding)
+        throws IOException
+    {
+        this.fileName = fileName;
+        this.errors = errors;
+        this.permissive = permissive;
+        this.toUtf8 = toUtf8;
+        this.defaultEncoding = defaultEncoding;
+        channel = new RandomAccessFile(fileName, "r").getChannel();
+        fileSize = channel.size();
+        this.startOffset = Math.min(startOffset, fileSize);
+        this.endOffset = (endOffset < 0 || endOffset > fileSize) ? fileSize : endOffset;
+        position = this.startOffset;
+        windows = new MappedByteBuffer[(int) ((fileSize + WINDOW_SIZE - 1) / WINDOW_SIZE)];
+    }
+
+    /**
+     * @return true if there is another record in the file
+     */
+    public boolean hasNext()
+    {
+        while (nextRange == null)
+        {
+            RecordRange range = nextRange();
+            if (range == null)
+                return false;
+            byte bytes[] = getRecordBytes(range);
+            if (rawRecordFilter == null || rawRecordFilter.mightInclude(bytes, 0, bytes.length))
+            {
+                nextRange = range;
+                nextBytes = bytes;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the next record in the file, decoded
+     */
+    public Record next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException("no more records in " + fileName);
+        if (decoder == null)
+            decoder = newDecoder();
+        byte bytes[] = nextBytes;
+        nextRange = null;
+        nextBytes = null;
+        return decoder.decode(bytes);
+    }
+
+    /**
+     * @param rawRecordFilter - skip the records it rejects in hasNext()/next(),
+     *  or null to read all the records
+     */
+    public void setRawRecordFilter(RawRecordFilter rawRecordFilter)
+    {
+        this.rawRecordFilter = rawRecordFilter;
+    }
+
+    /**
+     * Find the next record in the file, without decoding it
+     * @return the offset and length of the next record, or null if there are
+     *  no more records
+     */
+    public synchronized RecordRange nextRange()
+    {
+        RecordRange result = findRange(position);
+        if (result != null)
+            position = result.getOffset() + result.getLength();
+        else
+            position = endOffset;
+        return result;
+    }
+
+    /**
+     * Find a place to split the part of the file read by this reader:  the
+     *  start of a record, at or after the offset, whose control number (001)
+     *  differs from that of the record before it, so records to be combined
+     *  (e.g. a bib record and its holdings records) aren't split.
+     * @param offset - the offset in the file to start looking from
+     * @return the offset of the record found, or the end of the part of the
+     *  file read if there isn't one
+     */
+    public long nextShardBoundary(long offset)
+    {
+        if (offset <= startOffset)
+            return startOffset;
+        if (offset >= endOffset)
+            return endOffset;
+
+        // the next record starts after a record terminator
+        long pos = offset - 1;
+        while (pos < endOffset && getByte(pos) != RECORD_TERMINATOR)
+            pos++;
+        RecordRange range = findRange(pos + 1);
+        if (range == null)
+            return endOffset;
+        String prevId = getControlNumber(range);
+        while ((range = findRange(range.getOffset() + range.getLength())) != null)
+        {
+            String id = getControlNumber(range);
+            if (id == null || !id.equals(prevId))
+                return range.getOffset();
+            prevId = id;
+        }
+        return endOffset;
+    }
+
+    /**
+     * @return the range of the record starting at the offset (after any
+     *  padding), or null if there are no more records
+     */
+    private RecordRange findRange(long offset)
+    {
+        long start = offset;
+        // skip line ends and padding between records
+        while (start < endOffset && isPadding(getByte(start)))
+            start++;
+        if (start >= endOffset)
+            return null;
+
+        long end = -1;
+        int recordLength = parseRecordLength(start);
+        if (recordLength >= LEADER_LENGTH && start + recordLength <= endOffset
+                && getByte(start + recordLength - 1) == RECORD_TERMINATOR)
+            end = start + recordLength;
+        else
+        {
+            end = start;
+            while (end < endOffset && getByte(end) != RECORD_TERMINATOR)
+                end++;
+            if (end < endOffset)
+                end++;
+            logger.debug("Record at offset " + start + " in " + fileName + " has an invalid record length; using the record terminator");
+        }
+        return new RecordRange(start, (int) (end - start));
+    }
+
+    /**
+     * @return the control number (001) of the record in the range, read from
+     *  the record's directory without decoding the record, or null if it
+     *  can't be found
+     */
+    public String getControlNumber(RecordRange range)
+    {
+        byte bytes[] = getRecordBytes(range);
+        int baseAddress = parseDigits(bytes, 12, 5);
+        if (baseAddress < 0)
+            return null;
+        for (int dirPos = LEADER_LENGTH; dirPos + 12 <= bytes.length && bytes[dirPos] != FIELD_TERMINATOR; dirPos += 12)
+        {
+            if (bytes[dirPos] == '0' && bytes[dirPos + 1] == '0' && bytes[dirPos + 2] == '1')
+            {
+                int fieldLength = parseDigits(bytes, dirPos + 3, 4);
+                int fieldStart = parseDigits(bytes, dirPos + 7, 5);
+                if (fieldLength < 1 || fieldStart < 0 || baseAddress + fieldStart + fieldLength > bytes.length)
+                    return null;
+                try
+                {
+                    // leave off the field terminator
+                    return new String(bytes, baseAddress + fieldStart, fieldLength - 1, "ISO-8859-1").trim();
+                }
+                catch (UnsupportedEncodingException e)
+                {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the bytes of the record in the range
+     */
+    public byte[] getRecordBytes(RecordRange range)
+    {
+        byte result[] = new byte[range.getLength()];
+        long offset = range.getOffset();
+        int copied = 0;
+        while (copied < result.length)
+        {
+            MappedByteBuffer window = getWindow(offset + copied);
+            int windowOffset = (int) ((offset + copied) % WINDOW_SIZE);
+            int count = Math.min(result.length - copied, window.capacity() - windowOffset);
+            // duplicate, so threads don't share the buffer's position
+            ByteBuffer view = window.duplicate();
+            view.position(windowOffset);
+            view.get(result, copied, count);
+            copied += count;
+        }
+        return result;
+    }
+
+    /**
+     * @return a decoder for records read from this file, with the same
+     *  settings as the decoder used by next().  Each thread decoding records
+     *  should have its own.
+     */
+    public RecordDecoder newDecoder()
+    {
+        return new RecordDecoder(errors, permissive, toUtf8, defaultEncoding);
+    }
+
+    /**
+     * close the file;  mapped pieces are released when they are garbage collected
+     */
+    public void close()
+        throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * @return the record length in the 5 leader bytes at the offset, or -1
+     *  if they aren't digits
+     */
+    private int parseRecordLength(long offset)
+    {
+        if (offset + 5 > endOffset)
+            return -1;
+        int result = 0;
+        for (int i = 0; i < 5; i++)
+        {
+            byte b = getByte(offset + i);
+            if (b < '0' || b > '9')
+                return -1;
+            result = result * 10 + (b - '0');
+        }
+        return result;
+    }
+
+    /**
+     * @return the number in the digits at the offset in the bytes, or -1 if
+     *  they aren't digits
+     */
+    private static int parseDigits(byte bytes[], int offset, int length)
+    {
+        if (offset + length > bytes.length)
+            return -1;
+        int result = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            if (bytes[i] < '0' || bytes[i] > '9')
+                return -1;
+            result = result * 10 + (bytes[i] - '0');
+        }
+        return result;
+    }
+
+    private static boolean isPadding(byte b)
+    {
+        return b == '\n' || b == '\r' || b == 0x1A;
+    }
+
+    private byte getByte(long offset)
+    {
+        return getWindow(offset).get((int) (offset % WINDOW_SIZE));
+    }
+
+    /**
+     * @return the mapped piece of the file containing the offset
+     */
+    private synchronized MappedByteBuffer getWindow(long offset)
+    {
+        int ix = (int) (offset / WINDOW_SIZE);
+        if (windows[ix] == null)
+        {
+            long start = ix * WINDOW_SIZE;
+            try
+            {
+                windows[ix] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+            }
+            catch (IOException e)
+            {
+                throw new MarcException("Unable to map " + fileName + " at offset " + start, e);
+            }
+        }
+        return windows[ix];
+    }
+
+    /**
+     * The offset and length of a record in the file
+     */
+    public static class RecordRange
+    {
+        private final long offset;
+        private final int length;
+
+        public RecordRange(long offset, int length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public int getLength()
+        {
+            return length;
+        }
+    }
+
+    /**
+     * Decodes the bytes of single records.  One marc4j reader is used for all
+     *  the records, reading each record's bytes in turn, so no reader or
+     *  buffers are made for each record.  Not thread safe.
+     */
+    public static class RecordDecoder
+    {
+        private final RecordInputStream input = new RecordInputStream();
+        private final MarcPermissiveStreamReader reader;
+
+        public RecordDecoder(ErrorHandler errors, boolean permissive, boolean toUtf8, String defaultEncoding)
+        {
+            if (permissive && errors != null)
+                reader = new MarcPermissiveStreamReader(input, errors, toUtf8, defaultEncoding);
+            else
+                reader = new MarcPermissiveStreamReader(input, permissive, toUtf8, defaultEncoding);
+        }
+
+        /**
+         * @param recordBytes - the bytes of one MARC21 binary record
+         * @return the decoded record
+         */
+        public Record decode(byte recordBytes[])
+        {
+            input.setRecord(recordBytes);
+            return reader.next();
+        }
+    }
+
+    /**
+     * An InputStream of the bytes of one record, that can be given the bytes
+     *  of another record when the first has been read
+     */
+    private static class RecordInputStream extends InputStream
+    {
+        private byte bytes[] = new byte[0];
+        private int pos = 0;
+
+        void setRecord(byte recordBytes[])
+        {
+            bytes = recordBytes;
+            pos = 0;
+        }
+
+        @Override
+        public int read()
+        {
+            if (pos >= bytes.length)
+                return -1;
+            return bytes[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len)
+        {
+            if (len == 0)
+                return 0;
+            if (pos >= bytes.length)
+                return -1;
+            int count = Math.min(len, bytes.length - pos);
+            System.arraycopy(bytes, pos, b, off, count);
+            pos += count;
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return bytes.length - pos;
+        }
+    }
+}
@@ -1,14 +1,19 @@
 package org.solrmarc.marc;
 
 import java.io.*;
-import java.util.Comparator;
+import java.util.*;
+import java.util.concurrent.*;
 
 import org.marc4j.util.RawRecord;
 import org.marc4j.util.RawRecordReader;
 import org.solrmarc.tools.StringNaturalCompare;
 
 /**
- * Read a binary marc file
+ * Merge binary marc update files (and lists of deleted ids) into a main file
+ *  of binary marc records, all in StringNaturalCompare order of their ids.
+ *
+ * Given more than one update file, or -segments, all the update files are
+ *  applied in one pass over the main file (see processMergeUpdates()).
  * @author Robert Haschart
  * @version $Id: RawRecordReader.java 700 2009-05-21 19:42:48Z rh9ec@virginia.edu $
  *
@@ -129,6 +134,7 @@ public class MarcMerger
         String segmentMinRecordID = minRecordID;
         String segmentMaxRecordID = maxRecordID;
         String newRecordsOut = null;
+        int numSegments = 1;
         int argoffset = 0;
         boolean mergeRecords = true;
         if (args[0].equals("-v"))
@@ -157,6 +163,37 @@ public class MarcMerger
             newRecordsOut = args[1+argoffset];
             argoffset += 2;
         }
+        if (args[0+argoffset].equals("-segments"))
+        {
+            numSegments = Integer.parseInt(args[1+argoffset]);
+            argoffset += 2;
+        }
+        if (args.length > 2+argoffset || numSegments > 1)
+        {
+            if (args[0+argoffset].endsWith(".del"))
+            {
+                System.err.println("Only one update file may be merged into a file of deleted ids");
+                System.exit(1);
+            }
+            List<String> updateFileNames = Arrays.asList(args).subList(1+argoffset, args.length);
+            String segmentMin = (segmentMinRecordID == minRecordID) ? null : segmentMinRecordID;
+            String segmentMax = (segmentMaxRecordID == maxRecordID) ? null : segmentMaxRecordID;
+            try
+            {
+                OutputStream out = new BufferedOutputStream(System.out);
+                OutputStream newRecordsOutStream = (newRecordsOut == null) ? null : new BufferedOutputStream(new FileOutputStream(new File(newRecordsOut)));
+                processMergeUpdates(args[0+argoffset], updateFileNames, segmentMin, segmentMax, numSegments, out, newRecordsOutStream);
+                out.flush();
+                if (newRecordsOutStream != null)
+                    newRecordsOutStream.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+                System.exit(1);
+            }
+            return;
+        }
         if (args[0+argoffset].endsWith(".del"))
         {
             // merging deletes, not merging records.
@@ -445,6 +482,468 @@ public class MarcMerger
     }
 
 
+    /**
+     * Merge update files into the main file in one pass:  a k-way merge of the
+     *  main file with all the update files and their lists of deleted ids.
+     *  The update files are given in the order they were made, and the last
+     *  one with a record or a deletion for an id wins.  A deletion in an update
+     *  file wins over a record with the same id in the same update file.
+     *
+     * An update file name ending in .mrc is read with the .del file of the same
+     *  name, if there is one;  a name ending in .del is a list of deleted ids
+     *  only;  for a name without an extension, name.mrc and name.del are read.
+     *
+     * With more than one segment, the main file is split into segments of
+     *  about the same size that are merged in parallel, each with the records
+     *  of the update files in its range of ids, and then written in order.
+     * @param mainFileName - the file of records to merge the updates into
+     * @param updateFileNames - the update files, in the order they were made
+     * @param minID - only records with ids from this one are written;  null for no minimum
+     * @param maxID - only records with ids before this one are written;  null for no maximum
+     * @param numSegments - the number of segments to merge in parallel
+     * @param out - where the merged records are written
+     * @param newRecsOut - where records in the update files that are not in
+     *  the main file are also written, or null
+     */
+    static void processMergeUpdates(String mainFileName, List<String> updateFileNames, String minID, String maxID, int numSegments, OutputStream out, OutputStream newRecsOut)
+        throws IOException
+    {
+        StringNaturalCompare.SortKey minKey = (minID == null) ? null : new StringNaturalCompare.SortKey(minID);
+        StringNaturalCompare.SortKey maxKey = (maxID == null) ? null : new StringNaturalCompare.SortKey(maxID);
+        if (numSegments <= 1)
+        {
+            RawRecordReader mainFile = new RawRecordReader(new FileInputStream(new File(mainFileName)));
+            mergeUpdates(mainFile, updateFileNames, minKey, maxKey, out, newRecsOut);
+            return;
+        }
+
+        // each segment of the main file has the ids from its first record up to the first record of the next segment
+        List<MarcShardReader.Segment> segments = new ArrayList<MarcShardReader.Segment>();
+        List<StringNaturalCompare.SortKey> segmentMinKeys = new ArrayList<StringNaturalCompare.SortKey>();
+        for (List<MarcShardReader.Segment> shard : MarcShardReader.getShardSegments(Collections.singletonList(mainFileName), numSegments))
+        {
+            if (shard.isEmpty())
+                continue;
+            InputStream segmentInput = openSegment(shard.get(0));
+            RawRecordReader reader = new RawRecordReader(segmentInput);
+            segmentMinKeys.add(segments.isEmpty() || !reader.hasNext() ? minKey : new StringNaturalCompare.SortKey(reader.next().getRecordId()));
+            segmentInput.close();
+            segments.add(shard.get(0));
+        }
+        if (segments.isEmpty())
+        {
+            mergeUpdates(null, updateFileNames, minKey, maxKey, out, newRecsOut);
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(segments.size());
+        List<Future<File[]>> results = new ArrayList<Future<File[]>>();
+        try
+        {
+            for (int i = 0; i < segments.size(); i++)
+            {
+                final MarcShardReader.Segment segment = segments.get(i);
+                final List<String> segmentUpdateFileNames = updateFileNames;
+                final StringNaturalCompare.SortKey segmentMinKey = max(segmentMinKeys.get(i), minKey);
+                final StringNaturalCompare.SortKey segmentMaxKey = (i + 1 < segments.size()) ? min(segmentMinKeys.get(i + 1), maxKey) : maxKey;
+                final boolean writeNewRecs = (newRecsOut != null);
+                results.add(executor.submit(new Callable<File[]>()
+                {
+                    public File[] call() throws IOException
+                    {
+                        File segmentOut = File.createTempFile("MarcMerger", ".mrc");
+                        File segmentNewRecsOut = writeNewRecs ? File.createTempFile("MarcMerger", ".new.mrc") : null;
+                        OutputStream segOut = new BufferedOutputStream(new FileOutputStream(segmentOut));
+                        OutputStream segNewRecsOut = writeNewRecs ? new BufferedOutputStream(new FileOutputStream(segmentNewRecsOut)) : null;
+                        InputStream segmentInput = openSegment(segment);
+                        try
+                        {
+                            mergeUpdates(new RawRecordReader(segmentInput), segmentUpdateFileNames, segmentMinKey, segmentMaxKey, segOut, segNewRecsOut);
+                        }
+                        finally
+                        {
+                            segmentInput.close();
+                            segOut.close();
+                            if (segNewRecsOut != null)
+                                segNewRecsOut.close();
+                        }
+                        return new File[] {segmentOut, segmentNewRecsOut};
+                    }
+                }));
+            }
+
+            List<File[]> segmentFiles = new ArrayList<File[]>();
+            try
+            {
+                for (Future<File[]> result : results)
+                    segmentFiles.add(result.get());
+                for (File[] files : segmentFiles)
+                {
+                    copyFile(files[0], out);
+                    if (files[1] != null)
+                        copyFile(files[1], newRecsOut);
+                }
+            }
+            finally
+            {
+                for (File[] files : segmentFiles)
+                {
+                    files[0].delete();
+                    if (files[1] != null)
+                        files[1].delete();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new IOException("Interrupted while merging segments of " + mainFileName);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Merge update files into the records of the main file with ids from
+     *  minKey up to maxKey;  see processMergeUpdates()
+     * @param mainFile - the records to merge the updates into, or null if there are none
+     */
+    static void mergeUpdates(RawRecordReader mainFile, List<String> updateFileNames, StringNaturalCompare.SortKey minKey, StringNaturalCompare.SortKey maxKey, OutputStream out, OutputStream newRecsOut)
+        throws IOException
+    {
+        List<MergeSource> sources = new ArrayList<MergeSource>();
+        try
+        {
+            if (mainFile != null)
+                sources.add(new RecordSource(mainFile, null, 0));
+            int updateNum = 1;
+            for (String updateFileName : updateFileNames)
+            {
+                String modfile = updateFileName;
+                String delfile = null;
+                if (updateFileName.endsWith(".del"))
+                {
+                    modfile = null;
+                    delfile = updateFileName;
+                }
+                else if (updateFileName.endsWith(".mrc"))
+                    delfile = updateFileName.substring(0, updateFileName.length()-4) + ".del";
+                else if (!updateFileName.substring(Math.max(updateFileName.lastIndexOf('\\'), updateFileName.lastIndexOf('/'))).contains("."))
+                {
+                    delfile = updateFileName + ".del";
+                    modfile = updateFileName + ".mrc";
+                }
+                boolean found = false;
+                if (modfile != null && new File(modfile).exists())
+                {
+                    InputStream modInput = new FileInputStream(new File(modfile));
+                    sources.add(new RecordSource(new RawRecordReader(modInput), modInput, updateNum));
+                    found = true;
+                }
+                if (delfile != null && new File(delfile).exists())
+                {
+                    sources.add(new DeleteSource(new BufferedReader(new InputStreamReader(new FileInputStream(new File(delfile)))), updateNum));
+                    found = true;
+                }
+                if (!found)
+                    throw new FileNotFoundException("No update records or deleted ids found for " + updateFileName);
+                updateNum++;
+            }
+
+            PriorityQueue<MergeSource> queue = new PriorityQueue<MergeSource>(sources.size());
+            for (MergeSource source : sources)
+            {
+                if (source.advance(minKey, maxKey))
+                    queue.add(source);
+            }
+
+            List<MergeSource> sameId = new ArrayList<MergeSource>();
+            while (!queue.isEmpty())
+            {
+                sameId.clear();
+                sameId.add(queue.poll());
+                while (!queue.isEmpty() && queue.peek().key.compareTo(sameId.get(0).key) == 0)
+                    sameId.add(queue.poll());
+
+                // the last update wins;  a deletion wins over a record in the same update
+                MergeSource winner = null;
+                boolean inMainFile = false;
+                for (MergeSource source : sameId)
+                {
+                    if (source.updateNum == 0)
+                        inMainFile = true;
+                    if (winner == null || source.updateNum > winner.updateNum || (source.updateNum == winner.updateNum && source.getRecordBytes() == null))
+                        winner = source;
+                }
+
+                byte recordBytes[] = winner.getRecordBytes();
+                if (recordBytes == null)
+                {
+                    if (verbose && inMainFile) System.err.println("\nDeleting record "+ winner.id);
+                }
+                else
+                {
+                    if (winner.updateNum == 0)
+                    {
+                        if (veryverbose) System.err.println("\nWriting original record "+ winner.id + " from input file");
+                    }
+                    else if (inMainFile)
+                    {
+                        if (verbose) System.err.println("\nWriting changed record "+ winner.id + " from update " + winner.updateNum);
+                    }
+                    else
+                    {
+                        if (verbose) System.err.println("\nWriting new record "+ winner.id + " from update " + winner.updateNum);
+                        if (newRecsOut != null)
+                            newRecsOut.write(recordBytes);
+                    }
+                    out.write(recordBytes);
+                }
+
+                for (MergeSource source : sameId)
+                {
+                    if (source.advance(minKey, maxKey))
+                        queue.add(source);
+                }
+            }
+        }
+        finally
+        {
+            for (MergeSource source : sources)
+                source.close();
+        }
+    }
+
+    private static StringNaturalCompare.SortKey min(StringNaturalCompare.SortKey key1, StringNaturalCompare.SortKey key2)
+    {
+        if (key1 == null || key2 == null)
+            return (key1 == null) ? key2 : key1;
+        return (key1.compareTo(key2) <= 0) ? key1 : key2;
+    }
+
+    private static StringNaturalCompare.SortKey max(StringNaturalCompare.SortKey key1, StringNaturalCompare.SortKey key2)
+    {
+        if (key1 == null || key2 == null)
+            return (key1 == null) ? key2 : key1;
+        return (key1.compareTo(key2) >= 0) ? key1 : key2;
+    }
+
+    /**
+     * @return a stream of the bytes of the segment of the file
+     */
+    private static InputStream openSegment(MarcShardReader.Segment segment)
+        throws IOException
+    {
+        FileInputStream input = new FileInputStream(new File(segment.fileName));
+        input.getChannel().position(segment.startOffset);
+        return new SegmentInputStream(input, segment.endOffset - segment.startOffset);
+    }
+
+    private static void copyFile(File file, OutputStream out)
+        throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            byte buffer[] = new byte[64 * 1024];
+            int count;
+            while ((count = in.read(buffer)) > 0)
+                out.write(buffer, 0, count);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * The records or deleted ids of one of the files being merged, with the
+     *  id of the current one
+     */
+    private static abstract class MergeSource implements Comparable<MergeSource>
+    {
+        /** 0 for the main file, otherwise the position of the update in the update files */
+        final int updateNum;
+        String id = null;
+        StringNaturalCompare.SortKey key = null;
+
+        MergeSource(int updateNum)
+        {
+            this.updateNum = updateNum;
+        }
+
+        /**
+         * read the next record or deleted id, setting id
+         * @return false if there are no more
+         */
+        abstract boolean readNext() throws IOException;
+
+        /**
+         * @return the bytes of the current record, or null if the id was deleted
+         */
+        abstract byte[] getRecordBytes();
+
+        abstract void close();
+
+        /**
+         * move to the next record or deleted id from minKey up to maxKey
+         * @return false if there are no more
+         */
+        boolean advance(StringNaturalCompare.SortKey minKey, StringNaturalCompare.SortKey maxKey)
+            throws IOException
+        {
+            while (readNext())
+            {
+                key = new StringNaturalCompare.SortKey(id);
+                if (minKey != null && key.compareTo(minKey) < 0)
+                    continue;
+                return maxKey == null || key.compareTo(maxKey) < 0;
+            }
+            return false;
+        }
+
+        public int compareTo(MergeSource other)
+        {
+            return key.compareTo(other.key);
+        }
+    }
+
+    private static class RecordSource extends MergeSource
+    {
+        private final RawRecordReader reader;
+        private final InputStream input;
+        private RawRecord current = null;
+
+        RecordSource(RawRecordReader reader, InputStream input, int updateNum)
+        {
+            super(updateNum);
+            this.reader = reader;
+            this.input = input;
+        }
+
+        boolean readNext()
+        {
+            current = reader.hasNext() ? reader.next() : null;
+            id = (current == null) ? null : current.getRecordId();
+            return current != null;
+        }
+
+        byte[] getRecordBytes()
+        {
+            return current.getRecordBytes();
+        }
+
+        void close()
+        {
+            try
+            {
+                if (input != null)
+                    input.close();
+            }
+            catch (IOException e)
+            {
+                // nothing to do
+            }
+        }
+    }
+
+    private static class DeleteSource extends MergeSource
+    {
+        private final BufferedReader delReader;
+
+        DeleteSource(BufferedReader delReader, int updateNum)
+        {
+            super(updateNum);
+            this.delReader = delReader;
+        }
+
+        boolean readNext()
+        {
+            id = getNextDelId(delReader);
+            return !id.equals(maxRecordID);
+        }
+
+        byte[] getRecordBytes()
+        {
+            return null;
+        }
+
+        void close()
+        {
+            try
+            {
+                delReader.close();
+            }
+            catch (IOException e)
+            {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * An InputStream of the bytes of a segment of a file
+     */
+    private static class SegmentInputStream extends FilterInputStream
+    {
+        private long remaining;
+
+        SegmentInputStream(InputStream input, long length)
+        {
+            super(input);
+            remaining = length;
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            if (remaining <= 0)
+                return -1;
+            int result = super.read();
+            if (result >= 0)
+                remaining--;
+            return result;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len)
+            throws IOException
+        {
+            if (remaining <= 0)
+                return -1;
+            int result = super.read(b, off, (int) Math.min(len, remaining));
+            if (result > 0)
+                remaining -= result;
+            return result;
+        }
+
+        @Override
+        public long skip(long n)
+            throws IOException
+        {
+            long result = super.skip(Math.min(n, remaining));
+            remaining -= result;
+            return result;
+        }
+
+        @Override
+        public int available()
+            throws IOException
+        {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+
     private static String getNextDelId(BufferedReader delReader)
     {
         if (delReader == null) return(maxRecordID);
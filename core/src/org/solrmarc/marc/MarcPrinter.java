@@ -19,6 +19,7 @@ package org.solrmarc.marc;
 
 import java.io.*;
 import java.util.*;
+import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
@@ -50,6 +51,12 @@ public class MarcPrinter extends MarcHandler
     static Logger logger = Logger.getLogger(MarcPrinter.class.getName());
     private String mode;
     private String indexkeyprefix = null;
+    /** indexkeyprefix, compiled once */
+    private Pattern indexkeyPattern = null;
+    /** the Solr field names seen in index mode, so each is matched once */
+    private final Set<String> seenIndexKeys = new HashSet<String>();
+    /** the Solr field names seen in index mode that match indexkeyprefix, sorted once */
+    private final SortedSet<String> sortedIndexKeys = new TreeSet<String>();
     private MarcWriter writer = null;
     private PrintWriter out;
     private boolean unique = false;
@@ -86,6 +93,8 @@ public class MarcPrinter extends MarcHandler
                 indexkeyprefix = arg.replaceAll("\\*", ".*").replaceAll("\\?", ".?");
             }
         }
+        if (indexkeyprefix != null)
+            indexkeyPattern = Pattern.compile(indexkeyprefix);
         String marcIncludeIfPresent2 = PropertiesUtils.getProperty(configProps, "marc.include_if_present2");
         String marcIncludeIfMissing2 = PropertiesUtils.getProperty(configProps, "marc.include_if_missing2");
 
@@ -122,7 +131,7 @@ public class MarcPrinter extends MarcHandler
                         String lines[] = recStr.split("\r?\n");
                         for (String line : lines)
                         {
-                            if (line.substring(0,3).matches(indexkeyprefix))
+                            if (indexkeyPattern.matcher(line.substring(0,3)).matches())
                             {
                                 out.println(line);
                             }         
@@ -169,8 +178,7 @@ public class MarcPrinter extends MarcHandler
                 }
                 else if (mode.equals("index"))
                 {
-                    String recStr = record.toString();
-                    if (verbose) out.println(recStr);
+                    if (verbose) out.println(record.toString());
                     try {
                         Map<String,Object> indexMap = indexer.createFldNames2ValsMap(record, errors);
                         if (errors != null && includeErrors)
@@ -180,38 +188,37 @@ public class MarcPrinter extends MarcHandler
                                 indexMap.put("marc_error", errors.getErrors());
                             }
                         }
-                        TreeSet<String> sortedKeys = new TreeSet<String>();
-                        sortedKeys.addAll(indexMap.keySet());
-                        Iterator<String> keys = sortedKeys.iterator();
-                        String key = "id";
-                        Object recordID = indexMap.get(key);
+                        // records mostly have the same field names:  add new ones to the sorted
+                        //  names wanted, rather than matching and sorting the names of each record
+                        for (String key : indexMap.keySet())
+                        {
+                            if (seenIndexKeys.add(key) && (indexkeyPattern == null || indexkeyPattern.matcher(key).matches()))
+                                sortedIndexKeys.add(key);
+                        }
+                        Object recordID = indexMap.get("id");
                         //out.println("\nIndexID= "+ key + "  Value = "+ value);
-                        while (keys.hasNext())
+                        for (String key : sortedIndexKeys)
                         {
-                            key = keys.next();
                             Object value = indexMap.get(key);
     //                        if (key.equals("id")) continue;
-                            if (indexkeyprefix == null || key.matches(indexkeyprefix))
+                            if (value instanceof String)
                             {
-                                if (value instanceof String)
+                                if (!unique || !contentMap.contains(value.toString()))
                                 {
-                                    if (!unique || !contentMap.contains(value.toString()))
-                                    {
-                                        if (unique) contentMap.add(value.toString());
-                                        out.println(recordID+ " : "+ key + " = "+ value);
-                                    }
+                                    if (unique) contentMap.add(value.toString());
+                                    out.println(recordID+ " : "+ key + " = "+ value);
                                 }
-                                else if (value instanceof Collection)
+                            }
+                            else if (value instanceof Collection)
+                            {
+                                Iterator<?> valIter = ((Collection)value).iterator();
+                                while (valIter.hasNext())
                                 {
-                                    Iterator<?> valIter = ((Collection)value).iterator();
-                                    while (valIter.hasNext())
+                                    String collVal = valIter.next().toString();
+                                    if (!unique || !contentMap.contains(collVal))
                                     {
-                                        String collVal = valIter.next().toString();
-                                        if (!unique || !contentMap.contains(collVal))
-                                        {
-                                            if (unique) contentMap.add(collVal);
-                                            out.println(recordID+ " : "+ key + " = "+ collVal);
-                                        }
+                                        if (unique) contentMap.add(collVal);
+                                        out.println(recordID+ " : "+ key + " = "+ collVal);
                                     }
                                 }
                             }
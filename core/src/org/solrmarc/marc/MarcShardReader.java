@@ -0,0 +1,199 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.log4j.Logger;
+import org.marc4j.ErrorHandler;
+import org.marc4j.MarcException;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.Record;
+
+/**
+ * Reads one shard of the MARC21 binary input when indexing with several
+ *  shards (solrmarc.shards):  a list of segments of files, each read with a
+ *  MarcMappedFileReader.  getShardSegments() splits the input files into
+ *  shards of about the same size, on record boundaries.
+ */
+public class MarcShardReader implements MarcReader
+{
+    private static Logger logger = Logger.getLogger(MarcShardReader.class.getName());
+
+    private final List<Segment> segments;
+    private final ErrorHandler errors;
+    private final boolean permissive;
+    private final boolean toUtf8;
+    private final String defaultEncoding;
+
+    /** index of the segment being read */
+    private int segmentIx = -1;
+    /** reader for the segment being read */
+    private MarcMappedFileReader segmentReader = null;
+    /** given to the segment readers, or null */
+    private RawRecordFilter rawRecordFilter = null;
+
+    /**
+     * @param segments - the segments of files to read, in order
+     * @param errors - the ErrorHandler for the records' errors, or null
+     * @param permissive - true if records with errors should be read permissively
+     * @param toUtf8 - true if MARC8 records should be translated to UTF-8
+     * @param defaultEncoding - the encoding to assume if the leader doesn't give it
+     */
+    public MarcShardReader(List<Segment> segments, ErrorHandler errors, boolean permissive, boolean toUtf8, String defaultEncoding)
+    {
+        this.segments = segments;
+        this.errors = errors;
+        this.permissive = permissive;
+        this.toUtf8 = toUtf8;
+        this.defaultEncoding = defaultEncoding;
+    }
+
+    public boolean hasNext()
+    {
+        while (segmentReader == null || !segmentReader.hasNext())
+        {
+            closeSegment();
+            if (segmentIx + 1 >= segments.size())
+                return false;
+            segmentIx++;
+            Segment segment = segments.get(segmentIx);
+            try
+            {
+                segmentReader = new MarcMappedFileReader(segment.fileName, segment.startOffset, segment.endOffset, errors, permissive, toUtf8, defaultEncoding);
+                segmentReader.setRawRecordFilter(rawRecordFilter);
+            }
+            catch (IOException e)
+            {
+                throw new MarcException("Unable to open MARC data file: " + segment.fileName, e);
+            }
+        }
+        return true;
+    }
+
+    public Record next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException("no more records in shard");
+        return segmentReader.next();
+    }
+
+    /**
+     * @param rawRecordFilter - skip the records it rejects without decoding
+     *  them, or null to read all the records
+     */
+    public void setRawRecordFilter(RawRecordFilter rawRecordFilter)
+    {
+        this.rawRecordFilter = rawRecordFilter;
+    }
+
+    private void closeSegment()
+    {
+        if (segmentReader == null)
+            return;
+        try
+        {
+            segmentReader.close();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to close MARC data file: " + segments.get(segmentIx).fileName);
+        }
+        segmentReader = null;
+    }
+
+    /**
+     * Split MARC21 binary files into shards of about the same number of bytes,
+     *  on record boundaries that don't separate records with the same control
+     *  number.
+     * @param fileNames - the files to split, in the order they would be read
+     * @param numShards - the number of shards wanted
+     * @return the segments of the files in each shard;  a shard may have no
+     *  segments if the files are small
+     */
+    public static List<List<Segment>> getShardSegments(List<String> fileNames, int numShards)
+        throws IOException
+    {
+        List<List<Segment>> result = new ArrayList<List<Segment>>(numShards);
+        if (fileNames.isEmpty())
+        {
+            for (int shard = 0; shard < numShards; shard++)
+                result.add(new ArrayList<Segment>());
+            return result;
+        }
+
+        long fileSizes[] = new long[fileNames.size()];
+        long totalSize = 0;
+        for (int i = 0; i < fileSizes.length; i++)
+        {
+            fileSizes[i] = new File(fileNames.get(i)).length();
+            totalSize += fileSizes[i];
+        }
+
+        // where each shard starts:  file index and offset in the file
+        int cutFile[] = new int[numShards + 1];
+        long cutOffset[] = new long[numShards + 1];
+        cutFile[numShards] = fileSizes.length - 1;
+        cutOffset[numShards] = fileSizes[fileSizes.length - 1];
+        int fileIx = 0;
+        long fileStart = 0;
+        for (int shard = 1; shard < numShards; shard++)
+        {
+            long target = totalSize * shard / numShards;
+            while (fileIx < fileSizes.length - 1 && fileStart + fileSizes[fileIx] <= target)
+            {
+                fileStart += fileSizes[fileIx];
+                fileIx++;
+            }
+            long offset = Math.max(target - fileStart, 0);
+            if (fileIx == cutFile[shard - 1] && offset < cutOffset[shard - 1])
+                offset = cutOffset[shard - 1];
+            MarcMappedFileReader reader = new MarcMappedFileReader(fileNames.get(fileIx), null, true, false, null);
+            try
+            {
+                cutOffset[shard] = reader.nextShardBoundary(offset);
+            }
+            finally
+            {
+                reader.close();
+            }
+            cutFile[shard] = fileIx;
+        }
+
+        for (int shard = 0; shard < numShards; shard++)
+        {
+            List<Segment> shardSegments = new ArrayList<Segment>();
+            for (int i = cutFile[shard]; i <= cutFile[shard + 1]; i++)
+            {
+                long start = (i == cutFile[shard]) ? cutOffset[shard] : 0;
+                long end = (i == cutFile[shard + 1]) ? cutOffset[shard + 1] : fileSizes[i];
+                if (end > start)
+                    shardSegments.add(new Segment(fileNames.get(i), start, end));
+            }
+            result.add(shardSegments);
+        }
+        return result;
+    }
+
+    /**
+     * A part of a MARC21 binary file, starting and ending on record boundaries
+     */
+    public static class Segment
+    {
+        final String fileName;
+        final long startOffset;
+        final long endOffset;
+
+        public Segment(String fileName, long startOffset, long endOffset)
+        {
+            this.fileName = fileName;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+        }
+
+        @Override
+        public String toString()
+        {
+            return fileName + " [" + startOffset + "-" + endOffset + ")";
+        }
+    }
+}
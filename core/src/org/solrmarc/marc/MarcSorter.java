@@ -1,22 +1,34 @@
 package org.solrmarc.marc;
 
 import java.io.*;
-import java.util.TreeMap;
+import java.util.*;
 
 import org.marc4j.util.RawRecord;
 import org.marc4j.util.RawRecordReader;
 import org.solrmarc.tools.StringNaturalCompare;
 
 /**
- * Read a binary marc file
+ * Read a binary marc file and write its records sorted by id (001), in
+ *  StringNaturalCompare order.  Records with the same id are written together,
+ *  in the order they were read.
+ * Records are sorted in memory until they take more than the memory budget
+ *  (-m, in megabytes;  a quarter of the maximum heap by default).  Then each
+ *  sorted run of records is written to a temporary file (in the -t directory,
+ *  or java.io.tmpdir), and the runs are merged when all the records are read.
  * @author Robert Haschart
  * @version $Id: RawRecordReader.java 700 2009-05-21 19:42:48Z rh9ec@virginia.edu $
  *
  */
 public class MarcSorter
 {
-    static TreeMap<String, byte[]> recordMap = null;
     static boolean verbose = false;
+
+    /** approximate number of bytes used by a sorted record, besides its bytes and id */
+    private static final int RECORD_OVERHEAD = 160;
+
+    /** size of the buffer for reading each run file when merging */
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
 	 // Initialize logging category
 	/**
 	 *
@@ -26,9 +38,32 @@ public class MarcSorter
     {
     //    try {
         InputStream input;
-        recordMap = new TreeMap<String, byte[]>(new StringNaturalCompare());
+        long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+        File tempDir = null;
         int offset = 0;
-        if (args[0].equals("-v")) { verbose = true; offset = 1; }
+        while (offset < args.length - 1 && args[offset].startsWith("-") && !args[offset].equals("-"))
+        {
+            if (args[offset].equals("-v"))
+            {
+                verbose = true;
+                offset++;
+            }
+            else if (args[offset].equals("-m"))
+            {
+                memoryBudget = Long.parseLong(args[offset + 1]) * 1024 * 1024;
+                offset += 2;
+            }
+            else if (args[offset].equals("-t"))
+            {
+                tempDir = new File(args[offset + 1]);
+                offset += 2;
+            }
+            else
+            {
+                System.err.println("Usage: MarcSorter [-v] [-m maxMegabytesInMemory] [-t tempDirectory] marcFile.mrc|-");
+                return;
+            }
+        }
         try
         {
             if (args[offset].equals("-"))
@@ -41,7 +76,9 @@ public class MarcSorter
                 input = new FileInputStream(new File(args[offset]));
                 if (verbose)  System.err.println("reading file "+ args[offset]);
             }
-            processInput(input);
+            OutputStream output = new BufferedOutputStream(System.out);
+            processInput(input, output, memoryBudget, tempDir);
+            output.flush();
         }
         catch (FileNotFoundException e)
         {
@@ -56,47 +93,233 @@ public class MarcSorter
 
     }
 
-    static void processInput(InputStream input)
+    /**
+     * Write the records read from input to output, sorted by id
+     * @param input - binary marc records
+     * @param output - where to write the sorted records
+     * @param memoryBudget - the number of bytes of records to sort in memory
+     *  before writing a sorted run to a temporary file
+     * @param tempDir - directory for the temporary files, or null for the
+     *  default temporary directory
+     */
+    static void processInput(InputStream input, OutputStream output, long memoryBudget, File tempDir)
+        throws IOException
     {
-        RawRecordReader rawReader = new RawRecordReader(input);
-        RawRecord rec = rawReader.hasNext() ? rawReader.next() : null;
-        while (rec != null)
-        {
-            String field001 = "Undefined";
-            field001 = rec.getRecordId();
-            byte newRec[] = rec.getRecordBytes();
-            if (recordMap.containsKey(field001))
+        List<File> runFiles = new ArrayList<File>();
+        try
+        {
+            List<SortedRecord> records = new ArrayList<SortedRecord>();
+            long recordsSize = 0;
+            RawRecordReader rawReader = new RawRecordReader(input);
+            RawRecord rec = rawReader.hasNext() ? rawReader.next() : null;
+            while (rec != null)
+            {
+                String field001 = rec.getRecordId();
+                SortedRecord sortedRec = new SortedRecord(field001, rec.getRecordBytes());
+                records.add(sortedRec);
+                recordsSize += sortedRec.size();
+                if (verbose) System.err.println("Record read : "+ field001);
+                if (recordsSize > memoryBudget)
+                {
+                    runFiles.add(writeRun(records, tempDir));
+                    records.clear();
+                    recordsSize = 0;
+                }
+                rec = rawReader.hasNext() ? rawReader.next() : null;
+            }
+
+            if (runFiles.isEmpty())
             {
-                byte existingRec[] = recordMap.get(field001);
-                byte combinedRec[] = new byte[existingRec.length + newRec.length];
-                System.arraycopy(existingRec, 0, combinedRec, 0, existingRec.length);
-                System.arraycopy(newRec, 0, combinedRec, existingRec.length, newRec.length);
-                recordMap.put(field001, combinedRec);
+                // stable, so records with the same id stay in the order read
+                Collections.sort(records);
+                for (SortedRecord sortedRec : records)
+                    writeRecord(sortedRec, output);
             }
             else
             {
-                recordMap.put(field001, newRec);
+                if (!records.isEmpty())
+                    runFiles.add(writeRun(records, tempDir));
+                records = null;
+                mergeRuns(runFiles, output);
             }
-            if (verbose) System.err.println("Record read : "+ field001);
-            rec = rawReader.hasNext() ? rawReader.next() : null;
         }
+        finally
+        {
+            for (File runFile : runFiles)
+                runFile.delete();
+        }
+    }
+
+    private static void writeRecord(SortedRecord sortedRec, OutputStream output)
+        throws IOException
+    {
+        output.write(sortedRec.recordBytes);
+        if (verbose) System.err.println("Record written : "+ sortedRec.key.getString());
+    }
+
+    /**
+     * sort the records and write them to a temporary file
+     * @return the temporary file
+     */
+    private static File writeRun(List<SortedRecord> records, File tempDir)
+        throws IOException
+    {
+        Collections.sort(records);
+        File runFile = File.createTempFile("MarcSorter", ".run", tempDir);
+        runFile.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)));
+        try
+        {
+            for (SortedRecord sortedRec : records)
+                sortedRec.write(out);
+        }
+        finally
+        {
+            out.close();
+        }
+        if (verbose) System.err.println("Wrote " + records.size() + " sorted records to " + runFile.getPath());
+        return runFile;
+    }
 
-        try {
-            while (recordMap.size() > 0)
+    /**
+     * merge the sorted runs in the files, writing the records in order.
+     *  Records with the same id come from the runs in the order the runs were
+     *  written, so they stay in the order read.
+     */
+    private static void mergeRuns(List<File> runFiles, OutputStream output)
+        throws IOException
+    {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(runFiles.size());
+        try
+        {
+            for (int i = 0; i < runFiles.size(); i++)
+            {
+                RunReader run = new RunReader(runFiles.get(i), i);
+                if (run.advance())
+                    queue.add(run);
+                else
+                    run.close();
+            }
+            while (!queue.isEmpty())
             {
-                String firstKey = recordMap.firstKey();
-                byte recValue[] = recordMap.remove(firstKey);
-                System.out.write(recValue);
-                System.out.flush();
-                if (verbose) System.err.println("Record written : "+ firstKey);
+                RunReader run = queue.poll();
+                writeRecord(run.current, output);
+                if (run.advance())
+                    queue.add(run);
+                else
+                    run.close();
             }
         }
-        catch (IOException e)
+        finally
+        {
+            for (RunReader run : queue)
+                run.close();
+        }
+    }
+
+    /**
+     * A record and its sort key, made once when the record is read
+     */
+    static class SortedRecord implements Comparable<SortedRecord>
+    {
+        final StringNaturalCompare.SortKey key;
+        final byte recordBytes[];
+
+        SortedRecord(String id, byte recordBytes[])
+        {
+            key = new StringNaturalCompare.SortKey(id);
+            this.recordBytes = recordBytes;
+        }
+
+        public int compareTo(SortedRecord other)
         {
-            //  e.printStackTrace();
-            System.err.println(e.getMessage());
+            return key.compareTo(other.key);
         }
 
+        /**
+         * @return approximate number of bytes of memory used by the record
+         */
+        long size()
+        {
+            String id = key.getString();
+            return recordBytes.length + (id == null ? 0 : 8L * id.length()) + RECORD_OVERHEAD;
+        }
+
+        void write(DataOutputStream out)
+            throws IOException
+        {
+            String id = key.getString();
+            out.writeBoolean(id != null);
+            if (id != null)
+                out.writeUTF(id);
+            out.writeInt(recordBytes.length);
+            out.write(recordBytes);
+        }
+
+        /**
+         * @return the next record written to the stream, or null at the end of the stream
+         */
+        static SortedRecord read(DataInputStream in)
+            throws IOException
+        {
+            int hasId = in.read();
+            if (hasId < 0)
+                return null;
+            String id = (hasId != 0) ? in.readUTF() : null;
+            byte recordBytes[] = new byte[in.readInt()];
+            in.readFully(recordBytes);
+            return new SortedRecord(id, recordBytes);
+        }
+    }
+
+    /**
+     * Reads the records of a sorted run from its temporary file
+     */
+    private static class RunReader implements Comparable<RunReader>
+    {
+        private final DataInputStream in;
+        /** the order the run was written */
+        private final int runNum;
+        /** the record read from the run, not yet written */
+        SortedRecord current = null;
+
+        RunReader(File runFile, int runNum)
+            throws IOException
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), RUN_BUFFER_SIZE));
+            this.runNum = runNum;
+        }
+
+        /**
+         * read the next record of the run
+         * @return false if there are no more records
+         */
+        boolean advance()
+            throws IOException
+        {
+            current = SortedRecord.read(in);
+            return current != null;
+        }
+
+        void close()
+        {
+            try
+            {
+                in.close();
+            }
+            catch (IOException e)
+            {
+                // nothing to do
+            }
+        }
+
+        public int compareTo(RunReader other)
+        {
+            int result = current.compareTo(other.current);
+            if (result == 0)
+                result = (runNum < other.runNum) ? -1 : ((runNum == other.runNum) ? 0 : 1);
+            return result;
+        }
     }
 
 }
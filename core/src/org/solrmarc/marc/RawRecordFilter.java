@@ -0,0 +1,712 @@
+package org.solrmarc.marc;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.solrmarc.tools.MarcUtils;
+
+/**
+ * Applies the marc.include_if_present and marc.include_if_missing conditions
+ *  of MarcFilteredReader to the bytes of MARC21 binary records, using the
+ *  record directory and the raw field data, so records that would be filtered
+ *  out needn't be decoded.
+ * The test is conservative:  a record is only rejected when the condition
+ *  checked by MarcFilteredReader on the decoded record would certainly
+ *  exclude it, and records passing are still checked by MarcFilteredReader.
+ *  Field specifications that can't be evaluated on raw bytes (e.g. 008[35-37],
+ *  100[a-z], LNK245a), contains patterns that are regular expressions rather
+ *  than plain text, data that marc4j may change while decoding (MARC8 escape
+ *  sequences, character entities, bytes that aren't ASCII) and records that
+ *  aren't well formed all leave the record to be decoded.
+ * A filter may be shared by the threads reading records.
+ */
+public class RawRecordFilter
+{
+    private static final byte RECORD_TERMINATOR = 0x1D;
+    private static final byte FIELD_TERMINATOR = 0x1E;
+    private static final byte SUBFIELD_DELIMITER = 0x1F;
+    private static final byte ESCAPE = 0x1B;
+    private static final int LEADER_LENGTH = 24;
+    private static final int DIRECTORY_ENTRY_LENGTH = 12;
+
+    /** characters that make a contains pattern a regular expression */
+    private static final String REGEX_CHARS = "\\^$.|?*+()[]{}";
+
+    /** results of check() */
+    private static final int INCLUDE = 0;
+    private static final int REJECT = 1;
+    private static final int MALFORMED = 2;
+
+    /** kinds of parts of a field specification */
+    private static final int LEADER = 0;
+    private static final int CONTROL = 1;
+    /** a single subfield of a data field */
+    private static final int SUBFIELD = 2;
+    /** several subfields of a data field, joined */
+    private static final int JOINED = 3;
+    /** a data field without subfields, which never has values */
+    private static final int NONE = 4;
+    /** a part that can't be evaluated on raw bytes */
+    private static final int OTHER = 5;
+
+    private final Condition present;
+    private final Condition missing;
+    private final AtomicLong numRejected = new AtomicLong();
+
+    /**
+     * @param ifFieldPresent - marc.include_if_present, or null
+     * @param ifFieldMissing - marc.include_if_missing, or null
+     * @param deleteSubfields - marc.delete_subfields, or null
+     */
+    public RawRecordFilter(String ifFieldPresent, String ifFieldMissing, String deleteSubfields)
+    {
+        Set<String> deletedTags = new HashSet<String>();
+        if (deleteSubfields != null)
+        {
+            for (String fieldSpec : deleteSubfields.trim().split(":"))
+            {
+                if (fieldSpec.length() >= 3)
+                    deletedTags.add(fieldSpec.substring(0, 3));
+            }
+        }
+        present = ifFieldPresent != null ? new Condition(ifFieldPresent, deletedTags) : null;
+        missing = ifFieldMissing != null ? new Condition(ifFieldMissing, deletedTags) : null;
+    }
+
+    /**
+     * @return true if some records may be rejected by this filter;  if not,
+     *  there's no point in using it
+     */
+    public boolean canReject()
+    {
+        if (present == null && missing == null)
+            return false;
+        if (present != null && !present.allDecidable)
+            return false;
+        if (missing != null)
+        {
+            if (missing.contains != null)
+                return missing.allDecidable;
+            for (Part part : missing.parts)
+            {
+                if (part.kind != NONE && part.kind != OTHER && !part.deleted)
+                    return true;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param bytes - bytes holding a MARC21 binary record, possibly preceded
+     *  by line ends
+     * @param offset - the offset of the record in the bytes
+     * @param length - the length of the record, with its record terminator
+     * @return false if MarcFilteredReader would certainly filter out the
+     *  record, true if it should be decoded
+     */
+    public boolean mightInclude(byte bytes[], int offset, int length)
+    {
+        if (check(bytes, offset, length) != REJECT)
+            return true;
+        numRejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return the number of records rejected without being decoded
+     */
+    public long getNumRejected()
+    {
+        return numRejected.get();
+    }
+
+    /**
+     * @param in - a stream of MARC21 binary records
+     * @return a stream of the records of in, without the records this filter
+     *  rejects
+     */
+    public InputStream filter(InputStream in)
+    {
+        return new FilteredInputStream(in);
+    }
+
+    /**
+     * @return INCLUDE, REJECT, or MALFORMED if the bytes aren't a well
+     *  formed record (which isn't rejected)
+     */
+    private int check(byte bytes[], int offset, int length)
+    {
+        int end = offset + length;
+        int start = offset;
+        while (start < end && isPadding(bytes[start]))
+            start++;
+        if (!isWellFormed(bytes, start, end))
+            return MALFORMED;
+        RawRecord rec = new RawRecord(bytes, start);
+
+        boolean presentFails = present == null || present.isCertainlyEmpty(rec)
+                || (present.contains != null && present.certainlyDoesntContain(rec));
+        if (!presentFails)
+            return INCLUDE;
+        boolean missingFails;
+        if (missing == null)
+            missingFails = true;
+        else if (missing.contains == null)
+            missingFails = missing.isCertainlyNonEmpty(rec);
+        else
+            missingFails = missing.isCertainlyEmpty(rec);
+        return missingFails ? REJECT : INCLUDE;
+    }
+
+    /**
+     * @return true if the bytes from start to end are a MARC21 record with
+     *  the length in its leader, a directory of fields within the record,
+     *  each ending with a field terminator, and data fields with subfield
+     *  codes marc4j won't change
+     */
+    private static boolean isWellFormed(byte bytes[], int start, int end)
+    {
+        int length = end - start;
+        if (length <= LEADER_LENGTH || parseDigits(bytes, start, 5) != length || bytes[end - 1] != RECORD_TERMINATOR)
+            return false;
+        // indicator count and subfield code length
+        if (bytes[start + 10] != '2' || bytes[start + 11] != '2')
+            return false;
+        int baseAddress = parseDigits(bytes, start + 12, 5);
+        if (baseAddress <= LEADER_LENGTH || baseAddress >= length || bytes[start + baseAddress - 1] != FIELD_TERMINATOR
+                || (baseAddress - 1 - LEADER_LENGTH) % DIRECTORY_ENTRY_LENGTH != 0)
+            return false;
+        for (int dirPos = start + LEADER_LENGTH; dirPos < start + baseAddress - 1; dirPos += DIRECTORY_ENTRY_LENGTH)
+        {
+            int fieldLength = parseDigits(bytes, dirPos + 3, 4);
+            int fieldStart = parseDigits(bytes, dirPos + 7, 5);
+            if (fieldLength < 1 || fieldStart < 0 || baseAddress + fieldStart + fieldLength > length - 1)
+                return false;
+            int dataStart = start + baseAddress + fieldStart;
+            int dataEnd = dataStart + fieldLength - 1;
+            if (bytes[dataEnd] != FIELD_TERMINATOR)
+                return false;
+            if (!(bytes[dirPos] == '0' && bytes[dirPos + 1] == '0') && !isWellFormedDataField(bytes, dataStart, dataEnd))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the data field has two indicators, then subfields each
+     *  starting with a delimiter and a lower case letter or digit
+     */
+    private static boolean isWellFormedDataField(byte bytes[], int dataStart, int dataEnd)
+    {
+        if (dataEnd - dataStart < 2)
+            return false;
+        if (dataEnd - dataStart > 2 && bytes[dataStart + 2] != SUBFIELD_DELIMITER)
+            return false;
+        for (int i = dataStart + 2; i < dataEnd; i++)
+        {
+            if (bytes[i] == SUBFIELD_DELIMITER)
+            {
+                if (i + 1 >= dataEnd || !isValidCode(bytes[i + 1]))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isValidCode(byte b)
+    {
+        return (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9');
+    }
+
+    private static boolean isPadding(byte b)
+    {
+        return b == '\n' || b == '\r' || b == 0x1A;
+    }
+
+    /**
+     * @return the number in the digits at the offset in the bytes, or -1 if
+     *  they aren't digits
+     */
+    private static int parseDigits(byte bytes[], int offset, int length)
+    {
+        if (offset + length > bytes.length)
+            return -1;
+        int result = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            if (bytes[i] < '0' || bytes[i] > '9')
+                return -1;
+            result = result * 10 + (bytes[i] - '0');
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the literal ASCII text is in the bytes from start to end
+     */
+    private static boolean containsText(byte bytes[], int start, int end, byte text[])
+    {
+        int last = end - text.length;
+        for (int i = start; i <= last; i++)
+        {
+            int j = 0;
+            while (j < text.length && bytes[i + j] == text[j])
+                j++;
+            if (j == text.length)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if marc4j may change the bytes from start to end while
+     *  decoding them into different characters:  MARC8 escape sequences,
+     *  character entities and any byte that isn't ASCII, e.g. MARC8
+     *  combining diacritics, which are moved after the character they
+     *  modify, or characters a Unicode normalization may change into ASCII
+     */
+    private static boolean mayBeChanged(byte bytes[], int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (bytes[i] == ESCAPE || bytes[i] == '&' || bytes[i] < 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * A well formed record in a byte array:  the offsets of its directory and
+     *  field data
+     */
+    private static class RawRecord
+    {
+        final byte bytes[];
+        final int dirStart;
+        final int dirEnd;
+        final int dataStart;
+
+        RawRecord(byte bytes[], int start)
+        {
+            this.bytes = bytes;
+            int baseAddress = parseDigits(bytes, start + 12, 5);
+            dirStart = start + LEADER_LENGTH;
+            dirEnd = start + baseAddress - 1;
+            dataStart = start + baseAddress;
+        }
+
+        boolean hasTag(int dirPos, byte tag[])
+        {
+            return bytes[dirPos] == tag[0] && bytes[dirPos + 1] == tag[1] && bytes[dirPos + 2] == tag[2];
+        }
+
+        /** @return the offset of the data of the field in the directory entry */
+        int fieldStart(int dirPos)
+        {
+            return dataStart + parseDigits(bytes, dirPos + 7, 5);
+        }
+
+        /** @return the offset of the field terminator of the field in the directory entry */
+        int fieldEnd(int dirPos)
+        {
+            return fieldStart(dirPos) + parseDigits(bytes, dirPos + 3, 4) - 1;
+        }
+    }
+
+    /**
+     * marc.include_if_present or marc.include_if_missing:  a field
+     *  specification, with the text its values should contain or not contain
+     */
+    private static class Condition
+    {
+        final Part parts[];
+        /** true if the values can be found on raw bytes for all the parts */
+        final boolean allDecidable;
+        /** the pattern after the "/", or null */
+        final String contains;
+        /** the bytes of the pattern, if it is plain ASCII text rather than a
+         *  regular expression, or null */
+        final byte text[];
+
+        Condition(String condition, Set<String> deletedTags)
+        {
+            String specAndContains[] = condition.split("/", 2);
+            contains = specAndContains.length > 1 ? specAndContains[1] : null;
+            text = contains != null && isPlainText(contains) ? toAscii(contains) : null;
+
+            List<Part> partList = new ArrayList<Part>();
+            boolean decidable = true;
+            // parsed as by FieldSpec
+            for (String tagSpec : specAndContains[0].split(":"))
+            {
+                if (tagSpec.length() < 3)
+                    continue;
+                Part part = new Part(tagSpec, deletedTags);
+                partList.add(part);
+                if (part.kind == OTHER)
+                    decidable = false;
+            }
+            parts = partList.toArray(new Part[partList.size()]);
+            allDecidable = decidable;
+        }
+
+        private static boolean isPlainText(String str)
+        {
+            if (str.length() == 0)
+                return false;
+            for (int i = 0; i < str.length(); i++)
+            {
+                char c = str.charAt(i);
+                if (c <= ' ' || c > '~' || REGEX_CHARS.indexOf(c) != -1)
+                    return false;
+            }
+            return true;
+        }
+
+        private static byte[] toAscii(String str)
+        {
+            byte result[] = new byte[str.length()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = (byte) str.charAt(i);
+            return result;
+        }
+
+        /**
+         * @return true if the specification certainly has no values in the
+         *  record
+         */
+        boolean isCertainlyEmpty(RawRecord rec)
+        {
+            if (!allDecidable)
+                return false;
+            for (Part part : parts)
+            {
+                if (part.kind == LEADER)
+                    return false;
+                if (part.kind == NONE)
+                    continue;
+                for (int dirPos = rec.dirStart; dirPos < rec.dirEnd; dirPos += DIRECTORY_ENTRY_LENGTH)
+                {
+                    if (!rec.hasTag(dirPos, part.tag))
+                        continue;
+                    if (part.kind == CONTROL || part.hasSubfield(rec, dirPos, false))
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the specification certainly has a value in the
+         *  record, even after marc.delete_subfields is applied
+         */
+        boolean isCertainlyNonEmpty(RawRecord rec)
+        {
+            for (Part part : parts)
+            {
+                if (part.kind == LEADER)
+                    return true;
+                if (part.kind == NONE || part.kind == OTHER || part.deleted)
+                    continue;
+                for (int dirPos = rec.dirStart; dirPos < rec.dirEnd; dirPos += DIRECTORY_ENTRY_LENGTH)
+                {
+                    if (!rec.hasTag(dirPos, part.tag))
+                        continue;
+                    if (part.kind == CONTROL || part.hasSubfield(rec, dirPos, true))
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return true if no value of the specification in the record
+         *  certainly contains the text of the pattern
+         */
+        boolean certainlyDoesntContain(RawRecord rec)
+        {
+            if (text == null || !allDecidable)
+                return false;
+            for (Part part : parts)
+            {
+                if (part.kind == LEADER)
+                    return false;
+                if (part.kind == NONE)
+                    continue;
+                for (int dirPos = rec.dirStart; dirPos < rec.dirEnd; dirPos += DIRECTORY_ENTRY_LENGTH)
+                {
+                    if (!rec.hasTag(dirPos, part.tag))
+                        continue;
+                    if (part.mayContain(rec, dirPos, text))
+                        return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * one colon separated part of a field specification
+     */
+    private static class Part
+    {
+        final int kind;
+        final byte tag[];
+        /** subfield codes wanted, for SUBFIELD and JOINED */
+        final boolean codes[] = new boolean[128];
+        /** the separator for JOINED values, or null for a space */
+        final String separator;
+        /** true if marc.delete_subfields may delete the field's values */
+        final boolean deleted;
+
+        Part(String tagSpec, Set<String> deletedTags)
+        {
+            String tagStr = tagSpec.substring(0, 3);
+            tag = new byte[] {(byte) tagStr.charAt(0), (byte) tagStr.charAt(1), (byte) tagStr.charAt(2)};
+            deleted = deletedTags.contains(tagStr);
+            String subfield = tagSpec.substring(3);
+            String sep = null;
+            if (subfield.indexOf('\'') != -1)
+            {
+                sep = subfield.substring(subfield.indexOf('\'') + 1, subfield.length() - 1);
+                subfield = subfield.substring(0, subfield.indexOf('\''));
+            }
+            separator = sep;
+
+            boolean asciiCodes = true;
+            for (int i = 0; i < subfield.length(); i++)
+            {
+                char code = subfield.charAt(i);
+                if (code < codes.length)
+                    codes[code] = true;
+                else
+                    asciiCodes = false;
+            }
+            boolean asciiTag = tagStr.charAt(0) < 128 && tagStr.charAt(1) < 128 && tagStr.charAt(2) < 128;
+
+            if (tagStr.equals("LNK") || tagSpec.indexOf('[') != -1 || !asciiCodes || !asciiTag)
+                kind = OTHER;
+            else if (tagStr.equals("000"))
+                kind = LEADER;
+            else if (MarcUtils.isControlField(tagStr))
+                kind = CONTROL;
+            else if (subfield.length() == 0)
+                kind = NONE;
+            else if (subfield.length() == 1)
+                kind = SUBFIELD;
+            else
+                kind = JOINED;
+        }
+
+        /**
+         * @param nonEmpty - if true, the subfield must certainly have a
+         *  value once decoded:  some data for SUBFIELD, a letter or digit not
+         *  changed by decoding for JOINED
+         * @return true if the data field in the directory entry has a subfield
+         *  wanted
+         */
+        boolean hasSubfield(RawRecord rec, int dirPos, boolean nonEmpty)
+        {
+            byte bytes[] = rec.bytes;
+            int fieldStart = rec.fieldStart(dirPos);
+            int fieldEnd = rec.fieldEnd(dirPos);
+            boolean changeable = kind == JOINED && nonEmpty && mayBeChanged(bytes, fieldStart, fieldEnd);
+            for (int i = fieldStart + 2; i < fieldEnd; i++)
+            {
+                if (bytes[i] != SUBFIELD_DELIMITER || !codes[bytes[i + 1]])
+                    continue;
+                if (!nonEmpty)
+                    return true;
+                int dataStart = i + 2;
+                int dataEnd = subfieldEnd(bytes, dataStart, fieldEnd);
+                if (kind == SUBFIELD && dataEnd > dataStart)
+                    return true;
+                if (kind == JOINED && !changeable)
+                {
+                    for (int j = dataStart; j < dataEnd; j++)
+                    {
+                        byte b = bytes[j];
+                        if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9'))
+                            return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return true if a value of the field in the directory entry may
+         *  contain the text
+         */
+        boolean mayContain(RawRecord rec, int dirPos, byte text[])
+        {
+            byte bytes[] = rec.bytes;
+            int fieldStart = rec.fieldStart(dirPos);
+            int fieldEnd = rec.fieldEnd(dirPos);
+            if (mayBeChanged(bytes, fieldStart, fieldEnd))
+                return true;
+            if (kind == CONTROL)
+                return containsText(bytes, fieldStart, fieldEnd, text);
+            // joined subfields could make the text if they are joined with it
+            if (kind == JOINED && separator != null && (separator.length() == 0 || containsAny(text, separator)))
+                return hasSubfield(rec, dirPos, false);
+            for (int i = fieldStart + 2; i < fieldEnd; i++)
+            {
+                if (bytes[i] != SUBFIELD_DELIMITER || !codes[bytes[i + 1]])
+                    continue;
+                int dataStart = i + 2;
+                if (containsText(bytes, dataStart, subfieldEnd(bytes, dataStart, fieldEnd), text))
+                    return true;
+            }
+            return false;
+        }
+
+        private static boolean containsAny(byte text[], String chars)
+        {
+            for (byte b : text)
+            {
+                if (chars.indexOf((char) b) != -1)
+                    return true;
+            }
+            return false;
+        }
+
+        private static int subfieldEnd(byte bytes[], int dataStart, int fieldEnd)
+        {
+            int result = dataStart;
+            while (result < fieldEnd && bytes[result] != SUBFIELD_DELIMITER)
+                result++;
+            return result;
+        }
+    }
+
+    /**
+     * An InputStream of the records of another, without the records rejected.
+     *  The input is split into records at record terminators;  a record is
+     *  only left out if it is well formed, and so is the record before it,
+     *  so the reader of the stream finds the same boundaries between the
+     *  records left as it would in the input.
+     */
+    private class FilteredInputStream extends InputStream
+    {
+        private final InputStream in;
+        private byte buffer[] = new byte[64 * 1024];
+        /** the bytes not yet read are from pos to available, and the bytes
+         *  not yet checked from available to end */
+        private int pos = 0;
+        private int available = 0;
+        private int end = 0;
+        private boolean eof = false;
+        private boolean prevWellFormed = true;
+
+        FilteredInputStream(InputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            if (pos == available && !nextRecord())
+                return -1;
+            return buffer[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte b[], int off, int len)
+            throws IOException
+        {
+            if (len == 0)
+                return 0;
+            if (pos == available && !nextRecord())
+                return -1;
+            int count = Math.min(len, available - pos);
+            System.arraycopy(buffer, pos, b, off, count);
+            pos += count;
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return available - pos;
+        }
+
+        @Override
+        public void close()
+            throws IOException
+        {
+            in.close();
+        }
+
+        /**
+         * make the next record that isn't rejected available to be read
+         * @return false at the end of the input
+         */
+        private boolean nextRecord()
+            throws IOException
+        {
+            while (true)
+            {
+                int terminator = available;
+                while (terminator < end && buffer[terminator] != RECORD_TERMINATOR)
+                    terminator++;
+                if (terminator == end)
+                {
+                    if (eof)
+                    {
+                        available = end;
+                        return available > pos;
+                    }
+                    fill();
+                    continue;
+                }
+
+                int recordEnd = terminator + 1;
+                int result = check(buffer, available, recordEnd - available);
+                if (result == REJECT && prevWellFormed)
+                {
+                    // the bytes before the record have all been read:  skip it
+                    numRejected.incrementAndGet();
+                    pos = recordEnd;
+                    available = recordEnd;
+                }
+                else
+                {
+                    prevWellFormed = result != MALFORMED;
+                    available = recordEnd;
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * read more of the input into the buffer, after the bytes not yet read
+         */
+        private void fill()
+            throws IOException
+        {
+            if (pos > 0)
+            {
+                System.arraycopy(buffer, pos, buffer, 0, end - pos);
+                available -= pos;
+                end -= pos;
+                pos = 0;
+            }
+            if (end == buffer.length)
+            {
+                byte bigger[] = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, bigger, 0, end);
+                buffer = bigger;
+            }
+            int count = in.read(buffer, end, buffer.length - end);
+            if (count < 0)
+                eof = true;
+            else
+                end += count;
+        }
+    }
+}
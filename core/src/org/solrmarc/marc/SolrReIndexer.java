@@ -2,16 +2,21 @@ package org.solrmarc.marc;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.marc4j.*;
 import org.marc4j.marc.Record;
+import org.solrmarc.index.SolrIndexer;
+import org.solrmarc.solr.BatchingSolrServerProxy;
+import org.solrmarc.solr.SolrDocCursor;
 import org.solrmarc.solr.SolrProxy;
+import org.solrmarc.solr.SolrRuntimeException;
 import org.solrmarc.solr.SolrServerProxy;
 import org.solrmarc.tools.*;
 
 import org.apache.log4j.Logger;
 import org.apache.solr.client.solrj.*;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.*;
 
 
@@ -29,10 +34,24 @@ public class SolrReIndexer extends MarcImporter
     protected MarcWriter output = null;
     protected SolrServer solrServer= null;
     private boolean getIdsOnly = false;
+    /** true to reindex the matching docs from their stored marc records, rather than output them */
+    private boolean reindexAll = false;
+    /** the solr fields to recompute and send as atomic updates when reindexing;  null for whole documents */
+    private Set<String> reindexFields = null;
+    /** name of file with the last id reindexed, to resume reindexing after it;  null for no checkpoints */
+    private String reindexCheckpointFilename = null;
     /** name of Solr field containing ids */
     String id_fname = "id";
     /** a reqHandler with deftype lucene (uses Lucene QueryParser) */
     String luceneReqHandler = "standard";
+    /** number of documents retrieved from Solr in one request when outputting all matching ids or docs */
+    private static final int PAGE_SIZE = 1000;
+    /** number of documents read between checkpoints and throughput reports when reindexing */
+    private static final int CHECKPOINT_INTERVAL = 10000;
+    /** milliseconds to wait for room in the queue of docs to reindex before checking if reindexing halted */
+    private static final long QUEUE_WAIT_MILLIS = 100;
+    /** set when reindexing must stop because of an error */
+    private volatile boolean reindexHalted = false;
 
     // Initialize logging category
     static Logger logger = Logger.getLogger(SolrReIndexer.class.getName());
@@ -68,9 +87,14 @@ public class SolrReIndexer extends MarcImporter
     public int handleAll()
     {
         verbose = false;
-        output = new MarcStreamWriter(System.out, "UTF8", true);
         if (solrFieldContainingEncodedMarcRecord == null)
         	solrFieldContainingEncodedMarcRecord = "marc_display";
+        if (reindexAll)
+        {
+            reindexAllMatchingDocs(queryForRecordsToUpdate);
+            return 0;
+        }
+        output = new MarcStreamWriter(System.out, "UTF8", true);
         if (getIdsOnly)
             outputAllMatchingIds(queryForRecordsToUpdate);
         else
@@ -89,6 +113,10 @@ public class SolrReIndexer extends MarcImporter
         queryForRecordsToUpdate = PropertiesUtils.getProperty(configProps, "solr.query");
         String up = PropertiesUtils.getProperty(configProps, "solr.do_update");
         doUpdate = (up == null) ? true : Boolean.parseBoolean(up);
+        String fields = PropertiesUtils.getProperty(configProps, "solr.reindex_fields");
+        if (fields != null && fields.trim().length() > 0)
+            reindexFields = new LinkedHashSet<String>(Arrays.asList(fields.trim().split("[ ,;]+")));
+        reindexCheckpointFilename = PropertiesUtils.getProperty(configProps, "solr.reindex_checkpoint");
     }
 
     @Override
@@ -100,6 +128,11 @@ public class SolrReIndexer extends MarcImporter
             getIdsOnly = true;
             argOffset = 1;
         }
+        else if (addnlArgs.length > 0 && addnlArgs[0].equals("-reindex"))
+        {
+            reindexAll = true;
+            argOffset = 1;
+        }
         if (queryForRecordsToUpdate == null && addnlArgs.length > argOffset)
             queryForRecordsToUpdate = addnlArgs[argOffset];
         if (solrFieldContainingEncodedMarcRecord == null && addnlArgs.length > argOffset+1)
@@ -258,6 +291,7 @@ public class SolrReIndexer extends MarcImporter
 
     /**
      * Get marc records from the index using passed query and write ids to System.out
+     *  Pages through the matching docs in id order (see SolrDocCursor).
      * @param queryForRecordsToUpdate
      * @param reqHandler name of Solr request handler with deftype lucene
      */
@@ -271,38 +305,27 @@ public class SolrReIndexer extends MarcImporter
             return;
         }
 
-        SolrQuery query = new SolrQuery();
-        query.setQuery(queryForRecordsToUpdate);
-        query.setQueryType(reqHandler);
-        query.setFacet(false);
-        query.setRows(1000);
-        query.setFields("id");
-        int totalHits = -1;
-        int totalProcessed = 0;
+        SolrDocCursor cursor = new SolrDocCursor(solrServer, queryForRecordsToUpdate, reqHandler, id_fname, PAGE_SIZE, id_fname);
         try
         {
-            do {
-                query.setStart(totalProcessed);
-                QueryResponse response = solrServer.query(query);
-                SolrDocumentList sdl = response.getResults();
-                if (totalHits == -1)
-                	totalHits = (int)sdl.getNumFound();
-                for (SolrDocument doc : sdl)
+            while (cursor.hasNext())
+            {
+                SolrDocument doc = cursor.next();
+                Object id = doc.getFieldValue(id_fname);
+                if (output != null && id != null)
                 {
-                    String id = doc.getFieldValue("id").toString();
-                    totalProcessed++;
-                    if (output != null && id != null)
-                    {
-                        System.out.println(id);
-                        System.out.flush();
-                    }
+                    System.out.println(id.toString());
+                    System.out.flush();
                 }
-            } while (totalProcessed < totalHits);
+            }
         }
-        catch (SolrServerException e)
+        catch (SolrRuntimeException e)
         {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            logger.error("Unable to get ids from Solr: " + e.getMessage(), e.getCause());
+        }
+        finally
+        {
+            cursor.close();
         }
     }
 
@@ -317,6 +340,9 @@ public class SolrReIndexer extends MarcImporter
 
     /**
      * Get marc records from the index using passed query and write marc records to System.out
+     *  Pages through the matching docs in id order (see SolrDocCursor), getting
+     *  only the id and the field with the marc record;  the records of a page
+     *  are decoded and written while the next page is retrieved.
      * @param queryForRecordsToUpdate
      * @param reqHandler name of Solr request handler with deftype lucene
      */
@@ -332,40 +358,451 @@ public class SolrReIndexer extends MarcImporter
         }
 
         // grab them 1000 at a time
-        SolrQuery query = new SolrQuery();
-        query.setQuery(queryForRecordsToUpdate);
-        query.setQueryType(reqHandler);
-        query.setFacet(false);
-        query.setRows(1000);
-        int totalHits = -1;
-        int totalProcessed = 0;
+        SolrDocCursor cursor = new SolrDocCursor(solrServer, queryForRecordsToUpdate, reqHandler, id_fname, PAGE_SIZE, id_fname, solrFieldContainingEncodedMarcRecord);
         try
         {
-            do {
-                query.setStart(totalProcessed);
-                QueryResponse response = solrServer.query(query);
-                SolrDocumentList sdl = response.getResults();
-                if (totalHits == -1)
-                	totalHits = (int)sdl.getNumFound();
-                for (SolrDocument doc : sdl)
+            while (cursor.hasNext())
+            {
+                Record record = getMarcRecObjFromSolrDoc(cursor.next());
+                if (output != null && record != null)
                 {
-                    totalProcessed++;
-                    Record record = getMarcRecObjFromSolrDoc(doc);
-                    if (output != null && record != null)
-                    {
-                        output.write(record);
-                        System.out.flush();
-                    }
+                    output.write(record);
+                    System.out.flush();
                 }
-            } while (totalProcessed < totalHits);
+            }
+        }
+        catch (SolrRuntimeException e)
+        {
+            logger.error("Unable to get marc records from Solr: " + e.getMessage(), e.getCause());
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reindex all the docs matching the passed query from the marc records
+     *  stored in them, and write the new docs to the index.
+     * @param queryForRecordsToUpdate
+     * @return Number of docs reindexed
+     */
+    public int reindexAllMatchingDocs(String queryForRecordsToUpdate)
+    {
+        return reindexAllMatchingDocs(queryForRecordsToUpdate, luceneReqHandler);
+    }
+
+    /**
+     * Reindex all the docs matching the passed query from the marc records
+     *  stored in them, and write the new docs to the index.
+     * The docs are read in id order (see SolrDocCursor);  the stored marc
+     *  records are decoded and mapped by a worker thread per indexer
+     *  (solrmarc.mapping_threads), and written with solrProxy, which sends
+     *  them in batches if solrmarc.batch_size is more than 1.
+     * If solr.reindex_fields is set, only those fields are recomputed, and
+     *  they are sent as atomic updates (all fields must be stored).
+     * If solr.reindex_checkpoint is set, the last id reindexed (with all the
+     *  ids before it) is written to that file every CHECKPOINT_INTERVAL docs,
+     *  and reindexing starts after the id in the file if it exists.  The file
+     *  is removed when all the docs have been reindexed.
+     * @param queryForRecordsToUpdate
+     * @param reqHandler name of Solr request handler with deftype lucene
+     * @return Number of docs reindexed
+     */
+    public int reindexAllMatchingDocs(String queryForRecordsToUpdate, String reqHandler)
+    {
+        String queryparts[] = queryForRecordsToUpdate.split(":");
+        if (queryparts.length != 2)
+        {
+            logger.error("Error query must be of the form    field:term");
+            System.out.println("Error: query must be of the form    field:term  " + queryForRecordsToUpdate);
+            return 0;
+        }
+
+        List<SolrIndexer> workerIndexers = getWorkerIndexers(numMappingThreads);
+        if (workerIndexers == null && indexer != null)
+        {
+            logger.warn("Unable to create " + numMappingThreads + " indexer instances; reindexing with a single thread");
+            workerIndexers = Collections.singletonList(indexer);
+        }
+        if (workerIndexers == null)
+        {
+            logger.error("Unable to reindex:  no indexer");
+            return 0;
+        }
+
+        String startAfterId = readReindexCheckpoint();
+        if (startAfterId != null)
+            logger.info("Resuming reindexing after id " + startAfterId + " from " + reindexCheckpointFilename);
+        if (reindexFields != null)
+            logger.info("Reindexing fields " + reindexFields + " as atomic updates");
+
+        reindexHalted = false;
+        ReindexCheckpoint checkpoint = new ReindexCheckpoint(startAfterId);
+        AtomicInteger numReindexed = new AtomicInteger();
+        BlockingQueue<ReindexDoc> docQueue = new ArrayBlockingQueue<ReindexDoc>(PAGE_SIZE);
+        List<ReindexWorkerThread> workers = new ArrayList<ReindexWorkerThread>(workerIndexers.size());
+        for (int i = 0; i < workerIndexers.size(); i++)
+            workers.add(new ReindexWorkerThread(i + 1, workerIndexers.get(i), docQueue, checkpoint, numReindexed));
+        for (ReindexWorkerThread worker : workers)
+            worker.start();
+
+        SolrDocCursor cursor = new SolrDocCursor(solrServer, queryForRecordsToUpdate, reqHandler, id_fname, startAfterId, PAGE_SIZE, id_fname, solrFieldContainingEncodedMarcRecord);
+        long startTime = System.currentTimeMillis();
+        int numRead = 0;
+        RuntimeException failure = null;
+        try
+        {
+            while (!shuttingDown && !reindexHalted && cursor.hasNext())
+            {
+                SolrDocument doc = cursor.next();
+                Object idObj = doc.getFieldValue(id_fname);
+                if (idObj == null)
+                    continue;
+                numRead++;
+                checkpoint.read(numRead, idObj.toString());
+                if (!queueDoc(docQueue, new ReindexDoc(numRead, idObj.toString(), doc)))
+                    break;
+                if (numRead % CHECKPOINT_INTERVAL == 0)
+                {
+                    writeReindexCheckpoint(checkpoint);
+                    logReindexThroughput(numRead, numReindexed.get(), startTime);
+                }
+            }
+            int numEnded = 0;
+            while (numEnded < workers.size() && queueDoc(docQueue, ReindexDoc.END_OF_WORK))
+                numEnded++;
+            // otherwise reindexing stopped, and the workers are interrupted below
+            if (numEnded == workers.size())
+            {
+                for (ReindexWorkerThread worker : workers)
+                    worker.join();
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            logger.error("Interrupted while reindexing; stopping reindexing");
+            reindexHalted = true;
+        }
+        catch (SolrRuntimeException e)
+        {
+            logger.fatal("Unable to get documents from Solr -- " + e.getMessage(), e.getCause());
+            reindexHalted = true;
+            failure = e;
+        }
+        finally
+        {
+            cursor.close();
+            // make sure the workers stop, even those waiting for docs that won't come
+            for (ReindexWorkerThread worker : workers)
+                worker.interrupt();
+            try
+            {
+                for (ReindexWorkerThread worker : workers)
+                    worker.join();
+            }
+            catch (InterruptedException ie)
+            {
+                logger.error("Interrupted while waiting for reindexing threads to stop");
+            }
+        }
+
+        for (ReindexWorkerThread worker : workers)
+        {
+            if (failure == null)
+                failure = worker.failure;
+        }
+
+        try
+        {
+            if (reindexHalted || shuttingDown)
+                writeReindexCheckpoint(checkpoint);
+            else
+            {
+                flushSolrProxy();
+                if (reindexCheckpointFilename != null)
+                    new File(reindexCheckpointFilename).delete();
+            }
+        }
+        catch (SolrRuntimeException e)
+        {
+            if (failure == null)
+                failure = e;
+        }
+        logReindexThroughput(numRead, numReindexed.get(), startTime);
+
+        if (failure != null)
+            throw failure;
+        return numReindexed.get();
+    }
+
+    /**
+     * Put a doc on the queue for the workers, waiting while the queue is full
+     *  unless reindexing halts (e.g. all the workers failed) or shuts down.
+     * @return false if the doc wasn't queued because reindexing stopped
+     */
+    private boolean queueDoc(BlockingQueue<ReindexDoc> docQueue, ReindexDoc rd)
+        throws InterruptedException
+    {
+        while (!reindexHalted && !shuttingDown)
+        {
+            if (docQueue.offer(rd, QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Turn the fields of a reindexed doc into an atomic update of the doc
+     *  with the passed id, setting each field in reindexFields to its new
+     *  values (removing the field if there are none).
+     * @return map of the id field and the fields to set
+     */
+    private Map<String, Object> makeAtomicUpdate(String id, Map<String, Object> fldNames2ValsMap)
+    {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put(id_fname, id);
+        for (String fldName : reindexFields)
+        {
+            if (fldName.equals(id_fname))
+                continue;
+            Object value = fldNames2ValsMap.get(fldName);
+            // the indexer may reuse the collection for the next record
+            if (value instanceof Collection<?>)
+                value = new ArrayList<Object>((Collection<?>) value);
+            Map<String, Object> setValue = new HashMap<String, Object>();
+            setValue.put("set", value);
+            result.put(fldName, setValue);
+        }
+        return result;
+    }
+
+    /**
+     * @return the id in the reindex checkpoint file, or null if there isn't one
+     */
+    private String readReindexCheckpoint()
+    {
+        if (reindexCheckpointFilename == null)
+            return null;
+        File file = new File(reindexCheckpointFilename);
+        if (!file.exists())
+            return null;
+        BufferedReader in = null;
+        try
+        {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line = in.readLine();
+            if (line == null || line.trim().length() == 0)
+                return null;
+            return line.trim();
         }
-        catch (SolrServerException e)
+        catch (IOException e)
         {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            throw new IllegalArgumentException("Unable to read reindex checkpoint file " + reindexCheckpointFilename, e);
+        }
+        finally
+        {
+            try
+            {
+                if (in != null)
+                    in.close();
+            }
+            catch (IOException e) { /* ignore */ }
         }
     }
 
+    /**
+     * Write the last id reindexed, with all the ids before it, to the reindex
+     *  checkpoint file, after sending the docs added so far to Solr.
+     */
+    private void writeReindexCheckpoint(ReindexCheckpoint checkpoint)
+    {
+        if (reindexCheckpointFilename == null)
+            return;
+        String id = checkpoint.getCheckpointId();
+        if (id == null)
+            return;
+        flushSolrProxy();
+        File file = new File(reindexCheckpointFilename);
+        File tmpFile = new File(reindexCheckpointFilename + ".tmp");
+        try
+        {
+            Writer out = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+            try
+            {
+                out.write(id);
+                out.write("\n");
+            }
+            finally
+            {
+                out.close();
+            }
+            if (!tmpFile.renameTo(file))
+            {
+                file.delete();
+                if (!tmpFile.renameTo(file))
+                    throw new IOException("unable to rename " + tmpFile.getPath());
+            }
+        }
+        catch (IOException e)
+        {
+            logger.error("Unable to write reindex checkpoint file " + reindexCheckpointFilename + " -- " + e.getMessage());
+        }
+    }
+
+    /**
+     * wait until Solr has the docs added so far, if they are sent in batches
+     */
+    private void flushSolrProxy()
+    {
+        if (solrProxy instanceof BatchingSolrServerProxy)
+            ((BatchingSolrServerProxy) solrProxy).flush();
+    }
+
+    private void logReindexThroughput(int numRead, int numReindexed, long startTime)
+    {
+        long elapsed = Math.max(System.currentTimeMillis() - startTime, 1);
+        logger.info("Reindexed " + numReindexed + " of " + numRead + " docs read in " + DateUtils.calcTime(elapsed)
+                    + " (" + (numRead * 1000L / elapsed) + " docs per sec)");
+    }
+
+    /**
+     * A doc read from Solr, waiting to be reindexed
+     */
+    static class ReindexDoc
+    {
+        static final ReindexDoc END_OF_WORK = new ReindexDoc(-1, null, null);
+
+        final int seqNum;
+        final String id;
+        final SolrDocument doc;
+
+        ReindexDoc(int seqNum, String id, SolrDocument doc)
+        {
+            this.seqNum = seqNum;
+            this.id = id;
+            this.doc = doc;
+        }
+    }
+
+    /**
+     * Keeps track of the docs read and reindexed, to know the last id such
+     *  that it and all the ids before it have been reindexed.
+     */
+    static class ReindexCheckpoint
+    {
+        /** ids of docs read, by sequence number, from the first one not yet reindexed */
+        private final SortedMap<Integer, String> readIds = new TreeMap<Integer, String>();
+        /** sequence numbers of docs reindexed after the first one not yet reindexed */
+        private final Set<Integer> doneSeqNums = new HashSet<Integer>();
+        private String checkpointId;
+
+        ReindexCheckpoint(String startAfterId)
+        {
+            checkpointId = startAfterId;
+        }
+
+        synchronized void read(int seqNum, String id)
+        {
+            readIds.put(seqNum, id);
+        }
+
+        synchronized void done(int seqNum)
+        {
+            doneSeqNums.add(seqNum);
+            while (!readIds.isEmpty() && doneSeqNums.remove(readIds.firstKey()))
+                checkpointId = readIds.remove(readIds.firstKey());
+        }
+
+        /**
+         * @return the last id such that it and all ids before it have been reindexed
+         */
+        synchronized String getCheckpointId()
+        {
+            return checkpointId;
+        }
+    }
+
+    /**
+     * Decodes the marc records stored in queued docs, maps them with its own
+     *  indexer, and writes the new docs to the index.
+     */
+    class ReindexWorkerThread extends Thread
+    {
+        private final SolrIndexer workerIndexer;
+        private final BlockingQueue<ReindexDoc> docQueue;
+        private final ReindexCheckpoint checkpoint;
+        private final AtomicInteger numReindexed;
+        /** exception that halted reindexing */
+        RuntimeException failure = null;
+
+        ReindexWorkerThread(int workerNum, SolrIndexer workerIndexer, BlockingQueue<ReindexDoc> docQueue, ReindexCheckpoint checkpoint, AtomicInteger numReindexed)
+        {
+            super("SolrReIndexer-worker-" + workerNum);
+            this.workerIndexer = workerIndexer;
+            this.docQueue = docQueue;
+            this.checkpoint = checkpoint;
+            this.numReindexed = numReindexed;
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (!reindexHalted)
+                {
+                    ReindexDoc rd = docQueue.take();
+                    if (rd == ReindexDoc.END_OF_WORK)
+                        break;
+                    Record record = null;
+                    try
+                    {
+                        record = getMarcRecObjFromSolrDoc(rd.doc);
+                        if (record == null)
+                            logger.error("Unable to get marc record from doc " + rd.id);
+                        else
+                        {
+                            Map<String, Object> fldNames2ValsMap = null;
+                            try
+                            {
+                                fldNames2ValsMap = workerIndexer.createFldNames2ValsMap(record, null, reindexFields);
+                            }
+                            catch (SolrMarcIndexerException e)
+                            {
+                                deleteIfFlagged(record, e);
+                                throw e;
+                            }
+                            if (reindexFields != null)
+                                fldNames2ValsMap = makeAtomicUpdate(rd.id, fldNames2ValsMap);
+                            if (fldNames2ValsMap.size() > 0)
+                            {
+                                String docStr = solrProxy.addDoc(fldNames2ValsMap, verbose, true);
+                                if (verbose)
+                                    logger.info(docStr);
+                                numReindexed.incrementAndGet();
+                            }
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        handleIndexingException(e, rd.id, rd.seqNum);
+                    }
+                    checkpoint.done(rd.seqNum);
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                // reindexing halted;  stop
+            }
+            catch (RuntimeException e)
+            {
+                failure = e;
+                reindexHalted = true;
+            }
+        }
+    }
+
+
     /**
 	 * Retrieve docs from the solr index and re-index them by extracting
 	 *  the full marc stored in the document, running it through the indexer
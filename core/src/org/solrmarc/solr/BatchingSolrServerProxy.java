@@ -0,0 +1,416 @@
+package org.solrmarc.solr;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.solrmarc.tools.SolrUtils;
+
+/**
+ * An implementation of SolrProxy that sends documents to a SolrServer in
+ *  batches, with several batches in flight at once.  A batch is sent when it
+ *  holds the maximum number of documents or its estimated size reaches the
+ *  maximum number of bytes, and before a commit, delete or close.
+ *
+ * When Solr rejects a batch because of a problem with a document (see
+ *  SolrUtils.isDocumentError), the batch is split in half and each half is
+ *  resent, until the bad document(s) are found;  those are logged and
+ *  skipped, and the rest are indexed.  Any other error stops further adds,
+ *  and is thrown as a SolrRuntimeException from the next call to this proxy;
+ *  as that call may be adding an unrelated document, the message names the
+ *  ids of the batch that couldn't be sent.
+ *
+ * Batches in flight at once may be applied by Solr in any order, so a batch
+ *  holding an id that is in a batch still in flight waits for that batch to
+ *  finish before it is sent;  otherwise an older version of a document added
+ *  twice in a run could be indexed last.  Deletes and commits wait for all
+ *  batches in flight.  Batches of distinct ids are still sent in parallel, so
+ *  the cost is only paid when ids repeat within maxRequestsInFlight batches.
+ */
+public class BatchingSolrServerProxy extends SolrServerProxy
+{
+    /** maximum number of documents in a batch */
+    private final int maxBatchDocs;
+    /** maximum estimated size, in bytes, of the documents in a batch */
+    private final long maxBatchBytes;
+    /** maximum number of batches being sent to Solr at once */
+    private final int maxRequestsInFlight;
+
+    private List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>();
+    private long batchBytes = 0;
+
+    private final ExecutorService sender;
+    /** a permit per batch that may be in flight */
+    private final Semaphore inFlight;
+
+    /** the first error that wasn't about a single document;  set by sender threads */
+    private volatile Exception fatalError = null;
+
+    /** ids of the documents Solr rejected, not yet taken by takeRejectedIds();  guarded by itself */
+    private final Set<String> rejectedIds = new LinkedHashSet<String>();
+
+    /** id -> number of batches in flight holding it;  guarded by itself */
+    private final Map<Object, Integer> idsInFlight = new HashMap<Object, Integer>();
+
+    private final AtomicInteger numDocsSent = new AtomicInteger();
+    private final AtomicInteger numRequests = new AtomicInteger();
+    private final AtomicInteger numDocsRejected = new AtomicInteger();
+
+    protected static Logger logger = Logger.getLogger(BatchingSolrServerProxy.class.getName());
+
+    /**
+     * @param solrJSolrServer - the SolrServer receiving the documents
+     * @param maxBatchDocs - maximum number of documents in a batch
+     * @param maxBatchBytes - maximum estimated size, in bytes, of the documents in a batch
+     * @param maxRequestsInFlight - maximum number of batches being sent at once
+     */
+    public BatchingSolrServerProxy(SolrServer solrJSolrServer, int maxBatchDocs, long maxBatchBytes, int maxRequestsInFlight)
+    {
+        super(solrJSolrServer);
+        if (maxBatchDocs < 1 || maxBatchBytes < 1 || maxRequestsInFlight < 1)
+            throw new IllegalArgumentException("batch size, batch bytes and requests in flight must be positive");
+        this.maxBatchDocs = maxBatchDocs;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxRequestsInFlight = maxRequestsInFlight;
+        inFlight = new Semaphore(maxRequestsInFlight);
+        sender = Executors.newFixedThreadPool(maxRequestsInFlight, new ThreadFactory()
+        {
+            private int threadNum = 0;
+
+            public synchronized Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "BatchingSolrServerProxy-" + (++threadNum));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * given a map of field names and values, create a Document and add it to
+     *  the current batch, sending the batch if it is full.
+     * @param fldNames2ValsMap keys are Solr field names, values are String or Collection objects containing values for Solr field
+     * @return a string representation of the document when verbose is true or addDocToIndex is false
+     */
+    @Override
+    public synchronized String addDoc(Map<String, Object> fldNames2ValsMap, boolean verbose, boolean addDocToIndex) throws IOException
+    {
+        SolrInputDocument inputDoc = SolrUtils.createSolrInputDoc(fldNames2ValsMap);
+        if (addDocToIndex)
+        {
+            throwFatalError();
+            batch.add(inputDoc);
+            batchBytes += estimateBytes(fldNames2ValsMap);
+            if (batch.size() >= maxBatchDocs || batchBytes >= maxBatchBytes)
+                sendBatch();
+        }
+
+        if (verbose || !addDocToIndex)
+            return inputDoc.toString().replaceAll("> ", "> \n");
+        else
+            return(null);
+    }
+
+    /**
+     * send all documents added so far and wait until Solr has them, then
+     *  commit changes to the index
+     */
+    @Override
+    public synchronized void commit(boolean optimize) throws IOException
+    {
+        flush();
+        super.commit(optimize);
+    }
+
+    /**
+     * send all documents added so far (so a later add of the same id isn't
+     *  deleted), then delete doc from the index
+     * @param id the unique identifier of the document to be deleted
+     */
+    @Override
+    public synchronized void delete(String id, boolean fromCommitted, boolean fromPending) throws IOException
+    {
+        flush();
+        super.delete(id, fromCommitted, fromPending);
+    }
+
+    /**
+     * send all documents added so far (so a later add of the same id isn't
+     *  deleted), then delete docs from the index in a single request
+     * @param ids the unique identifiers of the documents to be deleted
+     */
+    @Override
+    public synchronized void delete(Collection<String> ids) throws IOException
+    {
+        flush();
+        super.delete(ids);
+    }
+
+    /**
+     * send all documents added so far, then delete all docs from the index
+     * Warning: be very sure you want to call this
+     */
+    @Override
+    public synchronized void deleteAllDocs() throws IOException
+    {
+        flush();
+        super.deleteAllDocs();
+    }
+
+    /**
+     * send all documents added so far and stop the threads sending batches
+     */
+    @Override
+    public synchronized void close()
+    {
+        try
+        {
+            flush();
+        }
+        catch (SolrRuntimeException e)
+        {
+            logger.error("Unable to send documents to Solr before closing: " + e.getMessage(), e.getCause());
+        }
+        sender.shutdown();
+        logger.info("Sent " + numDocsSent.get() + " documents to Solr in " + numRequests.get() + " requests; " + numDocsRejected.get() + " documents rejected");
+        super.close();
+    }
+
+    /**
+     * send the current batch, then wait for all batches in flight to finish
+     * @throws SolrRuntimeException if sending a batch failed
+     */
+    public synchronized void flush()
+    {
+        throwFatalError();
+        if (!batch.isEmpty())
+            sendBatch();
+        try
+        {
+            inFlight.acquire(maxRequestsInFlight);
+            inFlight.release(maxRequestsInFlight);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SolrRuntimeException("Interrupted while waiting for documents to be sent to Solr");
+        }
+        throwFatalError();
+    }
+
+    /**
+     * @return the number of documents Solr rejected because of problems with the document
+     */
+    public int getNumDocsRejected()
+    {
+        return numDocsRejected.get();
+    }
+
+    /**
+     * get the ids of the documents Solr rejected because of problems with the
+     *  document since the last call, e.g. so they aren't recorded as indexed.
+     *  Call after flush() to get those of all the documents added.
+     * @return the ids, in the order they were rejected
+     */
+    public Set<String> takeRejectedIds()
+    {
+        synchronized (rejectedIds)
+        {
+            Set<String> result = new LinkedHashSet<String>(rejectedIds);
+            rejectedIds.clear();
+            return result;
+        }
+    }
+
+    /**
+     * hand the current batch to a sender thread, waiting for one to be free
+     *  and for any batch in flight with the same ids to finish
+     */
+    private void sendBatch()
+    {
+        final List<SolrInputDocument> toSend = batch;
+        batch = new ArrayList<SolrInputDocument>();
+        batchBytes = 0;
+        final List<Object> ids = new ArrayList<Object>(toSend.size());
+        for (SolrInputDocument doc : toSend)
+        {
+            Object id = doc.getFieldValue("id");
+            if (id != null)
+                ids.add(id);
+        }
+        try
+        {
+            waitForIds(ids);
+            inFlight.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SolrRuntimeException("Interrupted while waiting to send documents to Solr");
+        }
+        addIdsInFlight(ids);
+        sender.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    if (fatalError == null)
+                        send(toSend, toSend);
+                }
+                finally
+                {
+                    removeIdsInFlight(ids);
+                    inFlight.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * wait until none of the ids are in a batch in flight
+     */
+    private void waitForIds(List<Object> ids)
+        throws InterruptedException
+    {
+        synchronized (idsInFlight)
+        {
+            for (Object id : ids)
+            {
+                while (idsInFlight.containsKey(id))
+                    idsInFlight.wait();
+            }
+        }
+    }
+
+    private void addIdsInFlight(List<Object> ids)
+    {
+        synchronized (idsInFlight)
+        {
+            for (Object id : ids)
+            {
+                Integer count = idsInFlight.get(id);
+                idsInFlight.put(id, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    private void removeIdsInFlight(List<Object> ids)
+    {
+        synchronized (idsInFlight)
+        {
+            for (Object id : ids)
+            {
+                Integer count = idsInFlight.get(id);
+                if (count == null || count <= 1)
+                    idsInFlight.remove(id);
+                else
+                    idsInFlight.put(id, count - 1);
+            }
+            idsInFlight.notifyAll();
+        }
+    }
+
+    /**
+     * send the documents to Solr;  if Solr rejects them because of a problem
+     *  with a document, split them in half and send each half.
+     * @param docs - the documents to send
+     * @param batch - the batch the documents are part of, for error messages
+     */
+    private void send(List<SolrInputDocument> docs, List<SolrInputDocument> batch)
+    {
+        try
+        {
+            numRequests.incrementAndGet();
+            solrJSolrServer.add(docs);
+            numDocsSent.addAndGet(docs.size());
+        }
+        catch (Exception e)
+        {
+            if (!SolrUtils.isDocumentError(e.getMessage()))
+            {
+                String message = "Unable to send batch of " + batch.size() + " documents " + describeIds(batch) + " to Solr -- " + e.getMessage();
+                logger.fatal(message);
+                if (fatalError == null)
+                    fatalError = new SolrServerException(message, e);
+            }
+            else if (docs.size() == 1)
+            {
+                numDocsRejected.incrementAndGet();
+                Object id = docs.get(0).getFieldValue("id");
+                logger.error("Unable to index record " + (id != null ? id : "") + " -- " + e.getMessage());
+                if (id != null)
+                {
+                    synchronized (rejectedIds)
+                    {
+                        rejectedIds.add(id.toString());
+                    }
+                }
+            }
+            else
+            {
+                int half = docs.size() / 2;
+                send(docs.subList(0, half), batch);
+                if (fatalError == null)
+                    send(docs.subList(half, docs.size()), batch);
+            }
+        }
+    }
+
+    /**
+     * throw the error that stopped documents from being sent, if there was one
+     */
+    private void throwFatalError()
+    {
+        Exception e = fatalError;
+        if (e == null)
+            return;
+        if (e instanceof SolrServerException)
+            throw new SolrRuntimeException("SolrServerException", e);
+        throw new SolrRuntimeException(e.getMessage(), e);
+    }
+
+    /**
+     * @return the ids of the documents, e.g. (a1, a2, a3 and 7 more)
+     */
+    private static String describeIds(List<SolrInputDocument> docs)
+    {
+        final int maxIds = 10;
+        StringBuilder result = new StringBuilder("(");
+        for (int i = 0; i < docs.size() && i < maxIds; i++)
+        {
+            if (i > 0)
+                result.append(", ");
+            result.append(docs.get(i).getFieldValue("id"));
+        }
+        if (docs.size() > maxIds)
+            result.append(" and ").append(docs.size() - maxIds).append(" more");
+        return result.append(")").toString();
+    }
+
+    /**
+     * rough estimate of the size of the document when sent to Solr
+     */
+    private static long estimateBytes(Map<String, Object> fldNames2ValsMap)
+    {
+        long result = 0;
+        for (Map.Entry<String, Object> entry : fldNames2ValsMap.entrySet())
+        {
+            Object valObj = entry.getValue();
+            if (valObj instanceof Collection<?>)
+            {
+                for (Object singleValObj : (Collection<?>) valObj)
+                    result += entry.getKey().length() + String.valueOf(singleValObj).length();
+            }
+            else
+                result += entry.getKey().length() + String.valueOf(valObj).length();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.solrmarc.solr;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.common.SolrInputDocument;
+import org.solrmarc.tools.SolrUtils;
+
+/**
+ * An implementation of SolrProxy that throws the documents away, so the
+ *  throughput of reading and mapping records can be measured (and tuned)
+ *  without Solr.  Unlike marc.just_index_dont_add, the documents aren't
+ *  turned into strings, so what is measured is what is done when writing to
+ *  Solr, apart from the sending.  The numbers of documents added and ids
+ *  deleted are logged when the proxy is closed.
+ */
+public class DiscardingSolrProxy implements SolrProxy
+{
+    private final AtomicLong numDocs = new AtomicLong();
+    private final AtomicLong numDeletes = new AtomicLong();
+
+    protected static Logger logger = Logger.getLogger(DiscardingSolrProxy.class.getName());
+
+    /**
+     * build the document as it would be sent to Solr and count it, and return
+     *  a string representation of it when verbose is true or addDocToIndex is
+     *  false
+     */
+    public String addDoc(Map<String, Object> fldNames2ValsMap, boolean verbose, boolean addDocToIndex) throws IOException
+    {
+        SolrInputDocument inputDoc = SolrUtils.createSolrInputDoc(fldNames2ValsMap);
+        if (addDocToIndex)
+            numDocs.incrementAndGet();
+        if (verbose || !addDocToIndex)
+            return inputDoc.toString().replaceAll("> ", "> \n");
+        return null;
+    }
+
+    public void delete(String id, boolean fromCommitted, boolean fromPending) throws IOException
+    {
+        numDeletes.incrementAndGet();
+    }
+
+    public void delete(Collection<String> ids) throws IOException
+    {
+        numDeletes.addAndGet(ids.size());
+    }
+
+    public void deleteAllDocs() throws IOException
+    {
+        // nothing to delete
+    }
+
+    public void commit(boolean optimize) throws IOException
+    {
+        // nothing to commit
+    }
+
+    public void close()
+    {
+        logger.info("Discarded " + numDocs.get() + " documents and " + numDeletes.get() + " deletes");
+    }
+
+    public boolean isSolrException(Exception e)
+    {
+        return false;
+    }
+
+    /**
+     * @return the number of documents added
+     */
+    public long getNumDocs()
+    {
+        return numDocs.get();
+    }
+
+    /**
+     * @return the number of ids deleted
+     */
+    public long getNumDeletes()
+    {
+        return numDeletes.get();
+    }
+}
@@ -0,0 +1,94 @@
+package org.solrmarc.solr;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * An UpdateFileProxy writing Solr javabin update requests, which can be
+ *  posted to the update handler of Solr as they are, with content type
+ *  application/javabin.  Each file is one request.
+ *
+ * A request is written when its file is finished, so the documents of a
+ *  file are held until then, and there is always a maximum number of
+ *  documents in a file.  Solr does the deletes of a request after its adds,
+ *  so a document after a delete starts a new file.
+ */
+public class JavabinUpdateFileProxy extends UpdateFileProxy
+{
+    /** maximum number of documents in a file, if none is given */
+    public static final int DEFAULT_DOCS_PER_FILE = 10000;
+
+    private File file = null;
+    private UpdateRequest request = null;
+    private boolean hasDeletes = false;
+
+    /**
+     * @param filename - name of the file written, before numbering
+     * @param docsPerFile - maximum number of documents in a file;
+     *  DEFAULT_DOCS_PER_FILE if 0
+     */
+    public JavabinUpdateFileProxy(String filename, int docsPerFile)
+    {
+        super(filename, docsPerFile == 0 ? DEFAULT_DOCS_PER_FILE : docsPerFile);
+    }
+
+    @Override
+    protected void openFile(File file) throws IOException
+    {
+        this.file = file;
+        request = new UpdateRequest();
+        hasDeletes = false;
+    }
+
+    @Override
+    protected boolean needsNewFileForDoc()
+    {
+        return hasDeletes;
+    }
+
+    @Override
+    protected void writeDoc(SolrInputDocument inputDoc) throws IOException
+    {
+        request.add(inputDoc);
+    }
+
+    @Override
+    protected void writeDelete(Collection<String> ids) throws IOException
+    {
+        request.deleteById(new ArrayList<String>(ids));
+        hasDeletes = true;
+    }
+
+    @Override
+    protected void writeDeleteAll() throws IOException
+    {
+        request.deleteByQuery("*:*");
+        hasDeletes = true;
+    }
+
+    @Override
+    protected void flushFile() throws IOException
+    {
+        // the request can only be written whole
+    }
+
+    @Override
+    protected void closeFile() throws IOException
+    {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try
+        {
+            new JavaBinUpdateRequestCodec().marshal(request, out);
+        }
+        finally
+        {
+            out.close();
+        }
+        request = null;
+        file = null;
+    }
+}
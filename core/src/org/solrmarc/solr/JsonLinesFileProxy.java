@@ -0,0 +1,81 @@
+package org.solrmarc.solr;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.noggit.JSONUtil;
+
+/**
+ * An UpdateFileProxy writing JSON lines:  each document is a JSON object of
+ *  Solr field names and values (arrays for multiple values) on a line of its
+ *  own, for looking at and comparing the documents of runs.  Deletes are
+ *  written as lines of Solr JSON delete commands, e.g.
+ *    {"delete":{"id":"123"}}
+ */
+public class JsonLinesFileProxy extends UpdateFileProxy
+{
+    private Writer out = null;
+
+    /**
+     * @param filename - name of the file written, before numbering
+     * @param docsPerFile - maximum number of documents in a file;  no maximum if 0
+     */
+    public JsonLinesFileProxy(String filename, int docsPerFile)
+    {
+        super(filename, docsPerFile);
+    }
+
+    @Override
+    protected void openFile(File file) throws IOException
+    {
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    }
+
+    @Override
+    protected void writeDoc(SolrInputDocument inputDoc) throws IOException
+    {
+        Map<String, Object> fields = new LinkedHashMap<String, Object>();
+        for (SolrInputField field : inputDoc)
+        {
+            Collection<Object> values = field.getValues();
+            if (values == null || values.isEmpty())
+                continue;
+            fields.put(field.getName(), values.size() == 1 ? values.iterator().next() : values);
+        }
+        writeLine(fields);
+    }
+
+    @Override
+    protected void writeDelete(Collection<String> ids) throws IOException
+    {
+        for (String id : ids)
+            writeLine(Collections.singletonMap("delete", Collections.singletonMap("id", id)));
+    }
+
+    @Override
+    protected void writeDeleteAll() throws IOException
+    {
+        writeLine(Collections.singletonMap("delete", Collections.singletonMap("query", "*:*")));
+    }
+
+    private void writeLine(Object value) throws IOException
+    {
+        out.write(JSONUtil.toJSON(value, -1));
+        out.write('\n');
+    }
+
+    @Override
+    protected void flushFile() throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    protected void closeFile() throws IOException
+    {
+        out.close();
+        out = null;
+    }
+}
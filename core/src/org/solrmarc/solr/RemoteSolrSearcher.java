@@ -6,6 +6,8 @@ import java.net.URL;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.common.SolrDocument;
 import org.marc4j.*;
 import org.marc4j.marc.Record;
 
@@ -21,6 +23,8 @@ public class RemoteSolrSearcher
     String id_fname;
     /** a reqHandler with deftype lucene (for id matching) */
     String defaultReqHandler;
+    /** number of documents retrieved in one request by handleAll */
+    static final int PAGE_SIZE = 1000;
 
     public RemoteSolrSearcher(String solrBaseURL, String query, String marcRecFld)
     {
@@ -37,126 +41,54 @@ public class RemoteSolrSearcher
         if (verbose) System.err.println("URL = "+ solrBaseURL + "  query = "+ query);
     }
 
+    /**
+     * write the marc records of all the documents matching the query to
+     *  System.out.  Pages through the matching documents in id order (see
+     *  SolrDocCursor), getting the id and the marc record field in the same
+     *  request;  the records of a page are decoded and written while the next
+     *  page is retrieved.
+     */
     public int handleAll()
     {
     	MarcStreamWriter output = new MarcStreamWriter(System.out, "UTF8", true);
         if (marcRecFld == null) marcRecFld = "marc_display";
 
-        String encQuery;
-        try
-        {
-            encQuery = java.net.URLEncoder.encode(query, "UTF-8");
-        }
-        catch (UnsupportedEncodingException e)
-        {
-            encQuery = query;
-        }
-
-        if (verbose) System.err.println("encoded query = "+ encQuery);
-
-        String resultSet[] = getIdSet(encQuery);
-        String recordStr = null;
-        for (String id : resultSet)
-        {
-            recordStr = getFieldFromDocumentGivenDocID(id, marcRecFld);
-            Record record = null;
-            if (recordStr.startsWith("<?xml version"))
-                record = getRecordFromXMLString(recordStr);
-            else if (recordStr.startsWith("{\""))
-                record = getRecordFromJsonString(recordStr);
-            else
-                record = getRecordFromRawMarc(recordStr);
-
-            if (record != null)
-            {
-                output.write(record);
-                System.out.flush();
-            }
-        }
-        output.close();
-        return 0;
-    }
-
-    private String getFieldFromDocumentGivenDocID(String id, String solrFieldContainingEncodedMarcRecord2)
-    {
-    	return getFieldFromDocumentGivenDocID(id, solrFieldContainingEncodedMarcRecord2, defaultReqHandler);
-    }
-
-    /**
-     *
-     * @param id the id of the record sought
-     * @param marcRecFld Solr field containing the encoded marc record
-     * @param reqHandler name of Solr request handler with deftype lucene
-     * @return
-     */
-    private String getFieldFromDocumentGivenDocID(String id, String marcRecFld, String reqHandler)
-    {
-        String fullURLStr = solrBaseURL + "/select/?q=" + id_fname + "%3A"+ id + "&qt=" + reqHandler + "&fl="+marcRecFld + "&wt=json&indent=on";
-        if (verbose) System.err.println("encoded document retrieval url = "+ fullURLStr);
-        URL fullURL = null;
-        try
-        {
-            fullURL = new URL(fullURLStr);
-        }
-        catch (MalformedURLException e1)
-        {
-            e1.printStackTrace();
-        }
-
-        BufferedReader sIn = null;
+        HttpSolrServer solrServer = new HttpSolrServer(solrBaseURL);
+        SolrDocCursor cursor = new SolrDocCursor(solrServer, query, defaultReqHandler, id_fname, PAGE_SIZE, id_fname, marcRecFld);
         try
         {
-            sIn = new BufferedReader( new InputStreamReader(fullURL.openStream(), "UTF-8"));
-        }
-        catch (UnsupportedEncodingException e)
-        {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-        catch (IOException e)
-        {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-
-        String line;
-        String result = null;
-        try
-        {
-            while ((line = sIn.readLine()) != null)
+            while (cursor.hasNext())
             {
-                if (line.contains(marcRecFld+"\":"))
+                SolrDocument doc = cursor.next();
+                Object recordObj = doc.getFirstValue(marcRecFld);
+                if (recordObj == null)
                 {
-                    if (line.contains("\"<?xml version"))
-                    {
-                        result = line.replaceFirst(".*<\\?xml", "<?xml");
-                        result = result.replaceFirst("</collection>.*", "</collection>");
-                        result = result.replaceAll("\\\\\"", "\"");
-                    }
-                    else if (line.contains(marcRecFld+"\":[\"{"))
-                    {
-                        result = line.replaceFirst("[^:]*:\\[\"[{]", "{");
-                        result = result.replaceFirst("\\\\n\"][}]]", "");
-                        result = result.replaceAll("\\\\\"", "\"");
-                        result = result.replace("\\\\", "\\");
-                    }
-                    else
-                    {
-                        result = line.replaceFirst("[^:]*:\"", "");
-                        result = result.replaceFirst("\"}]$", "");
-                        result = result.replaceAll("\\\\\"", "\"");
-                        result = normalizeUnicode(result);
-                    }
+                    if (verbose) System.err.println("no " + marcRecFld + " in document " + doc.getFieldValue(id_fname));
+                    continue;
                 }
+                String recordStr = recordObj.toString();
+                Record record = null;
+                if (recordStr.startsWith("<?xml version"))
+                    record = getRecordFromXMLString(recordStr);
+                else if (recordStr.startsWith("{\""))
+                    record = getRecordFromJsonString(recordStr);
                 else
-                    continue;
+                    record = getRecordFromRawMarc(normalizeUnicode(recordStr));
+
+                if (record != null)
+                {
+                    output.write(record);
+                    System.out.flush();
+                }
             }
         }
-        catch (IOException e)
+        finally
         {
-            e.printStackTrace();
+            cursor.close();
+            solrServer.shutdown();
         }
-        return(result);
+        output.close();
+        return 0;
     }
 
     private String normalizeUnicode(String origStr)
@@ -14,6 +14,12 @@ import org.xml.sax.InputSource;
 
 public class SolrCoreLoader
 {
+    /** names of the places documents can be written:  the Solr clients, or a sink instead of Solr */
+    public static final String SOLR_SINK = "solr";
+    public static final String DISCARD_SINK = "discard";
+    public static final String JSON_LINES_SINK = "jsonl";
+    public static final String XML_SINK = "xml";
+    public static final String JAVABIN_SINK = "javabin";
 
 	/**
 	 * @deprecated
@@ -158,6 +164,17 @@ public class SolrCoreLoader
     }
 
     public static SolrProxy loadRemoteSolrServer(String solrHostUpdateURL, boolean useBinaryRequestHandler, boolean useStreamingServer)
+    {
+        return loadRemoteSolrServer(solrHostUpdateURL, useBinaryRequestHandler, useStreamingServer, 1, 1, 1);
+    }
+
+    /**
+     * @param batchSize - maximum number of documents sent in one request;  if 1, each document is sent as it is added
+     * @param batchMaxBytes - maximum estimated size, in bytes, of the documents sent in one request
+     * @param maxRequestsInFlight - maximum number of requests being sent at once
+     */
+    public static SolrProxy loadRemoteSolrServer(String solrHostUpdateURL, boolean useBinaryRequestHandler, boolean useStreamingServer,
+                                                 int batchSize, long batchMaxBytes, int maxRequestsInFlight)
     {
         SolrProxy solrProxy = null;
         String urlString = solrHostUpdateURL.replaceAll("[/\\\\]update$", "");
@@ -181,8 +198,36 @@ public class SolrCoreLoader
         	httpSolrServer.setParser(new XMLResponseParser());
         }
 
-        solrProxy = new SolrServerProxy(httpSolrServer);
+        // ConcurrentUpdateSolrServer swallows errors for individual docs, so batch ourselves
+        if (batchSize > 1)
+            solrProxy = new BatchingSolrServerProxy(httpSolrServer, batchSize, batchMaxBytes, maxRequestsInFlight);
+        else
+            solrProxy = new SolrServerProxy(httpSolrServer);
         return(solrProxy);
     }
 
+    /**
+     * @param documentSink - where documents are written instead of Solr:
+     *   discard (thrown away), jsonl (JSON lines), xml (Solr XML update
+     *   files) or javabin (Solr javabin update files)
+     * @param filename - name of the file written, for all but discard
+     * @param docsPerFile - maximum number of documents in a file;  no maximum if 0
+     * @return a SolrProxy writing to the document sink
+     */
+    public static SolrProxy loadDocumentSink(String documentSink, String filename, int docsPerFile)
+    {
+        if (documentSink.equals(DISCARD_SINK))
+            return new DiscardingSolrProxy();
+        if (filename == null || filename.trim().length() == 0)
+            throw new IllegalArgumentException("Document sink " + documentSink + " needs the name of the file to write (solrmarc.document_sink_file)");
+        if (documentSink.equals(JSON_LINES_SINK))
+            return new JsonLinesFileProxy(filename.trim(), docsPerFile);
+        if (documentSink.equals(XML_SINK))
+            return new XmlUpdateFileProxy(filename.trim(), docsPerFile);
+        if (documentSink.equals(JAVABIN_SINK))
+            return new JavabinUpdateFileProxy(filename.trim(), docsPerFile);
+        throw new IllegalArgumentException("Unknown document sink: " + documentSink + " - must be one of " + SOLR_SINK + ", " + DISCARD_SINK + ", "
+                                           + JSON_LINES_SINK + ", " + XML_SINK + ", " + JAVABIN_SINK);
+    }
+
 }
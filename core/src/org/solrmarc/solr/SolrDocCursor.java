@@ -0,0 +1,189 @@
+package org.solrmarc.solr;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+
+/**
+ * Iterates over all the documents matching a query, a page at a time, in
+ *  order of the id field.  Each page after the first asks only for ids after
+ *  the last id of the previous page, so a page deep in the results costs the
+ *  same as the first one (unlike paging with start), and only two pages are
+ *  held in memory.  The next page is fetched while the documents of the
+ *  current page are being processed.
+ */
+public class SolrDocCursor implements Iterator<SolrDocument>
+{
+    private final SolrServer solrServer;
+    private final SolrQuery baseQuery;
+    private final String idFieldName;
+    private final int rows;
+
+    /** fetches the next page while the current one is processed */
+    private final ExecutorService fetcher;
+    /** the next page, or null if there are no more pages */
+    private Future<SolrDocumentList> nextPage;
+    private Iterator<SolrDocument> currentDocs = null;
+    private long numFound = -1;
+
+    /**
+     * @param solrServer - the SolrServer to query
+     * @param query - the query for the documents wanted
+     * @param reqHandler - name of Solr request handler for the query
+     * @param idFieldName - name of the Solr field containing the (unique) ids;  it must be sortable
+     * @param rows - number of documents in a page
+     * @param fields - the names of the Solr fields to return;  all stored fields if none are given
+     */
+    public SolrDocCursor(SolrServer solrServer, String query, String reqHandler, String idFieldName, int rows, String... fields)
+    {
+        this(solrServer, query, reqHandler, idFieldName, null, rows, fields);
+    }
+
+    /**
+     * @param solrServer - the SolrServer to query
+     * @param query - the query for the documents wanted
+     * @param reqHandler - name of Solr request handler for the query
+     * @param idFieldName - name of the Solr field containing the (unique) ids;  it must be sortable
+     * @param afterId - only documents with ids after this one are returned;  all if null
+     * @param rows - number of documents in a page
+     * @param fields - the names of the Solr fields to return;  all stored fields if none are given
+     */
+    public SolrDocCursor(SolrServer solrServer, String query, String reqHandler, String idFieldName, String afterId, int rows, String... fields)
+    {
+        if (rows < 1)
+            throw new IllegalArgumentException("rows must be positive");
+        this.solrServer = solrServer;
+        this.idFieldName = idFieldName;
+        this.rows = rows;
+
+        baseQuery = new SolrQuery();
+        baseQuery.setQuery(query);
+        baseQuery.setQueryType(reqHandler);
+        baseQuery.setFacet(false);
+        baseQuery.setRows(rows);
+        baseQuery.setSort(idFieldName, SolrQuery.ORDER.asc);
+        if (fields.length > 0)
+        {
+            baseQuery.setFields(fields);
+            if (!Arrays.asList(fields).contains(idFieldName))
+                baseQuery.addField(idFieldName);
+        }
+
+        fetcher = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "SolrDocCursor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        nextPage = fetchPage(afterId);
+    }
+
+    public boolean hasNext()
+    {
+        while (currentDocs == null || !currentDocs.hasNext())
+        {
+            if (nextPage == null)
+                return false;
+            SolrDocumentList page = waitForPage(nextPage);
+            if (numFound == -1)
+                numFound = page.getNumFound();
+            if (page.size() < rows)
+                nextPage = null;
+            else
+            {
+                Object lastId = page.get(page.size() - 1).getFieldValue(idFieldName);
+                nextPage = fetchPage(lastId.toString());
+            }
+            currentDocs = page.iterator();
+        }
+        return true;
+    }
+
+    public SolrDocument next()
+    {
+        if (!hasNext())
+            throw new NoSuchElementException("no more documents match the query");
+        return currentDocs.next();
+    }
+
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the number of documents matching the query, known once the first page is read
+     */
+    public long getNumFound()
+    {
+        hasNext();
+        return numFound;
+    }
+
+    /**
+     * stop fetching pages
+     */
+    public void close()
+    {
+        nextPage = null;
+        currentDocs = null;
+        fetcher.shutdownNow();
+    }
+
+    /**
+     * start fetching the page of documents with ids after the passed id
+     * @param afterId - the last id of the previous page, or null for the first page
+     */
+    private Future<SolrDocumentList> fetchPage(String afterId)
+    {
+        final SolrQuery query = baseQuery.getCopy();
+        if (afterId != null)
+            query.addFilterQuery(idFieldName + ":{" + quote(afterId) + " TO *]");
+        return fetcher.submit(new Callable<SolrDocumentList>()
+        {
+            public SolrDocumentList call() throws Exception
+            {
+                return solrServer.query(query).getResults();
+            }
+        });
+    }
+
+    private SolrDocumentList waitForPage(Future<SolrDocumentList> page)
+    {
+        try
+        {
+            return page.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            close();
+            throw new SolrRuntimeException("Interrupted while waiting for documents from Solr");
+        }
+        catch (ExecutionException e)
+        {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new SolrRuntimeException("SolrServerException", (Exception) cause);
+        }
+    }
+
+    /**
+     * @return the value as a quoted term for the lucene query parser
+     */
+    static String quote(String value)
+    {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
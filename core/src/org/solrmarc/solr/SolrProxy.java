@@ -1,6 +1,7 @@
 package org.solrmarc.solr;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 
 public interface SolrProxy
@@ -25,6 +26,12 @@ public interface SolrProxy
      */
     public abstract void delete(String id, boolean fromCommitted, boolean fromPending) throws IOException;
 
+    /**
+     * delete docs from the index in a single request
+     * @param ids the unique identifiers of the documents to be deleted
+     */
+    public abstract void delete(Collection<String> ids) throws IOException;
+
     /**
      * delete all docs from the index
      * Warning: be very sure you want to call this
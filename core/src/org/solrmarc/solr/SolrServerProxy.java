@@ -96,6 +96,24 @@ public class SolrServerProxy implements SolrProxy
         }
     }
 
+    /**
+     * delete docs from the index in a single request
+     * @param ids the unique identifiers of the documents to be deleted
+     */
+    public void delete(Collection<String> ids) throws IOException
+    {
+        if (ids.isEmpty())
+            return;
+        try
+        {
+            solrJSolrServer.deleteById(new ArrayList<String>(ids));
+        }
+        catch (SolrServerException e)
+        {
+            throw(new SolrRuntimeException("SolrServerException", e));
+        }
+    }
+
     /**
      * delete all docs from the index
      * Warning: be very sure you want to call this
@@ -0,0 +1,189 @@
+package org.solrmarc.solr;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.log4j.Logger;
+import org.apache.solr.common.SolrInputDocument;
+import org.solrmarc.tools.SolrUtils;
+
+/**
+ * An implementation of SolrProxy that writes the documents, and the ids to
+ *  delete, to files instead of sending them to Solr, so records can be
+ *  mapped without a Solr server, and the files posted to Solr later in bulk.
+ *  Subclasses write the files in a format:  JSON lines, Solr XML or javabin.
+ *
+ * If docsPerFile is more than 0, a new file is started after that many
+ *  documents, and the files are numbered:  updates.xml is written as
+ *  updates-00001.xml, updates-00002.xml ...  Files are written in the order
+ *  of the adds and deletes, and should be posted in that order.  Commits are
+ *  left to whoever posts the files, so commit() only flushes the file being
+ *  written.
+ *
+ * The proxy can be shared by the threads writing documents.
+ */
+public abstract class UpdateFileProxy implements SolrProxy
+{
+    /** the file name, before numbering */
+    private final String filename;
+    /** maximum number of documents in a file;  no maximum if 0 */
+    private final int docsPerFile;
+
+    /** number of files started, including the current one */
+    private int numFiles = 0;
+    private boolean fileOpen = false;
+    private int numDocsInFile = 0;
+    private long numDocs = 0;
+    private long numDeletes = 0;
+
+    protected static Logger logger = Logger.getLogger(UpdateFileProxy.class.getName());
+
+    /**
+     * @param filename - name of the file written, before numbering
+     * @param docsPerFile - maximum number of documents in a file;  no maximum if 0
+     */
+    protected UpdateFileProxy(String filename, int docsPerFile)
+    {
+        if (filename == null || filename.length() == 0)
+            throw new IllegalArgumentException("no file name for the update files");
+        if (docsPerFile < 0)
+            throw new IllegalArgumentException("the number of documents per update file can't be negative");
+        this.filename = filename;
+        this.docsPerFile = docsPerFile;
+    }
+
+    /**
+     * start writing a file
+     */
+    protected abstract void openFile(File file) throws IOException;
+
+    protected abstract void writeDoc(SolrInputDocument inputDoc) throws IOException;
+
+    protected abstract void writeDelete(Collection<String> ids) throws IOException;
+
+    protected abstract void writeDeleteAll() throws IOException;
+
+    /**
+     * write out what is buffered for the current file, if possible
+     */
+    protected abstract void flushFile() throws IOException;
+
+    /**
+     * finish writing the current file
+     */
+    protected abstract void closeFile() throws IOException;
+
+    /**
+     * @return true if the next document must go in a new file, e.g. because
+     *  the format can't have it after a delete in the same file;  only for
+     *  proxies with a maximum number of documents in a file, so the files
+     *  are numbered
+     */
+    protected boolean needsNewFileForDoc()
+    {
+        return false;
+    }
+
+    /**
+     * given a map of field names and values, create a Document and write it
+     *  to the current file
+     * @return a string representation of the document when verbose is true or addDocToIndex is false
+     */
+    public String addDoc(Map<String, Object> fldNames2ValsMap, boolean verbose, boolean addDocToIndex) throws IOException
+    {
+        SolrInputDocument inputDoc = SolrUtils.createSolrInputDoc(fldNames2ValsMap);
+        if (addDocToIndex)
+        {
+            synchronized (this)
+            {
+                if (fileOpen && ((docsPerFile > 0 && numDocsInFile >= docsPerFile) || needsNewFileForDoc()))
+                    endFile();
+                startFileIfNeeded();
+                writeDoc(inputDoc);
+                numDocsInFile++;
+                numDocs++;
+            }
+        }
+
+        if (verbose || !addDocToIndex)
+            return inputDoc.toString().replaceAll("> ", "> \n");
+        else
+            return null;
+    }
+
+    public void delete(String id, boolean fromCommitted, boolean fromPending) throws IOException
+    {
+        delete(Collections.singletonList(id));
+    }
+
+    public synchronized void delete(Collection<String> ids) throws IOException
+    {
+        if (ids.isEmpty())
+            return;
+        startFileIfNeeded();
+        writeDelete(ids);
+        numDeletes += ids.size();
+    }
+
+    public synchronized void deleteAllDocs() throws IOException
+    {
+        startFileIfNeeded();
+        writeDeleteAll();
+    }
+
+    public synchronized void commit(boolean optimize) throws IOException
+    {
+        if (fileOpen)
+            flushFile();
+    }
+
+    public synchronized void close()
+    {
+        try
+        {
+            if (fileOpen)
+                endFile();
+        }
+        catch (IOException e)
+        {
+            throw new SolrRuntimeException("Unable to write update file " + getFilename(numFiles), e);
+        }
+        logger.info("Wrote " + numDocs + " documents and " + numDeletes + " deletes to " + numFiles + " update files " + filename);
+    }
+
+    public boolean isSolrException(Exception e)
+    {
+        return false;
+    }
+
+    /**
+     * @return the name of the numbered file, or of the only file if there is
+     *  no maximum number of documents in a file
+     */
+    public String getFilename(int fileNum)
+    {
+        if (docsPerFile == 0)
+            return filename;
+        String suffix = String.format("-%05d", fileNum);
+        int dotIx = filename.lastIndexOf('.');
+        if (dotIx <= filename.lastIndexOf(File.separatorChar) + 1)
+            return filename + suffix;
+        return filename.substring(0, dotIx) + suffix + filename.substring(dotIx);
+    }
+
+    private void startFileIfNeeded() throws IOException
+    {
+        if (fileOpen)
+            return;
+        numFiles++;
+        openFile(new File(getFilename(numFiles)));
+        fileOpen = true;
+        numDocsInFile = 0;
+    }
+
+    private void endFile() throws IOException
+    {
+        fileOpen = false;
+        closeFile();
+    }
+}
@@ -0,0 +1,78 @@
+package org.solrmarc.solr;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.XML;
+import org.solrmarc.tools.SolrUtils;
+
+/**
+ * An UpdateFileProxy writing Solr XML update messages, which can be posted
+ *  to the update handler of Solr as they are.  Each file is one message:
+ *    <update>
+ *    <add><doc>...</doc></add>
+ *    <delete><id>...</id>...</delete>
+ *    </update>
+ */
+public class XmlUpdateFileProxy extends UpdateFileProxy
+{
+    private Writer out = null;
+
+    /**
+     * @param filename - name of the file written, before numbering
+     * @param docsPerFile - maximum number of documents in a file;  no maximum if 0
+     */
+    public XmlUpdateFileProxy(String filename, int docsPerFile)
+    {
+        super(filename, docsPerFile);
+    }
+
+    @Override
+    protected void openFile(File file) throws IOException
+    {
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        out.write("<update>\n");
+    }
+
+    @Override
+    protected void writeDoc(SolrInputDocument inputDoc) throws IOException
+    {
+        out.write("<add>");
+        out.write(SolrUtils.getXML(inputDoc));
+        out.write("</add>\n");
+    }
+
+    @Override
+    protected void writeDelete(Collection<String> ids) throws IOException
+    {
+        out.write("<delete>");
+        for (String id : ids)
+        {
+            out.write("<id>");
+            XML.escapeCharData(id, out);
+            out.write("</id>");
+        }
+        out.write("</delete>\n");
+    }
+
+    @Override
+    protected void writeDeleteAll() throws IOException
+    {
+        out.write("<delete><query>*:*</query></delete>\n");
+    }
+
+    @Override
+    protected void flushFile() throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    protected void closeFile() throws IOException
+    {
+        out.write("</update>\n");
+        out.close();
+        out = null;
+    }
+}
@@ -0,0 +1,225 @@
+package org.solrmarc.tools;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of values that are expensive to compute from keys that repeat,
+ *  such as shelfkeys for the call numbers of the volumes of a serial, that
+ *  can be shared by the threads mapping records.  It holds at most a given
+ *  number of entries:  the entries are divided among segments by the hash
+ *  of the key, and each segment is locked separately and drops its least
+ *  recently used entry when it is full.  Counts of hits and misses are kept
+ *  so the benefit of the cache can be logged at the end of a run.
+ *
+ * Every cache created is kept in a list, so the maximum size of all of them
+ *  can be set from the configuration, and their statistics logged.
+ */
+public class BoundedCache<K, V>
+{
+    /** default maximum number of entries in a cache */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private static final int NUM_SEGMENTS = 16;
+
+    /** maximum number of entries of caches created without a maximum size */
+    private static volatile int maxSizeOfAll = DEFAULT_MAX_SIZE;
+
+    /** all the caches created */
+    private static final List<BoundedCache<?, ?>> caches = new CopyOnWriteArrayList<BoundedCache<?, ?>>();
+
+    private final String name;
+    private final List<Segment<K, V>> segments;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * a cache with the maximum size set by setMaxSizeOfAll(), or the default
+     * @param name - what is cached, for the statistics
+     */
+    public BoundedCache(String name)
+    {
+        this(name, maxSizeOfAll);
+    }
+
+    /**
+     * @param name - what is cached, for the statistics
+     * @param maxSize - the maximum number of entries in the cache
+     */
+    public BoundedCache(String name, int maxSize)
+    {
+        this.name = name;
+        segments = new ArrayList<Segment<K, V>>(NUM_SEGMENTS);
+        for (int i = 0; i < NUM_SEGMENTS; i++)
+            segments.add(new Segment<K, V>(segmentMaxSize(maxSize, i)));
+        caches.add(this);
+    }
+
+    /**
+     * @return the value cached for the key, or null if there is none
+     */
+    public V get(K key)
+    {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment)
+        {
+            value = segment.get(key);
+        }
+        if (value == null)
+            misses.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * cache the value for the key, dropping the least recently used entry of
+     *  the key's segment if it is full
+     */
+    public void put(K key, V value)
+    {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment)
+        {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * change the maximum number of entries in the cache, dropping the least
+     *  recently used entries if there are too many
+     */
+    public void setMaxSize(int maxSize)
+    {
+        for (int i = 0; i < NUM_SEGMENTS; i++)
+        {
+            Segment<K, V> segment = segments.get(i);
+            synchronized (segment)
+            {
+                segment.maxSize = segmentMaxSize(maxSize, i);
+                Iterator<K> iter = segment.keySet().iterator();
+                while (segment.size() > segment.maxSize)
+                {
+                    iter.next();
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    public void clear()
+    {
+        for (Segment<K, V> segment : segments)
+        {
+            synchronized (segment)
+            {
+                segment.clear();
+            }
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public int size()
+    {
+        int result = 0;
+        for (Segment<K, V> segment : segments)
+        {
+            synchronized (segment)
+            {
+                result += segment.size();
+            }
+        }
+        return result;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the counts of hits and misses, as a message for the log
+     */
+    public String getStats()
+    {
+        long numHits = hits.get();
+        long numLookups = numHits + misses.get();
+        long hitPercent = numLookups == 0 ? 0 : numHits * 100 / numLookups;
+        return name + " cache: " + numHits + " hits of " + numLookups + " lookups (" + hitPercent + "%), " + size() + " entries";
+    }
+
+    /**
+     * @return all the caches created
+     */
+    public static List<BoundedCache<?, ?>> getCaches()
+    {
+        return Collections.unmodifiableList(caches);
+    }
+
+    /**
+     * set the maximum number of entries of all the caches created, and of the
+     *  caches created later without a maximum size
+     */
+    public static void setMaxSizeOfAll(int maxSize)
+    {
+        maxSizeOfAll = maxSize;
+        for (BoundedCache<?, ?> cache : caches)
+            cache.setMaxSize(maxSize);
+    }
+
+    private Segment<K, V> segmentFor(K key)
+    {
+        int hash = key.hashCode();
+        // spread the high bits into the low ones used to pick the segment
+        hash ^= (hash >>> 16);
+        return segments.get((hash & 0x7fffffff) % NUM_SEGMENTS);
+    }
+
+    /**
+     * @return the maximum number of entries of a segment, so the maximum of
+     *  all of them is the maximum for the cache (but at least one each)
+     */
+    private static int segmentMaxSize(int maxSize, int segmentNum)
+    {
+        int result = maxSize / NUM_SEGMENTS;
+        if (segmentNum < maxSize % NUM_SEGMENTS)
+            result++;
+        return Math.max(1, result);
+    }
+
+    /**
+     * a part of the cache: a map in order of access that drops its eldest
+     *  entry when it has too many
+     */
+    private static class Segment<K, V> extends LinkedHashMap<K, V>
+    {
+        private static final long serialVersionUID = 1L;
+
+        int maxSize;
+
+        Segment(int maxSize)
+        {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+        {
+            return size() > maxSize;
+        }
+    }
+}
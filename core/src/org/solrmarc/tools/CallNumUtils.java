@@ -98,9 +98,38 @@ public final class CallNumUtils {
      */
     public static final String DEWEY_CLASS_N_CUTTER_REGEX = DEWEY_CLASS_REGEX + " *\\.?" + DEWEY_FULL_CUTTER_REGEX;
     public static final Pattern DEWEY_CLASS_N_CUTTER_PATTERN = Pattern.compile(DEWEY_CLASS_N_CUTTER_REGEX + ".*");
-    
-    
-    private static Map<Character, Character> alphanumReverseMap = new HashMap<Character, Character>();
+
+    // patterns used to take call numbers apart, compiled once rather than
+    //  on each call, as the call number methods are called for every item
+    /** where the cutter begins: spaces, a period before a letter, or a slash */
+    private static final Pattern BEGIN_CUTTER_PATTERN = Pattern.compile("( +|(\\.[A-Z])| */)");
+    private static final Pattern NOT_CAPS_PATTERN = Pattern.compile("[^A-Z]+");
+    private static final Pattern CAPS_OR_SPACES_PATTERN = Pattern.compile("[A-Z ]+");
+    private static final Pattern NOT_DIGITS_PATTERN = Pattern.compile("[\\D]+");
+    private static final Pattern FIRST_LC_CUTTER_PATTERN = Pattern.compile(LC_CLASS_W_SUFFIX + " *\\.?(" + CUTTER_REGEX + ")");
+    private static final Pattern LC_CUTTER_THEN_NOT_CUTTER_PATTERN = Pattern.compile(LC_CLASS_N_CUTTER + " *(" + NOT_CUTTER + ")*");
+    private static final Pattern PERIOD_CUTTER_PATTERN = Pattern.compile(" *\\." + CUTTER_REGEX);
+    private static final Pattern LC_CUTTER_THEN_PERIOD_CUTTER_PATTERN = Pattern.compile(LC_CLASS_N_CUTTER + " *(.*)\\." + CUTTER_REGEX);
+    private static final Pattern LC_CUTTER_THEN_ELLIPSIS_PATTERN = Pattern.compile(LC_CLASS_N_CUTTER + " \\.\\.\\.$");
+    private static final Pattern SECOND_LC_CUTTER_PATTERN = Pattern.compile(LC_CLASS_N_CUTTER + " *\\.?(" + CUTTER_REGEX + ")");
+    private static final Pattern CUTTER_PATTERN = Pattern.compile("(" + CUTTER_REGEX + ")");
+    private static final Pattern CUTTER_AFTER_PERIOD_PATTERN = Pattern.compile("\\.(" + CUTTER_REGEX + ")");
+    private static final Pattern CUTTER_THEN_ANY_PATTERN = Pattern.compile(" *\\.?" + CUTTER_REGEX + ".*");
+    private static final Pattern DEWEY_B4_CUTTER_PATTERN = Pattern.compile("(" + DEWEY_CLASS_REGEX + ").*");
+    // dewey cutters can have trailing letters, preceded by a space or not
+    private static final Pattern DEWEY_CUTTER_PATTERN_1 = Pattern.compile(DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_TRAILING_LETTERS_REGEX + ")( +" + NOT_CUTTER + ".*)");
+    private static final Pattern DEWEY_CUTTER_PATTERN_2 = Pattern.compile(DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_MIN_CUTTER_REGEX + ")( +" + NOT_CUTTER + ".*)");
+    private static final Pattern DEWEY_CUTTER_PATTERN_3 = Pattern.compile(DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_SPACE_TRAILING_LETTERS_REGEX + ")( +" + NOT_CUTTER + ".*)");
+    private static final Pattern DEWEY_CUTTER_PATTERN_4 = Pattern.compile(DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_TRAILING_LETTERS_REGEX + ")(.*)");
+    private static final Pattern DEWEY_CUTTER_PATTERN_5 = Pattern.compile(DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_MIN_CUTTER_REGEX + ")(.*)");
+    private static final Pattern DEWEY_CUTTER_PATTERN_6 = Pattern.compile(DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_SPACE_TRAILING_LETTERS_REGEX + ")(.*)");
+    private static final Pattern MULT_WHITESPACE_PATTERN = Pattern.compile("\\s\\s+");
+    private static final Pattern PERIOD_SPACE_PERIOD_PATTERN = Pattern.compile("\\. \\.");
+    private static final Pattern DIGITS_PERIOD_SPACE_LETTER_PATTERN = Pattern.compile("(\\d+\\.) ([A-Z])");
+    private static final Pattern LC_LETTERS_SPACE_DIGIT_PATTERN = Pattern.compile("^([A-Z][A-Z]?[A-Z]?) ([0-9])");
+
+    /** read only after the static initializer, so it is safe to share among threads */
+    private static final Map<Character, Character> alphanumReverseMap = new HashMap<Character, Character>();
     static {
         alphanumReverseMap.put('0', 'Z');
         alphanumReverseMap.put('1', 'Y');
@@ -142,16 +171,27 @@ public final class CallNumUtils {
     
     
     /** this character will sort first */
-    public static char SORT_FIRST_CHAR = Character.MIN_VALUE;
-    public static StringBuilder reverseDefault = new StringBuilder(75);
+    public static final char SORT_FIRST_CHAR = Character.MIN_VALUE;
+    /** reverse shelfkeys are padded to this value, so shorter keys sort after longer ones */
+    private static final String REVERSE_DEFAULT;
     static {
+        StringBuilder reverseDefault = new StringBuilder(75);
         for (int i = 0; i < 50; i++) 
 // N.B.:  this char is tough to deal with in a variety of contexts.  
 // Hopefully diacritics and non-latin won't bite us in the butt.
 //          reverseDefault.append(Character.toChars(Character.MAX_CODE_POINT));
             reverseDefault.append(Character.toChars('~'));
+        REVERSE_DEFAULT = reverseDefault.toString();
     }
 
+    // the same call numbers recur in the items of a record (e.g. the volumes
+    //  of a serial) and across records, so the results of the more expensive
+    //  methods are cached.  Only Strings are cached, so they can be shared.
+    private static final BoundedCache<String, String> normalizedCallnumCache = new BoundedCache<String, String>("Normalized call number");
+    private static final BoundedCache<String, String> lcShelfkeyCache = new BoundedCache<String, String>("LC shelfkey");
+    private static final BoundedCache<String, String> deweyShelfkeyCache = new BoundedCache<String, String>("Dewey shelfkey");
+    private static final BoundedCache<String, String> reverseShelfkeyCache = new BoundedCache<String, String>("Reverse shelfkey");
+
 //------ public methods --------    
     
     /**
@@ -199,9 +239,7 @@ public final class CallNumUtils {
         //   the period is sometimes missing
         // For Dewey callnumber, there may be a slash instead of a cutter, 
         //  or there might be NO cutter
-        String beginCutterRegex = "( +|(\\.[A-Z])| */)";  
-        
-        String[] pieces = callnum.split(beginCutterRegex);
+        String[] pieces = BEGIN_CUTTER_PATTERN.split(callnum);
         if (pieces.length == 0 || pieces[0] == null || pieces[0].length() == 0)
             return null;
         else
@@ -244,7 +282,7 @@ public final class CallNumUtils {
     public static String getLCstartLetters(String rawLCcallnum) {
         String result = null;
         if (rawLCcallnum != null && rawLCcallnum.length() > 0) {
-            String [] lcClass = rawLCcallnum.split("[^A-Z]+");
+            String [] lcClass = NOT_CAPS_PATTERN.split(rawLCcallnum);
             if (lcClass.length > 0)
                 result = lcClass[0];
         }
@@ -262,7 +300,7 @@ public final class CallNumUtils {
     
         String rawClass = getLCB4FirstCutter(rawLCcallnum);
         if (rawClass != null && rawClass.length() > 0) {
-            String [] pieces = rawClass.split("[A-Z ]+");
+            String [] pieces = CAPS_OR_SPACES_PATTERN.split(rawClass);
             if (pieces.length > 1)
                 result = pieces[1].trim();
         }
@@ -302,9 +340,7 @@ public final class CallNumUtils {
     public static String getFirstLCcutter(String rawCallnum) {
         String result = null;
     
-        String regex = LC_CLASS_W_SUFFIX + " *\\.?(" + CUTTER_REGEX + ")";
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(rawCallnum);
+        Matcher matcher = FIRST_LC_CUTTER_PATTERN.matcher(rawCallnum);
     
         if (matcher.find())
             result = matcher.group(6).trim();
@@ -333,9 +369,7 @@ public final class CallNumUtils {
     public static String getFirstLCcutterSuffix(String rawLCcallnum) {
         String result = null;
     
-        String regex = LC_CLASS_N_CUTTER + " *(" + NOT_CUTTER + ")*"; 
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(rawLCcallnum);
+        Matcher matcher = LC_CUTTER_THEN_NOT_CUTTER_PATTERN.matcher(rawLCcallnum);
     
         // non cutter string optionally followed by cutter preceded by a period
         if (matcher.find() && matcher.groupCount() > 5 
@@ -350,8 +384,7 @@ public final class CallNumUtils {
             int endLastIx = matcher.end(6); // end of previous match
             if (endLastIx < rawLCcallnum.length()) {
                 // if there is a suffix, there must be a period before second cutter
-                Pattern cutterPat = Pattern.compile(" *\\." + CUTTER_REGEX);
-                matcher.usePattern(cutterPat);
+                matcher.usePattern(PERIOD_CUTTER_PATTERN);
                 if (matcher.find(endLastIx)) {
                     if (endLastIx < matcher.start())
                         result = result.trim() + " " + rawLCcallnum.substring(endLastIx, matcher.start()).trim();
@@ -365,20 +398,14 @@ public final class CallNumUtils {
             //  not because further on there is a second cutter preceded by
             //  a period.
             // look for period before second cutter
-            String afterLCclassNCutter = rawLCcallnum.replaceFirst(LC_CLASS_N_CUTTER + " *", "");
-            String cutterRegex = LC_CLASS_N_CUTTER + " *(.*)\\." + CUTTER_REGEX; 
-            
-            pattern = Pattern.compile(cutterRegex);
-            matcher = pattern.matcher(rawLCcallnum);
+            matcher = LC_CUTTER_THEN_PERIOD_CUTTER_PATTERN.matcher(rawLCcallnum);
     
             if (matcher.find() && matcher.groupCount() > 5 
                     && matcher.group(6) != null && matcher.group(6).length() > 0) 
                 // there is a second cutter preceded by a period
                 result = matcher.group(6).trim();
             else {
-                regex = LC_CLASS_N_CUTTER + " \\.\\.\\.$"; 
-                pattern = Pattern.compile(regex);
-                matcher = pattern.matcher(rawLCcallnum);
+                matcher = LC_CUTTER_THEN_ELLIPSIS_PATTERN.matcher(rawLCcallnum);
                 if (matcher.find())
                     result = " ...";
             }
@@ -398,9 +425,7 @@ public final class CallNumUtils {
         String firstCutSuffix = getFirstLCcutterSuffix(rawLCcallnum);
         if (firstCutSuffix == null || firstCutSuffix.length() == 0) {
             // look for second cutter 
-            String regex = LC_CLASS_N_CUTTER + " *\\.?(" + CUTTER_REGEX + ")";  
-            Pattern pattern = Pattern.compile(regex);
-            Matcher matcher = pattern.matcher(rawLCcallnum);
+            Matcher matcher = SECOND_LC_CUTTER_PATTERN.matcher(rawLCcallnum);
             if (matcher.find() && matcher.groupCount() > 5 
                     && matcher.group(6) != null && matcher.group(6).length() > 0) {
                 result = matcher.group(6).trim();
@@ -412,16 +437,14 @@ public final class CallNumUtils {
             int ix = rawLCcallnum.indexOf(firstCutSuffix) + firstCutSuffix.length();
             if (ix < rawLCcallnum.length()) {
                 String remaining = rawLCcallnum.substring(ix).trim();
-                Pattern pattern = Pattern.compile("(" + CUTTER_REGEX + ")");
-                Matcher matcher = pattern.matcher(remaining);
+                Matcher matcher = CUTTER_PATTERN.matcher(remaining);
                 if (matcher.find() && matcher.group(1) != null && matcher.group(1).length() > 0) {
                     result = matcher.group(1).trim();
                 }
             }
             // if we still have nothing, look for 2nd cutter in first cutter suffix
             if (result == null) {
-                Pattern pattern = Pattern.compile("\\.(" + CUTTER_REGEX + ")");
-                Matcher matcher = pattern.matcher(firstCutSuffix);
+                Matcher matcher = CUTTER_AFTER_PERIOD_PATTERN.matcher(firstCutSuffix);
                 if (matcher.find() && matcher.group(1) != null && matcher.group(1).length() > 0) {
                     result = matcher.group(1).trim();
                 }
@@ -459,9 +482,7 @@ public final class CallNumUtils {
     public static String getSecondLCcutterYearSuffix(String rawLCcallnum) {
         String result = null;
         
-        String regex = LC_CLASS_N_CUTTER + " *(" + NOT_CUTTER + ")*"; 
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(rawLCcallnum);
+        Matcher matcher = LC_CUTTER_THEN_NOT_CUTTER_PATTERN.matcher(rawLCcallnum);
 
         if (matcher.find() && matcher.groupCount() > 5 
                 && matcher.group(6) != null && matcher.group(6).length() > 0) {
@@ -474,8 +495,7 @@ public final class CallNumUtils {
             //  first cutter  (e.g. M211 .M93 K.240 1988)
             int endLastIx = matcher.end(6); // end of previous match
             if (endLastIx < rawLCcallnum.length()) {
-                Pattern cutterPat = Pattern.compile(" *\\.?" + CUTTER_REGEX + ".*");
-                matcher.usePattern(cutterPat);
+                matcher.usePattern(CUTTER_THEN_ANY_PATTERN);
                 if (matcher.find(endLastIx)) {
                     if (endLastIx < matcher.start())
                         result = result.trim() + " " + rawLCcallnum.substring(endLastIx, matcher.start()).trim();
@@ -495,9 +515,7 @@ public final class CallNumUtils {
     public static final String getDeweyB4Cutter(String callnum) {
         String result = null;
         
-        String entireCallNumRegex = "(" + DEWEY_CLASS_REGEX + ").*";
-        Pattern pattern = Pattern.compile(entireCallNumRegex);
-        Matcher matcher = pattern.matcher(callnum);
+        Matcher matcher = DEWEY_B4_CUTTER_PATTERN.matcher(callnum);
         if (matcher.find())
             result = matcher.group(1).trim();
         
@@ -513,25 +531,11 @@ public final class CallNumUtils {
     public static String getDeweyCutter(String rawCallnum) {
         String result = null;
 
-        // dewey cutters can have trailing letters, preceded by a space or not
-        String regex1 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_TRAILING_LETTERS_REGEX + ")( +" + NOT_CUTTER + ".*)";
-        String regex2 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_MIN_CUTTER_REGEX + ")( +" + NOT_CUTTER + ".*)";
-        String regex3 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_SPACE_TRAILING_LETTERS_REGEX + ")( +" + NOT_CUTTER + ".*)";
-        String regex4 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_TRAILING_LETTERS_REGEX + ")(.*)";
-        String regex5 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_MIN_CUTTER_REGEX + ")(.*)";
-        String regex6 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_SPACE_TRAILING_LETTERS_REGEX + ")(.*)";
-        Pattern pat1 = Pattern.compile(regex1);
-        Pattern pat2 = Pattern.compile(regex2);
-        Pattern pat3 = Pattern.compile(regex3);
-        Pattern pat4 = Pattern.compile(regex4);
-        Pattern pat5 = Pattern.compile(regex5);
-        Pattern pat6 = Pattern.compile(regex6);
-
-        Matcher matcher = pat1.matcher(rawCallnum);
+        Matcher matcher = DEWEY_CUTTER_PATTERN_1.matcher(rawCallnum);
         if (!matcher.find()) {
-            matcher = pat2.matcher(rawCallnum);
+            matcher = DEWEY_CUTTER_PATTERN_2.matcher(rawCallnum);
             if (!matcher.find()) {
-                matcher = pat3.matcher(rawCallnum);
+                matcher = DEWEY_CUTTER_PATTERN_3.matcher(rawCallnum);
             }
         }
 
@@ -555,15 +559,15 @@ public final class CallNumUtils {
             }
         }
         else {
-            matcher = pat4.matcher(rawCallnum);
+            matcher = DEWEY_CUTTER_PATTERN_4.matcher(rawCallnum);
             if (matcher.find())
                 result = matcher.group(2);
             else {
-                matcher = pat5.matcher(rawCallnum);
+                matcher = DEWEY_CUTTER_PATTERN_5.matcher(rawCallnum);
                 if (matcher.find())
                     result = matcher.group(2);
                 else {
-                    matcher = pat6.matcher(rawCallnum);
+                    matcher = DEWEY_CUTTER_PATTERN_6.matcher(rawCallnum);
                     if (matcher.find())
                         result = matcher.group(2);
                 }
@@ -591,31 +595,17 @@ public final class CallNumUtils {
         
         if (result == null || result.length() == 0) 
         {
-            // dewey cutters can have trailing letters, preceded by a space or not
-            String regex1 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_TRAILING_LETTERS_REGEX + ")( +" + NOT_CUTTER + ".*)";
-            String regex2 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_MIN_CUTTER_REGEX + ")( +" + NOT_CUTTER + ".*)";
-            String regex3 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_SPACE_TRAILING_LETTERS_REGEX + ")( +" + NOT_CUTTER + ".*)";
-            String regex4 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_TRAILING_LETTERS_REGEX + ")(.*)";
-            String regex5 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_MIN_CUTTER_REGEX + ")(.*)";
-            String regex6 = DEWEY_CLASS_REGEX +  " *\\.?(" + DEWEY_CUTTER_SPACE_TRAILING_LETTERS_REGEX + ")(.*)";
-            Pattern pat1 = Pattern.compile(regex1);
-            Pattern pat2 = Pattern.compile(regex2);
-            Pattern pat3 = Pattern.compile(regex3);
-            Pattern pat4 = Pattern.compile(regex4);
-            Pattern pat5 = Pattern.compile(regex5);
-            Pattern pat6 = Pattern.compile(regex6);
-    
-            Matcher matcher = pat1.matcher(rawCallnum);
+            Matcher matcher = DEWEY_CUTTER_PATTERN_1.matcher(rawCallnum);
             if (!matcher.find()) {
-                matcher = pat2.matcher(rawCallnum);
+                matcher = DEWEY_CUTTER_PATTERN_2.matcher(rawCallnum);
                 if (!matcher.find()) {
-                    matcher = pat3.matcher(rawCallnum);
+                    matcher = DEWEY_CUTTER_PATTERN_3.matcher(rawCallnum);
                     if (!matcher.find()) {
-                        matcher = pat4.matcher(rawCallnum);
+                        matcher = DEWEY_CUTTER_PATTERN_4.matcher(rawCallnum);
                         if (!matcher.find()) {
-                            matcher = pat5.matcher(rawCallnum);
+                            matcher = DEWEY_CUTTER_PATTERN_5.matcher(rawCallnum);
                             if (!matcher.find()) {
-                                matcher = pat6.matcher(rawCallnum);
+                                matcher = DEWEY_CUTTER_PATTERN_6.matcher(rawCallnum);
                             }
                         }
                     }
@@ -658,13 +648,22 @@ public final class CallNumUtils {
      * @return normalized form of a call number
      */
     public static String normalizeCallnum(String rawCallnum) {
+        String result = normalizedCallnumCache.get(rawCallnum);
+        if (result == null) {
+            result = computeNormalizedCallnum(rawCallnum);
+            normalizedCallnumCache.put(rawCallnum, result);
+        }
+        return result;
+    }
+
+    private static String computeNormalizedCallnum(String rawCallnum) {
 
         // reduce multiple whitespace chars to a single space
-        String normalizedCallnum = rawCallnum.trim().replaceAll("\\s\\s+", " ");
+        String normalizedCallnum = MULT_WHITESPACE_PATTERN.matcher(rawCallnum.trim()).replaceAll(" ");
         // reduce double periods to a single period
-        normalizedCallnum = normalizedCallnum.replaceAll("\\. \\.", " .");
+        normalizedCallnum = PERIOD_SPACE_PERIOD_PATTERN.matcher(normalizedCallnum).replaceAll(" .");
         // remove space after a period if period is after digits and before letters
-        normalizedCallnum = normalizedCallnum.replaceAll("(\\d+\\.) ([A-Z])", "$1$2");
+        normalizedCallnum = DIGITS_PERIOD_SPACE_LETTER_PATTERN.matcher(normalizedCallnum).replaceAll("$1$2");
         // remove trailing period and any spaces before it
         if (normalizedCallnum.endsWith("."))
             normalizedCallnum = normalizedCallnum.substring(0, normalizedCallnum.length() - 1).trim();
@@ -684,7 +683,7 @@ public final class CallNumUtils {
     {
         String normCallnum = normalizeCallnum(rawLCcallnum);
         // remove space between class letters and digits
-        return normCallnum.replaceAll("^([A-Z][A-Z]?[A-Z]?) ([0-9])", "$1$2");
+        return LC_LETTERS_SPACE_DIGIT_PATTERN.matcher(normCallnum).replaceAll("$1$2");
     }
 
 
@@ -702,8 +701,38 @@ public final class CallNumUtils {
      *  of the call number
      */
     public static String getLCShelfkey(String rawLCcallnum, String recid, ErrorHandler errors) {
-        StringBuilder resultBuf = new StringBuilder();
         String upcaseLCcallnum = rawLCcallnum.toUpperCase();
+        String shelfkey = lcShelfkeyCache.get(upcaseLCcallnum);
+        if (shelfkey == null) {
+            shelfkey = computeLCShelfkey(upcaseLCcallnum);
+            lcShelfkeyCache.put(upcaseLCcallnum, shelfkey);
+        }
+        
+        if (shelfkey.length() == 0) {
+            // the problem is reported for each record with the call number
+//              if (recid != null)
+            if ( (recid != null) && (!rawLCcallnum.startsWith("XX")) ) // Stanford mod
+            {
+                if (errors == null)
+                {
+                    System.err.println("Problem creating shelfkey for record " + recid + "; call number: " + rawLCcallnum);
+                }
+                else
+                {
+                    errors.addError(ErrorHandler.ERROR_TYPO, "Problem creating shelfkey for record " + recid + "; call number: " + rawLCcallnum);
+                }
+            }
+            return upcaseLCcallnum.trim();
+        }
+        return shelfkey;
+    }
+
+    /**
+     * @return the shelf key for an upper case LC call number, or the empty
+     *  string if the call number can't be made into a shelf key
+     */
+    private static String computeLCShelfkey(String upcaseLCcallnum) {
+        StringBuilder resultBuf = new StringBuilder();
         
 // TODO: don't repeat same parsing -- some of these methods could take the
 //   portion of the callnumber before the cutter as the input string.       
@@ -749,25 +778,10 @@ public final class CallNumUtils {
                 }
             }
         } catch (NumberFormatException e) {
-//              if (recid != null)
-            if ( (recid != null) && (!rawLCcallnum.startsWith("XX")) ) // Stanford mod
-            {
-                if (errors == null)
-                {
-                    System.err.println("Problem creating shelfkey for record " + recid + "; call number: " + rawLCcallnum);
-                }
-                else
-                {
-                    errors.addError(ErrorHandler.ERROR_TYPO, "Problem creating shelfkey for record " + recid + "; call number: " + rawLCcallnum);
-                }
-            }
             //e.printStackTrace();
-            resultBuf = new StringBuilder();
+            return "";
         }
         
-        if (resultBuf.length() == 0)
-            resultBuf.append(upcaseLCcallnum);
-
         return resultBuf.toString().trim();
     }
 
@@ -807,7 +821,7 @@ public final class CallNumUtils {
         if (suffix != null && suffix.length() > 0) {
             StringBuilder resultBuf = new StringBuilder(suffix.length());
             // get digit substrings
-            String[] digitStrs = suffix.split("[\\D]+");
+            String[] digitStrs = NOT_DIGITS_PATTERN.split(suffix);
             int len = digitStrs.length;
             if (digitStrs != null && len != 0) {
                 int s = 0;
@@ -841,10 +855,16 @@ public final class CallNumUtils {
      * reverse order (for getting "previous" call numbers in a list)
      */
     public static String getReverseShelfKey(String shelfkey) {
-        StringBuilder resultBuf = new StringBuilder(reverseDefault);
-        if (shelfkey != null && shelfkey.length() > 0)
+        if (shelfkey == null || shelfkey.length() == 0)
+            return REVERSE_DEFAULT;
+        String result = reverseShelfkeyCache.get(shelfkey);
+        if (result == null) {
+            StringBuilder resultBuf = new StringBuilder(REVERSE_DEFAULT);
             resultBuf.replace(0, shelfkey.length(), reverseAlphanum(shelfkey));
-        return resultBuf.toString();
+            result = resultBuf.toString();
+            reverseShelfkeyCache.put(shelfkey, result);
+        }
+        return result;
     }
 
     /**
@@ -875,8 +895,9 @@ public final class CallNumUtils {
             if (Character.isLetterOrDigit(codePoint)) {
                 if (chs.length == 1) {
                     char c = chs[0];
-                    if (alphanumReverseMap.containsKey(c))
-                        reverse.append(alphanumReverseMap.get(c));
+                    Character reverseC = alphanumReverseMap.get(c);
+                    if (reverseC != null)
+                        reverse.append(reverseC);
                     else {
                         // not an ASCII letter or digit
                         
@@ -937,6 +958,15 @@ public final class CallNumUtils {
      *  version of the call number
      */
     public static String getDeweyShelfKey(String rawDeweyCallnum) {
+        String result = deweyShelfkeyCache.get(rawDeweyCallnum);
+        if (result == null) {
+            result = computeDeweyShelfKey(rawDeweyCallnum);
+            deweyShelfkeyCache.put(rawDeweyCallnum, result);
+        }
+        return result;
+    }
+
+    private static String computeDeweyShelfKey(String rawDeweyCallnum) {
         StringBuilder resultBuf = new StringBuilder();
 
         // class 
@@ -995,17 +1025,17 @@ public final class CallNumUtils {
         return norm;
     }
         
-    private static String PUNCT_PREFIX = "([\\.:\\/])?";
-    private static String NS_PREFIX = "(n\\.s\\.?\\,? ?)?";
-    private static String MONTHS = "jan|feb|mar|apr|may|jun|jul|aug|sep|oct|nov|dec";
-    private static String VOL_LETTERS = "[\\:\\/]?(bd|iss|jahrg|new ser|no|part|pts?|ser|t|v|vols?|vyp" + "|" + MONTHS + ")";
-    private static String VOL_NUMBERS = "\\d+([\\/-]\\d+)?( \\d{4}([\\/-]\\d{4})?)?( ?suppl\\.?)?";
-    private static String VOL_NUMBERS_LOOSER = "\\d+.*";
-    private static String VOL_NUM_AS_LETTERS = "[A-Z]([\\/-]\\[A-Z]+)?.*";
+    private static final String PUNCT_PREFIX = "([\\.:\\/])?";
+    private static final String NS_PREFIX = "(n\\.s\\.?\\,? ?)?";
+    private static final String MONTHS = "jan|feb|mar|apr|may|jun|jul|aug|sep|oct|nov|dec";
+    private static final String VOL_LETTERS = "[\\:\\/]?(bd|iss|jahrg|new ser|no|part|pts?|ser|t|v|vols?|vyp" + "|" + MONTHS + ")";
+    private static final String VOL_NUMBERS = "\\d+([\\/-]\\d+)?( \\d{4}([\\/-]\\d{4})?)?( ?suppl\\.?)?";
+    private static final String VOL_NUMBERS_LOOSER = "\\d+.*";
+    private static final String VOL_NUM_AS_LETTERS = "[A-Z]([\\/-]\\[A-Z]+)?.*";
     
-    private static Pattern VOL_PATTERN = Pattern.compile(PUNCT_PREFIX + NS_PREFIX + VOL_LETTERS + "\\.? ?" + VOL_NUMBERS, Pattern.CASE_INSENSITIVE);
-    private static Pattern VOL_PATTERN_LOOSER = Pattern.compile(PUNCT_PREFIX + NS_PREFIX + VOL_LETTERS + "\\.? ?" + VOL_NUMBERS_LOOSER, Pattern.CASE_INSENSITIVE);
-    private static Pattern VOL_PATTERN_LETTERS = Pattern.compile(PUNCT_PREFIX + NS_PREFIX + VOL_LETTERS + "[\\/\\. ]" + VOL_NUM_AS_LETTERS , Pattern.CASE_INSENSITIVE);
+    private static final Pattern VOL_PATTERN = Pattern.compile(PUNCT_PREFIX + NS_PREFIX + VOL_LETTERS + "\\.? ?" + VOL_NUMBERS, Pattern.CASE_INSENSITIVE);
+    private static final Pattern VOL_PATTERN_LOOSER = Pattern.compile(PUNCT_PREFIX + NS_PREFIX + VOL_LETTERS + "\\.? ?" + VOL_NUMBERS_LOOSER, Pattern.CASE_INSENSITIVE);
+    private static final Pattern VOL_PATTERN_LETTERS = Pattern.compile(PUNCT_PREFIX + NS_PREFIX + VOL_LETTERS + "[\\/\\. ]" + VOL_NUM_AS_LETTERS , Pattern.CASE_INSENSITIVE);
 
     /**
      * remove volume information from LC call number if it is present as a 
@@ -0,0 +1,298 @@
+package org.solrmarc.tools;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A local store of record ids -> hashes of the Solr documents last sent for
+ *  them, so records that map to the same document as the last time (e.g. most
+ *  of the records of a nightly increment) needn't be sent again.
+ *
+ * Both ids and documents are kept as 64 bit hashes:  in memory in an open
+ *  addressing hash table of longs, and on disk as a file of (id hash, document
+ *  hash) pairs sorted by id hash, 16 bytes a record.  The file is read when
+ *  the store is created and replaced by save().
+ *
+ * The document hash doesn't depend on the order of the fields in the map,
+ *  but does on the order of the values of a field, which Solr keeps.
+ */
+public class DocHashStore
+{
+    /** "SMDH" */
+    private static final int MAGIC = 0x534D4448;
+    private static final int VERSION = 1;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /** marks an empty slot of the table;  id hashes of 0 are changed to 1 */
+    private static final long EMPTY = 0;
+
+    private final File file;
+    private long idHashes[];
+    private long docHashes[];
+    private int size = 0;
+
+    private long numUnchanged = 0;
+    private long numChanged = 0;
+    private long numNew = 0;
+
+    /**
+     * @param filename - the file of the store;  read if it exists
+     */
+    public DocHashStore(String filename)
+        throws IOException
+    {
+        file = new File(filename);
+        initTable(1024);
+        if (file.exists())
+            load();
+    }
+
+    /**
+     * @return true if the document is the same as the one last stored for the
+     *  id, counting it as unchanged, changed or new
+     */
+    public synchronized boolean isUnchanged(String id, long docHash)
+    {
+        int slot = findSlot(hashId(id));
+        if (idHashes[slot] == EMPTY)
+        {
+            numNew++;
+            return false;
+        }
+        if (docHashes[slot] == docHash)
+        {
+            numUnchanged++;
+            return true;
+        }
+        numChanged++;
+        return false;
+    }
+
+    /**
+     * store the hash of the document sent for the id
+     */
+    public synchronized void put(String id, long docHash)
+    {
+        put(hashId(id), docHash);
+    }
+
+    /**
+     * forget the id, e.g. when its document is deleted from the index
+     */
+    public synchronized void remove(String id)
+    {
+        int slot = findSlot(hashId(id));
+        if (idHashes[slot] == EMPTY)
+            return;
+        idHashes[slot] = EMPTY;
+        size--;
+        // move up the entries after the removed one that would no longer be found
+        int mask = idHashes.length - 1;
+        int next = (slot + 1) & mask;
+        while (idHashes[next] != EMPTY)
+        {
+            int home = homeSlot(idHashes[next]);
+            // the entry at next can move to slot if slot is between its home and next (cyclically)
+            if (((next - home) & mask) >= ((next - slot) & mask))
+            {
+                idHashes[slot] = idHashes[next];
+                docHashes[slot] = docHashes[next];
+                idHashes[next] = EMPTY;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * write the store to its file, replacing the file only when all of it has
+     *  been written
+     */
+    public synchronized void save()
+        throws IOException
+    {
+        long sortedIdHashes[] = new long[size];
+        int num = 0;
+        for (long idHash : idHashes)
+        {
+            if (idHash != EMPTY)
+                sortedIdHashes[num++] = idHash;
+        }
+        Arrays.sort(sortedIdHashes);
+
+        File tmpFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (long idHash : sortedIdHashes)
+            {
+                out.writeLong(idHash);
+                out.writeLong(docHashes[findSlot(idHash)]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        if (file.exists() && !file.delete())
+            throw new IOException("Unable to replace " + file.getPath());
+        if (!tmpFile.renameTo(file))
+            throw new IOException("Unable to rename " + tmpFile.getPath() + " to " + file.getPath());
+    }
+
+    /**
+     * @return the counts of documents unchanged, changed and new, as a message
+     *  for the log
+     */
+    public synchronized String getStats()
+    {
+        return "document hashes: " + numUnchanged + " unchanged, " + numChanged + " changed, " + numNew + " new, " + size + " ids stored";
+    }
+
+    public synchronized long getNumUnchanged()
+    {
+        return numUnchanged;
+    }
+
+    /**
+     * @return a hash of the Solr field names -> values map:  the sum of the
+     *  hashes of each field, so the order of the fields doesn't matter
+     */
+    public static long hashDoc(Map<String, Object> fldNames2ValsMap)
+    {
+        long result = 0;
+        for (Map.Entry<String, Object> entry : fldNames2ValsMap.entrySet())
+        {
+            long fldHash = hash(FNV_OFFSET, entry.getKey());
+            Object valObj = entry.getValue();
+            if (valObj instanceof Collection<?>)
+            {
+                for (Object singleValObj : (Collection<?>) valObj)
+                    fldHash = hash(fldHash ^ 0x1f, String.valueOf(singleValObj));
+            }
+            else
+                fldHash = hash(fldHash ^ 0x1f, String.valueOf(valObj));
+            result += mix(fldHash);
+        }
+        return result;
+    }
+
+    /**
+     * @return the 64 bit FNV-1a hash of the chars of the String, continuing from h
+     */
+    private static long hash(long h, String str)
+    {
+        int len = str.length();
+        for (int i = 0; i < len; i++)
+        {
+            h ^= str.charAt(i);
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * spread the bits of a hash (the finalizer of MurmurHash3)
+     */
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long hashId(String id)
+    {
+        long result = mix(hash(FNV_OFFSET, id));
+        return result == EMPTY ? 1 : result;
+    }
+
+    private void put(long idHash, long docHash)
+    {
+        int slot = findSlot(idHash);
+        if (idHashes[slot] == EMPTY)
+        {
+            if ((size + 1) * 4L > idHashes.length * 3L)
+            {
+                resize(idHashes.length * 2);
+                slot = findSlot(idHash);
+            }
+            idHashes[slot] = idHash;
+            size++;
+        }
+        docHashes[slot] = docHash;
+    }
+
+    /**
+     * @return the slot with the id hash, or the empty slot where it would go
+     */
+    private int findSlot(long idHash)
+    {
+        int mask = idHashes.length - 1;
+        int slot = homeSlot(idHash);
+        while (idHashes[slot] != EMPTY && idHashes[slot] != idHash)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private int homeSlot(long idHash)
+    {
+        return (int) (idHash ^ (idHash >>> 32)) & (idHashes.length - 1);
+    }
+
+    private void initTable(int capacity)
+    {
+        idHashes = new long[capacity];
+        docHashes = new long[capacity];
+        size = 0;
+    }
+
+    private void resize(int capacity)
+    {
+        long oldIdHashes[] = idHashes;
+        long oldDocHashes[] = docHashes;
+        initTable(capacity);
+        for (int i = 0; i < oldIdHashes.length; i++)
+        {
+            if (oldIdHashes[i] != EMPTY)
+                put(oldIdHashes[i], oldDocHashes[i]);
+        }
+    }
+
+    private void load()
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file.getPath() + " is not a document hash file");
+            int num = in.readInt();
+            int capacity = 1024;
+            while (num * 4L > capacity * 3L)
+                capacity *= 2;
+            initTable(capacity);
+            for (int i = 0; i < num; i++)
+            {
+                long idHash = in.readLong();
+                put(idHash, in.readLong());
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
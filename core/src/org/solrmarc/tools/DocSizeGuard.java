@@ -0,0 +1,336 @@
+package org.solrmarc.tools;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Keeps a few unusual records (e.g. thousands of 999 items, or huge 5xx
+ *  notes) from becoming multi-megabyte Solr documents that stall Solr and
+ *  blow up batch sizes.  Applied to a record mapped to Solr field names ->
+ *  values, before it becomes a document:
+ *  - fields with more than maxFieldValues values keep only the first ones
+ *  - fields with more than maxFieldBytes keep only the values that fit, or,
+ *    if the first value doesn't fit, the part of it (as a String) that does
+ *  - documents still estimated at more than maxDocBytes are rejected
+ * The ids of the records capped or rejected are written, with the reasons, to
+ *  a quarantine file.  Sizes are estimated in characters, the same way
+ *  BatchingSolrServerProxy estimates the size of a batch.
+ *
+ * The sizes of every field and document are counted in a histogram, so the
+ *  fields that make documents big can be logged at the end of a run.  A
+ *  guard can be shared by the threads mapping records.
+ */
+public class DocSizeGuard
+{
+    /** upper bounds of the histogram buckets, except for the last one */
+    private static final long BUCKET_LIMITS[] = {1024, 4 * 1024, 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024};
+    private static final String BUCKET_NAMES[] = {"<=1K", "<=4K", "<=16K", "<=64K", "<=256K", "<=1M", ">1M"};
+    /** histogram key for the sizes of whole documents */
+    private static final String DOC_KEY = "(document)";
+
+    private final int maxFieldValues;
+    private final int maxFieldBytes;
+    private final long maxDocBytes;
+    private final Set<String> uncappedFields;
+    private final String quarantineFilename;
+
+    private final ConcurrentMap<String, SizeHistogram> histograms = new ConcurrentHashMap<String, SizeHistogram>();
+    private final AtomicLong numCapped = new AtomicLong();
+    private final AtomicLong numRejected = new AtomicLong();
+    /** opened when the first record is quarantined */
+    private PrintWriter quarantine = null;
+
+    /**
+     * @param maxFieldValues - maximum number of values of a field
+     * @param maxFieldBytes - maximum size of the values of a field
+     * @param maxDocBytes - maximum size of a document
+     * @param uncappedFields - names of fields whose values are never capped,
+     *   such as a field with the whole MARC record;  they still count toward
+     *   the size of the document.  May be null.
+     * @param quarantineFilename - name of the file for the ids of records
+     *   capped or rejected;  they are only logged if null
+     */
+    public DocSizeGuard(int maxFieldValues, int maxFieldBytes, long maxDocBytes, Collection<String> uncappedFields, String quarantineFilename)
+    {
+        this.maxFieldValues = maxFieldValues;
+        this.maxFieldBytes = maxFieldBytes;
+        this.maxDocBytes = maxDocBytes;
+        this.uncappedFields = uncappedFields == null ? Collections.<String>emptySet() : new HashSet<String>(uncappedFields);
+        this.quarantineFilename = quarantineFilename;
+    }
+
+    /**
+     * a guard that caps nothing, but counts the sizes of fields and documents
+     */
+    public DocSizeGuard()
+    {
+        this(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, null, null);
+    }
+
+    /**
+     * cap the values of the fields of a mapped record, and count their sizes
+     * @param id - the id of the record, for the quarantine file
+     * @param fldNames2ValsMap - the mapped record;  capped values are replaced
+     *   by new collections or Strings, so the collections in the map are not
+     *   changed
+     * @return the reason the document is too big, or null if it is not
+     */
+    public String limit(String id, Map<String, Object> fldNames2ValsMap)
+    {
+        List<String> reasons = null;
+        long docBytes = 0;
+        for (Map.Entry<String, Object> entry : fldNames2ValsMap.entrySet())
+        {
+            String fldName = entry.getKey();
+            Object valObj = entry.getValue();
+            if (!uncappedFields.contains(fldName))
+            {
+                Object capped = cap(valObj);
+                if (capped != valObj)
+                {
+                    if (reasons == null)
+                        reasons = new ArrayList<String>();
+                    reasons.add(fldName + ": " + describe(valObj) + " capped to " + describe(capped));
+                    entry.setValue(capped);
+                    valObj = capped;
+                }
+            }
+            long fldBytes = fieldBytes(fldName, valObj);
+            histogramFor(fldName).add(fldBytes, numValues(valObj));
+            docBytes += fldBytes;
+        }
+        histogramFor(DOC_KEY).add(docBytes, fldNames2ValsMap.size());
+
+        String rejection = null;
+        if (docBytes > maxDocBytes)
+        {
+            rejection = "document of " + docBytes + " bytes is bigger than " + maxDocBytes + " bytes";
+            if (reasons == null)
+                reasons = new ArrayList<String>();
+            reasons.add(rejection);
+            numRejected.incrementAndGet();
+        }
+        else if (reasons != null)
+            numCapped.incrementAndGet();
+
+        if (reasons != null)
+            quarantine(id, reasons);
+        return rejection;
+    }
+
+    /**
+     * @return the value, or a smaller one if it has too many values or bytes
+     */
+    private Object cap(Object valObj)
+    {
+        if (valObj instanceof Collection<?>)
+        {
+            Collection<?> values = (Collection<?>) valObj;
+            if (values.size() <= maxFieldValues && (maxFieldBytes == Integer.MAX_VALUE || sumBytes(values) <= maxFieldBytes))
+                return valObj;
+            List<Object> result = new ArrayList<Object>();
+            long bytes = 0;
+            for (Object singleValObj : values)
+            {
+                if (result.size() == maxFieldValues)
+                    break;
+                String valStr = String.valueOf(singleValObj);
+                if (bytes + valStr.length() > maxFieldBytes)
+                {
+                    if (result.isEmpty())
+                        result.add(truncate(valStr, maxFieldBytes));
+                    break;
+                }
+                result.add(singleValObj);
+                bytes += valStr.length();
+            }
+            return result;
+        }
+        else if (valObj != null && String.valueOf(valObj).length() > maxFieldBytes)
+            return truncate(String.valueOf(valObj), maxFieldBytes);
+        return valObj;
+    }
+
+    private static long sumBytes(Collection<?> values)
+    {
+        long result = 0;
+        for (Object singleValObj : values)
+            result += String.valueOf(singleValObj).length();
+        return result;
+    }
+
+    /**
+     * @return the first maxLength chars of the String, without splitting a
+     *  surrogate pair
+     */
+    private static String truncate(String str, int maxLength)
+    {
+        int end = maxLength;
+        if (end > 0 && Character.isHighSurrogate(str.charAt(end - 1)))
+            end--;
+        return str.substring(0, end);
+    }
+
+    /**
+     * @return the estimated size of the field:  its name and value, for each value
+     */
+    private static long fieldBytes(String fldName, Object valObj)
+    {
+        if (valObj instanceof Collection<?>)
+        {
+            Collection<?> values = (Collection<?>) valObj;
+            return (long) fldName.length() * values.size() + sumBytes(values);
+        }
+        return fldName.length() + String.valueOf(valObj).length();
+    }
+
+    private static int numValues(Object valObj)
+    {
+        if (valObj instanceof Collection<?>)
+            return ((Collection<?>) valObj).size();
+        return 1;
+    }
+
+    private static String describe(Object valObj)
+    {
+        if (valObj instanceof Collection<?>)
+        {
+            Collection<?> values = (Collection<?>) valObj;
+            return values.size() + " values of " + sumBytes(values) + " bytes";
+        }
+        return String.valueOf(valObj).length() + " bytes";
+    }
+
+    private SizeHistogram histogramFor(String key)
+    {
+        SizeHistogram result = histograms.get(key);
+        if (result == null)
+        {
+            SizeHistogram newHistogram = new SizeHistogram();
+            result = histograms.putIfAbsent(key, newHistogram);
+            if (result == null)
+                result = newHistogram;
+        }
+        return result;
+    }
+
+    /**
+     * write the id of the record and the reasons it was capped or rejected
+     *  to the quarantine file
+     */
+    private synchronized void quarantine(String id, List<String> reasons)
+    {
+        if (quarantineFilename == null)
+            return;
+        if (quarantine == null)
+        {
+            try
+            {
+                quarantine = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(quarantineFilename), "UTF-8")));
+            }
+            catch (IOException e)
+            {
+                throw new SolrMarcRuntimeException("Unable to open quarantine file " + quarantineFilename, e);
+            }
+        }
+        StringBuilder line = new StringBuilder(id == null ? "" : id);
+        for (String reason : reasons)
+            line.append('\t').append(reason);
+        quarantine.println(line);
+    }
+
+    /**
+     * close the quarantine file, if any records were written to it
+     */
+    public synchronized void close()
+    {
+        if (quarantine != null)
+        {
+            quarantine.close();
+            quarantine = null;
+        }
+    }
+
+    /**
+     * @return the number of records with fields capped, but not rejected
+     */
+    public long getNumCapped()
+    {
+        return numCapped.get();
+    }
+
+    /**
+     * @return the number of records rejected for being too big
+     */
+    public long getNumRejected()
+    {
+        return numRejected.get();
+    }
+
+    /**
+     * @return the histogram of the sizes of documents, then of each field by
+     *  field name, as messages for the log
+     */
+    public List<String> getStats()
+    {
+        List<String> result = new ArrayList<String>();
+        SizeHistogram docHistogram = histograms.get(DOC_KEY);
+        if (docHistogram == null)
+            return result;
+        result.add(docHistogram.toString(DOC_KEY, "fields"));
+        for (Map.Entry<String, SizeHistogram> entry : new TreeMap<String, SizeHistogram>(histograms).entrySet())
+        {
+            if (!entry.getKey().equals(DOC_KEY))
+                result.add(entry.getValue().toString(entry.getKey(), "values"));
+        }
+        return result;
+    }
+
+    /**
+     * counts of sizes in buckets, with the total and maximum size and the
+     *  maximum number of values
+     */
+    private static class SizeHistogram
+    {
+        final AtomicLongArray counts = new AtomicLongArray(BUCKET_NAMES.length);
+        final AtomicLong totalBytes = new AtomicLong();
+        final AtomicLong maxBytes = new AtomicLong();
+        final AtomicInteger maxValues = new AtomicInteger();
+
+        void add(long bytes, int numValues)
+        {
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS.length && bytes > BUCKET_LIMITS[bucket])
+                bucket++;
+            counts.incrementAndGet(bucket);
+            totalBytes.addAndGet(bytes);
+            long max = maxBytes.get();
+            while (bytes > max && !maxBytes.compareAndSet(max, bytes))
+                max = maxBytes.get();
+            int maxNum = maxValues.get();
+            while (numValues > maxNum && !maxValues.compareAndSet(maxNum, numValues))
+                maxNum = maxValues.get();
+        }
+
+        String toString(String name, String valuesName)
+        {
+            StringBuilder result = new StringBuilder(name);
+            long num = 0;
+            for (int i = 0; i < counts.length(); i++)
+                num += counts.get(i);
+            result.append(": ").append(num).append(" docs, ");
+            result.append(totalBytes.get() / num).append(" bytes avg, ");
+            result.append(maxBytes.get()).append(" bytes max, ");
+            result.append(maxValues.get()).append(' ').append(valuesName).append(" max;");
+            for (int i = 0; i < counts.length(); i++)
+            {
+                long count = counts.get(i);
+                if (count > 0)
+                    result.append(' ').append(BUCKET_NAMES[i]).append(": ").append(count);
+            }
+            return result.toString();
+        }
+    }
+}
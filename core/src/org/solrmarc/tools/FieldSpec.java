@@ -0,0 +1,380 @@
+package org.solrmarc.tools;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.marc4j.marc.*;
+
+/**
+ * A field specification, as used in xxx_index.properties files and by
+ *  MarcUtils.getFieldList (e.g. 245ab:246a, 008[35-37], 100[a-z], LNK245a),
+ *  parsed once so it can be applied to many records.  FieldSpec objects are
+ *  immutable, so they can be shared by threads.
+ * Use getFieldSpec() to get a cached FieldSpec for a specification String.
+ */
+public final class FieldSpec
+{
+    /** no more specifications are cached once there are this many (they are
+     *  usually constants, but custom methods may build them) */
+    private static final int MAX_CACHED_SPECS = 5000;
+
+    private static final Map<String, FieldSpec> specCache = new ConcurrentHashMap<String, FieldSpec>();
+
+    private static final Map<String, SubfieldCodes> subfieldPatternCache = new ConcurrentHashMap<String, SubfieldCodes>();
+
+    /** kinds of parts of a field specification */
+    private static final int SUBFIELDS = 0;
+    private static final int BYTES = 1;
+    private static final int PATTERN = 2;
+    private static final int LINKED = 3;
+
+    /** the specification String */
+    private final String spec;
+
+    /** the colon separated parts of the specification */
+    private final Part parts[];
+
+    /**
+     * Get the FieldSpec for a specification String, parsing it only if it
+     *  hasn't been parsed already.
+     * @param tagStr - string containing which field(s)/subfield(s) to use
+     *  (see MarcUtils.getFieldList)
+     */
+    public static FieldSpec getFieldSpec(String tagStr)
+    {
+        FieldSpec result = specCache.get(tagStr);
+        if (result == null)
+        {
+            result = new FieldSpec(tagStr);
+            if (specCache.size() < MAX_CACHED_SPECS)
+                specCache.put(tagStr, result);
+        }
+        return result;
+    }
+
+    /**
+     * Parse a field specification
+     * @param tagStr - string containing which field(s)/subfield(s) to use
+     *  (see MarcUtils.getFieldList)
+     */
+    public FieldSpec(String tagStr)
+    {
+        spec = tagStr;
+        List<Part> partList = new ArrayList<Part>();
+        String[] tags = tagStr.split(":");
+        for (int i = 0; i < tags.length; i++)
+        {
+            // Check to ensure tag length is at least 3 characters
+            if (tags[i].length() < 3)
+            {
+                System.err.println("Invalid tag specified: " + tags[i]);
+                continue;
+            }
+            partList.add(parsePart(tags[i]));
+        }
+        parts = partList.toArray(new Part[partList.size()]);
+    }
+
+    /**
+     * parse a single tag (and subfields) of a field specification
+     */
+    private static Part parsePart(String tagSpec)
+    {
+        // Get Field Tag
+        String tag = tagSpec.substring(0, 3);
+        boolean linkedField = false;
+        if (tag.equals("LNK"))
+        {
+            tag = tagSpec.substring(3, 6);
+            linkedField = true;
+        }
+        // Process Subfields
+        String subfield = tagSpec.substring(3);
+        boolean havePattern = false;
+        // brackets indicate parsing for individual characters or as pattern
+        int bracket = tagSpec.indexOf('[');
+        if (bracket != -1)
+        {
+            String sub[] = tagSpec.substring(bracket + 1).split("[\\]\\[\\-, ]+");
+            try
+            {
+                // if bracket expression is digits, expression is treated as character positions
+                int substart = Integer.parseInt(sub[0]);
+                int subend = (sub.length > 1) ? Integer.parseInt(sub[1]) + 1 : substart + 1;
+                String subfieldWObracket = subfield.substring(0, bracket-3);
+                return new Part(BYTES, tag, subfieldWObracket, null, null, substart, subend);
+            }
+            catch (NumberFormatException e)
+            {
+                // assume brackets expression is a pattern such as [a-z]
+                havePattern = true;
+            }
+        }
+
+        String separator = null;
+        if (subfield.indexOf('\'') != -1)
+        {
+            separator = subfield.substring(subfield.indexOf('\'') + 1, subfield.length() - 1);
+            subfield = subfield.substring(0, subfield.indexOf('\''));
+        }
+
+        if (linkedField)
+            return new Part(LINKED, tag, subfield, getLinkedSubfieldCodes(subfield), separator, 0, 0);
+        else if (havePattern)
+            return new Part(PATTERN, tag, subfield, getSubfieldPattern(subfield), separator, 0, 0);
+        else
+            return new Part(SUBFIELDS, tag, subfield, SubfieldCodes.fromList(subfield), separator, 0, 0);
+    }
+
+    /**
+     * @return the specification String
+     */
+    public String getSpec()
+    {
+        return spec;
+    }
+
+    /**
+     * Get Set of Strings as indicated by this field specification (see
+     *  MarcUtils.getFieldList)
+     * @param record - the marc record object
+     * @return the contents of the indicated marc field(s)/subfield(s), as a set
+     *         of Strings.
+     */
+    public Set<String> getFieldList(Record record)
+    {
+        Set<String> result = new LinkedHashSet<String>();
+        for (Part part : parts)
+        {
+            switch (part.kind)
+            {
+                case BYTES:
+                    result.addAll(MarcUtils.getSubfieldDataAsSet(record, part.tag, part.subfield, part.beginIx, part.endIx));
+                    break;
+                case PATTERN:
+                    addAllSubfields(record, part.tag, part.codes, part.separator, result);
+                    break;
+                case LINKED:
+                    addLinkedFieldValues(record, part.tag, part.codes, part.separator, result);
+                    break;
+                default:
+                    addSubfieldData(record, part, result);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return spec;
+    }
+
+    /**
+     * Add the specified subfields from the specified MARC field to the result
+     *  (see MarcUtils.getSubfieldDataAsSet)
+     */
+    @SuppressWarnings("unchecked")
+    private static void addSubfieldData(Record record, Part part, Set<String> result)
+    {
+        // Process Leader
+        if (part.tag.equals("000"))
+        {
+            result.add(record.getLeader().marshal());
+            return;
+        }
+
+        List<VariableField> varFlds = record.getVariableFields(part.tag);
+        for (VariableField vf : varFlds)
+        {
+            if (!part.isControlField)
+            {
+                // DataField
+                DataField dfield = (DataField) vf;
+
+                if (part.subfield.length() > 1)
+                {
+                    // concatenate subfields using specified separator or space
+                    StringBuilder buffer = new StringBuilder("");
+                    List<Subfield> subFlds = dfield.getSubfields();
+                    for (Subfield sf : subFlds)
+                    {
+                        if (part.codes.matches(sf.getCode()))
+                        {
+                            if (buffer.length() > 0)
+                                buffer.append(part.separator != null ? part.separator : " ");
+                            buffer.append(sf.getData().trim());
+                        }
+                    }
+                    if (buffer.length() > 0)
+                        result.add(buffer.toString());
+                }
+                else if (part.subfield.length() == 1)
+                {
+                    // get all instances of the single subfield
+                    List<Subfield> subFlds = dfield.getSubfields(part.subfield.charAt(0));
+                    for (Subfield sf : subFlds)
+                        result.add(sf.getData().trim());
+                }
+            }
+            else
+                // Control Field
+                result.add(((ControlField) vf).getData().trim());
+        }
+    }
+
+    /**
+     * Add each instance of the MARC field, with the subfields matching the
+     *  codes concatenated, to the result (see MarcUtils.getAllSubfields)
+     */
+    @SuppressWarnings("unchecked")
+    static void addAllSubfields(Record record, String fldTag, SubfieldCodes codes, String separator, Set<String> result)
+    {
+        List<VariableField> marcFieldList = record.getVariableFields(fldTag);
+        for (VariableField vf : marcFieldList)
+        {
+            DataField marcField = (DataField) vf;
+            StringBuilder buffer = new StringBuilder("");
+            List<Subfield> subfields = marcField.getSubfields();
+            for (Subfield subfield : subfields)
+            {
+                if (codes.matches(subfield.getCode()))
+                {
+                    if (buffer.length() > 0)
+                        buffer.append(separator != null ? separator : " ");
+                    buffer.append(subfield.getData().trim());
+                }
+            }
+            if (buffer.length() > 0)
+                result.add(Utils.cleanData(buffer.toString()));
+        }
+    }
+
+    /**
+     * Add the 880 fields linked to the tag, with the subfields matching the
+     *  codes concatenated, to the result (see MarcUtils.getLinkedFieldValue)
+     */
+    @SuppressWarnings("unchecked")
+    static void addLinkedFieldValues(Record record, String tag, SubfieldCodes codes, String subFldSep, Set<String> result)
+    {
+        for (DataField df : IndexedRecord.getLinkedFields(record, tag))
+        {
+            List<Subfield> subList = df.getSubfields();
+            StringBuilder buf = new StringBuilder("");
+            for (Subfield subF : subList)
+            {
+                if (codes.matches(subF.getCode()))
+                {
+                    if (buf.length() > 0)
+                        buf.append(subFldSep != null ? subFldSep : " ");
+                    buf.append(subF.getData().trim());
+                }
+            }
+            if (buf.length() > 0)
+                result.add(buf.toString());
+        }
+    }
+
+    /**
+     * @param subflds - subfield codes, or a regular expression if it contains [
+     * @return the subfield codes for linked 880 fields (see MarcUtils.getLinkedFieldValue)
+     */
+    static SubfieldCodes getLinkedSubfieldCodes(String subflds)
+    {
+        if (subflds.indexOf('[') != -1)
+            return getSubfieldPattern(subflds);
+        return SubfieldCodes.fromList(subflds);
+    }
+
+    /**
+     * @param regex - regular expression matching a single subfield code
+     * @return the (cached) subfield codes matching the regular expression
+     */
+    static SubfieldCodes getSubfieldPattern(String regex)
+    {
+        SubfieldCodes result = subfieldPatternCache.get(regex);
+        if (result == null)
+        {
+            result = SubfieldCodes.fromPattern(Pattern.compile(regex));
+            if (subfieldPatternCache.size() < MAX_CACHED_SPECS)
+                subfieldPatternCache.put(regex, result);
+        }
+        return result;
+    }
+
+    /**
+     * one colon separated part of a field specification
+     */
+    private static class Part
+    {
+        final int kind;
+        final String tag;
+        final boolean isControlField;
+        /** subfield codes as given in the specification */
+        final String subfield;
+        final SubfieldCodes codes;
+        final String separator;
+        /** for BYTES, the substring of the values wanted */
+        final int beginIx;
+        final int endIx;
+
+        Part(int kind, String tag, String subfield, SubfieldCodes codes, String separator, int beginIx, int endIx)
+        {
+            this.kind = kind;
+            this.tag = tag;
+            this.isControlField = MarcUtils.isControlField(tag);
+            this.subfield = subfield;
+            this.codes = codes;
+            this.separator = separator;
+            this.beginIx = beginIx;
+            this.endIx = endIx;
+        }
+    }
+
+    /**
+     * a set of subfield codes, given as a list of codes or as a regular
+     *  expression matching a single code.  ASCII codes are looked up in a
+     *  table filled when the set is created.
+     */
+    static final class SubfieldCodes
+    {
+        private final boolean asciiCodes[] = new boolean[128];
+        /** for codes that aren't ASCII:  the list of codes, or null */
+        private final String codeList;
+        /** for codes that aren't ASCII:  the regular expression, or null */
+        private final Pattern codePattern;
+
+        private SubfieldCodes(String codeList, Pattern codePattern)
+        {
+            this.codeList = codeList;
+            this.codePattern = codePattern;
+            for (char c = 0; c < asciiCodes.length; c++)
+                asciiCodes[c] = matchesSlowly(c);
+        }
+
+        static SubfieldCodes fromList(String codeList)
+        {
+            return new SubfieldCodes(codeList, null);
+        }
+
+        static SubfieldCodes fromPattern(Pattern codePattern)
+        {
+            return new SubfieldCodes(null, codePattern);
+        }
+
+        boolean matches(char code)
+        {
+            if (code < asciiCodes.length)
+                return asciiCodes[code];
+            return matchesSlowly(code);
+        }
+
+        private boolean matchesSlowly(char code)
+        {
+            if (codePattern != null)
+                return codePattern.matcher(String.valueOf(code)).matches();
+            return codeList.indexOf(code) != -1;
+        }
+    }
+}
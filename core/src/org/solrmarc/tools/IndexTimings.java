@@ -0,0 +1,445 @@
+package org.solrmarc.tools;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.management.*;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Timings of the parts of indexing, so tuning can start from where the time
+ *  actually goes:  the time spent reading, mapping and writing records, in
+ *  each index specification (by Solr field), in each custom method, and in
+ *  the per record initialization of indexers.  Each timer counts calls, the
+ *  total and maximum time, and a histogram of the times of single calls.
+ *
+ * Timing is off unless enabled (solrmarc.timings or
+ *  solrmarc.timing_report_file), and then costs two System.nanoTime() calls
+ *  and a few atomic updates for each thing timed.  Timers are shared by the
+ *  threads indexing records.  When enabled, the timers are also registered
+ *  as JMX MBeans (org.solrmarc:type=IndexTimings), so they can be watched
+ *  while indexing, e.g. with jconsole.
+ *
+ * Per record initialization an indexer does lazily, when a custom method
+ *  first needs it, is counted with stopLazyInit() and left out of the times
+ *  of the field and custom method that triggered it, so it is only counted
+ *  once.
+ *
+ * Usage:
+ *   long start = IndexTimings.start();
+ *   ... the work timed ...
+ *   IndexTimings.stop(IndexTimings.FIELD, fieldName, start);
+ */
+public final class IndexTimings
+{
+    /** group of the timers of the stages of indexing:  read, map, write */
+    public static final String STAGE = "stage";
+    /** group of the timers of per record initialization */
+    public static final String RECORD_INIT = "perRecordInit";
+    /** group of the timers of index specifications, by Solr field */
+    public static final String FIELD = "field";
+    /** group of the timers of custom methods */
+    public static final String CUSTOM_METHOD = "custom method";
+
+    /** names of the stage timers */
+    public static final String READ = "read";
+    public static final String MAP = "map";
+    public static final String WRITE = "write";
+
+    /** groups in the order they are reported */
+    private static final String GROUPS[] = {STAGE, RECORD_INIT, FIELD, CUSTOM_METHOD};
+
+    /** upper bounds of the histogram buckets, in nanoseconds, except for the last one */
+    private static final long BUCKET_LIMITS[] = {10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+    private static final String BUCKET_NAMES[] = {"<=10us", "<=100us", "<=1ms", "<=10ms", "<=100ms", "<=1s", ">1s"};
+
+    /** returned by start() when timing is off */
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private static final String MBEAN_DOMAIN = "org.solrmarc";
+
+    private static Logger logger = Logger.getLogger(IndexTimings.class.getName());
+
+    private static volatile boolean enabled = false;
+    private static volatile boolean mbeansRegistered = false;
+    /** when timing was enabled, for records per second */
+    private static volatile long enabledTime = 0;
+
+    /** group -> name -> timer */
+    private static final ConcurrentMap<String, ConcurrentMap<String, Timer>> timers = new ConcurrentHashMap<String, ConcurrentMap<String, Timer>>();
+
+    /** nanoseconds counted by stopLazyInit() in each thread */
+    private static final ThreadLocal<long[]> lazyInitNanos = new ThreadLocal<long[]>()
+    {
+        protected long[] initialValue()
+        {
+            return new long[1];
+        }
+    };
+
+    private IndexTimings()
+    {
+    }
+
+    /**
+     * turn timing on or off;  timers keep the times already counted
+     */
+    public static void setEnabled(boolean enable)
+    {
+        if (enable && !enabled)
+            enabledTime = System.currentTimeMillis();
+        enabled = enable;
+    }
+
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * @return the start time of something to be timed, to be passed to stop()
+     */
+    public static long start()
+    {
+        return enabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * count the time since start in the timer with the group and name
+     * @param start - the value returned by start()
+     */
+    public static void stop(String group, String name, long start)
+    {
+        if (start != NOT_TIMED)
+            getTimer(group, name).add(System.nanoTime() - start);
+    }
+
+    /**
+     * count the time since start in the per record initialization timer with
+     *  the name, for initialization done lazily while a field or custom
+     *  method is timed;  the time is left out of the enclosing timers stopped
+     *  with Timer.stopWithoutLazyInit()
+     * @param start - the value returned by start()
+     */
+    public static void stopLazyInit(String name, long start)
+    {
+        if (start != NOT_TIMED)
+        {
+            long nanos = System.nanoTime() - start;
+            getTimer(RECORD_INIT, name).add(nanos);
+            lazyInitNanos.get()[0] += nanos;
+        }
+    }
+
+    /**
+     * @return the time counted by stopLazyInit() in the current thread so far,
+     *  to be passed to Timer.stopWithoutLazyInit()
+     */
+    public static long lazyInitNanos()
+    {
+        return enabled ? lazyInitNanos.get()[0] : 0;
+    }
+
+    /**
+     * @return the timer with the group and name, created if there isn't one
+     */
+    public static Timer getTimer(String group, String name)
+    {
+        ConcurrentMap<String, Timer> groupTimers = timers.get(group);
+        if (groupTimers == null)
+        {
+            ConcurrentMap<String, Timer> newGroupTimers = new ConcurrentHashMap<String, Timer>();
+            groupTimers = timers.putIfAbsent(group, newGroupTimers);
+            if (groupTimers == null)
+                groupTimers = newGroupTimers;
+        }
+        Timer result = groupTimers.get(name);
+        if (result == null)
+        {
+            Timer newTimer = new Timer(group, name);
+            result = groupTimers.putIfAbsent(name, newTimer);
+            if (result == null)
+            {
+                result = newTimer;
+                if (mbeansRegistered)
+                    registerMBean(result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * forget the times counted by all the timers
+     */
+    public static void reset()
+    {
+        for (Map<String, Timer> groupTimers : timers.values())
+        {
+            for (Timer timer : groupTimers.values())
+                timer.reset();
+        }
+        enabledTime = System.currentTimeMillis();
+    }
+
+    /**
+     * register the summary and every timer, including the timers created
+     *  later, as MBeans with the platform MBean server
+     */
+    public static synchronized void registerMBeans()
+    {
+        if (mbeansRegistered)
+            return;
+        mbeansRegistered = true;
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new Summary(), SummaryMBean.class),
+                                                                     new ObjectName(MBEAN_DOMAIN + ":type=IndexTimings,name=summary"));
+        }
+        catch (JMException e)
+        {
+            logger.warn("Unable to register indexing timings MBean -- " + e.getMessage());
+        }
+        for (Map<String, Timer> groupTimers : timers.values())
+        {
+            for (Timer timer : groupTimers.values())
+                registerMBean(timer);
+        }
+    }
+
+    private static void registerMBean(Timer timer)
+    {
+        try
+        {
+            ObjectName name = new ObjectName(MBEAN_DOMAIN + ":type=IndexTimings,group=" + ObjectName.quote(timer.group) + ",name=" + ObjectName.quote(timer.name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name))
+                server.registerMBean(new StandardMBean(timer, TimerMBean.class), name);
+        }
+        catch (JMException e)
+        {
+            logger.warn("Unable to register MBean for " + timer.group + " " + timer.name + " -- " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of records read per second since timing was enabled
+     */
+    public static double getRecordsPerSecond()
+    {
+        long elapsed = System.currentTimeMillis() - enabledTime;
+        if (enabledTime == 0 || elapsed <= 0)
+            return 0;
+        return getTimer(STAGE, READ).getCount() * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return the timers that have counted something, as lines for the log or
+     *  the report file:  the stages, then the per record initialization,
+     *  fields and custom methods, each slowest first
+     */
+    public static List<String> getReport()
+    {
+        List<String> result = new ArrayList<String>();
+        result.add("records read: " + getTimer(STAGE, READ).getCount() + ", " + String.format("%.1f", getRecordsPerSecond()) + " records/sec");
+        for (String group : GROUPS)
+        {
+            Map<String, Timer> groupTimers = timers.get(group);
+            if (groupTimers == null)
+                continue;
+            List<Timer> groupList = new ArrayList<Timer>();
+            for (Timer timer : groupTimers.values())
+            {
+                if (timer.getCount() > 0)
+                    groupList.add(timer);
+            }
+            Collections.sort(groupList, new Comparator<Timer>()
+            {
+                public int compare(Timer t1, Timer t2)
+                {
+                    long total1 = t1.totalNanos.get();
+                    long total2 = t2.totalNanos.get();
+                    return total1 > total2 ? -1 : (total1 < total2 ? 1 : t1.name.compareTo(t2.name));
+                }
+            });
+            for (Timer timer : groupList)
+                result.add(timer.toString());
+        }
+        return result;
+    }
+
+    /**
+     * write the report (see getReport()) to the file, replacing it
+     */
+    public static void writeReport(String filename)
+        throws IOException
+    {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filename), "UTF-8")));
+        try
+        {
+            for (String line : getReport())
+                out.println(line);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * the times of one thing timed, for JMX
+     */
+    public interface TimerMBean
+    {
+        long getCount();
+        double getTotalMillis();
+        double getAverageMicros();
+        double getMaxMicros();
+        String getHistogram();
+        void reset();
+    }
+
+    /**
+     * the progress of indexing, for JMX
+     */
+    public interface SummaryMBean
+    {
+        long getRecordsRead();
+        double getRecordsPerSecond();
+        String[] getReport();
+    }
+
+    private static class Summary implements SummaryMBean
+    {
+        public long getRecordsRead()
+        {
+            return getTimer(STAGE, READ).getCount();
+        }
+
+        public double getRecordsPerSecond()
+        {
+            return IndexTimings.getRecordsPerSecond();
+        }
+
+        public String[] getReport()
+        {
+            List<String> report = IndexTimings.getReport();
+            return report.toArray(new String[report.size()]);
+        }
+    }
+
+    /**
+     * counts of calls and their times
+     */
+    public static class Timer implements TimerMBean
+    {
+        private final String group;
+        private final String name;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_NAMES.length);
+
+        Timer(String group, String name)
+        {
+            this.group = group;
+            this.name = name;
+        }
+
+        /**
+         * count the time since start
+         * @param start - the value returned by IndexTimings.start()
+         */
+        public void stop(long start)
+        {
+            if (start != NOT_TIMED)
+                add(System.nanoTime() - start);
+        }
+
+        /**
+         * count the time since start, less the lazy initialization counted
+         *  since then in the current thread (see IndexTimings.stopLazyInit())
+         * @param start - the value returned by IndexTimings.start()
+         * @param lazyInitStart - the value returned by
+         *  IndexTimings.lazyInitNanos() at start
+         */
+        public void stopWithoutLazyInit(long start, long lazyInitStart)
+        {
+            if (start != NOT_TIMED)
+                add(System.nanoTime() - start - (lazyInitNanos() - lazyInitStart));
+        }
+
+        /**
+         * count a call that took the time
+         */
+        public void add(long nanos)
+        {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+                max = maxNanos.get();
+            int bucket = 0;
+            while (bucket < BUCKET_LIMITS.length && nanos > BUCKET_LIMITS[bucket])
+                bucket++;
+            histogram.incrementAndGet(bucket);
+        }
+
+        public long getCount()
+        {
+            return count.get();
+        }
+
+        public double getTotalMillis()
+        {
+            return totalNanos.get() / 1000000.0;
+        }
+
+        public double getAverageMicros()
+        {
+            long num = count.get();
+            return num == 0 ? 0 : totalNanos.get() / 1000.0 / num;
+        }
+
+        public double getMaxMicros()
+        {
+            return maxNanos.get() / 1000.0;
+        }
+
+        public String getHistogram()
+        {
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < histogram.length(); i++)
+            {
+                long num = histogram.get(i);
+                if (num > 0)
+                {
+                    if (result.length() > 0)
+                        result.append(' ');
+                    result.append(BUCKET_NAMES[i]).append(": ").append(num);
+                }
+            }
+            return result.toString();
+        }
+
+        public void reset()
+        {
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            for (int i = 0; i < histogram.length(); i++)
+                histogram.set(i, 0);
+        }
+
+        @Override
+        public String toString()
+        {
+            return group + " " + name + ": " + count.get() + " calls, "
+                    + String.format("%.1f ms total, %.1f us avg, %.1f us max; ", getTotalMillis(), getAverageMicros(), getMaxMicros())
+                    + getHistogram();
+        }
+    }
+}
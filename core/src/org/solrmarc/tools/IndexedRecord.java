@@ -0,0 +1,271 @@
+package org.solrmarc.tools;
+
+import java.util.*;
+
+import org.marc4j.marc.*;
+
+/**
+ * A marc4j Record whose fields are indexed by tag, so getVariableField(s)
+ *  looks up the fields for a tag instead of scanning all the fields of the
+ *  record each time.  880 fields are also indexed by the tag in their
+ *  subfield 6 linkage.
+ * All other methods are passed to the wrapped Record.  Fields added or
+ *  removed through this object are re-indexed;  the index does not see
+ *  changes made to the wrapped Record directly, or to a field's tag or
+ *  subfield 6.
+ */
+public class IndexedRecord implements Record
+{
+    private static final long serialVersionUID = 1L;
+
+    /** the record being indexed */
+    private final Record record;
+
+    /** control fields, by tag;  null when fields have changed */
+    private Map<String, List<VariableField>> controlFieldsByTag = null;
+    /** data fields, by tag;  null when fields have changed */
+    private Map<String, List<VariableField>> dataFieldsByTag = null;
+    /** 880 fields, by the first three characters of subfield 6 */
+    private Map<String, List<DataField>> linkedFieldsByTag = null;
+
+    /**
+     * @param record - the record to index
+     */
+    public IndexedRecord(Record record)
+    {
+        this.record = record;
+        buildIndex();
+    }
+
+    /**
+     * @return the record, indexed;  the record itself if it is already an IndexedRecord
+     */
+    public static IndexedRecord index(Record record)
+    {
+        if (record instanceof IndexedRecord)
+            return (IndexedRecord) record;
+        return new IndexedRecord(record);
+    }
+
+    /**
+     * @return the wrapped record
+     */
+    public Record getRecord()
+    {
+        return record;
+    }
+
+    /**
+     * Get the 880 fields whose subfield 6 starts with the tag
+     * @param record - the marc record object;  if it is an IndexedRecord the
+     *   880 fields are looked up, not scanned
+     * @param tag - the tag of the field the 880s are linked to (e.g. 245)
+     * @return list of 880 DataField objects, in record order
+     */
+    @SuppressWarnings("unchecked")
+    public static List<DataField> getLinkedFields(Record record, String tag)
+    {
+        if (record instanceof IndexedRecord && tag.length() == 3)
+        {
+            IndexedRecord indexedRecord = (IndexedRecord) record;
+            if (indexedRecord.linkedFieldsByTag == null)
+                indexedRecord.buildIndex();
+            List<DataField> linked = indexedRecord.linkedFieldsByTag.get(tag);
+            if (linked == null)
+                return new ArrayList<DataField>();
+            return new ArrayList<DataField>(linked);
+        }
+
+        List<DataField> result = new ArrayList<DataField>();
+        List<VariableField> fields = record.getVariableFields("880");
+        for (VariableField vf : fields)
+        {
+            DataField df = (DataField) vf;
+            Subfield link = df.getSubfield('6');
+            if (link != null && link.getData().startsWith(tag))
+                result.add(df);
+        }
+        return result;
+    }
+
+    /**
+     * index the fields of the record by tag, in one pass over the fields
+     */
+    private void buildIndex()
+    {
+        controlFieldsByTag = new HashMap<String, List<VariableField>>();
+        for (ControlField cf : record.getControlFields())
+            addToIndex(controlFieldsByTag, cf.getTag(), cf);
+
+        dataFieldsByTag = new HashMap<String, List<VariableField>>();
+        linkedFieldsByTag = new HashMap<String, List<DataField>>();
+        for (DataField df : record.getDataFields())
+        {
+            String tag = df.getTag();
+            addToIndex(dataFieldsByTag, tag, df);
+            if (tag.equals("880"))
+            {
+                Subfield link = df.getSubfield('6');
+                if (link != null && link.getData() != null && link.getData().length() >= 3)
+                {
+                    String linkedTag = link.getData().substring(0, 3);
+                    List<DataField> linked = linkedFieldsByTag.get(linkedTag);
+                    if (linked == null)
+                    {
+                        linked = new ArrayList<DataField>(2);
+                        linkedFieldsByTag.put(linkedTag, linked);
+                    }
+                    linked.add(df);
+                }
+            }
+        }
+    }
+
+    private static void addToIndex(Map<String, List<VariableField>> index, String tag, VariableField field)
+    {
+        List<VariableField> fields = index.get(tag);
+        if (fields == null)
+        {
+            fields = new ArrayList<VariableField>(2);
+            index.put(tag, fields);
+        }
+        fields.add(field);
+    }
+
+    /** the fields will be indexed again when next looked up */
+    private void clearIndex()
+    {
+        controlFieldsByTag = null;
+        dataFieldsByTag = null;
+        linkedFieldsByTag = null;
+    }
+
+    /**
+     * @return the indexed fields for the tag (not a copy), or null if there are none
+     */
+    private List<VariableField> getIndexedFields(String tag)
+    {
+        if (controlFieldsByTag == null)
+            buildIndex();
+        // as for marc4j RecordImpl:  control field tags are only looked for in control fields
+        if (MarcUtils.isControlField(tag))
+            return controlFieldsByTag.get(tag);
+        return dataFieldsByTag.get(tag);
+    }
+
+    public VariableField getVariableField(String tag)
+    {
+        List<VariableField> fields = getIndexedFields(tag);
+        if (fields == null)
+            return null;
+        return fields.get(0);
+    }
+
+    public List<VariableField> getVariableFields(String tag)
+    {
+        List<VariableField> fields = getIndexedFields(tag);
+        if (fields == null)
+            return new ArrayList<VariableField>();
+        return new ArrayList<VariableField>(fields);
+    }
+
+    public List<VariableField> getVariableFields(String[] tags)
+    {
+        List<VariableField> result = new ArrayList<VariableField>();
+        for (String tag : tags)
+        {
+            List<VariableField> fields = getIndexedFields(tag);
+            if (fields != null)
+                result.addAll(fields);
+        }
+        return result;
+    }
+
+    public void addVariableField(VariableField field)
+    {
+        record.addVariableField(field);
+        clearIndex();
+    }
+
+    public void removeVariableField(VariableField field)
+    {
+        record.removeVariableField(field);
+        clearIndex();
+    }
+
+    public void setId(Long id)
+    {
+        record.setId(id);
+    }
+
+    public Long getId()
+    {
+        return record.getId();
+    }
+
+    public void setType(String type)
+    {
+        record.setType(type);
+    }
+
+    public String getType()
+    {
+        return record.getType();
+    }
+
+    public List<VariableField> getVariableFields()
+    {
+        return record.getVariableFields();
+    }
+
+    public List<ControlField> getControlFields()
+    {
+        return record.getControlFields();
+    }
+
+    public List<DataField> getDataFields()
+    {
+        return record.getDataFields();
+    }
+
+    public ControlField getControlNumberField()
+    {
+        return record.getControlNumberField();
+    }
+
+    public String getControlNumber()
+    {
+        return record.getControlNumber();
+    }
+
+    public Leader getLeader()
+    {
+        return record.getLeader();
+    }
+
+    public void setLeader(Leader leader)
+    {
+        record.setLeader(leader);
+    }
+
+    public List<VariableField> find(String pattern)
+    {
+        return record.find(pattern);
+    }
+
+    public List<VariableField> find(String tag, String pattern)
+    {
+        return record.find(tag, pattern);
+    }
+
+    public List<VariableField> find(String[] tag, String pattern)
+    {
+        return record.find(tag, pattern);
+    }
+
+    @Override
+    public String toString()
+    {
+        return record.toString();
+    }
+}
@@ -0,0 +1,405 @@
+package org.solrmarc.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.*;
+
+import org.marc4j.*;
+import org.marc4j.marc.*;
+
+/**
+ * Writes MARC records as Strings of MARCXML, MARC-in-JSON, MARC-JSON or
+ *  MARC21 binary for the fields that store the record.  The Strings are the
+ *  same as those from marc4j's MarcXmlWriter, MarcJsonWriter and
+ *  MarcStreamWriter, but without creating the writers (and for MARCXML, an
+ *  XSLT transformer pipeline) and output streams for each record:  each
+ *  thread has its own serializer, which reuses its buffers.  Fields can be
+ *  left out by tag;  MARCXML is written without copying the record.
+ */
+public class MarcSerializer
+{
+    private static final ThreadLocal<MarcSerializer> serializers = new ThreadLocal<MarcSerializer>()
+    {
+        @Override
+        protected MarcSerializer initialValue()
+        {
+            return new MarcSerializer();
+        }
+    };
+
+    private static final String XML_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><collection xmlns=\"http://www.loc.gov/MARC21/slim\">";
+    private static final String XML_END = "</collection>\n";
+    /** the XML serializer of the JRE writes a newline in text as the line separator */
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    /** buffers bigger than this aren't kept for the next record */
+    private static final int MAX_KEPT_BUFFER_SIZE = 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private static final MarcFactory factory = MarcFactory.newInstance();
+
+    private StringBuilder xmlBuf = new StringBuilder(INITIAL_BUFFER_SIZE);
+    private ByteArrayOutputStream binaryBuf;
+    private MarcStreamWriter binaryWriter;
+    private final JsonWriter marcInJsonWriter = new JsonWriter(MarcJsonWriter.MARC_IN_JSON);
+    private final JsonWriter marcJsonWriter = new JsonWriter(MarcJsonWriter.MARC_JSON);
+
+    private MarcSerializer()
+    {
+        newBinaryBuffer();
+    }
+
+    /**
+     * @return the serializer for the current thread
+     */
+    public static MarcSerializer getInstance()
+    {
+        return serializers.get();
+    }
+
+    /**
+     * @return the record as MARCXML, the same as MarcXmlWriter writes it
+     * @throws MarcException if the record isn't valid
+     */
+    public String toMarcXml(Record record)
+    {
+        return toMarcXml(record, null);
+    }
+
+    /**
+     * @param record - the record to write
+     * @param tagsToOmit - the tags of the fields to leave out, or null
+     * @return the record as MARCXML, the same as MarcXmlWriter writes it
+     * @throws MarcException if the record isn't valid
+     */
+    public String toMarcXml(Record record, Set<String> tagsToOmit)
+    {
+        validate(record, tagsToOmit);
+
+        StringBuilder buf = xmlBuf;
+        buf.setLength(0);
+        buf.append(XML_START);
+        buf.append("<record><leader");
+        appendContent(buf, record.getLeader().toString(), "</leader>");
+        for (ControlField cf : record.getControlFields())
+        {
+            if (omit(cf, tagsToOmit))
+                continue;
+            buf.append("<controlfield tag=\"");
+            appendAttribute(buf, cf.getTag());
+            buf.append('"');
+            appendContent(buf, cf.getData(), "</controlfield>");
+        }
+        for (DataField df : record.getDataFields())
+        {
+            if (omit(df, tagsToOmit))
+                continue;
+            buf.append("<datafield tag=\"");
+            appendAttribute(buf, df.getTag());
+            buf.append("\" ind1=\"");
+            appendAttribute(buf, String.valueOf(df.getIndicator1()));
+            buf.append("\" ind2=\"");
+            appendAttribute(buf, String.valueOf(df.getIndicator2()));
+            buf.append('"');
+            List<Subfield> subfields = df.getSubfields();
+            if (subfields.isEmpty())
+            {
+                buf.append("/>");
+                continue;
+            }
+            buf.append('>');
+            for (Subfield sf : subfields)
+            {
+                buf.append("<subfield code=\"");
+                appendAttribute(buf, String.valueOf(sf.getCode()));
+                buf.append('"');
+                appendContent(buf, sf.getData(), "</subfield>");
+            }
+            buf.append("</datafield>");
+        }
+        buf.append("</record>");
+        buf.append(XML_END);
+
+        String result = buf.toString();
+        if (buf.capacity() > MAX_KEPT_BUFFER_SIZE)
+            xmlBuf = new StringBuilder(INITIAL_BUFFER_SIZE);
+        return result;
+    }
+
+    /**
+     * @param record - the record to write
+     * @param marcInJson - true for MARC-in-JSON, false for MARC-JSON
+     * @return the record as JSON, the same as MarcJsonWriter writes it
+     */
+    public String toJson(Record record, boolean marcInJson)
+    {
+        return toJson(record, marcInJson, null);
+    }
+
+    /**
+     * @param record - the record to write
+     * @param marcInJson - true for MARC-in-JSON, false for MARC-JSON
+     * @param tagsToOmit - the tags of the fields to leave out, or null
+     * @return the record as JSON, the same as MarcJsonWriter writes it
+     */
+    public String toJson(Record record, boolean marcInJson, Set<String> tagsToOmit)
+    {
+        Record toWrite = withoutTags(record, tagsToOmit);
+        String result = marcInJson ? marcInJsonWriter.toMarcInJson(toWrite) : marcJsonWriter.toMarcJson(toWrite);
+        // MarcJsonWriter writes the String as UTF-8, which replaces unpaired surrogates
+        if (hasUnpairedSurrogate(result))
+            result = utf8RoundTrip(result);
+        return result;
+    }
+
+    /**
+     * @return the record as MARC21 binary (UTF-8), the same as MarcStreamWriter writes it
+     */
+    public String toBinary(Record record)
+    {
+        return toBinary(record, null);
+    }
+
+    /**
+     * @param record - the record to write
+     * @param tagsToOmit - the tags of the fields to leave out, or null
+     * @return the record as MARC21 binary (UTF-8), the same as MarcStreamWriter writes it
+     */
+    public String toBinary(Record record, Set<String> tagsToOmit)
+    {
+        binaryBuf.reset();
+        try
+        {
+            binaryWriter.write(withoutTags(record, tagsToOmit));
+            return binaryBuf.toString("UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported
+            throw new MarcException(e.getMessage(), e);
+        }
+        finally
+        {
+            if (binaryBuf.size() > MAX_KEPT_BUFFER_SIZE)
+                newBinaryBuffer();
+        }
+    }
+
+    private void newBinaryBuffer()
+    {
+        binaryBuf = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        binaryWriter = new MarcStreamWriter(binaryBuf, "UTF-8", true);
+    }
+
+    private static boolean omit(VariableField field, Set<String> tagsToOmit)
+    {
+        return tagsToOmit != null && tagsToOmit.contains(field.getTag());
+    }
+
+    /**
+     * @return the record, or a copy without the fields with the passed tags
+     *  if it has any
+     */
+    private static Record withoutTags(Record record, Set<String> tagsToOmit)
+    {
+        if (tagsToOmit == null || tagsToOmit.isEmpty())
+            return record;
+        boolean hasTagToOmit = false;
+        for (VariableField vf : record.getVariableFields())
+        {
+            if (tagsToOmit.contains(vf.getTag()))
+            {
+                hasTagToOmit = true;
+                break;
+            }
+        }
+        if (!hasTagToOmit)
+            return record;
+
+        Record result = factory.newRecord(record.getLeader());
+        for (VariableField vf : record.getVariableFields())
+        {
+            if (!tagsToOmit.contains(vf.getTag()))
+                result.addVariableField(vf);
+        }
+        return result;
+    }
+
+    /**
+     * the checks of MarcFactory.validateRecord(), which MarcXmlWriter makes
+     *  before writing a record, for the fields written
+     */
+    private static void validate(Record record, Set<String> tagsToOmit)
+    {
+        boolean valid = record.getLeader() != null;
+        for (ControlField cf : record.getControlFields())
+        {
+            if (valid && !omit(cf, tagsToOmit))
+                valid = cf.getTag() != null && cf.getData() != null;
+        }
+        for (DataField df : record.getDataFields())
+        {
+            if (!valid || omit(df, tagsToOmit))
+                continue;
+            valid = df.getTag() != null && df.getIndicator1() != 0 && df.getIndicator2() != 0;
+            for (Subfield sf : df.getSubfields())
+            {
+                if (valid)
+                    valid = sf.getCode() != 0 && sf.getData() != null;
+            }
+        }
+        if (!valid)
+            throw new MarcException("Marc record didn't validate");
+    }
+
+    /**
+     * finish the start tag of an element and add its text and end tag, or
+     *  close the start tag if there is no text, as the XML serializer of the
+     *  JRE does
+     */
+    private static void appendContent(StringBuilder buf, String text, String endTag)
+    {
+        if (text.length() == 0)
+            buf.append("/>");
+        else
+        {
+            buf.append('>');
+            appendText(buf, text);
+            buf.append(endTag);
+        }
+    }
+
+    /**
+     * escape element text the way the XML serializer of the JRE does
+     */
+    private static void appendText(StringBuilder buf, String text)
+    {
+        int len = text.length();
+        for (int i = 0; i < len; i++)
+        {
+            char c = text.charAt(i);
+            if (c < 0x20)
+            {
+                if (c == '\t')
+                    buf.append(c);
+                else if (c == '\n')
+                    buf.append(LINE_SEPARATOR);
+                else
+                    appendCharRef(buf, c);
+            }
+            else if (c == '&')
+                buf.append("&amp;");
+            else if (c == '<')
+                buf.append("&lt;");
+            else if (c == '>')
+                buf.append("&gt;");
+            else if (c >= 0x7F && c <= 0x9F)
+                appendCharRef(buf, c);
+            else if (Character.isHighSurrogate(c))
+            {
+                // a high surrogate at the end of the text is dropped
+                if (i + 1 < len)
+                {
+                    char low = text.charAt(++i);
+                    if (!Character.isLowSurrogate(low))
+                        throw new MarcException("Invalid UTF-16 surrogate detected: " + Integer.toHexString(c) + " " + Integer.toHexString(low));
+                    appendCharRef(buf, Character.toCodePoint(c, low));
+                }
+            }
+            else if (Character.isLowSurrogate(c))
+                appendCharRef(buf, c);
+            else
+                buf.append(c);
+        }
+    }
+
+    /**
+     * escape an attribute value the way the XML serializer of the JRE does
+     */
+    private static void appendAttribute(StringBuilder buf, String value)
+    {
+        int len = value.length();
+        for (int i = 0; i < len; i++)
+        {
+            char c = value.charAt(i);
+            if (c < 0x20)
+                appendCharRef(buf, c);
+            else if (c == '"')
+                buf.append("&quot;");
+            else if (c == '&')
+                buf.append("&amp;");
+            else if (c == '<')
+                buf.append("&lt;");
+            else if (c == '>')
+                buf.append("&gt;");
+            else if (Character.isHighSurrogate(c))
+            {
+                // unpaired surrogates are dropped
+                if (i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1)))
+                {
+                    appendCharRef(buf, Character.toCodePoint(c, value.charAt(i + 1)));
+                    i++;
+                }
+            }
+            else if (!Character.isLowSurrogate(c))
+                buf.append(c);
+        }
+    }
+
+    private static void appendCharRef(StringBuilder buf, int codePoint)
+    {
+        buf.append("&#").append(codePoint).append(';');
+    }
+
+    private static boolean hasUnpairedSurrogate(String str)
+    {
+        int len = str.length();
+        for (int i = 0; i < len; i++)
+        {
+            char c = str.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1)))
+                i++;
+            else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c))
+                return true;
+        }
+        return false;
+    }
+
+    private static String utf8RoundTrip(String str)
+    {
+        try
+        {
+            return new String(str.getBytes("UTF-8"), "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported
+            throw new MarcException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * gives access to the methods of MarcJsonWriter that make the JSON String
+     *  for a record, so the String needn't be written to a stream.  The format
+     *  passed to the constructor sets other options, such as quoted labels.
+     */
+    private static class JsonWriter extends MarcJsonWriter
+    {
+        JsonWriter(int format)
+        {
+            super(new ByteArrayOutputStream(0), format);
+        }
+
+        @Override
+        protected String toMarcInJson(Record record)
+        {
+            return super.toMarcInJson(record);
+        }
+
+        @Override
+        protected String toMarcJson(Record record)
+        {
+            return super.toMarcJson(record);
+        }
+    }
+}
@@ -4,11 +4,7 @@ import org.apache.log4j.Logger;
 import org.marc4j.*;
 import org.marc4j.marc.*;
 
-import java.io.ByteArrayOutputStream;
-import java.io.UnsupportedEncodingException;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class MarcUtils {
 
@@ -218,6 +214,12 @@ public class MarcUtils {
 	{
 	    List<VariableField> result = new ArrayList<VariableField>();
 
+	    if (fieldSpec.length() == 3)
+	    {
+	        result.addAll(IndexedRecord.getLinkedFields(record, fieldSpec));
+	        return result;
+	    }
+
 	    List<String> desiredTags = Arrays.asList(fieldSpec.split(":"));
 
 	    List<VariableField> linkedFlds = getVariableFields(record, "880");
@@ -309,51 +311,8 @@ public class MarcUtils {
 	 */
 	public static Set<String> getLinkedFieldValue(final Record record, String tag, String subflds, String subFldSep)
 	{
-	    // assume brackets expression is a pattern such as [a-z]
 	    Set<String> result = new LinkedHashSet<String>();
-	    boolean havePattern = false;
-	    Pattern subfieldPattern = null;
-	    if (subflds.indexOf('[') != -1)
-	    {
-	        havePattern = true;
-	        subfieldPattern = Pattern.compile(subflds);
-	    }
-	    List<VariableField> fields = record.getVariableFields("880");
-	    for (VariableField vf : fields)
-	    {
-	        DataField df = (DataField) vf;
-	        Subfield link = df.getSubfield('6');
-	        if (link != null && link.getData().startsWith(tag))
-	        {
-	            List<Subfield> subList = df.getSubfields();
-	            StringBuilder buf = new StringBuilder("");
-	            for (Subfield subF : subList)
-	            {
-	                boolean addIt = false;
-	                if (havePattern)
-	                {
-	                    // matcher needs a string, hence concat with empty string
-	                    Matcher matcher = subfieldPattern.matcher("" + subF.getCode());
-	                    if (matcher.matches())
-	                        addIt = true;
-	                }
-	                else
-	                	// a list a subfields
-	                    if (subflds.indexOf(subF.getCode()) != -1)
-	                        addIt = true;
-
-	                if (addIt)
-	                {
-	                    if (buf.length() > 0)
-	                        buf.append(subFldSep != null ? subFldSep : " ");
-	                    buf.append(subF.getData().trim());
-	                }
-	            }
-	            if (buf.length() > 0)
-//	                result.add(Utils.cleanData(buf.toString()));
-	            	result.add(buf.toString());
-	        }
-	    }
+	    FieldSpec.addLinkedFieldValues(record, tag, FieldSpec.getLinkedSubfieldCodes(subflds), subFldSep, result);
 	    return(result);
 	}
 
@@ -454,10 +413,9 @@ public class MarcUtils {
 
 	public static boolean isControlField(String fieldTag)
 	{
-	    if (fieldTag.matches("00[0-9]"))
-	       return (true);
-	    else
-	       return (false);
+	    // same as fieldTag.matches("00[0-9]"), without compiling a regex for each call
+	    return fieldTag.length() == 3 && fieldTag.charAt(0) == '0' && fieldTag.charAt(1) == '0' &&
+	           fieldTag.charAt(2) >= '0' && fieldTag.charAt(2) <= '9';
 	}
 
 
@@ -556,29 +514,8 @@ public class MarcUtils {
 
 	        String subfldTags = fldTags[i].substring(3);
 
-	        List<VariableField> marcFieldList = record.getVariableFields(fldTag);
-	        if (!marcFieldList.isEmpty())
-	        {
-	            Pattern subfieldPattern = Pattern.compile(subfldTags.length() == 0 ? "." : subfldTags);
-	            for (VariableField vf : marcFieldList)
-	            {
-	                DataField marcField = (DataField) vf;
-	                StringBuilder buffer = new StringBuilder("");
-	                List<Subfield> subfields = marcField.getSubfields();
-	                for (Subfield subfield : subfields)
-	                {
-	                    Matcher matcher = subfieldPattern.matcher("" + subfield.getCode());
-	                    if (matcher.matches())
-	                    {
-	                        if (buffer.length() > 0)
-	                            buffer.append(separator != null ? separator : " ");
-	                        buffer.append(subfield.getData().trim());
-	                    }
-	                }
-	                if (buffer.length() > 0)
-	                    result.add(Utils.cleanData(buffer.toString()));
-	            }
-	        }
+	        if (!record.getVariableFields(fldTag).isEmpty())
+	            FieldSpec.addAllSubfields(record, fldTag, FieldSpec.getSubfieldPattern(subfldTags.length() == 0 ? "." : subfldTags), separator, result);
 	    }
 
 	    return result;
@@ -1276,72 +1213,11 @@ public class MarcUtils {
 	 *            desired.
 	 * @return the contents of the indicated marc field(s)/subfield(s), as a set
 	 *         of Strings.
+	 * @see FieldSpec - tagStr is parsed once, and cached
 	 */
 	public static Set<String> getFieldList(Record record, String tagStr)
 	{
-	    String[] tags = tagStr.split(":");
-	    Set<String> result = new LinkedHashSet<String>();
-	    for (int i = 0; i < tags.length; i++)
-	    {
-	        // Check to ensure tag length is at least 3 characters
-	        if (tags[i].length() < 3)
-	        {
-	            System.err.println("Invalid tag specified: " + tags[i]);
-	            continue;
-	        }
-
-	        // Get Field Tag
-	        String tag = tags[i].substring(0, 3);
-	        boolean linkedField = false;
-	        if (tag.equals("LNK"))
-	        {
-	            tag = tags[i].substring(3, 6);
-	            linkedField = true;
-	        }
-	        // Process Subfields
-	        String subfield = tags[i].substring(3);
-	        boolean havePattern = false;
-	        int subend = 0;
-	        // brackets indicate parsing for individual characters or as pattern
-	        int bracket = tags[i].indexOf('[');
-	        if (bracket != -1)
-	        {
-	            String sub[] = tags[i].substring(bracket + 1).split("[\\]\\[\\-, ]+");
-	            try
-	            {
-	                // if bracket expression is digits, expression is treated as character positions
-	                int substart = Integer.parseInt(sub[0]);
-	                subend = (sub.length > 1) ? Integer.parseInt(sub[1]) + 1 : substart + 1;
-	                String subfieldWObracket = subfield.substring(0, bracket-3);
-	                result.addAll(getSubfieldDataAsSet(record, tag, subfieldWObracket, substart, subend));
-	            }
-	            catch (NumberFormatException e)
-	            {
-	                // assume brackets expression is a pattern such as [a-z]
-	                havePattern = true;
-	            }
-	        }
-	        if (subend == 0) // don't want specific characters.
-	        {
-	            String separator = null;
-	            if (subfield.indexOf('\'') != -1)
-	            {
-	                separator = subfield.substring(subfield.indexOf('\'') + 1, subfield.length() - 1);
-	                subfield = subfield.substring(0, subfield.indexOf('\''));
-	            }
-
-	            if (havePattern)
-	                if (linkedField)
-	                    result.addAll(getLinkedFieldValue(record, tag, subfield, separator));
-	                else
-	                    result.addAll(getAllSubfields(record, tag + subfield, separator));
-	            else if (linkedField)
-	                result.addAll(getLinkedFieldValue(record, tag, subfield, separator));
-	            else
-	                result.addAll(getSubfieldDataAsSet(record, tag, subfield, separator));
-	        }
-	    }
-	    return result;
+	    return FieldSpec.getFieldSpec(tagStr).getFieldList(record);
 	}
 
 
@@ -1618,22 +1494,7 @@ public class MarcUtils {
      */
     public static String getRecordAsBinaryStr(Record record)
     {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        MarcWriter writer = new MarcStreamWriter(out, "UTF-8", true);
-        writer.write(record);
-        writer.close();
-
-        String result = null;
-        try
-        {
-            result = out.toString("UTF-8");
-        }
-        catch (UnsupportedEncodingException e)
-        {
-            // e.printStackTrace();
-            logger.error(e.getCause());
-        }
-        return result;
+        return MarcSerializer.getInstance().toBinary(record);
     }
 
     /**
@@ -1644,22 +1505,7 @@ public class MarcUtils {
      */
     public static String getRecordAsJsonStr(Record record, boolean MARCinJSON)
     {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        MarcWriter writer = new MarcJsonWriter(out, (MARCinJSON) ? MarcJsonWriter.MARC_IN_JSON : MarcJsonWriter.MARC_JSON);
-        writer.write(record);
-        writer.close();
-
-        String result = null;
-        try
-        {
-            result = out.toString("UTF-8");
-        }
-        catch (UnsupportedEncodingException e)
-        {
-            // e.printStackTrace();
-            logger.error(e.getCause());
-        }
-        return result;
+        return MarcSerializer.getInstance().toJson(record, MARCinJSON);
     }
 
     /**
@@ -1669,24 +1515,7 @@ public class MarcUtils {
      */
     public static String getRecordAsMarcXmlStr(Record record)
     {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        // TODO: see if this works better
-        // MarcWriter writer = new MarcXmlWriter(out, false);
-        MarcWriter writer = new MarcXmlWriter(out, "UTF-8");
-        writer.write(record);
-        writer.close();
-
-        String tmp = null;
-        try
-        {
-            tmp = out.toString("UTF-8");
-        }
-        catch (UnsupportedEncodingException e)
-        {
-            // e.printStackTrace();
-            logger.error(e.getCause());
-        }
-        return tmp;
+        return MarcSerializer.getInstance().toMarcXml(record);
     }
 
 }
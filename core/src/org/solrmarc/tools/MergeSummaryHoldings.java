@@ -6,6 +6,7 @@ import java.util.*;
 import org.marc4j.*;
 import org.marc4j.marc.*;
 import org.marc4j.util.*;
+import org.solrmarc.marc.MarcIdOffsetIndex;
 
 /**
  * Given a file of MARC bib records and another file of MARC (MHLD) records,
@@ -14,7 +15,7 @@ import org.marc4j.util.*;
  *  removing any existing fields in the bib rec matching a desired field tag.
  *
  * Note that the MHLD file must have records in StringNaturalCompare ascending
- *  order.
+ *  order, unless the MHLD file is indexed (see indexMhldFile()).
  *
  * Note that Naomi worked with this code to make it more testable; see
  *  org.solrmarc.tools.MergeSummaryHoldingsTests
@@ -92,6 +93,9 @@ public class MergeSummaryHoldings implements MarcReader
      * */
     private String prevMhldRecID = null;
 
+    /** the offsets of the records in the MHLD file by id, if it has been indexed */
+    private MarcIdOffsetIndex mhldIndex = null;
+
 
     public MergeSummaryHoldings(RawRecordReader bibRecsRawRecRdr, boolean permissive, boolean toUtf8, String defaultEncoding,
                                 String mhldRecsFileName, String mhldFldsToMerge)
@@ -143,6 +147,26 @@ public class MergeSummaryHoldings implements MarcReader
 //    	currentMhldRec = getNextMhld();
     }
 
+    /**
+     * Read through the MHLD file once to find the offsets of the records for
+     *  each id, so the MHLD records matching a bib record are read directly
+     *  from the file.  The bib records then need not be in the same order as
+     *  the MHLD records, and the MHLD file is never read again from the
+     *  beginning.
+     */
+    public void indexMhldFile()
+        throws IOException
+    {
+        if (!new File(mhldRecsFileName).exists())
+        {
+            System.err.println("No file found at " + mhldRecsFileName);
+            return;
+        }
+        mhldIndex = new MarcIdOffsetIndex(mhldRecsFileName, permissive, toUtf8, defaultEncoding);
+        if (verbose)
+            System.err.println("Indexed " + mhldIndex.getNumRecords() + " MHLD records with " + mhldIndex.getNumIds() + " ids in " + mhldRecsFileName);
+    }
+
     /**
      * NOTE: not used by main()
      * @return true if there is another record in the bib records file
@@ -283,6 +307,9 @@ public class MergeSummaryHoldings implements MarcReader
      */
     private RawRecord getMatchingMhldRawRec(String bibRecID)
     {
+        if (mhldIndex != null)
+            return getIndexedMhldRawRec(bibRecID);
+
     	// if the id before the last read MHLD id is bigger than the bib id to be
     	//   matched, then start over in the mhld file
         if (prevMhldRecID != null && ID_COMPARATOR.compare(prevMhldRecID, bibRecID) > 0)
@@ -320,6 +347,24 @@ public class MergeSummaryHoldings implements MarcReader
         return(null);		// booby prize
     }
 
+    /**
+     * given a bib record ID, get the MHLD records with a matching id from the
+     *  indexed MHLD file, combined into one record as RawRecordReader combines
+     *  consecutive records with the same id.
+     * @param bibRecID
+     * @return the combined MHLD record, or null if there are none matching
+     */
+    private RawRecord getIndexedMhldRawRec(String bibRecID)
+    {
+        RawRecord result = null;
+        for (byte[] recBytes : mhldIndex.getRecordBytes(bibRecID))
+        {
+            RawRecord mhldRec = new RawRecord(new DataInputStream(new ByteArrayInputStream(recBytes)));
+            result = (result == null) ? mhldRec : new RawRecord(result, mhldRec);
+        }
+        return result;
+    }
+
     /**
      * NOTE: not used by main() - only used by next()
      *
@@ -357,6 +402,20 @@ public class MergeSummaryHoldings implements MarcReader
      */
     public static Map<String, Record> mergeMhldsIntoBibRecordsAsMap(String bibRecsFileName, String mhldRecsFileName)
         throws IOException
+    {
+        return mergeMhldsIntoBibRecordsAsMap(bibRecsFileName, mhldRecsFileName, false);
+    }
+
+    /**
+     * as mergeMhldsIntoBibRecordsAsMap(bibRecsFileName, mhldRecsFileName), but
+     *  the MHLD file may be indexed first (see indexMhldFile())
+     * @param bibRecsFileName - the name of the file containing MARC Bibliographic records
+     * @param mhldRecsFileName - the name of the file containing MARC MHLD records
+     * @param indexMhlds - true to index the MHLD file, so the bib records need not be in the same order
+     * @return Map of ids -> Record objects for the bib records, which will include mhld fields if a match was found
+     */
+    public static Map<String, Record> mergeMhldsIntoBibRecordsAsMap(String bibRecsFileName, String mhldRecsFileName, boolean indexMhlds)
+        throws IOException
     {
         Map<String, Record> results = new HashMap<String, Record>();
         RawRecordReader bibsRawRecRdr = new RawRecordReader(new FileInputStream(new File(bibRecsFileName)));
@@ -365,6 +424,8 @@ public class MergeSummaryHoldings implements MarcReader
         boolean toUtf8 = false;
         MergeSummaryHoldings merger = new MergeSummaryHoldings(bibsRawRecRdr, permissive, toUtf8, "MARC8",
                                                                mhldRecsFileName, DEFAULT_MHLD_FLDS_TO_MERGE);
+        if (indexMhlds)
+            merger.indexMhldFile();
         verbose = true;
         veryverbose = true;
         while (merger.hasNext())
@@ -442,11 +503,24 @@ public class MergeSummaryHoldings implements MarcReader
      * @param bibsRawRecRdr - a RawRecordReader instantiated for a file of MARC bibliographic records
      * @param mhldRecsFileName - the name of the file containing MARC MHLD records
      * @param outputAllBibs - write the bib record to stdout even if it wasn't changed
+     * @param indexMhlds - index the MHLD file first, so the bib records need not be in the same order
      */
-    private static void mergeMhldsIntoBibRecsAsStdOut(RawRecordReader bibsRawRecRdr, String mhldRecsFileName, boolean outputAllBibs)
+    private static void mergeMhldsIntoBibRecsAsStdOut(RawRecordReader bibsRawRecRdr, String mhldRecsFileName, boolean outputAllBibs, boolean indexMhlds)
     {
         MergeSummaryHoldings merger = new MergeSummaryHoldings(bibsRawRecRdr, true, false, "MARC8",
                                                                mhldRecsFileName, DEFAULT_MHLD_FLDS_TO_MERGE);
+        if (indexMhlds)
+        {
+            try
+            {
+                merger.indexMhldFile();
+            }
+            catch (IOException e)
+            {
+                System.err.println("Unable to index MHLD file " + mhldRecsFileName + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
         RawRecord rawBibRecCurrent = null;
         RawRecord matchingRawMhldRec = null;
         MarcWriter writer = new MarcSplitStreamWriter(System.out, "ISO-8859-1", 70000, "999");
@@ -503,7 +577,8 @@ public class MergeSummaryHoldings implements MarcReader
      *  merge selected fields from the MHLD records into matching MARC Bib records.
      *  Ignores MHLD records with no matching bib record.
      *  Selected fields are defined in class constant mhldFldsToMerge.
-     * Note that the MHLD file must have records in StringNaturalCompare ascending order.
+     * Note that the MHLD file must have records in StringNaturalCompare ascending order,
+     *  unless it is indexed first (-i).
      * @param args - command line arguments
      */
     public static void main(String[] args)
@@ -511,12 +586,13 @@ public class MergeSummaryHoldings implements MarcReader
     	String mhldRecsFileName = null;
         RawRecordReader bibsRawRecRdr = null;
         boolean outputAllBibs = false;
+        boolean indexMhlds = false;
 
         int argoffset = 0;
         if (args.length == 0)
         {
-            System.err.println("Usage: MergeSummaryHoldings [-v] [-a] -s marcMhldFile.mrc  marcBibsFile.mrc");
-            System.err.println("   or: cat marcBibsFile.mrc | MergeSummaryHoldings [-v] [-a] -s marcMhldFile.mrc ");
+            System.err.println("Usage: MergeSummaryHoldings [-v] [-a] [-i] -s marcMhldFile.mrc  marcBibsFile.mrc");
+            System.err.println("   or: cat marcBibsFile.mrc | MergeSummaryHoldings [-v] [-a] [-i] -s marcMhldFile.mrc ");
         }
         while (argoffset < args.length && args[argoffset].startsWith("-"))
         {
@@ -536,6 +612,11 @@ public class MergeSummaryHoldings implements MarcReader
             	outputAllBibs = true;
                 argoffset++;
             }
+            if (args[argoffset].equals("-i"))
+            {
+                indexMhlds = true;
+                argoffset++;
+            }
             if (args[argoffset].equals("-s"))
             {
                 mhldRecsFileName = args[1+argoffset];
@@ -562,7 +643,7 @@ public class MergeSummaryHoldings implements MarcReader
         }
 
 		System.setProperty("org.marc4j.marc.MarcFactory", "org.marc4j.marc.impl.MarcFactoryImpl");
-        mergeMhldsIntoBibRecsAsStdOut(bibsRawRecRdr, mhldRecsFileName, outputAllBibs);
+        mergeMhldsIntoBibRecsAsStdOut(bibsRawRecRdr, mhldRecsFileName, outputAllBibs, indexMhlds);
         System.exit(0);
     }
 
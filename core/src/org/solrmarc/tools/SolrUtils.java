@@ -96,6 +96,21 @@ public class SolrUtils
         return solrInputDoc;
     }
 
+    /**
+     * return true if the message of an exception from Solr indicates a problem
+     *  with the document being added (rather than with the Solr server), so
+     *  the document can be skipped and indexing can continue.
+     * @param message - the message of the exception thrown by Solr (may be null)
+     */
+    public static boolean isDocumentError(String message)
+    {
+        if (message == null)
+            return false;
+        return message.contains("missing required fields") ||
+               message.contains("multiple values encountered for non multiValued field") ||
+               message.contains("unknown field");
+    }
+
     /**
      * return an XML representation of the SolrInputDocument object, as a String.
      * Do not include any default boost values in the XML.
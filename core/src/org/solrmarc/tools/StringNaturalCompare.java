@@ -147,6 +147,126 @@ public class StringNaturalCompare implements Comparator<String>
     }
 
 
+    /**
+     * A string prepared for natural comparison:  its characters are classified
+     *  and case folded, and the extent of each run of digits found, once, so
+     *  a key can be compared with many others (e.g. when sorting) without
+     *  examining each character again for every comparison.
+     * Keys compare exactly as their strings do with strnatcmp0(s1, s2, true).
+     */
+    public static class SortKey implements Comparable<SortKey>
+    {
+        private final String string;
+        private final char chars[];
+        /** chars, upper cased */
+        private final char folded[];
+        private final boolean whitespace[];
+        /** for each digit, the index after the run of digits it starts */
+        private final int digitRunEnd[];
+
+        public SortKey(String string)
+        {
+            this.string = string;
+            chars = (string == null) ? new char[0] : string.toCharArray();
+            folded = new char[chars.length];
+            whitespace = new boolean[chars.length];
+            digitRunEnd = new int[chars.length];
+            for (int i = chars.length - 1; i >= 0; i--)
+            {
+                char c = chars[i];
+                folded[i] = Character.toUpperCase(c);
+                whitespace[i] = Character.isWhitespace(c);
+                if (Character.isDigit(c))
+                    digitRunEnd[i] = (i + 1 < chars.length && digitRunEnd[i + 1] > 0) ? digitRunEnd[i + 1] : i + 1;
+            }
+        }
+
+        /**
+         * @return the string the key was made from
+         */
+        public String getString()
+        {
+            return string;
+        }
+
+        public int compareTo(SortKey other)
+        {
+            int alen = chars.length;
+            int blen = other.chars.length;
+            int ai = 0;
+            int bi = 0;
+            while (true)
+            {
+                // skip over leading spaces
+                while (ai < alen && whitespace[ai])
+                    ai++;
+                while (bi < blen && other.whitespace[bi])
+                    bi++;
+                char ca = ai < alen ? chars[ai] : 0;
+                char cb = bi < blen ? other.chars[bi] : 0;
+
+                // process run of digits
+                if (ai < alen && digitRunEnd[ai] > 0 && bi < blen && other.digitRunEnd[bi] > 0)
+                {
+                    int result = compareDigitRuns(other, ai, bi, ca == '0' || cb == '0');
+                    if (result != 0)
+                        return result;
+                }
+
+                if (ca == 0 && cb == 0)
+                    return 0;
+
+                char fa = ai < alen ? folded[ai] : 0;
+                char fb = bi < blen ? other.folded[bi] : 0;
+                if (fa < fb)
+                    return -1;
+                else if (fa > fb)
+                    return +1;
+
+                ++ai;
+                ++bi;
+            }
+        }
+
+        /**
+         * compare the runs of digits starting at ai in this key and bi in the
+         *  other key, as compareLeft() (if fractional) or compareRight() would
+         */
+        private int compareDigitRuns(SortKey other, int ai, int bi, boolean fractional)
+        {
+            int alen = digitRunEnd[ai] - ai;
+            int blen = other.digitRunEnd[bi] - bi;
+            // the first different digit
+            int bias = 0;
+            int minLen = Math.min(alen, blen);
+            for (int i = 0; i < minLen && bias == 0; i++)
+            {
+                char a = chars[ai + i];
+                char b = other.chars[bi + i];
+                if (a < b)
+                    bias = -1;
+                else if (a > b)
+                    bias = +1;
+            }
+            if (fractional && bias != 0)
+                return bias;
+            // the longest run of digits wins
+            if (alen < blen)
+                return -1;
+            if (alen > blen)
+                return +1;
+            // a run at the end of its string comes first
+            boolean aAtEnd = digitRunEnd[ai] == chars.length;
+            boolean bAtEnd = other.digitRunEnd[bi] == other.chars.length;
+            if (aAtEnd && !bAtEnd)
+                return -1;
+            if (bAtEnd && !aAtEnd)
+                return +1;
+            return bias;
+        }
+    }
+
+
 
 
 }
@@ -0,0 +1,189 @@
+package org.solrmarc.tools;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A translation map (raw value -> value for the Solr field), prepared for
+ *  Utils.remap when it is loaded:  for a pattern map (keys pattern_0,
+ *  pattern_1 ... with values regex=>replacement) the regular expressions are
+ *  compiled and the replacements split off;  for other maps the
+ *  displayRawIfMissing and default (__DEFAULT, or the empty key) values are
+ *  looked up.
+ * A TranslationMap can't be changed after it is created.
+ */
+public class TranslationMap extends AbstractMap<String, String>
+{
+    /** the map entries */
+    private final Map<String, String> map;
+
+    /** for pattern maps, the pattern_i regular expressions, in order */
+    private final Pattern patterns[];
+    /** for pattern maps, the replacement for each pattern */
+    private final String replacements[];
+    /** true if the replacement refers to groups of the pattern ($1 ...) */
+    private final boolean replacementHasGroups[];
+
+    private final boolean displayRawIfMissing;
+    private final boolean hasDefault;
+    /** the value of __DEFAULT, or of the empty key if there is no __DEFAULT */
+    private final String defaultValue;
+
+    /**
+     * @param entries - the translation map entries
+     */
+    public TranslationMap(Map<String, String> entries)
+    {
+        map = Collections.unmodifiableMap(new LinkedHashMap<String, String>(entries));
+
+        List<Pattern> patternList = new ArrayList<Pattern>();
+        List<String> replacementList = new ArrayList<String>();
+        for (int i = 0; map.containsKey("pattern_" + i); i++)
+        {
+            String parts[] = map.get("pattern_" + i).split("=>");
+            patternList.add(Pattern.compile(parts[0]));
+            replacementList.add(parts.length > 1 ? parts[1] : "");
+        }
+        patterns = patternList.toArray(new Pattern[patternList.size()]);
+        replacements = replacementList.toArray(new String[replacementList.size()]);
+        replacementHasGroups = new boolean[replacements.length];
+        for (int i = 0; i < replacements.length; i++)
+            replacementHasGroups[i] = replacements[i].contains("$");
+
+        displayRawIfMissing = map.containsKey("displayRawIfMissing");
+        if (map.containsKey("__DEFAULT"))
+        {
+            hasDefault = true;
+            defaultValue = map.get("__DEFAULT");
+        }
+        else if (map.containsKey(""))
+        {
+            hasDefault = true;
+            defaultValue = map.get("");
+        }
+        else
+        {
+            hasDefault = false;
+            defaultValue = null;
+        }
+    }
+
+    /**
+     * @return true if this map has pattern_0, pattern_1 ... entries
+     */
+    public boolean isPatternMap()
+    {
+        return patterns.length > 0;
+    }
+
+    /**
+     * Remap a field value (see Utils.remap(String, Map, boolean))
+     * @param fieldVal - the raw value to be mapped
+     * @param allowDefault - if "displayRawIfMissing" is not a key in the map,
+     *   and this is to true, then the __DEFAULT value is used.
+     * @return the new value, or null if there isn't one
+     */
+    public String remap(String fieldVal, boolean allowDefault)
+    {
+        String result = null;
+
+        for (int i = 0; i < patterns.length; i++)
+        {
+            Matcher matcher = patterns[i].matcher(fieldVal);
+            if (matcher.find())
+            {
+                String newVal = replacements[i];
+                if (replacementHasGroups[i])
+                {
+                    newVal = matcher.replaceAll(replacements[i]);
+                    fieldVal = newVal;
+                }
+                result = newVal;
+            }
+        }
+        if (map.containsKey(fieldVal))
+            result = map.get(fieldVal);
+        else if (displayRawIfMissing)
+            result = fieldVal;
+        else if (allowDefault && hasDefault)
+            result = defaultValue;
+
+        if (result == null || result.length() == 0)
+            return null;
+        return result;
+    }
+
+    /**
+     * Remap a set of field values (see Utils.remap(Set, Map, boolean))
+     * @param set - set of raw values to be mapped
+     * @param allowDefault - if "displayRawIfMissing" is not a key in the map,
+     *   and this is to true, then the __DEFAULT value is used.
+     * @return the new values
+     */
+    public Set<String> remap(Set<String> set, boolean allowDefault)
+    {
+        Set<String> result = new LinkedHashSet<String>();
+        for (String val : set)
+        {
+            if (isPatternMap())
+            {
+                String tmpResult = null;
+                for (int i = 0; i < patterns.length; i++)
+                {
+                    Matcher matcher = patterns[i].matcher(val);
+                    if (matcher.find())
+                    {
+                        String newVal = replacements[i];
+                        if (replacementHasGroups[i])
+                        {
+                            newVal = matcher.replaceAll(replacements[i]);
+                            val = newVal;
+                        }
+                        else
+                            result.add(newVal);
+                        tmpResult = newVal;
+                    }
+                }
+                if (tmpResult != null) result.add(tmpResult);
+            }
+            else
+            {
+                String mappedVal = remap(val, allowDefault);
+                if (mappedVal != null)
+                    result.add(mappedVal);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String get(Object key)
+    {
+        return map.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public int size()
+    {
+        return map.size();
+    }
+
+    @Override
+    public Set<String> keySet()
+    {
+        return map.keySet();
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet()
+    {
+        return map.entrySet();
+    }
+}
@@ -323,9 +323,13 @@ public final class Utils {
    *   and this is to true, then if the map contains "__DEFAULT" as a key,
    *   the value of "__DEFAULT" in the map is used.
    * @return the new value, as determined by the mapping.
+   * @see TranslationMap - maps loaded by SolrIndexer are prepared for remapping when loaded
    */
   public static String remap(String fieldVal, Map<String, String> map, boolean allowDefault)
   {
+    if (map instanceof TranslationMap)
+        return ((TranslationMap) map).remap(fieldVal, allowDefault);
+
     String result = null;
 
     if (map.keySet().contains("pattern_0"))
@@ -385,6 +389,8 @@ public final class Utils {
   public static Set<String> remap(Set<String> set, Map<String, String> map, boolean allowDefault)
   {
     if (map == null)  return(set);
+    if (map instanceof TranslationMap)
+        return ((TranslationMap) map).remap(set, allowDefault);
     Iterator<String> iter = set.iterator();
     Set<String> result = new LinkedHashSet<String>();
 
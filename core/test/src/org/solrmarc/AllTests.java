@@ -8,19 +8,38 @@ import org.solrmarc.tools.*;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+        BatchingSolrServerProxyTest.class,
+        BoundedCacheTest.class,
         CallNumberUnitTests.class,
         CombineMultBibsMhldsReaderTest.class,
         CommandLineUtilTests.class,
         DateUtilsTests.class,
+        DocHashStoreTest.class,
+        DocSizeGuardTest.class,
+        FieldSpecTest.class,
         GetFormatMixinTest.class,
+        IndexTimingsTest.class,
 //        IndexSmokeTest.class, // duplicated in RemoteServerTest
+        IndexedRecordTest.class,
         MergeSummaryHoldingsTests.class,
         MarcCombiningReaderTests.class,
+        MarcMappedFileReaderTest.class,
+        MarcSerializerTest.class,
+        MarcMergerTest.class,
+        MarcShardReaderTest.class,
+        MarcSorterTest.class,
+        RawRecordFilterTest.class,
         RecordReaderTest.class,
         RemoteServerTest.class,
+        SolrDocCursorTest.class,
+        SolrIndexerFieldsTest.class,
+        SolrIndexerThreadTest.class,
+        SolrReIndexerTest.class,
         SolrUpdateTest.class,
         SolrUtilTests.class,
         StringNaturalCompareTest.class,
+        TranslationMapTest.class,
+        UpdateFileProxyTest.class,
         UtilUnitTests.class
         })
 
@@ -0,0 +1,88 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import org.marc4j.*;
+import org.marc4j.marc.Record;
+
+/**
+ * unit tests for org.solrmarc.marc.MarcMappedFileReader
+ */
+public class MarcMappedFileReaderTest
+{
+    private static final String TEST_FILES[] = {"u4.mrc", "formatRecs.mrc", "combineBibMhld_b1b2b3.mrc"};
+
+    /**
+     * the memory-mapped reader should read the same records as
+     *  MarcPermissiveStreamReader
+     */
+    @Test
+    public void testSameRecordsAsStreamReader()
+        throws IOException
+    {
+        for (String fileName : TEST_FILES)
+        {
+            File file = new File(getTestDataPath(), fileName);
+            MarcReader streamReader = new MarcPermissiveStreamReader(new FileInputStream(file), true, true, "MARC8");
+            MarcMappedFileReader mappedReader = new MarcMappedFileReader(file.getPath(), new ErrorHandler(), true, true, "MARC8");
+            int count = 0;
+            while (streamReader.hasNext())
+            {
+                assertTrue(fileName, mappedReader.hasNext());
+                assertEquals(fileName, streamReader.next().toString(), mappedReader.next().toString());
+                count++;
+            }
+            assertFalse(fileName, mappedReader.hasNext());
+            assertTrue(fileName, count > 0);
+            mappedReader.close();
+        }
+    }
+
+    /**
+     * record ranges should cover the file, and decode to the same records,
+     *  even when the record length in the leader is wrong
+     */
+    @Test
+    public void testRecordRanges()
+        throws IOException
+    {
+        File file = new File(getTestDataPath(), "bad_too_long_plus_2.mrc");
+        MarcMappedFileReader rangeReader = new MarcMappedFileReader(file.getPath(), new ErrorHandler(), true, true, "MARC8");
+        List<MarcMappedFileReader.RecordRange> ranges = new ArrayList<MarcMappedFileReader.RecordRange>();
+        MarcMappedFileReader.RecordRange range;
+        long expectedOffset = 0;
+        while ((range = rangeReader.nextRange()) != null)
+        {
+            assertEquals(expectedOffset, range.getOffset());
+            byte bytes[] = rangeReader.getRecordBytes(range);
+            assertEquals(0x1D, bytes[bytes.length - 1]);
+            expectedOffset += range.getLength();
+            ranges.add(range);
+        }
+        assertEquals(file.length(), expectedOffset);
+        assertTrue(ranges.size() > 1);
+
+        MarcMappedFileReader.RecordDecoder decoder = rangeReader.newDecoder();
+        MarcMappedFileReader reader = new MarcMappedFileReader(file.getPath(), new ErrorHandler(), true, true, "MARC8");
+        for (MarcMappedFileReader.RecordRange r : ranges)
+        {
+            Record record = decoder.decode(rangeReader.getRecordBytes(r));
+            assertEquals(reader.next().toString(), record.toString());
+        }
+        assertFalse(reader.hasNext());
+        rangeReader.close();
+        reader.close();
+    }
+
+    private String getTestDataPath()
+    {
+        String testDataPath = System.getProperty("test.data.path");
+        if (testDataPath == null)
+            testDataPath = "core" + File.separator + "test" + File.separator + "data";
+        return testDataPath;
+    }
+}
@@ -0,0 +1,197 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+import org.marc4j.MarcStreamReader;
+import org.marc4j.MarcStreamWriter;
+import org.marc4j.marc.*;
+import org.marc4j.util.RawRecordReader;
+
+/**
+ * unit tests for merging several update files with
+ *  org.solrmarc.marc.MarcMerger.processMergeUpdates
+ */
+public class MarcMergerTest
+{
+    private File tempDir;
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        System.setProperty("org.marc4j.marc.MarcFactory", "org.marc4j.marc.impl.MarcFactoryImpl");
+        tempDir = File.createTempFile("MarcMergerTest", "");
+        tempDir.delete();
+        tempDir.mkdir();
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (File file : tempDir.listFiles())
+            file.delete();
+        tempDir.delete();
+    }
+
+    /**
+     * the last update with a record or deletion for an id should win, and a
+     *  deletion should win over a record in the same update
+     */
+    @Test
+    public void testLastUpdateWins()
+        throws IOException
+    {
+        String mainFile = writeMainFile(200);
+        writeRecords("upd1.mrc", "u5", "upd1", "u10", "upd1", "u250", "upd1");
+        writeLines("upd1.del", "u7", "u10");
+        writeRecords("upd2.mrc", "u7", "upd2", "u250", "upd2");
+        writeLines("upd2.del", "u5");
+        List<String> updates = Arrays.asList(path("upd1.mrc"), path("upd2"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream newRecsOut = new ByteArrayOutputStream();
+        MarcMerger.processMergeUpdates(mainFile, updates, null, null, 1, out, newRecsOut);
+
+        Map<String, String> titles = getTitles(out.toByteArray());
+        assertEquals(199, titles.size());
+        assertFalse(titles.containsKey("u5"));
+        assertFalse(titles.containsKey("u10"));
+        assertEquals("upd2", titles.get("u7"));
+        assertEquals("upd2", titles.get("u250"));
+        assertEquals("main", titles.get("u6"));
+
+        Map<String, String> newTitles = getTitles(newRecsOut.toByteArray());
+        assertEquals(1, newTitles.size());
+        assertEquals("upd2", newTitles.get("u250"));
+    }
+
+    /**
+     * merging the updates one at a time should give the same records as
+     *  merging them all at once
+     */
+    @Test
+    public void testSameAsMergingOneAtATime()
+        throws IOException
+    {
+        String mainFile = writeMainFile(100);
+        writeRecords("upd1.mrc", "u3", "upd1", "u50", "upd1", "u150", "upd1");
+        writeLines("upd1.del", "u4", "u60");
+        writeRecords("upd2.mrc", "u4", "upd2", "u50", "upd2", "u120", "upd2");
+        writeLines("upd2.del", "u3", "u70", "u150");
+
+        ByteArrayOutputStream afterUpd1 = new ByteArrayOutputStream();
+        MarcMerger.processMergeRecords(new RawRecordReader(new FileInputStream(mainFile)), MarcMerger.maxRecordID,
+                                       new RawRecordReader(new FileInputStream(path("upd1.mrc"))),
+                                       new DataInputStream(new FileInputStream(path("upd1.del"))), afterUpd1, null);
+        ByteArrayOutputStream afterUpd2 = new ByteArrayOutputStream();
+        MarcMerger.processMergeRecords(new RawRecordReader(new ByteArrayInputStream(afterUpd1.toByteArray())), MarcMerger.maxRecordID,
+                                       new RawRecordReader(new FileInputStream(path("upd2.mrc"))),
+                                       new DataInputStream(new FileInputStream(path("upd2.del"))), afterUpd2, null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcMerger.processMergeUpdates(mainFile, Arrays.asList(path("upd1.mrc"), path("upd2.mrc")), null, null, 1, out, null);
+        assertArrayEquals(afterUpd2.toByteArray(), out.toByteArray());
+    }
+
+    /**
+     * merging segments of the main file in parallel should give the same
+     *  records as merging in one pass, within the minimum and maximum ids
+     */
+    @Test
+    public void testSegments()
+        throws IOException
+    {
+        String mainFile = writeMainFile(500);
+        writeRecords("upd1.mrc", "u0", "upd1", "u99", "upd1", "u333", "upd1", "u600", "upd1");
+        writeLines("upd1.del", "u1", "u250", "u499");
+        List<String> updates = Collections.singletonList(path("upd1.mrc"));
+
+        ByteArrayOutputStream onePass = new ByteArrayOutputStream();
+        ByteArrayOutputStream onePassNew = new ByteArrayOutputStream();
+        MarcMerger.processMergeUpdates(mainFile, updates, null, null, 1, onePass, onePassNew);
+        for (int numSegments = 2; numSegments <= 7; numSegments++)
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream newRecsOut = new ByteArrayOutputStream();
+            MarcMerger.processMergeUpdates(mainFile, updates, null, null, numSegments, out, newRecsOut);
+            assertArrayEquals(numSegments + " segments", onePass.toByteArray(), out.toByteArray());
+            assertArrayEquals(numSegments + " segments", onePassNew.toByteArray(), newRecsOut.toByteArray());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcMerger.processMergeUpdates(mainFile, updates, "u100", "u400", 3, out, null);
+        Map<String, String> titles = getTitles(out.toByteArray());
+        assertEquals(299, titles.size());
+        assertTrue(titles.containsKey("u100"));
+        assertFalse(titles.containsKey("u400"));
+        assertEquals("upd1", titles.get("u333"));
+    }
+
+    private String writeMainFile(int numRecords)
+        throws IOException
+    {
+        String idsAndTitles[] = new String[numRecords * 2];
+        for (int i = 0; i < numRecords; i++)
+        {
+            idsAndTitles[2 * i] = "u" + (i + 1);
+            idsAndTitles[2 * i + 1] = "main";
+        }
+        writeRecords("main.mrc", idsAndTitles);
+        return path("main.mrc");
+    }
+
+    /**
+     * write records with the ids and titles to the file
+     */
+    private void writeRecords(String fileName, String... idsAndTitles)
+        throws IOException
+    {
+        MarcFactory factory = MarcFactory.newInstance();
+        OutputStream out = new FileOutputStream(path(fileName));
+        MarcStreamWriter writer = new MarcStreamWriter(out, "UTF8");
+        for (int i = 0; i < idsAndTitles.length; i += 2)
+        {
+            Record record = factory.newRecord("00000nam a2200000 a 4500");
+            record.addVariableField(factory.newControlField("001", idsAndTitles[i]));
+            DataField title = factory.newDataField("245", '1', '0');
+            title.addSubfield(factory.newSubfield('a', idsAndTitles[i + 1]));
+            record.addVariableField(title);
+            writer.write(record);
+        }
+        writer.close();
+    }
+
+    private void writeLines(String fileName, String... lines)
+        throws IOException
+    {
+        PrintWriter out = new PrintWriter(new FileWriter(path(fileName)));
+        for (String line : lines)
+            out.println(line);
+        out.close();
+    }
+
+    /**
+     * @return the title of each record, by id
+     */
+    private Map<String, String> getTitles(byte recs[])
+    {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        MarcStreamReader reader = new MarcStreamReader(new ByteArrayInputStream(recs));
+        while (reader.hasNext())
+        {
+            Record record = reader.next();
+            DataField title = (DataField) record.getVariableField("245");
+            result.put(record.getControlNumber(), title.getSubfield('a').getData());
+        }
+        return result;
+    }
+
+    private String path(String fileName)
+    {
+        return new File(tempDir, fileName).getPath();
+    }
+}
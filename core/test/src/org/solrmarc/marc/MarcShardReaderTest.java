@@ -0,0 +1,87 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import org.marc4j.*;
+import org.marc4j.marc.Record;
+
+/**
+ * unit tests for org.solrmarc.marc.MarcShardReader
+ */
+public class MarcShardReaderTest
+{
+    /**
+     * the shards, read in order, should have all the records of the files, in
+     *  the same order, and records with the same id should be in one shard
+     */
+    @Test
+    public void testShardsHaveAllRecords()
+        throws IOException
+    {
+        List<String> fileNames = new ArrayList<String>();
+        fileNames.add(new File(getTestDataPath(), "formatRecs.mrc").getPath());
+        fileNames.add(new File(getTestDataPath(), "combineBibMhld_b1b1m1m1b2b3.mrc").getPath());
+        fileNames.add(new File(getTestDataPath(), "combineBibMhld_b1b2b2m2m2b3.mrc").getPath());
+
+        List<String> expectedIds = new ArrayList<String>();
+        for (String fileName : fileNames)
+        {
+            MarcReader reader = new MarcPermissiveStreamReader(new FileInputStream(fileName), true, true, "MARC8");
+            while (reader.hasNext())
+                expectedIds.add(reader.next().getControlNumber());
+        }
+
+        for (int numShards = 1; numShards <= 7; numShards++)
+        {
+            List<List<MarcShardReader.Segment>> shardSegments = MarcShardReader.getShardSegments(fileNames, numShards);
+            assertEquals(numShards, shardSegments.size());
+            List<String> ids = new ArrayList<String>();
+            String lastIdOfPrevShard = null;
+            for (List<MarcShardReader.Segment> segments : shardSegments)
+            {
+                MarcReader reader = new MarcShardReader(segments, new ErrorHandler(), true, true, "MARC8");
+                String firstId = null;
+                String lastId = null;
+                while (reader.hasNext())
+                {
+                    Record record = reader.next();
+                    lastId = record.getControlNumber();
+                    if (firstId == null)
+                        firstId = lastId;
+                    ids.add(lastId);
+                }
+                if (firstId != null)
+                {
+                    assertFalse(numShards + " shards: " + firstId + " split between shards", firstId.equals(lastIdOfPrevShard));
+                    lastIdOfPrevShard = lastId;
+                }
+            }
+            assertEquals(numShards + " shards", expectedIds, ids);
+        }
+    }
+
+    /**
+     * with no files, each shard has no segments
+     */
+    @Test
+    public void testNoFiles()
+        throws IOException
+    {
+        List<List<MarcShardReader.Segment>> shardSegments = MarcShardReader.getShardSegments(new ArrayList<String>(), 3);
+        assertEquals(3, shardSegments.size());
+        for (List<MarcShardReader.Segment> segments : shardSegments)
+            assertFalse(new MarcShardReader(segments, null, false, true, "MARC8").hasNext());
+    }
+
+    private String getTestDataPath()
+    {
+        String testDataPath = System.getProperty("test.data.path");
+        if (testDataPath == null)
+            testDataPath = "core" + File.separator + "test" + File.separator + "data";
+        return testDataPath;
+    }
+}
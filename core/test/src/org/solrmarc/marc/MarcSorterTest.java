@@ -0,0 +1,104 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import org.marc4j.util.RawRecordReader;
+import org.solrmarc.tools.StringNaturalCompare;
+
+/**
+ * unit tests for org.solrmarc.marc.MarcSorter
+ */
+public class MarcSorterTest
+{
+    /**
+     * sorting with sorted runs written to temporary files should give the same
+     *  output as sorting in memory, with the records in id order
+     */
+    @Test
+    public void testExternalSortSameAsInMemory()
+        throws IOException
+    {
+        byte input[] = readTestFile("url_test_recs.mrc");
+        byte inMemory[] = sort(input, Long.MAX_VALUE);
+        assertEquals(input.length, inMemory.length);
+        assertIdsInOrder(inMemory);
+
+        // a budget of 1 byte writes each record to its own run
+        for (long memoryBudget : new long[] {1, 5000, 20000})
+            assertArrayEquals("memory budget " + memoryBudget, inMemory, sort(input, memoryBudget));
+    }
+
+    /**
+     * records with the same id should be written together, in the order read
+     */
+    @Test
+    public void testSameIdsInOrderRead()
+        throws IOException
+    {
+        byte recs[] = readTestFile("url_test_recs.mrc");
+        List<byte[]> records = new ArrayList<byte[]>();
+        RawRecordReader reader = new RawRecordReader(new ByteArrayInputStream(recs), false);
+        while (reader.hasNext())
+            records.add(reader.next().getRecordBytes());
+
+        // the first record, then the others, then the first again
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        for (byte record[] : records)
+            input.write(record);
+        input.write(records.get(0));
+        byte inMemory[] = sort(input.toByteArray(), Long.MAX_VALUE);
+        assertArrayEquals(inMemory, sort(input.toByteArray(), 1));
+
+        String firstId = getIds(records.get(0)).get(0);
+        List<String> ids = getIds(inMemory);
+        int firstIx = ids.indexOf(firstId);
+        assertEquals(firstId, ids.get(firstIx + 1));
+    }
+
+    private byte[] sort(byte input[], long memoryBudget)
+        throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        MarcSorter.processInput(new ByteArrayInputStream(input), output, memoryBudget, null);
+        return output.toByteArray();
+    }
+
+    private void assertIdsInOrder(byte recs[])
+    {
+        Comparator<String> comp = new StringNaturalCompare();
+        String prevId = null;
+        for (String id : getIds(recs))
+        {
+            if (prevId != null)
+                assertTrue(prevId + " before " + id, comp.compare(prevId, id) <= 0);
+            prevId = id;
+        }
+    }
+
+    private List<String> getIds(byte recs[])
+    {
+        List<String> result = new ArrayList<String>();
+        RawRecordReader reader = new RawRecordReader(new ByteArrayInputStream(recs), false);
+        while (reader.hasNext())
+            result.add(reader.next().getRecordId());
+        return result;
+    }
+
+    private byte[] readTestFile(String fileName)
+        throws IOException
+    {
+        String testDataPath = System.getProperty("test.data.path");
+        if (testDataPath == null)
+            testDataPath = "core" + File.separator + "test" + File.separator + "data";
+        File file = new File(testDataPath, fileName);
+        byte result[] = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(result);
+        in.close();
+        return result;
+    }
+}
@@ -0,0 +1,160 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import org.marc4j.*;
+import org.marc4j.marc.*;
+
+/**
+ * unit tests for org.solrmarc.marc.RawRecordFilter
+ */
+public class RawRecordFilterTest
+{
+    private static final String TEST_FILES[] = {"u4.mrc", "formatRecs.mrc", "combineBibMhld_b1b2b3.mrc", "bad_too_long_plus_2.mrc", "WPUbadrecords.mrc"};
+
+    /** include_if_present, include_if_missing and delete_subfields values */
+    private static final String CONDITIONS[][] = {
+        {"999", null, null},
+        {"999a", null, "999"},
+        {null, "999", null},
+        {null, "999a", "999a"},
+        {"245a/the", null, null},
+        {"245ab/Dirty", null, null},
+        {"852b/SAL", "245a", null},
+        {null, "035a/OCoLC", null},
+        {"001", "008", null},
+        {"000", null, null},
+        {"245a/[Tt]he", null, null},
+    };
+
+    /**
+     * records read with the filter should be the same as without it, both
+     *  from a stream and from a memory-mapped file
+     */
+    @Test
+    public void testSameRecordsAsWithoutFilter()
+        throws IOException
+    {
+        long numRejected = 0;
+        for (String fileName : TEST_FILES)
+        {
+            File file = new File(getTestDataPath(), fileName);
+            for (String condition[] : CONDITIONS)
+            {
+                String message = fileName + " " + Arrays.asList(condition);
+                List<String> expected = readAll(new MarcPermissiveStreamReader(new FileInputStream(file), new ErrorHandler(), true, "MARC8"), condition);
+
+                RawRecordFilter filter = new RawRecordFilter(condition[0], condition[1], condition[2]);
+                InputStream filtered = filter.filter(new FileInputStream(file));
+                assertEquals(message, expected, readAll(new MarcPermissiveStreamReader(filtered, new ErrorHandler(), true, "MARC8"), condition));
+
+                MarcMappedFileReader mappedReader = new MarcMappedFileReader(file.getPath(), new ErrorHandler(), true, true, "MARC8");
+                mappedReader.setRawRecordFilter(filter);
+                List<String> expectedMapped = readAll(new MarcMappedFileReader(file.getPath(), new ErrorHandler(), true, true, "MARC8"), condition);
+                assertEquals(message, expectedMapped, readAll(mappedReader, condition));
+                numRejected += filter.getNumRejected();
+            }
+        }
+        assertTrue(numRejected > 0);
+    }
+
+    /**
+     * records should only be rejected when they would certainly be filtered
+     *  out
+     */
+    @Test
+    public void testRejected()
+        throws IOException
+    {
+        File file = new File(getTestDataPath(), "u4.mrc");
+        byte bytes[] = readBytes(file);
+
+        // 245a is present, 246a isn't
+        assertTrue(new RawRecordFilter("245a", null, null).mightInclude(bytes, 0, bytes.length));
+        assertFalse(new RawRecordFilter("246a", null, null).mightInclude(bytes, 0, bytes.length));
+        assertTrue(new RawRecordFilter("246a:245a", null, null).mightInclude(bytes, 0, bytes.length));
+        assertTrue(new RawRecordFilter("245a/princes", null, null).mightInclude(bytes, 0, bytes.length));
+        assertFalse(new RawRecordFilter("100a/Smith", null, null).mightInclude(bytes, 0, bytes.length));
+        assertTrue(new RawRecordFilter("246a", "246a", null).mightInclude(bytes, 0, bytes.length));
+        assertFalse(new RawRecordFilter("246a", "245a", null).mightInclude(bytes, 0, bytes.length));
+        assertTrue(new RawRecordFilter(null, "999w/LC", null).mightInclude(bytes, 0, bytes.length));
+        assertFalse(new RawRecordFilter(null, "246a/LC", null).mightInclude(bytes, 0, bytes.length));
+        // a record that isn't well formed is left to the reader
+        assertTrue(new RawRecordFilter("246a", null, null).mightInclude(bytes, 0, bytes.length - 1));
+        // the only 245a may be deleted
+        assertTrue(new RawRecordFilter(null, "245a", "245a").mightInclude(bytes, 0, bytes.length));
+
+        // can't tell from the raw bytes
+        assertTrue(new RawRecordFilter("245a/[Tt]he", null, null).mightInclude(bytes, 0, bytes.length));
+        assertTrue(new RawRecordFilter("245a/the princes", null, null).mightInclude(bytes, 0, bytes.length));
+        // 245a has MARC8 diacritics
+        assertTrue(new RawRecordFilter("245a/kings", null, null).mightInclude(bytes, 0, bytes.length));
+        assertFalse(new RawRecordFilter("008[35-37]", null, null).canReject());
+        assertFalse(new RawRecordFilter("LNK245a", null, null).canReject());
+        assertFalse(new RawRecordFilter(null, "100[a-z]/Smith", null).canReject());
+        assertTrue(new RawRecordFilter(null, "245a", null).canReject());
+    }
+
+    /**
+     * MARC8 combining diacritics come before the character they modify, and
+     *  after it once decoded, so the raw bytes can't show the decoded text
+     */
+    @Test
+    public void testMarc8Diacritics()
+        throws IOException
+    {
+        MarcFactory factory = MarcFactory.newInstance();
+        Record record = factory.newRecord();
+        record.addVariableField(factory.newControlField("001", "a1"));
+        DataField title = factory.newDataField("245", '1', '0');
+        // "Caf" + MARC8 combining acute (0xE2) + "e"
+        title.addSubfield(factory.newSubfield('a', "Caf\u00E2e"));
+        record.addVariableField(title);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcStreamWriter writer = new MarcStreamWriter(out, "ISO8859_1");
+        writer.write(record);
+        writer.close();
+        byte bytes[] = out.toByteArray();
+
+        String condition[] = {"245a/Cafe", null, null};
+        List<String> expected = readAll(new MarcPermissiveStreamReader(new ByteArrayInputStream(bytes), new ErrorHandler(), true, "MARC8"), condition);
+        assertEquals(1, expected.size());
+        assertTrue(new RawRecordFilter(condition[0], condition[1], condition[2]).mightInclude(bytes, 0, bytes.length));
+        assertFalse(new RawRecordFilter("001/b1", null, null).mightInclude(bytes, 0, bytes.length));
+    }
+
+    private static List<String> readAll(MarcReader reader, String condition[])
+    {
+        List<String> result = new ArrayList<String>();
+        MarcReader filteredReader = new MarcFilteredReader(reader, condition[0], condition[1], condition[2]);
+        while (filteredReader.hasNext())
+        {
+            Record record = filteredReader.next();
+            if (record != null)
+                result.add(record.toString());
+        }
+        return result;
+    }
+
+    private static byte[] readBytes(File file)
+        throws IOException
+    {
+        byte result[] = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(result);
+        in.close();
+        return result;
+    }
+
+    private String getTestDataPath()
+    {
+        String testDataPath = System.getProperty("test.data.path");
+        if (testDataPath == null)
+            testDataPath = "core" + File.separator + "test" + File.separator + "data";
+        return testDataPath;
+    }
+}
@@ -0,0 +1,186 @@
+package org.solrmarc.marc;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+import org.apache.solr.client.solrj.*;
+import org.apache.solr.common.*;
+import org.apache.solr.common.params.*;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+import org.marc4j.marc.*;
+import org.solrmarc.index.SolrIndexer;
+import org.solrmarc.solr.*;
+
+/**
+ * unit tests for org.solrmarc.marc.SolrReIndexer
+ */
+public class SolrReIndexerTest
+{
+    /**
+     * the checkpoint should be the last id such that it and all the ids read
+     *  before it have been reindexed, whatever order the docs are done in
+     */
+    @Test
+    public void testCheckpointOutOfOrder()
+    {
+        SolrReIndexer.ReindexCheckpoint checkpoint = new SolrReIndexer.ReindexCheckpoint(null);
+        String ids[] = {"a", "b", "c", "d", "e"};
+        for (int i = 0; i < ids.length; i++)
+            checkpoint.read(i + 1, ids[i]);
+        assertNull(checkpoint.getCheckpointId());
+
+        checkpoint.done(2);
+        checkpoint.done(3);
+        assertNull(checkpoint.getCheckpointId());
+        checkpoint.done(1);
+        assertEquals("c", checkpoint.getCheckpointId());
+        checkpoint.done(5);
+        assertEquals("c", checkpoint.getCheckpointId());
+        checkpoint.done(4);
+        assertEquals("e", checkpoint.getCheckpointId());
+    }
+
+    /**
+     * when Solr goes down, the workers all stop;  reindexing should still
+     *  stop, rather than wait for room in the full queue of docs, and throw
+     *  the error
+     */
+    @Test(timeout = 60000)
+    public void testWorkerFailure()
+    {
+        SolrReIndexer reindexer = new SolrReIndexer(new DownSolrProxy())
+        {
+            @Override
+            public Record getMarcRecObjFromSolrDoc(SolrDocument solrDoc)
+            {
+                MarcFactory factory = MarcFactory.newInstance();
+                Record record = factory.newRecord();
+                record.addVariableField(factory.newControlField("001", solrDoc.getFieldValue("id").toString()));
+                return record;
+            }
+        };
+        reindexer.solrServer = new NumberedIdSolrServer(5000);
+        reindexer.solrFieldContainingEncodedMarcRecord = "marc_display";
+        reindexer.indexer = new SolrIndexer(null, new String[0])
+        {
+            {
+                Properties indexingProps = new Properties();
+                indexingProps.setProperty("id", "001, first");
+                fillMapFromProperties(indexingProps);
+            }
+        };
+
+        try
+        {
+            reindexer.reindexAllMatchingDocs("id:*");
+            fail("expected SolrRuntimeException");
+        }
+        catch (SolrRuntimeException e)
+        {
+            assertEquals("Server refused connection", e.getMessage());
+        }
+    }
+
+    /**
+     * a SolrProxy for a Solr server that is down
+     */
+    private static class DownSolrProxy implements SolrProxy
+    {
+        public String addDoc(Map<String, Object> fldNames2ValsMap, boolean verbose, boolean addDocToIndex)
+        {
+            throw new SolrRuntimeException("SolrServerException", new SolrServerException("Server refused connection"));
+        }
+
+        public void delete(String id, boolean fromCommitted, boolean fromPending)
+        {
+        }
+
+        public void delete(Collection<String> ids)
+        {
+        }
+
+        public void deleteAllDocs()
+        {
+        }
+
+        public void commit(boolean optimize)
+        {
+        }
+
+        public void close()
+        {
+        }
+
+        public boolean isSolrException(Exception e)
+        {
+            return e instanceof SolrServerException;
+        }
+    }
+
+    /**
+     * a SolrServer with docs with the ids 00001 to the passed number, answering
+     *  queries in id order with a filter for ids after a given one
+     */
+    private static class NumberedIdSolrServer extends SolrServer
+    {
+        private static final Pattern AFTER_ID_PATTERN = Pattern.compile("id:\\{\"(.*)\" TO \\*\\]");
+        private final int numDocs;
+
+        NumberedIdSolrServer(int numDocs)
+        {
+            this.numDocs = numDocs;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request)
+            throws SolrServerException, IOException
+        {
+            SolrParams params = request.getParams();
+            int next = 1;
+            String fq = params.get(CommonParams.FQ);
+            if (fq != null)
+            {
+                Matcher matcher = AFTER_ID_PATTERN.matcher(fq);
+                assertTrue(fq, matcher.matches());
+                next = Integer.parseInt(matcher.group(1)) + 1;
+            }
+            SolrDocumentList page = new SolrDocumentList();
+            page.setNumFound(numDocs);
+            for (int i = next; i <= numDocs && page.size() < params.getInt(CommonParams.ROWS); i++)
+            {
+                SolrDocument doc = new SolrDocument();
+                doc.addField("id", String.format("%05d", i));
+                page.add(doc);
+            }
+            NamedList<Object> result = new NamedList<Object>();
+            result.add("response", page);
+            return result;
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+
+    /**
+     * before any docs are reindexed, the checkpoint should be the id reindexing
+     *  resumed after
+     */
+    @Test
+    public void testCheckpointResumed()
+    {
+        SolrReIndexer.ReindexCheckpoint checkpoint = new SolrReIndexer.ReindexCheckpoint("m");
+        checkpoint.read(1, "n");
+        checkpoint.read(2, "o");
+        assertEquals("m", checkpoint.getCheckpointId());
+        checkpoint.done(2);
+        assertEquals("m", checkpoint.getCheckpointId());
+        checkpoint.done(1);
+        assertEquals("o", checkpoint.getCheckpointId());
+    }
+}
@@ -0,0 +1,240 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.solr.client.solrj.*;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.*;
+import org.apache.solr.common.SolrException.ErrorCode;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+import org.solrmarc.solr.*;
+
+/**
+ * unit tests for org.solrmarc.solr.BatchingSolrServerProxy
+ */
+public class BatchingSolrServerProxyTest
+{
+    /**
+     * a SolrServer that keeps the ids of the documents it is sent, one list
+     *  per request, and rejects documents with a "bad" field
+     */
+    private static class RecordingSolrServer extends SolrServer
+    {
+        List<List<String>> requests = Collections.synchronizedList(new ArrayList<List<String>>());
+        Set<String> added = Collections.synchronizedSet(new HashSet<String>());
+        String fatalMessage = null;
+
+        @Override
+        public NamedList<Object> request(SolrRequest request)
+            throws SolrServerException, IOException
+        {
+            if (!(request instanceof UpdateRequest) || ((UpdateRequest) request).getDocuments() == null)
+                return new NamedList<Object>();
+            if (fatalMessage != null)
+                throw new SolrServerException(fatalMessage);
+
+            List<String> ids = new ArrayList<String>();
+            boolean hasBadDoc = false;
+            for (SolrInputDocument doc : ((UpdateRequest) request).getDocuments())
+            {
+                ids.add(doc.getFieldValue("id").toString());
+                if (doc.getField("bad") != null)
+                    hasBadDoc = true;
+            }
+            requests.add(ids);
+            if (slowVersion != null)
+                pauseIfVersion((UpdateRequest) request);
+            if (hasBadDoc)
+                throw new SolrException(ErrorCode.BAD_REQUEST, "ERROR: [doc=x] unknown field 'bad'");
+            added.addAll(ids);
+            for (SolrInputDocument doc : ((UpdateRequest) request).getDocuments())
+            {
+                if (doc.getField("version") != null)
+                    versions.put(doc.getFieldValue("id").toString(), doc.getFieldValue("version").toString());
+            }
+            return new NamedList<Object>();
+        }
+
+        /** id -> version of the document last indexed, for documents with a version field */
+        Map<String, String> versions = Collections.synchronizedMap(new HashMap<String, String>());
+        /** requests with a document of this version are slow */
+        String slowVersion = null;
+
+        private void pauseIfVersion(UpdateRequest request)
+        {
+            for (SolrInputDocument doc : request.getDocuments())
+            {
+                if (slowVersion.equals(doc.getFieldValue("version")))
+                {
+                    try
+                    {
+                        Thread.sleep(300);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+
+    private static Map<String, Object> doc(String id, boolean bad)
+    {
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("id", id);
+        result.put("title", Arrays.asList("title " + id, "other title"));
+        if (bad)
+            result.put("bad", "value");
+        return result;
+    }
+
+    /**
+     * documents should be sent in batches of the maximum size, with the
+     *  remainder sent when committing
+     */
+    @Test
+    public void testBatchesOfMaxDocs()
+        throws IOException
+    {
+        RecordingSolrServer server = new RecordingSolrServer();
+        SolrProxy proxy = new BatchingSolrServerProxy(server, 10, Long.MAX_VALUE, 2);
+        for (int i = 0; i < 25; i++)
+            assertNull(proxy.addDoc(doc(String.valueOf(i), false), false, true));
+        proxy.commit(false);
+
+        assertEquals(3, server.requests.size());
+        assertEquals(25, server.added.size());
+        int maxSize = 0;
+        for (List<String> ids : server.requests)
+            maxSize = Math.max(maxSize, ids.size());
+        assertEquals(10, maxSize);
+        proxy.close();
+    }
+
+    /**
+     * a batch should also be sent when its documents reach the maximum bytes
+     */
+    @Test
+    public void testBatchesOfMaxBytes()
+        throws IOException
+    {
+        RecordingSolrServer server = new RecordingSolrServer();
+        SolrProxy proxy = new BatchingSolrServerProxy(server, 1000, 1, 1);
+        for (int i = 0; i < 5; i++)
+            proxy.addDoc(doc(String.valueOf(i), false), false, true);
+        proxy.commit(false);
+
+        assertEquals(5, server.requests.size());
+        assertEquals(5, server.added.size());
+        proxy.close();
+    }
+
+    /**
+     * when a document in a batch is bad, only that document should be skipped
+     */
+    @Test
+    public void testBadDocSkipped()
+        throws IOException
+    {
+        RecordingSolrServer server = new RecordingSolrServer();
+        BatchingSolrServerProxy proxy = new BatchingSolrServerProxy(server, 8, Long.MAX_VALUE, 2);
+        for (int i = 0; i < 16; i++)
+            proxy.addDoc(doc(String.valueOf(i), i == 5 || i == 12), false, true);
+        proxy.commit(false);
+
+        assertEquals(14, server.added.size());
+        assertFalse(server.added.contains("5"));
+        assertFalse(server.added.contains("12"));
+        assertEquals(2, proxy.getNumDocsRejected());
+        assertEquals(new HashSet<String>(Arrays.asList("5", "12")), proxy.takeRejectedIds());
+        assertTrue(proxy.takeRejectedIds().isEmpty());
+        proxy.close();
+    }
+
+    /**
+     * when an id is added again while the batch with its first version is in
+     *  flight, the later version should be the one indexed
+     */
+    @Test
+    public void testRepeatedIdInOrder()
+        throws IOException
+    {
+        RecordingSolrServer server = new RecordingSolrServer();
+        server.slowVersion = "1";
+        SolrProxy proxy = new BatchingSolrServerProxy(server, 2, Long.MAX_VALUE, 2);
+        for (int version = 1; version <= 2; version++)
+        {
+            Map<String, Object> doc = doc("repeated", false);
+            doc.put("version", String.valueOf(version));
+            proxy.addDoc(doc, false, true);
+            proxy.addDoc(doc("other" + version, false), false, true);
+        }
+        proxy.commit(false);
+
+        assertEquals(2, server.requests.size());
+        assertEquals("2", server.versions.get("repeated"));
+        proxy.close();
+    }
+
+    /**
+     * the error thrown after a batch couldn't be sent should name the ids in
+     *  the batch, not just the document being added when it is thrown
+     */
+    @Test
+    public void testFatalErrorNamesBatch()
+        throws IOException
+    {
+        RecordingSolrServer server = new RecordingSolrServer();
+        server.fatalMessage = "Server refused connection";
+        SolrProxy proxy = new BatchingSolrServerProxy(server, 2, Long.MAX_VALUE, 1);
+        try
+        {
+            proxy.addDoc(doc("a1", false), false, true);
+            proxy.addDoc(doc("a2", false), false, true);
+            ((BatchingSolrServerProxy) proxy).flush();
+            fail("expected SolrRuntimeException");
+        }
+        catch (SolrRuntimeException e)
+        {
+            String message = e.getCause().getMessage();
+            assertTrue(message, message.contains("(a1, a2)"));
+            assertTrue(message, message.contains("Server refused connection"));
+        }
+        finally
+        {
+            proxy.close();
+        }
+    }
+
+    /**
+     * an error not caused by a document should be thrown from the next call
+     */
+    @Test(expected = SolrRuntimeException.class)
+    public void testFatalErrorThrown()
+        throws IOException
+    {
+        RecordingSolrServer server = new RecordingSolrServer();
+        server.fatalMessage = "Server refused connection";
+        SolrProxy proxy = new BatchingSolrServerProxy(server, 2, Long.MAX_VALUE, 1);
+        try
+        {
+            for (int i = 0; i < 4; i++)
+                proxy.addDoc(doc(String.valueOf(i), false), false, true);
+            proxy.commit(false);
+        }
+        finally
+        {
+            proxy.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+/**
+ * unit tests for org.solrmarc.tools.BoundedCache
+ */
+public class BoundedCacheTest
+{
+    /**
+     * the cache should count hits and misses, and return what was put in it
+     */
+    @Test
+    public void testHitsAndMisses()
+    {
+        BoundedCache<String, String> cache = new BoundedCache<String, String>("test", 100);
+        assertNull(cache.get("a"));
+        cache.put("a", "A");
+        assertEquals("A", cache.get("a"));
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+        assertTrue(cache.getStats(), cache.getStats().startsWith("test cache: 2 hits of 4 lookups (50%)"));
+        assertTrue(BoundedCache.getCaches().contains(cache));
+
+        cache.clear();
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * the cache should never hold many more entries than its maximum size, and
+     *  should keep the entries used most recently
+     */
+    @Test
+    public void testBounded()
+    {
+        BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>("test", 160);
+        for (int i = 0; i < 10000; i++)
+        {
+            cache.put(i, String.valueOf(i));
+            // keep using the first entry
+            assertEquals("0", cache.get(0));
+        }
+        assertTrue(String.valueOf(cache.size()), cache.size() <= 160);
+        assertEquals("9999", cache.get(9999));
+        assertNull(cache.get(1));
+
+        cache.setMaxSize(16);
+        assertTrue(String.valueOf(cache.size()), cache.size() <= 16);
+        assertEquals("9999", cache.get(9999));
+    }
+
+    /**
+     * threads sharing the cache should all get the values put in it
+     */
+    @Test
+    public void testConcurrentUse()
+        throws Exception
+    {
+        final BoundedCache<String, String> cache = new BoundedCache<String, String>("test", 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int t = 0; t < 4; t++)
+        {
+            results.add(executor.submit(new Callable<Boolean>()
+            {
+                public Boolean call()
+                {
+                    for (int i = 0; i < 20000; i++)
+                    {
+                        String key = String.valueOf(i % 2000);
+                        String value = cache.get(key);
+                        if (value == null)
+                            cache.put(key, "value " + key);
+                        else if (!value.equals("value " + key))
+                            return false;
+                    }
+                    return true;
+                }
+            }));
+        }
+        for (Future<Boolean> result : results)
+            assertTrue(result.get());
+        executor.shutdown();
+        assertEquals(80000, cache.getHits() + cache.getMisses());
+        assertTrue(String.valueOf(cache.size()), cache.size() <= 1000);
+    }
+}
@@ -1638,4 +1638,23 @@ public class CallNumberUnitTests
         assertEquals("BM198.2 .H85", removeLCVolSuffix(callnum));
     }
 
+    /**
+     * shelfkeys come from a cache after the first time, but a call number
+     *  that can't be made into a shelfkey is reported for every record
+     */
+    @Test
+    public void testCachedShelfkeys()
+    {
+        String callnum = "M211 .M93 K.240 1988";
+        String shelfkey = getLCShelfkey(callnum, null);
+        assertEquals("M   0211.000000 M0.930000 K.000240 001988", shelfkey);
+        assertEquals(shelfkey, getLCShelfkey(callnum, null));
+        assertEquals(getReverseShelfKey(shelfkey), getReverseShelfKey(shelfkey));
+
+        org.marc4j.ErrorHandler errors = new org.marc4j.ErrorHandler();
+        assertEquals("QA1.1.1", getLCShelfkey("QA1.1.1", "rec1", errors));
+        assertEquals("QA1.1.1", getLCShelfkey("QA1.1.1", "rec2", errors));
+        assertEquals(2, errors.getErrors().size());
+    }
+
 }
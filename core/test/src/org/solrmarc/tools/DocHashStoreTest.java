@@ -0,0 +1,133 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+/**
+ * unit tests for org.solrmarc.tools.DocHashStore
+ */
+public class DocHashStoreTest
+{
+    private static File tempStoreFile()
+        throws IOException
+    {
+        File result = File.createTempFile("docHashes", ".bin");
+        result.delete();
+        result.deleteOnExit();
+        return result;
+    }
+
+    /**
+     * the hash of a document should not depend on the order of its fields, but
+     *  should on their values and the order of the values
+     */
+    @Test
+    public void testHashDoc()
+    {
+        Map<String, Object> doc1 = new LinkedHashMap<String, Object>();
+        doc1.put("id", "a1");
+        doc1.put("title", "title");
+        doc1.put("item_display", Arrays.asList("item1", "item2"));
+        Map<String, Object> doc2 = new LinkedHashMap<String, Object>();
+        doc2.put("item_display", Arrays.asList("item1", "item2"));
+        doc2.put("title", "title");
+        doc2.put("id", "a1");
+        assertEquals(DocHashStore.hashDoc(doc1), DocHashStore.hashDoc(doc2));
+
+        doc2.put("item_display", Arrays.asList("item2", "item1"));
+        assertFalse(DocHashStore.hashDoc(doc1) == DocHashStore.hashDoc(doc2));
+        doc2.put("item_display", Arrays.asList("item1", "item2"));
+        doc2.put("title", "title2");
+        assertFalse(DocHashStore.hashDoc(doc1) == DocHashStore.hashDoc(doc2));
+        doc2.put("title", "title");
+        doc2.put("title2", "title");
+        assertFalse(DocHashStore.hashDoc(doc1) == DocHashStore.hashDoc(doc2));
+    }
+
+    /**
+     * the store should tell unchanged, changed and new documents apart, and
+     *  forget removed ids
+     */
+    @Test
+    public void testUnchangedChangedNew()
+        throws IOException
+    {
+        DocHashStore store = new DocHashStore(tempStoreFile().getPath());
+        assertFalse(store.isUnchanged("a1", 11));
+        store.put("a1", 11);
+        assertTrue(store.isUnchanged("a1", 11));
+        assertFalse(store.isUnchanged("a1", 12));
+        store.put("a1", 12);
+        assertTrue(store.isUnchanged("a1", 12));
+        assertEquals(1, store.size());
+        assertEquals(2, store.getNumUnchanged());
+        assertEquals("document hashes: 2 unchanged, 1 changed, 1 new, 1 ids stored", store.getStats());
+
+        store.remove("a1");
+        store.remove("a1");
+        assertEquals(0, store.size());
+        assertFalse(store.isUnchanged("a1", 12));
+    }
+
+    /**
+     * many ids should be kept and removed correctly as the table grows, and
+     *  be the same when the store is saved and read again
+     */
+    @Test
+    public void testManyIdsSaveAndLoad()
+        throws IOException
+    {
+        File file = tempStoreFile();
+        DocHashStore store = new DocHashStore(file.getPath());
+        int num = 50000;
+        for (int i = 0; i < num; i++)
+            store.put("a" + i, i * 31L);
+        for (int i = 0; i < num; i += 3)
+            store.remove("a" + i);
+        for (int i = 0; i < num; i++)
+            assertEquals("a" + i, i % 3 != 0, store.isUnchanged("a" + i, i * 31L));
+        int numKept = store.size();
+        store.save();
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertEquals(16 * numKept + 12, file.length());
+
+        DocHashStore reread = new DocHashStore(file.getPath());
+        assertEquals(numKept, reread.size());
+        for (int i = 0; i < num; i++)
+        {
+            assertEquals("a" + i, i % 3 != 0, reread.isUnchanged("a" + i, i * 31L));
+            assertFalse(reread.isUnchanged("a" + i, i * 31L + 1));
+        }
+
+        // saving again replaces the file
+        reread.put("b1", 1);
+        reread.save();
+        assertEquals(numKept + 1, new DocHashStore(file.getPath()).size());
+    }
+
+    /**
+     * a file that isn't a document hash file should not be read
+     */
+    @Test
+    public void testNotAHashFile()
+        throws IOException
+    {
+        File file = tempStoreFile();
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        out.println("not a hash file");
+        out.close();
+        try
+        {
+            new DocHashStore(file.getPath());
+            fail("expected IOException");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("not a document hash file"));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+/**
+ * unit tests for org.solrmarc.tools.DocSizeGuard
+ */
+public class DocSizeGuardTest
+{
+    private static String repeat(char c, int num)
+    {
+        char chars[] = new char[num];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static List<String> values(int num)
+    {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < num; i++)
+            result.add("value " + i);
+        return result;
+    }
+
+    /**
+     * a guard with no limits should not change the fields, but should count
+     *  their sizes
+     */
+    @Test
+    public void testNoLimits()
+    {
+        DocSizeGuard guard = new DocSizeGuard();
+        Map<String, Object> doc = new LinkedHashMap<String, Object>();
+        doc.put("id", "a1");
+        Set<String> items = new LinkedHashSet<String>(values(5000));
+        doc.put("item_display", items);
+        doc.put("all_search", repeat('x', 100000));
+
+        assertNull(guard.limit("a1", doc));
+        assertSame(items, doc.get("item_display"));
+        assertEquals(100000, ((String) doc.get("all_search")).length());
+        assertEquals(0, guard.getNumCapped());
+        assertEquals(0, guard.getNumRejected());
+
+        List<String> stats = guard.getStats();
+        assertEquals(4, stats.size());
+        assertTrue(stats.get(0), stats.get(0).startsWith("(document): 1 docs"));
+        assertTrue(stats.get(1), stats.get(1).startsWith("all_search: 1 docs, 100010 bytes avg, 100010 bytes max, 1 values max; <=256K: 1"));
+        assertTrue(stats.get(2), stats.get(2).startsWith("id: 1 docs"));
+        assertTrue(stats.get(3), stats.get(3).contains("5000 values max"));
+    }
+
+    /**
+     * fields with too many values or bytes should be capped, without changing
+     *  the collections in the map, except for the uncapped fields
+     */
+    @Test
+    public void testFieldCaps()
+    {
+        DocSizeGuard guard = new DocSizeGuard(10, 1000, Long.MAX_VALUE, Arrays.asList("marcxml"), null);
+        Map<String, Object> doc = new LinkedHashMap<String, Object>();
+        List<String> items = values(5000);
+        doc.put("item_display", items);
+        doc.put("note", Arrays.asList("short", repeat('n', 2000)));
+        doc.put("all_search", repeat('x', 100000));
+        doc.put("huge_value", Arrays.asList(repeat('h', 2000)));
+        doc.put("marcxml", repeat('m', 5000));
+        doc.put("title", "small");
+
+        assertNull(guard.limit("a1", doc));
+        assertEquals(values(10), doc.get("item_display"));
+        assertEquals(5000, items.size());
+        assertEquals(Arrays.asList("short"), doc.get("note"));
+        assertEquals(repeat('x', 1000), doc.get("all_search"));
+        assertEquals(Arrays.asList(repeat('h', 1000)), doc.get("huge_value"));
+        assertEquals(5000, ((String) doc.get("marcxml")).length());
+        assertEquals("small", doc.get("title"));
+        assertEquals(1, guard.getNumCapped());
+        assertEquals(0, guard.getNumRejected());
+    }
+
+    /**
+     * a first value too big that isn't a String should be truncated as a
+     *  String, like a String value, rather than leave the field empty
+     */
+    @Test
+    public void testTruncateNonString()
+    {
+        DocSizeGuard guard = new DocSizeGuard(10, 5, Long.MAX_VALUE, null, null);
+        Map<String, Object> doc = new HashMap<String, Object>();
+        doc.put("list", Arrays.asList(new StringBuilder("abcdefgh"), "ab"));
+        doc.put("single", new StringBuilder("abcdefgh"));
+        guard.limit("a1", doc);
+        assertEquals(Arrays.asList("abcde"), doc.get("list"));
+        assertEquals("abcde", doc.get("single"));
+    }
+
+    /**
+     * a surrogate pair should not be split when a value is truncated
+     */
+    @Test
+    public void testTruncateSurrogatePair()
+    {
+        DocSizeGuard guard = new DocSizeGuard(10, 5, Long.MAX_VALUE, null, null);
+        Map<String, Object> doc = new HashMap<String, Object>();
+        doc.put("f", "abcd𝄞");
+        guard.limit("a1", doc);
+        assertEquals("abcd", doc.get("f"));
+    }
+
+    /**
+     * documents too big should be rejected, and the ids of the records capped
+     *  or rejected written to the quarantine file with the reasons
+     */
+    @Test
+    public void testRejectAndQuarantine()
+        throws IOException
+    {
+        File quarantineFile = File.createTempFile("quarantine", ".txt");
+        quarantineFile.deleteOnExit();
+        DocSizeGuard guard = new DocSizeGuard(100, 1000, 2500, null, quarantineFile.getPath());
+
+        Map<String, Object> small = new HashMap<String, Object>();
+        small.put("title", "small");
+        assertNull(guard.limit("a1", small));
+
+        Map<String, Object> capped = new HashMap<String, Object>();
+        capped.put("all_search", repeat('x', 5000));
+        assertNull(guard.limit("a2", capped));
+
+        Map<String, Object> tooBig = new LinkedHashMap<String, Object>();
+        tooBig.put("f1", repeat('x', 900));
+        tooBig.put("f2", repeat('x', 900));
+        tooBig.put("f3", repeat('x', 900));
+        String rejection = guard.limit("a3", tooBig);
+        assertNotNull(rejection);
+        assertTrue(rejection, rejection.contains("2706 bytes"));
+
+        assertEquals(1, guard.getNumCapped());
+        assertEquals(1, guard.getNumRejected());
+        guard.close();
+
+        BufferedReader in = new BufferedReader(new FileReader(quarantineFile));
+        assertEquals("a2\tall_search: 5000 bytes capped to 1000 bytes", in.readLine());
+        assertEquals("a3\t" + rejection, in.readLine());
+        assertNull(in.readLine());
+        in.close();
+    }
+}
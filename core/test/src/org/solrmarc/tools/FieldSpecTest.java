@@ -0,0 +1,112 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.marc.*;
+
+/**
+ * unit tests for org.solrmarc.tools.FieldSpec
+ */
+public class FieldSpecTest
+{
+    private Record record;
+
+    @Before
+    public void setUp()
+    {
+        MarcFactory factory = MarcFactory.newInstance();
+        record = factory.newRecord("00000cam a2200000 a 4500");
+        record.addVariableField(factory.newControlField("001", "a123"));
+        record.addVariableField(factory.newControlField("008", "830415s1983    nyua          000 0 eng d"));
+        DataField df245 = factory.newDataField("245", '1', '0');
+        df245.addSubfield(factory.newSubfield('6', "880-01"));
+        df245.addSubfield(factory.newSubfield('a', "Title :"));
+        df245.addSubfield(factory.newSubfield('b', "subtitle /"));
+        df245.addSubfield(factory.newSubfield('c', "by someone."));
+        record.addVariableField(df245);
+        DataField df650a = factory.newDataField("650", ' ', '0');
+        df650a.addSubfield(factory.newSubfield('a', "Topic one"));
+        record.addVariableField(df650a);
+        DataField df650b = factory.newDataField("650", ' ', '0');
+        df650b.addSubfield(factory.newSubfield('a', "Topic two"));
+        df650b.addSubfield(factory.newSubfield('x', "History"));
+        record.addVariableField(df650b);
+        DataField df880 = factory.newDataField("880", '1', '0');
+        df880.addSubfield(factory.newSubfield('6', "245-01"));
+        df880.addSubfield(factory.newSubfield('a', "Vern title"));
+        df880.addSubfield(factory.newSubfield('b', "vern subtitle"));
+        record.addVariableField(df880);
+    }
+
+    /**
+     * subfields of a field, single and concatenated
+     */
+    @Test
+    public void testSubfields()
+    {
+        assertValues("245a", "Title :");
+        assertValues("245ab", "Title : subtitle /");
+        assertValues("650a", "Topic one", "Topic two");
+        assertValues("650ax", "Topic one", "Topic two History");
+        assertValues("245a:650a", "Title :", "Topic one", "Topic two");
+        assertValues("245ab'|'", "Title :|subtitle /");
+        assertValues("999a");
+    }
+
+    /**
+     * control fields and bytes of control fields
+     */
+    @Test
+    public void testControlFieldsAndBytes()
+    {
+        assertValues("001", "a123");
+        assertValues("008[7-10]", "1983");
+        assertValues("008[35-37]", "eng");
+        assertValues("008[6]", "s");
+    }
+
+    /**
+     * bracket expressions that aren't digits are subfield patterns
+     */
+    @Test
+    public void testSubfieldPattern()
+    {
+        assertValues("245[a-b]", "Title : subtitle");
+        assertValues("650[a-z]", "Topic one", "Topic two History");
+    }
+
+    /**
+     * LNK specs get values from linked 880 fields
+     */
+    @Test
+    public void testLinkedFields()
+    {
+        assertValues("LNK245a", "Vern title");
+        assertValues("LNK245ab", "Vern title vern subtitle");
+        assertEquals(MarcUtils.getLinkedFieldValue(record, "245", "ab", null), FieldSpec.getFieldSpec("LNK245ab").getFieldList(record));
+    }
+
+    /**
+     * MarcUtils.getFieldList should use the (cached) FieldSpec, and each call
+     *  should return a new Set the caller may change
+     */
+    @Test
+    public void testGetFieldListUsesCache()
+    {
+        assertSame(FieldSpec.getFieldSpec("245ab:650a"), FieldSpec.getFieldSpec("245ab:650a"));
+        Set<String> first = MarcUtils.getFieldList(record, "245ab:650a");
+        assertEquals(FieldSpec.getFieldSpec("245ab:650a").getFieldList(record), first);
+        first.add("changed");
+        assertFalse(MarcUtils.getFieldList(record, "245ab:650a").contains("changed"));
+    }
+
+    private void assertValues(String spec, String... expected)
+    {
+        Set<String> expectedSet = new LinkedHashSet<String>(Arrays.asList(expected));
+        assertEquals(spec, expectedSet, new FieldSpec(spec).getFieldList(record));
+    }
+}
@@ -0,0 +1,148 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * unit tests for org.solrmarc.tools.IndexTimings
+ */
+public class IndexTimingsTest
+{
+    @After
+    public void disableTimings()
+    {
+        IndexTimings.setEnabled(false);
+    }
+
+    /**
+     * nothing should be counted unless timing is enabled
+     */
+    @Test
+    public void testDisabled()
+    {
+        IndexTimings.setEnabled(false);
+        long start = IndexTimings.start();
+        IndexTimings.stop(IndexTimings.FIELD, "IndexTimingsTest.disabled", start);
+        IndexTimings.getTimer(IndexTimings.FIELD, "IndexTimingsTest.disabled").stop(start);
+        assertEquals(0, IndexTimings.getTimer(IndexTimings.FIELD, "IndexTimingsTest.disabled").getCount());
+    }
+
+    /**
+     * timers should count calls, total and maximum times and a histogram
+     */
+    @Test
+    public void testTimer()
+    {
+        IndexTimings.Timer timer = IndexTimings.getTimer(IndexTimings.FIELD, "IndexTimingsTest.timer");
+        assertSame(timer, IndexTimings.getTimer(IndexTimings.FIELD, "IndexTimingsTest.timer"));
+        timer.reset();
+        timer.add(5000);
+        timer.add(50000);
+        timer.add(2000000000L);
+        assertEquals(3, timer.getCount());
+        assertEquals(2000055000L / 1000000.0, timer.getTotalMillis(), 0.001);
+        assertEquals(2000000.0, timer.getMaxMicros(), 0.001);
+        assertEquals("<=10us: 1 <=100us: 1 >1s: 1", timer.getHistogram());
+
+        IndexTimings.setEnabled(true);
+        long start = IndexTimings.start();
+        timer.stop(start);
+        assertEquals(4, timer.getCount());
+    }
+
+    /**
+     * initialization done lazily inside a custom method should only be
+     *  counted as per record initialization
+     */
+    @Test
+    public void testLazyInitNotInMethod()
+        throws InterruptedException
+    {
+        IndexTimings.setEnabled(true);
+        IndexTimings.Timer methodTimer = IndexTimings.getTimer(IndexTimings.CUSTOM_METHOD, "IndexTimingsTest.method");
+        IndexTimings.Timer initTimer = IndexTimings.getTimer(IndexTimings.RECORD_INIT, "IndexTimingsTest.lazyInit");
+        methodTimer.reset();
+        initTimer.reset();
+
+        long start = IndexTimings.start();
+        long lazyInitStart = IndexTimings.lazyInitNanos();
+        long initStart = IndexTimings.start();
+        Thread.sleep(50);
+        IndexTimings.stopLazyInit("IndexTimingsTest.lazyInit", initStart);
+        methodTimer.stopWithoutLazyInit(start, lazyInitStart);
+
+        assertEquals(1, methodTimer.getCount());
+        assertEquals(1, initTimer.getCount());
+        assertTrue(initTimer.getTotalMillis() >= 50);
+        assertTrue(methodTimer.getTotalMillis() < 25);
+    }
+
+    /**
+     * the report should list the timers used, the slowest of each group
+     *  first, and be written to the report file
+     */
+    @Test
+    public void testReport()
+        throws IOException
+    {
+        IndexTimings.setEnabled(true);
+        IndexTimings.getTimer(IndexTimings.CUSTOM_METHOD, "IndexTimingsTest.fast").add(1000);
+        IndexTimings.getTimer(IndexTimings.CUSTOM_METHOD, "IndexTimingsTest.slow").add(3000000);
+        IndexTimings.getTimer(IndexTimings.CUSTOM_METHOD, "IndexTimingsTest.unused");
+
+        List<String> report = IndexTimings.getReport();
+        assertTrue(report.get(0), report.get(0).startsWith("records read: "));
+        int slowIx = indexOfLineStarting(report, "custom method IndexTimingsTest.slow: 1 calls");
+        int fastIx = indexOfLineStarting(report, "custom method IndexTimingsTest.fast: 1 calls");
+        assertTrue(slowIx != -1 && fastIx != -1 && slowIx < fastIx);
+        assertEquals(-1, indexOfLineStarting(report, "custom method IndexTimingsTest.unused"));
+
+        File reportFile = File.createTempFile("timings", ".txt");
+        reportFile.deleteOnExit();
+        IndexTimings.writeReport(reportFile.getPath());
+        BufferedReader in = new BufferedReader(new FileReader(reportFile));
+        List<String> lines = new ArrayList<String>();
+        String line;
+        while ((line = in.readLine()) != null)
+            lines.add(line);
+        in.close();
+        assertEquals(report.size(), lines.size());
+        assertTrue(indexOfLineStarting(lines, "custom method IndexTimingsTest.slow") != -1);
+    }
+
+    /**
+     * timers, including those created later, should be registered as MBeans
+     */
+    @Test
+    public void testMBeans()
+        throws Exception
+    {
+        IndexTimings.getTimer(IndexTimings.FIELD, "IndexTimingsTest.before").add(1000);
+        IndexTimings.registerMBeans();
+        IndexTimings.getTimer(IndexTimings.FIELD, "IndexTimingsTest.after").add(1000);
+
+        ObjectName before = new ObjectName("org.solrmarc:type=IndexTimings,group=\"field\",name=\"IndexTimingsTest.before\"");
+        ObjectName after = new ObjectName("org.solrmarc:type=IndexTimings,group=\"field\",name=\"IndexTimingsTest.after\"");
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(before));
+        assertEquals(Long.valueOf(1), ManagementFactory.getPlatformMBeanServer().getAttribute(after, "Count"));
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("org.solrmarc:type=IndexTimings,name=summary")));
+    }
+
+    private static int indexOfLineStarting(List<String> lines, String prefix)
+    {
+        for (int i = 0; i < lines.size(); i++)
+        {
+            if (lines.get(i).startsWith(prefix))
+                return i;
+        }
+        return -1;
+    }
+}
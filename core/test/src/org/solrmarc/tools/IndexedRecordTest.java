@@ -0,0 +1,79 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import org.marc4j.*;
+import org.marc4j.marc.*;
+
+/**
+ * unit tests for org.solrmarc.tools.IndexedRecord
+ */
+public class IndexedRecordTest
+{
+    private static final String TAGS[] = {"001", "008", "020", "100", "245", "650", "880", "999", "003", "500"};
+
+    /**
+     * looking up fields by tag should give the same fields, in the same
+     *  order, as the wrapped record
+     */
+    @Test
+    public void testSameFieldsAsRecord()
+        throws FileNotFoundException
+    {
+        String testDataPath = System.getProperty("test.data.path");
+        if (testDataPath == null)
+            testDataPath = "core" + File.separator + "test" + File.separator + "data";
+        MarcReader reader = new MarcPermissiveStreamReader(new FileInputStream(new File(testDataPath, "formatRecs.mrc")), true, true, "MARC8");
+        while (reader.hasNext())
+        {
+            Record record = reader.next();
+            IndexedRecord indexedRecord = IndexedRecord.index(record);
+            for (String tag : TAGS)
+            {
+                assertEquals(record.getVariableFields(tag), indexedRecord.getVariableFields(tag));
+                assertSame(record.getVariableField(tag), indexedRecord.getVariableField(tag));
+            }
+            assertEquals(record.getVariableFields(TAGS), indexedRecord.getVariableFields(TAGS));
+            assertEquals(record.getControlNumber(), indexedRecord.getControlNumber());
+        }
+    }
+
+    /**
+     * 880 fields should be found by the tag in their subfield 6, and fields
+     *  added or removed through the IndexedRecord should be re-indexed
+     */
+    @Test
+    public void testLinkedFieldsAndChanges()
+    {
+        MarcFactory factory = MarcFactory.newInstance();
+        Record record = factory.newRecord("00000cam a2200000 a 4500");
+        DataField df245 = factory.newDataField("245", '1', '0');
+        df245.addSubfield(factory.newSubfield('6', "880-01"));
+        df245.addSubfield(factory.newSubfield('a', "Title"));
+        record.addVariableField(df245);
+        DataField df880 = factory.newDataField("880", '1', '0');
+        df880.addSubfield(factory.newSubfield('6', "245-01"));
+        df880.addSubfield(factory.newSubfield('a', "Vern title"));
+        record.addVariableField(df880);
+
+        IndexedRecord indexedRecord = IndexedRecord.index(record);
+        assertSame(indexedRecord, IndexedRecord.index(indexedRecord));
+        assertEquals(Arrays.asList(df880), IndexedRecord.getLinkedFields(indexedRecord, "245"));
+        assertEquals(IndexedRecord.getLinkedFields(record, "245"), IndexedRecord.getLinkedFields(indexedRecord, "245"));
+        assertTrue(IndexedRecord.getLinkedFields(indexedRecord, "100").isEmpty());
+
+        DataField df650 = factory.newDataField("650", ' ', '0');
+        df650.addSubfield(factory.newSubfield('a', "Topic"));
+        indexedRecord.addVariableField(df650);
+        assertSame(df650, indexedRecord.getVariableField("650"));
+        assertSame(df650, record.getVariableField("650"));
+
+        indexedRecord.removeVariableField(df880);
+        assertTrue(indexedRecord.getVariableFields("880").isEmpty());
+        assertTrue(IndexedRecord.getLinkedFields(indexedRecord, "245").isEmpty());
+    }
+}
@@ -0,0 +1,168 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+import org.marc4j.*;
+import org.marc4j.marc.*;
+
+/**
+ * unit tests for org.solrmarc.tools.MarcSerializer:  the Strings should be the
+ *  same as those written by the marc4j writers
+ */
+public class MarcSerializerTest
+{
+    private static final MarcFactory factory = MarcFactory.newInstance();
+
+    /**
+     * the records of the test files should serialize the same as with the
+     *  marc4j writers
+     */
+    @Test
+    public void testSameAsMarc4jWriters()
+        throws IOException
+    {
+        String fileNames[] = {"combineBibMhld_b1b2b3.mrc", "u335.mrc", "009888737.mrc"};
+        MarcSerializer serializer = MarcSerializer.getInstance();
+        for (String fileName : fileNames)
+        {
+            InputStream in = new FileInputStream(testFile(fileName));
+            MarcReader reader = new MarcPermissiveStreamReader(in, true, true);
+            while (reader.hasNext())
+                assertSameAsMarc4j(serializer, reader.next());
+            in.close();
+        }
+    }
+
+    /**
+     * characters that must be escaped in XML, control characters, characters
+     *  outside the BMP and empty fields and subfields should serialize the same as with the marc4j
+     *  writers
+     */
+    @Test
+    public void testSpecialCharacters()
+        throws IOException
+    {
+        String data = "a & b < c > d \"quoted\" 'single' tab\there\u0001\u001F\u007F\u0085\u009F"
+                        + " é  𝄞 \udd1e end";
+        Record record = factory.newRecord("00000nam a2200000 a 4500");
+        record.addVariableField(factory.newControlField("001", "a&b<c>"));
+        DataField df = factory.newDataField("245", '1', '0');
+        df.addSubfield(factory.newSubfield('a', data));
+        df.addSubfield(factory.newSubfield('"', "code needs quoting"));
+        record.addVariableField(df);
+        record.addVariableField(factory.newDataField("500", '&', '<'));
+        DataField empty = factory.newDataField("520", ' ', ' ');
+        empty.addSubfield(factory.newSubfield('a', ""));
+        empty.addSubfield(factory.newSubfield('b', "\ud834"));
+        record.addVariableField(empty);
+        record.addVariableField(factory.newControlField("005", ""));
+
+        assertSameAsMarc4j(MarcSerializer.getInstance(), record);
+    }
+
+    /**
+     * fields with the tags to omit should be left out, and the record itself
+     *  should not change
+     */
+    @Test
+    public void testOmittedTags()
+        throws IOException
+    {
+        Record record = factory.newRecord("00000nam a2200000 a 4500");
+        record.addVariableField(factory.newControlField("001", "a123"));
+        record.addVariableField(factory.newControlField("008", "ignore me"));
+        DataField df245 = factory.newDataField("245", '1', '0');
+        df245.addSubfield(factory.newSubfield('a', "title"));
+        record.addVariableField(df245);
+        DataField df999 = factory.newDataField("999", ' ', ' ');
+        df999.addSubfield(factory.newSubfield('a', "callnum"));
+        record.addVariableField(df999);
+
+        Record expected = factory.newRecord(record.getLeader());
+        expected.addVariableField(record.getVariableField("001"));
+        expected.addVariableField(df245);
+
+        Set<String> tagsToOmit = new HashSet<String>(Arrays.asList("008", "999"));
+        MarcSerializer serializer = MarcSerializer.getInstance();
+        assertEquals(marc4jXml(expected), serializer.toMarcXml(record, tagsToOmit));
+        assertEquals(marc4jJson(expected, true), serializer.toJson(record, true, tagsToOmit));
+        assertEquals(marc4jBinary(expected), serializer.toBinary(record, tagsToOmit));
+        assertEquals(4, record.getVariableFields().size());
+        assertEquals(marc4jXml(record), serializer.toMarcXml(record));
+    }
+
+    /**
+     * a record that doesn't validate should throw the same exception as
+     *  MarcXmlWriter
+     */
+    @Test
+    public void testInvalidRecord()
+    {
+        Record record = factory.newRecord("00000nam a2200000 a 4500");
+        record.addVariableField(factory.newDataField("245", (char) 0, '0'));
+        try
+        {
+            MarcSerializer.getInstance().toMarcXml(record);
+            fail("expected MarcException");
+        }
+        catch (MarcException e)
+        {
+            assertEquals("Marc record didn't validate", e.getMessage());
+        }
+        // fine if the invalid field is left out
+        Set<String> tagsToOmit = Collections.singleton("245");
+        assertTrue(MarcSerializer.getInstance().toMarcXml(record, tagsToOmit).contains("<leader>"));
+    }
+
+    private void assertSameAsMarc4j(MarcSerializer serializer, Record record)
+        throws IOException
+    {
+        String id = String.valueOf(record.getControlNumber());
+        assertEquals(id, marc4jXml(record), serializer.toMarcXml(record));
+        assertEquals(id, marc4jJson(record, true), serializer.toJson(record, true));
+        assertEquals(id, marc4jJson(record, false), serializer.toJson(record, false));
+        assertEquals(id, marc4jBinary(record), serializer.toBinary(record));
+    }
+
+    private String marc4jXml(Record record)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcWriter writer = new MarcXmlWriter(out, "UTF-8");
+        writer.write(record);
+        writer.close();
+        return out.toString("UTF-8");
+    }
+
+    private String marc4jJson(Record record, boolean marcInJson)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcWriter writer = new MarcJsonWriter(out, marcInJson ? MarcJsonWriter.MARC_IN_JSON : MarcJsonWriter.MARC_JSON);
+        writer.write(record);
+        writer.close();
+        return out.toString("UTF-8");
+    }
+
+    private String marc4jBinary(Record record)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcWriter writer = new MarcStreamWriter(out, "UTF-8", true);
+        writer.write(record);
+        writer.close();
+        return out.toString("UTF-8");
+    }
+
+    private File testFile(String fileName)
+    {
+        String testDataPath = System.getProperty("test.data.path");
+        if (testDataPath == null)
+            testDataPath = "core" + File.separator + "test" + File.separator + "data";
+        return new File(testDataPath, fileName);
+    }
+}
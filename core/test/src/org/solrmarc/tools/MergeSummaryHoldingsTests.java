@@ -342,6 +342,51 @@ public class MergeSummaryHoldingsTests
         //fail("Implement me");
     }
 
+    /**
+     * indexing the MHLD file should give the same merged records as reading it
+     *  in order, and should find the matches when the bibs are out of order
+     */
+@Test
+    public void testIndexedMhldFile()
+            throws IOException
+    {
+        String bibMhldFileNames[][] = { {"mhldMergeBibs46.mrc", "mhldMergeMhlds235.mrc"},
+                                        {"mhldMergeBibs346.mrc", "mhldMergeMhlds34.mrc"},
+                                        {"mhldMergeBibs346.mrc", "mhldMergeMhlds235.mrc"},
+                                        {"mhldMergeBibs134.mrc", "mhldMergeMhlds345.mrc"},
+                                        {"mhldMergeBibs46.mrc", "mhldMergeMhlds236.mrc"},
+                                        {"mhldMergeBibs46.mrc", "mhldMergeMhlds34.mrc"} };
+        for (String fileNames[] : bibMhldFileNames)
+        {
+            String bibFilePath = testDataParentPath + File.separator + fileNames[0];
+            String mhldFilePath = testDataParentPath + File.separator + fileNames[1];
+            Map<String, Record> expectedRecs = MergeSummaryHoldings.mergeMhldsIntoBibRecordsAsMap(bibFilePath, mhldFilePath);
+            assertSameRecords(expectedRecs, MergeSummaryHoldings.mergeMhldsIntoBibRecordsAsMap(bibFilePath, mhldFilePath, true));
+
+            String reversedBibFilePath = writeReversedRecords(bibFilePath);
+            assertSameRecords(expectedRecs, MergeSummaryHoldings.mergeMhldsIntoBibRecordsAsMap(reversedBibFilePath, mhldFilePath, true));
+            new File(reversedBibFilePath).delete();
+        }
+    }
+
+    /**
+     * with the MHLD file indexed, all the MHLD records with the bib's id should be merged
+     */
+@Test
+    public void testIndexedMultMHLDsWithSameID()
+            throws IOException
+    {
+        String bibFilePath = testDataParentPath + File.separator + "mhldMergeBibs134.mrc";
+        String mhldFilePath = testDataParentPath + File.separator + "mhldMergeMhlds1Mult.mrc";
+        Map<String, Record> mergedRecs = MergeSummaryHoldings.mergeMhldsIntoBibRecordsAsMap(writeReversedRecords(bibFilePath), mhldFilePath, true);
+
+        Record mergedRec = mergedRecs.get("a1");
+        Set<String> expectedVals = new HashSet<String>();
+        expectedVals.add("Location1");
+        expectedVals.add("Location2");
+        RecordTestingUtils.assertSubfieldHasExpectedValues(mergedRec, "852", 'b', expectedVals);
+    }
+
     /**
      * the MHLD fields should only be merged into ONE of the bibs, if the bibs will be combined?
      * Or it's probably ok if they are in each bib, as they should be removed from the bib after processing?
@@ -559,6 +604,34 @@ String mergedSummaryHoldingsOutputNoUmlaut[] = {
 
 // supporting methods for testing ----------------------------------------------
 
+    private void assertSameRecords(Map<String, Record> expectedRecs, Map<String, Record> actualRecs)
+    {
+        assertEquals(expectedRecs.keySet(), actualRecs.keySet());
+        for (String id : expectedRecs.keySet())
+            RecordTestingUtils.assertEquals(expectedRecs.get(id), actualRecs.get(id));
+    }
+
+    /**
+     * write the records in the file, in reverse order, to a temporary file
+     * @return the name of the temporary file
+     */
+    private String writeReversedRecords(String marcFileName)
+            throws IOException
+    {
+        List<byte[]> records = new ArrayList<byte[]>();
+        RawRecordReader rawRecRdr = new RawRecordReader(new FileInputStream(new File(marcFileName)), false);
+        while (rawRecRdr.hasNext())
+            records.add(rawRecRdr.next().getRecordBytes());
+
+        File reversedFile = File.createTempFile("reversed", ".mrc");
+        reversedFile.deleteOnExit();
+        OutputStream out = new FileOutputStream(reversedFile);
+        for (int i = records.size() - 1; i >= 0; i--)
+            out.write(records.get(i));
+        out.close();
+        return reversedFile.getPath();
+    }
+
     /**
      *
      * @param bibRecsFileName name of the file containing Bib records, relative to the testDataParentPath
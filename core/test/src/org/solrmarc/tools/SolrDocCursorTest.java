@@ -0,0 +1,158 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.*;
+
+import org.apache.solr.client.solrj.*;
+import org.apache.solr.common.*;
+import org.apache.solr.common.params.*;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+import org.solrmarc.solr.*;
+
+/**
+ * unit tests for org.solrmarc.solr.SolrDocCursor
+ */
+public class SolrDocCursorTest
+{
+    private static final Pattern AFTER_ID_PATTERN = Pattern.compile("id:\\{\"(.*)\" TO \\*\\]");
+
+    /**
+     * a SolrServer with documents for the passed ids that answers queries
+     *  sorted by id, with a filter for ids after a given one, and keeps the
+     *  queries it is sent
+     */
+    private static class SortedIdSolrServer extends SolrServer
+    {
+        TreeSet<String> ids = new TreeSet<String>();
+        List<SolrParams> queries = Collections.synchronizedList(new ArrayList<SolrParams>());
+
+        SortedIdSolrServer(Collection<String> ids)
+        {
+            this.ids.addAll(ids);
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request)
+            throws SolrServerException, IOException
+        {
+            SolrParams params = request.getParams();
+            queries.add(params);
+            assertEquals("id asc", params.get(CommonParams.SORT));
+            assertNull(params.get(CommonParams.START));
+
+            SortedSet<String> matches = ids;
+            String fq = params.get(CommonParams.FQ);
+            if (fq != null)
+            {
+                Matcher matcher = AFTER_ID_PATTERN.matcher(fq);
+                assertTrue(fq, matcher.matches());
+                String afterId = matcher.group(1).replace("\\\"", "\"").replace("\\\\", "\\");
+                matches = ids.tailSet(afterId + "\0");
+            }
+
+            int rows = params.getInt(CommonParams.ROWS);
+            SolrDocumentList page = new SolrDocumentList();
+            page.setNumFound(ids.size());
+            for (String id : matches)
+            {
+                if (page.size() == rows)
+                    break;
+                SolrDocument doc = new SolrDocument();
+                doc.addField("id", id);
+                doc.addField("marc", "record " + id);
+                page.add(doc);
+            }
+            NamedList<Object> result = new NamedList<Object>();
+            result.add("response", page);
+            return result;
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+
+    private static List<String> makeIds(int num)
+    {
+        List<String> result = new ArrayList<String>();
+        for (int i = 0; i < num; i++)
+            result.add(String.valueOf(i * 7 % num));
+        return result;
+    }
+
+    /**
+     * the cursor should return every document once, in id order, a page at a
+     *  time, whether or not the last page is full
+     */
+    @Test
+    public void testAllDocsInIdOrder()
+    {
+        int sizes[] = {0, 1, 9, 10, 11, 37};
+        for (int size : sizes)
+        {
+            List<String> ids = makeIds(size);
+            SortedIdSolrServer server = new SortedIdSolrServer(ids);
+            SolrDocCursor cursor = new SolrDocCursor(server, "*:*", "standard", "id", 10, "marc");
+            List<String> cursorIds = new ArrayList<String>();
+            while (cursor.hasNext())
+            {
+                SolrDocument doc = cursor.next();
+                cursorIds.add(doc.getFieldValue("id").toString());
+                assertEquals("record " + doc.getFieldValue("id"), doc.getFieldValue("marc"));
+            }
+            cursor.close();
+
+            assertEquals(new ArrayList<String>(new TreeSet<String>(ids)), cursorIds);
+            assertEquals(size / 10 + 1, server.queries.size());
+            assertEquals(size, cursor.getNumFound());
+        }
+    }
+
+    /**
+     * ids with quotes and backslashes should be quoted in the filter query
+     */
+    @Test
+    public void testQuotedIds()
+    {
+        List<String> ids = Arrays.asList("a\"b", "a\\b", "a b", "ab", "a:b");
+        SortedIdSolrServer server = new SortedIdSolrServer(ids);
+        SolrDocCursor cursor = new SolrDocCursor(server, "*:*", "standard", "id", 1);
+        List<String> cursorIds = new ArrayList<String>();
+        while (cursor.hasNext())
+            cursorIds.add(cursor.next().getFieldValue("id").toString());
+        cursor.close();
+        assertEquals(new ArrayList<String>(new TreeSet<String>(ids)), cursorIds);
+    }
+
+    /**
+     * an error from Solr should be thrown from hasNext
+     */
+    @Test
+    public void testSolrError()
+    {
+        SolrServer server = new SortedIdSolrServer(makeIds(5))
+        {
+            @Override
+            public NamedList<Object> request(SolrRequest request)
+                throws SolrServerException, IOException
+            {
+                throw new SolrServerException("no Solr here");
+            }
+        };
+        SolrDocCursor cursor = new SolrDocCursor(server, "*:*", "standard", "id", 10);
+        try
+        {
+            cursor.hasNext();
+            fail("expected SolrRuntimeException");
+        }
+        catch (SolrRuntimeException e)
+        {
+            assertTrue(e.getCause() instanceof SolrServerException);
+        }
+    }
+}
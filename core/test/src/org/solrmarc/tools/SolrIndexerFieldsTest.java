@@ -0,0 +1,93 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.marc.*;
+import org.solrmarc.index.SolrIndexer;
+
+/**
+ * unit tests for mapping only some of the fields of a record, with
+ *  SolrIndexer.createFldNames2ValsMap(record, errors, fieldNames)
+ */
+public class SolrIndexerFieldsTest
+{
+    /**
+     * an indexer with a custom method returning a Map of fields
+     */
+    public static class MapFieldsIndexer extends SolrIndexer
+    {
+        public MapFieldsIndexer(Properties indexingProps, String propertyDirs[])
+        {
+            super(null, propertyDirs);
+            fillMapFromProperties(indexingProps);
+        }
+
+        public Map<String, Object> getTitleFields(Record record)
+        {
+            String title = getFirstFieldVal(record, null, "245a");
+            Map<String, Object> result = new HashMap<String, Object>();
+            result.put("title_display", title);
+            result.put("title_sort", title.toLowerCase());
+            return result;
+        }
+    }
+
+    private SolrIndexer testIndexer;
+    private Record record;
+
+    @Before
+    public void setUp()
+    {
+        if (System.getProperty("solrmarc.path") == null)
+            System.setProperty("solrmarc.path", "core");
+
+        Properties indexingProps = new Properties();
+        indexingProps.setProperty("id", "001, first");
+        indexingProps.setProperty("title", "245a");
+        indexingProps.setProperty("title_fields", "custom, getTitleFields");
+        String solrmarcCorePath = System.getProperty("solrmarc.path");
+        testIndexer = new MapFieldsIndexer(indexingProps, new String[]{solrmarcCorePath + File.separator + "translation_maps"});
+
+        MarcFactory factory = MarcFactory.newInstance();
+        record = factory.newRecord();
+        record.addVariableField(factory.newControlField("001", "a123"));
+        DataField title = factory.newDataField("245", '1', '0');
+        title.addSubfield(factory.newSubfield('a', "The Title"));
+        record.addVariableField(title);
+    }
+
+    /**
+     * all the fields should be mapped when no field names are given
+     */
+    @Test
+    public void testAllFields()
+    {
+        Map<String, Object> fields = testIndexer.createFldNames2ValsMap(record, null, null);
+        assertEquals("a123", fields.get("id"));
+        assertEquals("The Title", fields.get("title"));
+        assertEquals("The Title", fields.get("title_display"));
+        assertEquals("the title", fields.get("title_sort"));
+    }
+
+    /**
+     * fields added by a custom method returning a Map should be selectable by
+     *  the keys of the Map, not the field of the index specification
+     */
+    @Test
+    public void testMapFieldsSelected()
+    {
+        Map<String, Object> fields = testIndexer.createFldNames2ValsMap(record, null, new HashSet<String>(Arrays.asList("id", "title_sort")));
+        assertEquals(2, fields.size());
+        assertEquals("a123", fields.get("id"));
+        assertEquals("the title", fields.get("title_sort"));
+
+        fields = testIndexer.createFldNames2ValsMap(record, null, new HashSet<String>(Arrays.asList("title")));
+        assertEquals(1, fields.size());
+        assertEquals("The Title", fields.get("title"));
+    }
+}
@@ -0,0 +1,109 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.*;
+import org.marc4j.marc.Record;
+import org.solrmarc.index.SolrIndexer;
+
+/**
+ * unit tests for indexers made by SolrIndexer.newThreadIndexer()
+ */
+public class SolrIndexerThreadTest
+{
+    private SolrIndexer testIndexer;
+    private List<Record> records;
+
+    @Before
+    public void setUp()
+        throws FileNotFoundException
+    {
+        if (System.getProperty("test.data.path") == null)
+            System.setProperty("test.data.path", "core" + File.separator + "test" + File.separator + "data");
+        if (System.getProperty("solrmarc.path") == null)
+            System.setProperty("solrmarc.path", "core");
+
+        Properties indexingProps = new Properties();
+        indexingProps.setProperty("id", "001, first");
+        indexingProps.setProperty("title", "245ab");
+        indexingProps.setProperty("getformatmixin", "custom(org.solrmarc.index.GetFormatMixin), getContentTypesAndMediaTypes");
+        indexingProps.setProperty("getformatmixinmapped", "custom(org.solrmarc.index.GetFormatMixin), getContentTypesAndMediaTypes, getformat_mixin_map.properties");
+        String solrmarcCorePath = System.getProperty("solrmarc.path");
+        testIndexer = SolrIndexer.indexerFromProperties(indexingProps, new String[]{solrmarcCorePath + File.separator + "translation_maps"});
+
+        records = new ArrayList<Record>();
+        MarcReader reader = new MarcPermissiveStreamReader(new FileInputStream(new File(System.getProperty("test.data.path"), "formatRecs.mrc")), true, true, "MARC8");
+        while (reader.hasNext())
+            records.add(reader.next());
+    }
+
+    /**
+     * an indexer for another thread should produce the same fields as the
+     *  indexer it was made from
+     */
+    @Test
+    public void testThreadIndexerMapsSameFields()
+    {
+        SolrIndexer threadIndexer = testIndexer.newThreadIndexer();
+        assertNotNull("unable to create indexer for thread", threadIndexer);
+        assertNotSame(testIndexer, threadIndexer);
+
+        for (Record record : records)
+            assertEquals(testIndexer.createFldNames2ValsMap(record), threadIndexer.createFldNames2ValsMap(record));
+    }
+
+    /**
+     * indexers for separate threads should be able to map records at the same time
+     */
+    @Test
+    public void testThreadIndexersConcurrently()
+        throws InterruptedException
+    {
+        final List<Map<String, Object>> expected = new ArrayList<Map<String, Object>>();
+        for (Record record : records)
+            expected.add(testIndexer.createFldNames2ValsMap(record));
+
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++)
+        {
+            final SolrIndexer threadIndexer = testIndexer.newThreadIndexer();
+            threads.add(new Thread()
+            {
+                public void run()
+                {
+                    for (int pass = 0; pass < 5; pass++)
+                    {
+                        for (int j = 0; j < records.size(); j++)
+                        {
+                            Map<String, Object> result = threadIndexer.createFldNames2ValsMap(records.get(j));
+                            if (!expected.get(j).equals(result))
+                                failures.add(records.get(j).getControlNumber());
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertTrue("records mapped differently by concurrent indexers: " + failures, failures.isEmpty());
+    }
+
+    /**
+     * an indexer for another thread shares configuration read only
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void testThreadIndexerConfigIsReadOnly()
+    {
+        SolrIndexer threadIndexer = testIndexer.newThreadIndexer();
+        threadIndexer.reinitFromProperties(new Properties());
+    }
+}
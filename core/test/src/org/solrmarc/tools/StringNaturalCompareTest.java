@@ -3,6 +3,7 @@ package org.solrmarc.tools;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Comparator;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -69,4 +70,35 @@ public class StringNaturalCompareTest
         assertEquals("string natural comparison error for " + str1 + " " + str2, 1, comp.compare(str1, str2));
     }
 
+    /**
+     * SortKeys should compare exactly as their strings do
+     */
+    @Test
+    public void testSortKeyComparison()
+    {
+        Comparator<String> comp = new StringNaturalCompare();
+        String chars = "aBu0129 .-";
+        Random random = new Random(17);
+        for (int i = 0; i < 50000; i++)
+        {
+            String str1 = randomString(random, chars);
+            String str2 = (i % 10 == 0) ? str1.toUpperCase() : randomString(random, chars);
+            StringNaturalCompare.SortKey key1 = new StringNaturalCompare.SortKey(str1);
+            StringNaturalCompare.SortKey key2 = new StringNaturalCompare.SortKey(str2);
+            assertEquals("sort key comparison error for \"" + str1 + "\" \"" + str2 + "\"",
+                         Integer.signum(comp.compare(str1, str2)), Integer.signum(key1.compareTo(key2)));
+        }
+        assertEquals(0, new StringNaturalCompare.SortKey(null).compareTo(new StringNaturalCompare.SortKey("")));
+        assertEquals(-1, new StringNaturalCompare.SortKey(null).compareTo(new StringNaturalCompare.SortKey("u1")));
+    }
+
+    private static String randomString(Random random, String chars)
+    {
+        int length = random.nextInt(9);
+        StringBuilder result = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            result.append(chars.charAt(random.nextInt(chars.length())));
+        return result.toString();
+    }
+
 }
@@ -0,0 +1,86 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+/**
+ * unit tests for org.solrmarc.tools.TranslationMap
+ */
+public class TranslationMapTest
+{
+    private static final String VALUES[] = {"a", "b", "c", "", "abc", "book 12", "12 book", "video"};
+
+    /**
+     * remapping with a TranslationMap should give the same results as
+     *  remapping with the plain Map it was made from
+     */
+    @Test
+    public void testSameAsPlainMap()
+    {
+        Map<String, String> exact = new LinkedHashMap<String, String>();
+        exact.put("a", "Apple");
+        exact.put("b", "");
+        assertSameRemap(exact);
+
+        Map<String, String> withDefault = new LinkedHashMap<String, String>(exact);
+        withDefault.put("__DEFAULT", "Other");
+        assertSameRemap(withDefault);
+
+        Map<String, String> emptyKeyDefault = new LinkedHashMap<String, String>(exact);
+        emptyKeyDefault.put("", "Empty");
+        assertSameRemap(emptyKeyDefault);
+
+        Map<String, String> displayRaw = new LinkedHashMap<String, String>(withDefault);
+        displayRaw.put("displayRawIfMissing", "true");
+        assertSameRemap(displayRaw);
+
+        Map<String, String> patterns = new LinkedHashMap<String, String>();
+        patterns.put("pattern_0", "book=>Book");
+        patterns.put("pattern_1", "^([0-9]+) .*=>Number $1");
+        patterns.put("pattern_2", "vid=>Video");
+        assertSameRemap(patterns);
+        assertTrue(new TranslationMap(patterns).isPatternMap());
+        assertFalse(new TranslationMap(exact).isPatternMap());
+    }
+
+    /**
+     * a TranslationMap has the entries it was made from, and can't be changed
+     */
+    @Test
+    public void testEntries()
+    {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put("a", "Apple");
+        entries.put("b", "Banana");
+        TranslationMap map = new TranslationMap(entries);
+        assertEquals(entries, map);
+        assertEquals(new ArrayList<String>(entries.keySet()), new ArrayList<String>(map.keySet()));
+        entries.put("c", "Cherry");
+        assertFalse(map.containsKey("c"));
+        try
+        {
+            map.put("c", "Cherry");
+            fail("TranslationMap should not be changeable");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // expected
+        }
+    }
+
+    private void assertSameRemap(Map<String, String> plainMap)
+    {
+        TranslationMap map = new TranslationMap(plainMap);
+        for (boolean allowDefault : new boolean[]{true, false})
+        {
+            for (String value : VALUES)
+                assertEquals(value, Utils.remap(value, plainMap, allowDefault), Utils.remap(value, map, allowDefault));
+            Set<String> values = new LinkedHashSet<String>(Arrays.asList(VALUES));
+            assertEquals(new ArrayList<String>(Utils.remap(values, plainMap, allowDefault)),
+                         new ArrayList<String>(Utils.remap(values, map, allowDefault)));
+        }
+    }
+}
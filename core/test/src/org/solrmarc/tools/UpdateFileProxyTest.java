@@ -0,0 +1,193 @@
+package org.solrmarc.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+import org.solrmarc.solr.*;
+
+/**
+ * unit tests for the document sinks of org.solrmarc.solr.SolrCoreLoader:
+ *  DiscardingSolrProxy and the UpdateFileProxy subclasses
+ */
+public class UpdateFileProxyTest
+{
+    private static Map<String, Object> doc(String id)
+    {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("id", id);
+        result.put("title", Arrays.asList("title " + id, "other \"title\" <" + id + ">"));
+        return result;
+    }
+
+    private static File tempDir()
+        throws IOException
+    {
+        File result = File.createTempFile("updates", "");
+        result.delete();
+        result.mkdir();
+        result.deleteOnExit();
+        return result;
+    }
+
+    private static List<String> readLines(File file)
+        throws IOException
+    {
+        file.deleteOnExit();
+        List<String> result = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        String line;
+        while ((line = in.readLine()) != null)
+            result.add(line);
+        in.close();
+        return result;
+    }
+
+    /**
+     * the discarding sink should only count documents and deletes
+     */
+    @Test
+    public void testDiscard()
+        throws IOException
+    {
+        SolrProxy proxy = SolrCoreLoader.loadDocumentSink(SolrCoreLoader.DISCARD_SINK, null, 0);
+        assertNull(proxy.addDoc(doc("a1"), false, true));
+        assertNull(proxy.addDoc(doc("a2"), false, true));
+        assertTrue(proxy.addDoc(doc("a3"), false, false).contains("a3"));
+        proxy.delete(Arrays.asList("a4", "a5"));
+        proxy.commit(false);
+        proxy.close();
+        assertEquals(2, ((DiscardingSolrProxy) proxy).getNumDocs());
+        assertEquals(2, ((DiscardingSolrProxy) proxy).getNumDeletes());
+    }
+
+    /**
+     * documents and deletes should be written as JSON lines, in order
+     */
+    @Test
+    public void testJsonLines()
+        throws IOException
+    {
+        File file = new File(tempDir(), "updates.jsonl");
+        SolrProxy proxy = SolrCoreLoader.loadDocumentSink(SolrCoreLoader.JSON_LINES_SINK, file.getPath(), 0);
+        proxy.addDoc(doc("a1"), false, true);
+        proxy.delete("a2", true, true);
+        proxy.addDoc(doc("a3"), false, true);
+        proxy.close();
+
+        List<String> lines = readLines(file);
+        assertEquals(3, lines.size());
+        assertEquals("{\"id\":\"a1\",\"title\":[\"title a1\",\"other \\\"title\\\" <a1>\"]}", lines.get(0));
+        assertEquals("{\"delete\":{\"id\":\"a2\"}}", lines.get(1));
+        assertTrue(lines.get(2), lines.get(2).startsWith("{\"id\":\"a3\","));
+    }
+
+    /**
+     * documents and deletes should be written as Solr XML update messages,
+     *  in numbered files of at most the maximum number of documents
+     */
+    @Test
+    public void testXmlFiles()
+        throws IOException
+    {
+        File dir = tempDir();
+        SolrProxy proxy = SolrCoreLoader.loadDocumentSink(SolrCoreLoader.XML_SINK, new File(dir, "updates.xml").getPath(), 2);
+        proxy.delete(Arrays.asList("d1", "d<2>"));
+        for (int i = 1; i <= 3; i++)
+            proxy.addDoc(doc("a" + i), false, true);
+        proxy.close();
+
+        List<String> lines = readLines(new File(dir, "updates-00001.xml"));
+        assertEquals(5, lines.size());
+        assertEquals("<update>", lines.get(0));
+        assertEquals("<delete><id>d1</id><id>d&lt;2&gt;</id></delete>", lines.get(1));
+        assertTrue(lines.get(2), lines.get(2).startsWith("<add><doc><field name=\"id\">a1</field><field name=\"title\">title a1</field>"));
+        assertTrue(lines.get(2), lines.get(2).contains("&lt;a1&gt;"));
+        assertTrue(lines.get(3), lines.get(3).startsWith("<add><doc><field name=\"id\">a2</field>"));
+        assertEquals("</update>", lines.get(4));
+        lines = readLines(new File(dir, "updates-00002.xml"));
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(1), lines.get(1).startsWith("<add><doc><field name=\"id\">a3</field>"));
+        assertFalse(new File(dir, "updates-00003.xml").exists());
+    }
+
+    /**
+     * documents and deletes should be written as javabin update requests;
+     *  documents after a delete should go in a new file, as Solr does the
+     *  deletes of a request after its adds
+     */
+    @Test
+    public void testJavabinFiles()
+        throws IOException
+    {
+        File dir = tempDir();
+        SolrProxy proxy = SolrCoreLoader.loadDocumentSink(SolrCoreLoader.JAVABIN_SINK, new File(dir, "updates.javabin").getPath(), 0);
+        proxy.addDoc(doc("a1"), false, true);
+        proxy.addDoc(doc("a2"), false, true);
+        proxy.delete("d1", true, true);
+        proxy.addDoc(doc("a3"), false, true);
+        proxy.close();
+
+        UpdateRequest request = readJavabin(new File(dir, "updates-00001.javabin"));
+        assertEquals(2, request.getDocuments().size());
+        SolrInputDocument doc1 = request.getDocuments().get(0);
+        assertEquals("a1", doc1.getFieldValue("id"));
+        assertEquals(Arrays.asList("title a1", "other \"title\" <a1>"), new ArrayList<Object>(doc1.getFieldValues("title")));
+        assertEquals(Arrays.asList("d1"), request.getDeleteById());
+
+        request = readJavabin(new File(dir, "updates-00002.javabin"));
+        assertEquals(1, request.getDocuments().size());
+        assertEquals("a3", request.getDocuments().get(0).getFieldValue("id"));
+        assertNull(request.getDeleteById());
+    }
+
+    private static UpdateRequest readJavabin(File file)
+        throws IOException
+    {
+        file.deleteOnExit();
+        final List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        UpdateRequest result = new JavaBinUpdateRequestCodec().unmarshal(in, new JavaBinUpdateRequestCodec.StreamingUpdateHandler()
+        {
+            public void update(SolrInputDocument document, UpdateRequest req)
+            {
+                docs.add(document);
+            }
+        });
+        in.close();
+        for (SolrInputDocument doc : docs)
+            result.add(doc);
+        return result;
+    }
+
+    /**
+     * unknown sinks, and file sinks without a file name, should be rejected
+     */
+    @Test
+    public void testBadSinks()
+    {
+        try
+        {
+            SolrCoreLoader.loadDocumentSink("csv", "updates.csv", 0);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("Unknown document sink: csv"));
+        }
+        try
+        {
+            SolrCoreLoader.loadDocumentSink(SolrCoreLoader.XML_SINK, " ", 0);
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("solrmarc.document_sink_file"));
+        }
+    }
+}
@@ -368,6 +368,10 @@ public class CallNumUtils
 		return rawCallnum;
 	}
 
+    private static final Pattern MULT_WHITESPACE_PATTERN = Pattern.compile("\\s\\s+");
+    private static final Pattern SPACE_AROUND_PERIOD_PATTERN = Pattern.compile("\\s?\\.\\s?");
+    private static final Pattern LC_LETTERS_SPACE_DIGIT_PATTERN = Pattern.compile("^([A-Z][A-Z]?[A-Z]?) ([0-9])");
+
     /**
      * reduce multiple whitespace to single, remove spaces before or after
      *   periods, remove spaces between letters and class digits
@@ -375,11 +379,11 @@ public class CallNumUtils
     static String normalizeLCcallnum(String rawLCcallnum)
     {
       	// change all multiple whitespace chars to a single space
-        String normalizedCallnum = rawLCcallnum.trim().replaceAll("\\s\\s+", " ");
+        String normalizedCallnum = MULT_WHITESPACE_PATTERN.matcher(rawLCcallnum.trim()).replaceAll(" ");
         // remove a space before or after a period
-        normalizedCallnum = normalizedCallnum.replaceAll("\\s?\\.\\s?", ".");
+        normalizedCallnum = SPACE_AROUND_PERIOD_PATTERN.matcher(normalizedCallnum).replaceAll(".");
         // remove space between class letters and digits
-        normalizedCallnum = normalizedCallnum.replaceAll("^([A-Z][A-Z]?[A-Z]?) ([0-9])", "$1$2");
+        normalizedCallnum = LC_LETTERS_SPACE_DIGIT_PATTERN.matcher(normalizedCallnum).replaceAll("$1$2");
         return normalizedCallnum;
     }
 
@@ -554,6 +558,21 @@ public class CallNumUtils
 	 * @return the lopped call number
 	 */
 	static String getLoppedCallnum(String fullCallnum, CallNumberType callnumType, boolean isSerial)
+	{
+		LoppingKey key = new LoppingKey(fullCallnum, callnumType, isSerial);
+		String loppedCallnum = loppedCallnumCache.get(key);
+		if (loppedCallnum == null)
+		{
+			loppedCallnum = computeLoppedCallnum(fullCallnum, callnumType, isSerial);
+			loppedCallnumCache.put(key, loppedCallnum);
+		}
+		return loppedCallnum;
+	}
+
+	/** lopped call numbers, for the call numbers of the volumes of serials and sets */
+	private static final BoundedCache<LoppingKey, String> loppedCallnumCache = new BoundedCache<LoppingKey, String>("Lopped call number");
+
+	private static String computeLoppedCallnum(String fullCallnum, CallNumberType callnumType, boolean isSerial)
 	{
 		String loppedCallnum = fullCallnum;
 		if (callnumType == CallNumberType.LC)
@@ -576,6 +595,40 @@ public class CallNumUtils
 		return loppedCallnum;
 	}
 
+	/**
+	 * key for the lopped call number cache:  how a call number is lopped
+	 *  depends on its type and whether it is for a serial
+	 */
+	private static class LoppingKey
+	{
+		private final String callnum;
+		private final CallNumberType callnumType;
+		private final boolean isSerial;
+
+		LoppingKey(String callnum, CallNumberType callnumType, boolean isSerial)
+		{
+			this.callnum = callnum;
+			this.callnumType = callnumType;
+			this.isSerial = isSerial;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof LoppingKey))
+				return false;
+			LoppingKey other = (LoppingKey) obj;
+			return callnum.equals(other.callnum) && callnumType == other.callnumType && isSerial == other.isSerial;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int result = callnum.hashCode() * 31 + (callnumType == null ? 0 : callnumType.ordinal() + 1);
+			return isSerial ? result * 31 + 1 : result * 31;
+		}
+	}
+
 	/**
 	 * return a sortable shelving key for the call number
 	 * @param rawCallnum - the call number for which a shelfkey is desired
@@ -660,6 +713,16 @@ public class CallNumUtils
 
 
 
+	// patterns for adjusting the longest common prefix of call numbers
+	private static final String YEAR_REGEX = "(20|19|18)\\d{2}";
+	private static final Pattern YEAR_AT_END_PATTERN = Pattern.compile(" " + YEAR_REGEX + "$");
+	private static final Pattern YEAR_THEN_CHAR_PATTERN = Pattern.compile(" " + YEAR_REGEX + "[ -:]$");
+	private static final Pattern PARTIAL_YEAR_PATTERN = Pattern.compile(" (20|19|18)\\d{0,1}$");
+	private static final String VOL_PREFIX_REGEX = "[ \\.\\(\\:\\/]";
+	private static final Pattern PREFIX_VOL_LETTERS_PATTERN = Pattern.compile(VOL_PREFIX_REGEX + "(bd|ed|jahrg|new ser|no|pts?|series|[^a-z]t|v|vols?|vyp)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern PREFIX_ADDL_VOL_PATTERN = Pattern.compile(VOL_PREFIX_REGEX + "(box|carton|disc|flat box|grade|half box|half carton|index|large folder|large map folder|map folder|reel|os box|os folder|small folder|small map folder|suppl|tube|series).*", Pattern.CASE_INSENSITIVE);
+	private static final Pattern TOO_SHORT_PATTERN = Pattern.compile("^(mcd|mdvd|zdvd|mfilm|mfiche)$", Pattern.CASE_INSENSITIVE);
+
 	/**
 	 * given a set of items, assign the lopped call number to be the longest
 	 *  prefix common to the items' call numbers, adjusted for expected
@@ -682,13 +745,7 @@ public class CallNumUtils
 		commonPrefix = commonPrefix.trim();
 
 		// watch for ending years (where "19" or "20" is common ...)
-		String yearRegex = "(20|19|18)\\d{2}";
-		Pattern yearPatternAtEnd = Pattern.compile(" " + yearRegex + "$");
-		Pattern yearPatternThenChar = Pattern.compile(" " + yearRegex + "[ -:]$");
-
-		String partialYearRegex = "(20|19|18)\\d{0,1}";
-		Pattern partialYearPattern = Pattern.compile(" " + partialYearRegex + "$");
-		Matcher matcher = partialYearPattern.matcher(commonPrefix);
+		Matcher matcher = PARTIAL_YEAR_PATTERN.matcher(commonPrefix);
 		if (matcher.find())
 		{
 			String callnum = itemArray[0].getCallnum();
@@ -697,7 +754,7 @@ public class CallNumUtils
 			boolean matchedYear = false;
 			if (callnum.length() >= lenToCheck)
 			{
-				matcher = yearPatternThenChar.matcher(callnum.substring(0, lenToCheck));
+				matcher = YEAR_THEN_CHAR_PATTERN.matcher(callnum.substring(0, lenToCheck));
 				if (matcher.find())
 				{
 					matchedYear = true;
@@ -711,7 +768,7 @@ public class CallNumUtils
 				lenToCheck = lenToCheck - 1;
 				if (callnum.length() >= lenToCheck)
 				{
-					matcher = yearPatternAtEnd.matcher(callnum.substring(0, lenToCheck));
+					matcher = YEAR_AT_END_PATTERN.matcher(callnum.substring(0, lenToCheck));
 					if (matcher.find())
 					{
 						matchedYear = true;
@@ -726,7 +783,7 @@ public class CallNumUtils
 				lenToCheck = lenToCheck - 1;
 				if (callnum.length() >= lenToCheck)
 				{
-					matcher = yearPatternAtEnd.matcher(callnum.substring(0, lenToCheck));
+					matcher = YEAR_AT_END_PATTERN.matcher(callnum.substring(0, lenToCheck));
 					if (matcher.find())
 						commonPrefix = commonPrefix.substring(0, matcher.start()).trim();
 				}
@@ -734,15 +791,9 @@ public class CallNumUtils
 		}
 
 		// adjust the common prefix for volume string endings
-		String prefix = "[ \\.\\(\\:\\/]";
-		String volLettersRegex = "(bd|ed|jahrg|new ser|no|pts?|series|[^a-z]t|v|vols?|vyp)";
-		Pattern volLettersPattern = Pattern.compile(prefix + volLettersRegex, Pattern.CASE_INSENSITIVE);
-		String addlVolRegex = "(box|carton|disc|flat box|grade|half box|half carton|index|large folder|large map folder|map folder|reel|os box|os folder|small folder|small map folder|suppl|tube|series)";
-		Pattern addlVolPattern = Pattern.compile(prefix + addlVolRegex + ".*", Pattern.CASE_INSENSITIVE);
-
-		matcher = volLettersPattern.matcher(commonPrefix);
+		matcher = PREFIX_VOL_LETTERS_PATTERN.matcher(commonPrefix);
 		if (!matcher.find())
-			matcher = addlVolPattern.matcher(commonPrefix);
+			matcher = PREFIX_ADDL_VOL_PATTERN.matcher(commonPrefix);
 		if (matcher.find(0))
 			commonPrefix = commonPrefix.substring(0, matcher.start()).trim();
 
@@ -751,9 +802,7 @@ public class CallNumUtils
 				commonPrefix.endsWith("(") || commonPrefix.endsWith("/"))
 			commonPrefix = commonPrefix.substring(0, commonPrefix.length() - 1).trim();
 
-		String tooShortRegex = "^(mcd|mdvd|zdvd|mfilm|mfiche)$";
-		Pattern tooShortPattern = Pattern.compile(tooShortRegex, Pattern.CASE_INSENSITIVE);
-		matcher = tooShortPattern.matcher(commonPrefix);
+		matcher = TOO_SHORT_PATTERN.matcher(commonPrefix);
 		boolean tooShort = false;
 		if (matcher.find() || commonPrefix.length() <= minLen)
 			tooShort = true;
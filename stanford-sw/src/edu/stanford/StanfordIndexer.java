@@ -5,8 +5,6 @@ import java.text.ParseException;
 import java.util.*;
 import java.util.regex.*;
 
-import org.marc4j.MarcWriter;
-import org.marc4j.MarcXmlWriter;
 import org.marc4j.marc.*;
 //could import static, but this seems clearer
 import org.solrmarc.tools.*;
@@ -79,6 +77,23 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
         CLOSED_LIBS = PropertiesUtils.loadPropertiesSet(propertyDirs, "library_closed.properties");
         RESV_LOCS = PropertiesUtils.loadPropertiesSet(propertyDirs, "locations_reserves_list.properties");
 
+        initPerRecordSets();
+  }
+
+  /**
+   * Constructor for an indexer to be used by another thread:  shares the
+   *  index specifications and translation maps of the passed indexer (the
+   *  location lists are static), but has its own per-record variables.
+   * @param indexerToShare - the StanfordIndexer whose configuration is shared
+   */
+  public StanfordIndexer(StanfordIndexer indexerToShare)
+  {
+    super(indexerToShare);
+    initPerRecordSets();
+  }
+
+  private void initPerRecordSets()
+  {
         // try to reuse HashSet, etc. objects instead of creating fresh each time
         old_formats = new LinkedHashSet<String>();
         main_formats = new LinkedHashSet<String>();
@@ -179,10 +194,34 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
 
   /** used for on order ordering libraries */
   Set<String> onOrderLibraries;
+
+  /** the record being indexed, for the values computed on first use */
+  private Record currentRecord = null;
+  /** true if all items are online or have an ignored call number */
+  private boolean getBrowseCallnumFromBib = true;
+  /** flags for the values already computed for the current record */
+  private boolean itemsReady = false;
+  private boolean formatsReady = false;
+  private boolean callnumsReady = false;
+  private boolean digitalObjectsReady = false;
+  private boolean bookplatesReady = false;
+  private boolean locationFacetReady = false;
+  private boolean stanfordWorkReady = false;
+
+  /** field specifications used for every record, parsed once */
+  private static final FieldSpec F020A_SPEC = FieldSpec.getFieldSpec("020a");
+  private static final FieldSpec F020Z_SPEC = FieldSpec.getFieldSpec("020z");
+  private static final FieldSpec F655A_SPEC = FieldSpec.getFieldSpec("655a");
+  private static final FieldSpec F956U_SPEC = FieldSpec.getFieldSpec("956u");
+
   /**
    * Method from superclass allowing processing that can be done once per
    * record, rather than repeatedly for several indexing specifications,
    * especially custom methods. The default version does nothing.
+   * The values derived from the items and 856s are computed when a custom
+   * method first needs them, so they are skipped if no field uses them;
+   * the time each ensureXxx() step takes is counted in IndexTimings as per
+   * record initialization, and not in the custom method that needed it.
    * @param record - The MARC record that is being indexed.
    */
   @SuppressWarnings("unchecked")
@@ -195,83 +234,231 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
     else
       cf008date1 = null;
     date260c = MarcUtils.getDate(record);
-    f020suba = MarcUtils.getFieldList(record, "020a");
-    f020subz = MarcUtils.getFieldList(record, "020z");
-    f655suba = MarcUtils.getFieldList(record, "655a");
-    f956subu = MarcUtils.getFieldList(record, "956u");
+    f020suba = F020A_SPEC.getFieldList(record);
+    f020subz = F020Z_SPEC.getFieldList(record);
+    f655suba = F655A_SPEC.getFieldList(record);
+    f956subu = F956U_SPEC.getFieldList(record);
 
-    List<VariableField> list999df = record.getVariableFields("999");
-    has999s = !list999df.isEmpty();
-    List<VariableField> list596df = record.getVariableFields("596");
-    has596s = !list596df.isEmpty();
+    has999s = !record.getVariableFields("999").isEmpty();
+    has596s = !record.getVariableFields("596").isEmpty();
 
     setId(record);
-    boolean getBrowseCallnumFromBib = true;
-
-    itemSet.clear();
-    for (VariableField vf999 : list999df) {
-      DataField df999 = (DataField) vf999;
-      Item item = new Item(df999, id);
-      if (!item.shouldBeSkipped())
-        itemSet.add(item);
-      // we need to get a browseable call number from bib only if
-      //   all items are online, or all items have callnum of "NO CALL NUMBER"
-      if (getBrowseCallnumFromBib) {
-        if (!item.isOnline() && !item.hasIgnoredCallnum())
-          getBrowseCallnumFromBib = false;
+
+    // the values below are computed when a custom method first needs them
+    currentRecord = record;
+    itemsReady = false;
+    formatsReady = false;
+    callnumsReady = false;
+    digitalObjectsReady = false;
+    bookplatesReady = false;
+    locationFacetReady = false;
+    stanfordWorkReady = false;
+  }
+
+  /**
+   * An error computing the values of the current record in an ensureXxx()
+   *  step would only fail the field of the custom method that needed them
+   *  (see SolrIndexer.handleCustom), and leave the rest of the record to be
+   *  indexed with values missing or left from the previous record;  fail
+   *  the whole record instead, as an error in perRecordInit() does.
+   * @return the exception to throw for the error
+   */
+  private SolrMarcIndexerException recordFailure(String step, RuntimeException e) {
+    if (e instanceof SolrMarcIndexerException)
+      return (SolrMarcIndexerException) e;
+    logger.error("Unable to index record " + id + " -- " + step + ": " + e, e);
+    return new SolrMarcIndexerException(SolrMarcIndexerException.IGNORE, e.toString(), e);
+  }
+
+  /**
+   * assign itemSet to be the items of the record, without skipped locations,
+   *  if not yet done for the current record
+   */
+  private void ensureItems() {
+    if (itemsReady)
+      return;
+    itemsReady = true;
+    long start = IndexTimings.start();
+    try {
+      getBrowseCallnumFromBib = true;
+
+      itemSet.clear();
+      for (VariableField vf999 : currentRecord.getVariableFields("999")) {
+        DataField df999 = (DataField) vf999;
+        Item item = new Item(df999, id);
+        if (!item.shouldBeSkipped())
+          itemSet.add(item);
+        // we need to get a browseable call number from bib only if
+        //   all items are online, or all items have callnum of "NO CALL NUMBER"
+        if (getBrowseCallnumFromBib) {
+          if (!item.isOnline() && !item.hasIgnoredCallnum())
+            getBrowseCallnumFromBib = false;
+        }
       }
+    } catch (RuntimeException e) {
+      itemsReady = false;
+      throw recordFailure("ensureItems", e);
     }
+    IndexTimings.stopLazyInit("StanfordIndexer.ensureItems", start);
+  }
 
-    setSFXUrls(); // doesn't need record b/c they come from 999s, which are already in itemSet
-    setFullTextUrls(record);
-    setAccessMethods(record);
-    setOldFormats(record);  // vestigial for continuity in UI URLs for old formats
-    setMainFormats(record);
-    isSerial = main_formats.contains(Format.JOURNAL_PERIODICAL.toString());
-    ItemUtils.lopItemCallnums(itemSet, findTranslationMap(LOCATION_MAP_NAME), isSerial);
-    setBuildings(record);
-    setGovDocCats(record);
+  /**
+   * assign the urls, access methods and formats of the current record,
+   *  if not yet done.  Access methods are completed by ensureDigitalObjects()
+   */
+  private void ensureFormats() {
+    if (formatsReady)
+      return;
+    ensureItems();
+    formatsReady = true;
+    long start = IndexTimings.start();
+    try {
+      Record record = currentRecord;
 
-    if (getBrowseCallnumFromBib) {
-      // get a call number from the bib fields, if there is one
-      boolean isGovDoc = !govDocCats.isEmpty();
-      CallNumUtils.setCallnumsFromBib(record, itemSet, isGovDoc);
+      setSFXUrls(); // doesn't need record b/c they come from 999s, which are already in itemSet
+      setFullTextUrls(record);
+      setAccessMethods(record);
+      setOldFormats(record);  // vestigial for continuity in UI URLs for old formats
+      setMainFormats(record);
+      isSerial = main_formats.contains(Format.JOURNAL_PERIODICAL.toString());
+    } catch (RuntimeException e) {
+      formatsReady = false;
+      throw recordFailure("ensureFormats", e);
     }
+    IndexTimings.stopLazyInit("StanfordIndexer.ensureFormats", start);
+  }
+
+  /**
+   * lop the item call numbers and assign the call number values (gov doc
+   *  categories, shelfkeys, LC and Dewey call numbers) of the current record,
+   *  if not yet done
+   */
+  private void ensureCallnums() {
+    if (callnumsReady)
+      return;
+    ensureFormats();
+    callnumsReady = true;
+    long start = IndexTimings.start();
+    try {
+      Record record = currentRecord;
 
-    setShelfkeys(record);
+      ItemUtils.lopItemCallnums(itemSet, findTranslationMap(LOCATION_MAP_NAME), isSerial);
+      setGovDocCats(record);
 
-    lcCallnums = CallNumUtils.getLCcallnums(itemSet);
-    for (String callnum : lcCallnums) {
-      if (!org.solrmarc.tools.CallNumUtils.isValidLC(callnum))
-        lcCallnums.remove(callnum);
-    }
+      if (getBrowseCallnumFromBib) {
+        // get a call number from the bib fields, if there is one
+        boolean isGovDoc = !govDocCats.isEmpty();
+        CallNumUtils.setCallnumsFromBib(record, itemSet, isGovDoc);
+      }
 
-    deweyCallnums = CallNumUtils.getDeweyNormCallnums(itemSet);
+      setShelfkeys(record);
 
-    managedPurls.clear();
-    collectionDruids.clear();
-    collectionsWithTitles.clear();
-    setDruids.clear();
-    setsWithTitles.clear();
-    collectionType = null;
-    fileId.clear();
-    bookplatesDisplay.clear();
-    fundFacet.clear();
-    locationFacet.clear();
-    stanfordWorkFacet.clear();
-    stanfordDeptFacet.clear();
-    collectionDruids.add("sirsi");
-    processManaged856s(record);
-    setBookplatesDisplay(record);
-    setFundFacet(record);
-    setLocationFacet(record);
-    addSDRfrom856s(record);
+      lcCallnums = CallNumUtils.getLCcallnums(itemSet);
+      for (Iterator<String> iter = lcCallnums.iterator(); iter.hasNext(); ) {
+        if (!org.solrmarc.tools.CallNumUtils.isValidLC(iter.next()))
+          iter.remove();
+      }
 
-    if (isStanfordDissertationOrThesis(record)) {
-      setStanfordWorkFacet(record);
-      setStanfordDeptFacet(record);
+      deweyCallnums = CallNumUtils.getDeweyNormCallnums(itemSet);
+    } catch (RuntimeException e) {
+      callnumsReady = false;
+      throw recordFailure("ensureCallnums", e);
+    }
+    IndexTimings.stopLazyInit("StanfordIndexer.ensureCallnums", start);
+  }
+
+  /**
+   * assign the buildings and the values from the 856s managed through
+   *  StanfordSync of the current record, if not yet done.  The 856s add
+   *  to the buildings and access methods.
+   */
+  private void ensureDigitalObjects() {
+    if (digitalObjectsReady)
+      return;
+    ensureFormats();
+    digitalObjectsReady = true;
+    long start = IndexTimings.start();
+    try {
+      Record record = currentRecord;
+
+      setBuildings(record);
+      managedPurls.clear();
+      collectionDruids.clear();
+      collectionsWithTitles.clear();
+      setDruids.clear();
+      setsWithTitles.clear();
+      collectionType = null;
+      fileId.clear();
+      collectionDruids.add("sirsi");
+      processManaged856s(record);
+      addSDRfrom856s(record);
+    } catch (RuntimeException e) {
+      digitalObjectsReady = false;
+      throw recordFailure("ensureDigitalObjects", e);
+    }
+    IndexTimings.stopLazyInit("StanfordIndexer.ensureDigitalObjects", start);
+  }
+
+  /**
+   * assign the digital bookplates values of the current record, if not yet done
+   */
+  private void ensureBookplates() {
+    if (bookplatesReady)
+      return;
+    bookplatesReady = true;
+    long start = IndexTimings.start();
+    try {
+      bookplatesDisplay.clear();
+      fundFacet.clear();
+      setBookplatesDisplay(currentRecord);
+      setFundFacet(currentRecord);
+    } catch (RuntimeException e) {
+      bookplatesReady = false;
+      throw recordFailure("ensureBookplates", e);
+    }
+    IndexTimings.stopLazyInit("StanfordIndexer.ensureBookplates", start);
+  }
+
+  /**
+   * assign the location facet values of the current record, if not yet done
+   */
+  private void ensureLocationFacet() {
+    if (locationFacetReady)
+      return;
+    ensureItems();
+    locationFacetReady = true;
+    long start = IndexTimings.start();
+    try {
+      locationFacet.clear();
+      setLocationFacet(currentRecord);
+    } catch (RuntimeException e) {
+      locationFacetReady = false;
+      throw recordFailure("ensureLocationFacet", e);
+    }
+    IndexTimings.stopLazyInit("StanfordIndexer.ensureLocationFacet", start);
+  }
+
+  /**
+   * assign the Stanford student work and department facet values of the
+   *  current record, if not yet done
+   */
+  private void ensureStanfordWork() {
+    if (stanfordWorkReady)
+      return;
+    stanfordWorkReady = true;
+    long start = IndexTimings.start();
+    try {
+      stanfordWorkFacet.clear();
+      stanfordDeptFacet.clear();
+      if (isStanfordDissertationOrThesis(currentRecord)) {
+        setStanfordWorkFacet(currentRecord);
+        setStanfordDeptFacet(currentRecord);
+      }
+    } catch (RuntimeException e) {
+      stanfordWorkReady = false;
+      throw recordFailure("ensureStanfordWork", e);
     }
-
+    IndexTimings.stopLazyInit("StanfordIndexer.ensureStanfordWork", start);
   }
 
 // Id Methods  -------------------- Begin --------------------------- Id Methods
@@ -313,6 +500,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public Set<String> getOldFormats(final Record record)
   {
+    ensureFormats();
     return old_formats;
   }
 
@@ -391,6 +579,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public Set<String> getMainFormats(final Record record)
   {
+    ensureFormats();
     return main_formats;
   }
 
@@ -522,6 +711,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public Set<String> getPhysicalFormats(final Record record)
   {
+    ensureDigitalObjects();
     Set<String> format538 = new HashSet<String>();
     Set<String> format3xx = new HashSet<String>();
     Set<String> format999a = new HashSet<String>();
@@ -640,6 +830,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
 
   public Set<String> getGenres(final Record record)
   {
+    ensureFormats();
     String leaderStr = record.getLeader().marshal();
     char leaderChar07 = leaderStr.charAt(7);
     char leaderChar06 = leaderStr.charAt(6);
@@ -1049,6 +1240,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
     public Set<String> getTopicAllAlphaExcept(final Record record, final String fieldSpec)
     {
+    ensureDigitalObjects();
     Set<String> resultSet = MarcUtils.getAllAlphaExcept(record, fieldSpec);
     if (buildings.contains("LANE-MED"))
       resultSet.removeAll(f655suba);
@@ -1138,6 +1330,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public Set<String> getDbAZSubjects(final Record record)
   {
+    ensureFormats();
     Set<String> subjectsSet = new LinkedHashSet<String>();
     if (main_formats.contains(Format.DATABASE_A_Z.toString())) {
       subjectsSet = MarcUtils.getFieldList(record, "099a");
@@ -1193,6 +1386,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public Set<String> getAccessMethods(final Record record)
   {
+    ensureDigitalObjects();
     return accessMethods;
   }
 
@@ -1231,6 +1425,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
      */
     public Set<String> getSFXUrls(final Record record)
     {
+      ensureFormats();
       return sfxUrls;
   }
 
@@ -1253,6 +1448,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public Set<String> getFullTextUrls(final Record record)
   {
+    ensureFormats();
     return fullTextUrls;
   }
 
@@ -1614,6 +1810,10 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
     return result.toString().trim();
   }
 
+  /** holdings related fields left out of the bib only MARCXML */
+  private static final Set<String> BIB_ONLY_OMITTED_TAGS = new HashSet<String>(Arrays.asList(
+      "852", "853", "854", "855", "863", "864", "865", "866", "867", "868", "999"));
+
   /**
    * Returns the marc record as an XML String, with the following holdings
    *  related fields removed:
@@ -1621,31 +1821,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public String bibOnlyXml(final Record record)
   {
-    // FIXME:  do I need to do a deep copy first?  Or copy over all fields except these?
-    String[] fldsToRemove = {"852", "853", "854", "855", "863", "864", "865", "866", "867", "868", "999"};
-
-    MarcFactory factory = MarcFactory.newInstance();
-    Record bibOnly = factory.newRecord(record.getLeader());
-    for (VariableField vf : record.getVariableFields())
-    {
-      if (!Arrays.asList(fldsToRemove).contains(vf.getTag()))
-        bibOnly.addVariableField(vf);
-    }
-
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    MarcWriter writer = new MarcXmlWriter(baos, "UTF-8", false);
-    writer.write(bibOnly);
-    writer.close();
-    try
-    {
-      return baos.toString("UTF-8");
-    }
-    catch (UnsupportedEncodingException e)
-    {
-      logger.error(e.getCause());
-    }
-    // very sad default, but perhaps more informative than "" or empty xml
-    return record.toString();
+    return MarcSerializer.getInstance().toMarcXml(record, BIB_ONLY_OMITTED_TAGS);
   }
 
 
@@ -1659,6 +1835,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    * @param record a marc4j Record object
    */
   public Set<String> getBuildings(final Record record) {
+    ensureDigitalObjects();
     return buildings;
   }
 
@@ -1704,6 +1881,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public String getPreferredItemBarcode(final Record record)
   {
+    ensureCallnums();
     String barcode = ItemUtils.getPreferredItemBarcode(itemSet, isSerial);
     if (barcode == null || barcode.length() == 0) {
       for (Item item : itemSet) {
@@ -1726,6 +1904,8 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public Set<String> getItemDisplay(final Record record)
   {
+    ensureCallnums();
+    ensureDigitalObjects();
 
     Set<String> result = new LinkedHashSet<String>();
     String sep = ItemUtils.SEP;
@@ -1796,6 +1976,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public Set<String> getLocalCallNums(final Record record)
   {
+    ensureCallnums();
     Set<String> result = new HashSet<String>();
     for (Item item : itemSet) {
       if (!item.hasShelbyLoc()
@@ -1839,6 +2020,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public Set<String> getCallNumHierarchVals(final Record record, String separator, String mapName)
   {
+    ensureCallnums();
     try
     {
       loadTranslationMap(null, mapName + ".properties");
@@ -1933,6 +2115,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    * @param record a marc4j Record object
    */
   public Set<String> getShelfkeys(final Record record) {
+    ensureCallnums();
     if (shelfkeys == null || shelfkeys.size() == 0)
       setShelfkeys(record);
     return shelfkeys;
@@ -1957,6 +2140,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
    */
   public Set<String> getReverseShelfkeys(final Record record)
   {
+    ensureCallnums();
     return CallNumUtils.getReverseShelfkeys(itemSet, isSerial);
   }
 
@@ -1968,6 +2152,7 @@ public class StanfordIndexer extends org.solrmarc.index.SolrIndexer
  */
 public Set<String> getBookplatesDisplay(final Record record)
 {
+  ensureBookplates();
   return bookplatesDisplay;
 }
 
@@ -1999,6 +2184,7 @@ private void setBookplatesDisplay(final Record record) {
  */
  public Set<String> getFundFacet(final Record record)
  {
+  ensureBookplates();
   return fundFacet;
  }
 
@@ -2026,6 +2212,7 @@ private void setFundFacet(final Record record) {
  */
  public Set<String> getLocationFacet(final Record record)
  {
+  ensureLocationFacet();
   return locationFacet;
  }
 
@@ -2090,6 +2277,7 @@ private void setLocationFacet(final Record record) {
    */
   public Set<String> getStanfordWorkFacet(final Record record)
   {
+    ensureStanfordWork();
     return stanfordWorkFacet;
   }
 
@@ -2192,6 +2380,7 @@ private void setLocationFacet(final Record record) {
    */
    public Set<String> getStanfordDeptFacet(final Record record)
    {
+     ensureStanfordWork();
      return stanfordDeptFacet;
    }
 
@@ -2371,6 +2560,7 @@ private void setLocationFacet(final Record record) {
    */
   public Set<String> getManagedPurls(final Record record)
   {
+    ensureDigitalObjects();
     return managedPurls;
   }
 
@@ -2389,6 +2579,7 @@ private void setLocationFacet(final Record record) {
    */
   public Set<String> getFileId(final Record record)
   {
+    ensureDigitalObjects();
     return fileId;
   }
 
@@ -2408,6 +2599,7 @@ private void setLocationFacet(final Record record) {
    */
   public Set<String> getCollectionDruids(final Record record)
   {
+    ensureDigitalObjects();
     return collectionDruids;
   }
 
@@ -2427,6 +2619,7 @@ private void setLocationFacet(final Record record) {
    */
   public Set<String> getCollectionsWithTitles(final Record record)
   {
+    ensureDigitalObjects();
     return collectionsWithTitles;
   }
 
@@ -2446,6 +2639,7 @@ private void setLocationFacet(final Record record) {
    */
   public Set<String> getSetDruids(final Record record)
   {
+    ensureDigitalObjects();
     return setDruids;
   }
 
@@ -2465,6 +2659,7 @@ private void setLocationFacet(final Record record) {
    */
   public Set<String> getSetsWithTitles(final Record record)
   {
+    ensureDigitalObjects();
     return setsWithTitles;
   }
 
@@ -2484,6 +2679,7 @@ private void setLocationFacet(final Record record) {
    */
   public String getCollectionType(final Record record)
   {
+    ensureDigitalObjects();
     return collectionType;
   }
 
@@ -5,6 +5,7 @@ import java.util.*;
 
 import org.marc4j.*;
 import org.marc4j.marc.*;
+import org.solrmarc.marc.MarcIdOffsetIndex;
 import org.solrmarc.tools.*;
 
 /**
@@ -17,7 +18,7 @@ import org.solrmarc.tools.*;
  *  removing any existing fields in the bib rec matching a desired field tag.
  *
  * Note that the Bib and MHLD file must have records in StringNaturalCompare
- *  ascending order.
+ *  ascending order, unless the MHLD file is indexed (see indexMhldFile()).
  *
  * @author Naomi Dushay, based on org.solrmarc.tools.MergeSummaryHoldings by Bob Haschart
  *
@@ -52,6 +53,9 @@ public class MergeMhldFldsIntoBibsReader  implements MarcReader
      */
     private Record currentMhldRec = null;
 
+    /** the offsets of the records in the MHLD file by id, if it has been indexed */
+    private MarcIdOffsetIndex mhldIndex = null;
+
 
     public MergeMhldFldsIntoBibsReader(String bibRecsFileName, boolean permissive, boolean toUtf8, String defaultEncoding,
             String mhldRecsFileName, String mhldFldsToMerge)
@@ -102,6 +106,19 @@ public class MergeMhldFldsIntoBibsReader  implements MarcReader
     	currentMhldRec = getNextMhld();
     }
 
+    /**
+     * Read through the MHLD file once to find the offsets of the records for
+     *  each id, so the MHLD records matching a bib record are read directly
+     *  from the file.  The bib records then need not be in the same order as
+     *  the MHLD records.
+     */
+    public void indexMhldFile()
+        throws IOException
+    {
+        if (new File(mhldRecsFileName).exists())
+            mhldIndex = new MarcIdOffsetIndex(mhldRecsFileName, true, false, "MARC8");
+    }
+
     /**
      * @return true if there is another record in the bib records file
      */
@@ -148,6 +165,9 @@ public class MergeMhldFldsIntoBibsReader  implements MarcReader
      */
     private Record getMatchingMhldRec(String bibRecID)
     {
+        if (mhldIndex != null)
+            return getIndexedMhldRec(bibRecID);
+
     	Record result = null;
 
     	int compareResult = ID_COMPARATOR.compare(currentMhldRec.getControlNumber(), bibRecID);
@@ -176,6 +196,27 @@ public class MergeMhldFldsIntoBibsReader  implements MarcReader
     }
 
 
+    /**
+     * Get the records in the indexed MHLD file with an id matching the bibId,
+     *  combined into one record as the MarcCombiningReader does for
+     *  consecutive records with the same id.
+     * @param bibRecID - the id to match
+     * @return the combined MHLD record, or null if there are none matching
+     */
+    private Record getIndexedMhldRec(String bibRecID)
+    {
+        Record result = null;
+        for (Record mhldRec : mhldIndex.getRecords(bibRecID))
+        {
+            if (result == null)
+                result = mhldRec;
+            else
+                result = MarcUtils.combineRecords(result, mhldRec, mhldFldsToMerge);
+        }
+        return result;
+    }
+
+
     /**
      * NOTE: only call this method if:
      *  1) you are sure there is a next record in the file
@@ -235,12 +276,27 @@ public class MergeMhldFldsIntoBibsReader  implements MarcReader
      */
     public static void mergeMhldRecsIntoBibRecsAsStdOut(String bibRecsFileName, String mhldRecsFileName)
     	throws IOException
+    {
+        mergeMhldRecsIntoBibRecsAsStdOut(bibRecsFileName, mhldRecsFileName, false);
+    }
+
+    /**
+     * as mergeMhldRecsIntoBibRecsAsStdOut(bibRecsFileName, mhldRecsFileName),
+     *  but the MHLD file may be indexed first (see indexMhldFile())
+     * @param bibRecsFileName - the name of the file containing MARC Bibliographic records
+     * @param mhldRecsFileName - the name of the file containing MARC MHLD records
+     * @param indexMhlds - true to index the MHLD file, so the bib records need not be in the same order
+     */
+    public static void mergeMhldRecsIntoBibRecsAsStdOut(String bibRecsFileName, String mhldRecsFileName, boolean indexMhlds)
+    	throws IOException
     {
         boolean permissive = true;
         boolean toUtf8 = false;
         String defaultEncoding = "MARC8";
         MergeMhldFldsIntoBibsReader merger = new MergeMhldFldsIntoBibsReader(bibRecsFileName, permissive, toUtf8, defaultEncoding,
                                                                mhldRecsFileName, DEFAULT_MHLD_FLDS_TO_MERGE);
+        if (indexMhlds)
+            merger.indexMhldFile();
         MarcWriter writer = new MarcSplitStreamWriter(System.out, "ISO-8859-1", 70000, "999");
         while (merger.hasNext())
         {
@@ -257,17 +313,19 @@ public class MergeMhldFldsIntoBibsReader  implements MarcReader
      *  merge selected fields from the MHLD records into matching MARC Bib records.
      *  Ignores MHLD records with no matching bib record.
      *  Selected fields are defined in class constant mhldFldsToMerge.
-     * Note that the MHLD file must have records in StringNaturalCompare ascending order.
+     * Note that the MHLD file must have records in StringNaturalCompare ascending order,
+     *  unless it is indexed first (-i).
      * @param args - command line arguments
      */
     public static void main(String[] args)
     {
         String bibRecsFileName = null;
     	String mhldRecsFileName = null;
+        boolean indexMhlds = false;
 
         int argoffset = 0;
         if (args.length == 0)
-            System.err.println("Usage: edu.stanford.MergeMhldFldsIntoBibs  -s marcMhldFile.mrc  marcBibsFile.mrc");
+            System.err.println("Usage: edu.stanford.MergeMhldFldsIntoBibs  [-i] -s marcMhldFile.mrc  marcBibsFile.mrc");
 
         while (argoffset < args.length && args[argoffset].startsWith("-"))
         {
@@ -276,6 +334,11 @@ public class MergeMhldFldsIntoBibsReader  implements MarcReader
                 mhldRecsFileName = args[1+argoffset];
                 argoffset += 2;
             }
+            else if (args[argoffset].equals("-i"))
+            {
+                indexMhlds = true;
+                argoffset++;
+            }
         }
 
         // last argument should be the name of a file containing marc bib records
@@ -286,7 +349,7 @@ public class MergeMhldFldsIntoBibsReader  implements MarcReader
 
         try
         {
-			mergeMhldRecsIntoBibRecsAsStdOut(bibRecsFileName, mhldRecsFileName);
+			mergeMhldRecsIntoBibRecsAsStdOut(bibRecsFileName, mhldRecsFileName, indexMhlds);
 		}
         catch (IOException e) {
 			e.printStackTrace();
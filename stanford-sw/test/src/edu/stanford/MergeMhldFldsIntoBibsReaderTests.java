@@ -297,6 +297,37 @@ public class MergeMhldFldsIntoBibsReaderTests
 	    assertEquals("Wrong number of 866s", 1, mergedRec.getVariableFields("866").size());
     }
 
+    /**
+     * indexing the MHLD file should give the same merged records as reading it
+     *  in order, and should find the matches when the bibs are out of order
+     */
+@Test
+    public void testIndexedMhldFile()
+			throws IOException
+    {
+		String bibMhldFileNames[][] = { {"mhldMergeBibs46.mrc", "mhldMergeMhlds235.mrc"},
+		                                {"mhldMergeBibs346.mrc", "mhldMergeMhlds34.mrc"},
+		                                {"mhldMergeBibs134.mrc", "mhldMergeMhlds345.mrc"},
+		                                {"mhldMergeBibs46.mrc", "mhldMergeMhlds236.mrc"},
+		                                {"mhldMergeBibs134.mrc", "mhldMergeMhlds1Mult.mrc"},
+		                                {"mhldMergeBibs4Mult.mrc", "mhldMergeMhlds4Mult.mrc"} };
+		for (String fileNames[] : bibMhldFileNames)
+		{
+			String bibFilePath = localTestDataParentPath + File.separator + fileNames[0];
+			String mhldFilePath = localTestDataParentPath + File.separator + fileNames[1];
+		    Map<String, Record> expectedRecs = mergeRecordsAsMap(bibFilePath, mhldFilePath);
+		    assertSameRecords(expectedRecs, mergeRecordsAsMap(bibFilePath, mhldFilePath, true));
+
+		    // bibs with the same id would be combined in a different order
+		    if (!fileNames[0].contains("Mult"))
+		    {
+		    	String reversedBibFilePath = writeReversedRecords(bibFilePath);
+		    	assertSameRecords(expectedRecs, mergeRecordsAsMap(reversedBibFilePath, mhldFilePath, true));
+		    	new File(reversedBibFilePath).delete();
+		    }
+		}
+    }
+
     /**
      * the MHLD fields should only be merged into ONE of the bibs, if the bibs will be combined?
      * Or it's probably ok if they are in each bib, as they should be removed from the bib after processing?
@@ -610,6 +641,34 @@ String MERGED_BIB335_OUTPUT_NO_UMLAUT[] = {
 
 // supporting methods for testing ----------------------------------------------
 
+    private void assertSameRecords(Map<String, Record> expectedRecs, Map<String, Record> actualRecs)
+    {
+        assertEquals(expectedRecs.keySet(), actualRecs.keySet());
+        for (String id : expectedRecs.keySet())
+        	RecordTestingUtils.assertEquals(expectedRecs.get(id), actualRecs.get(id));
+    }
+
+    /**
+     * write the records in the file, in reverse order, to a temporary file
+     * @return the name of the temporary file
+     */
+    private String writeReversedRecords(String marcFileName)
+    		throws IOException
+    {
+        List<byte[]> records = new ArrayList<byte[]>();
+        RawRecordReader rawRecRdr = new RawRecordReader(new FileInputStream(new File(marcFileName)), false);
+        while (rawRecRdr.hasNext())
+        	records.add(rawRecRdr.next().getRecordBytes());
+
+        File reversedFile = File.createTempFile("reversed", ".mrc");
+        reversedFile.deleteOnExit();
+        OutputStream out = new FileOutputStream(reversedFile);
+        for (int i = records.size() - 1; i >= 0; i--)
+        	out.write(records.get(i));
+        out.close();
+        return reversedFile.getPath();
+    }
+
 	/**
      * @param bibRecsFileName name of the file containing Bib records, relative to the localTestDataParentPath
      * @param mhldRecsFileName name of the file containing MHLD records, relative to the localTestDataParentPath
@@ -642,6 +701,17 @@ String MERGED_BIB335_OUTPUT_NO_UMLAUT[] = {
 	 */
 	public static Map<String, Record> mergeRecordsAsMap(String bibRecsFileName, String mhldRecsFileName)
 		throws IOException
+	{
+		return mergeRecordsAsMap(bibRecsFileName, mhldRecsFileName, false);
+	}
+
+	/**
+	 * as mergeRecordsAsMap(bibRecsFileName, mhldRecsFileName), but the MHLD
+	 *  file may be indexed first
+	 * @param indexMhlds - true to index the MHLD file
+	 */
+	public static Map<String, Record> mergeRecordsAsMap(String bibRecsFileName, String mhldRecsFileName, boolean indexMhlds)
+		throws IOException
 	{
 		Map<String, Record> results = new HashMap<String, Record>();
 
@@ -650,6 +720,8 @@ String MERGED_BIB335_OUTPUT_NO_UMLAUT[] = {
 	    String defaultEncoding = "MARC8";
 	    MergeMhldFldsIntoBibsReader merger = new MergeMhldFldsIntoBibsReader(bibRecsFileName, permissive, toUtf8, defaultEncoding,
 	                                                           mhldRecsFileName, MergeMhldFldsIntoBibsReader.DEFAULT_MHLD_FLDS_TO_MERGE);
+	    if (indexMhlds)
+	    	merger.indexMhldFile();
 
 	    while (merger.hasNext())
 	    {